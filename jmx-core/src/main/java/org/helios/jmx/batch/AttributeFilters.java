@@ -24,9 +24,13 @@
  */
 package org.helios.jmx.batch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -40,12 +44,23 @@ import javax.management.ObjectName;
 import javax.management.QueryExp;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
 
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 
 /**
  * <p>Title: AttributeFilters</p>
- * <p>Description: </p> 
+ * <p>Description: Compiles and caches the attribute filters that select which attributes of an MBean are read in a batch.
+ * A filter is a two character prefix identifying the {@link BatchCriteria} followed by the criteria's expression:<ul>
+ * 	<li><b><code>a:name,name/key,...</code></b>: {@link BatchCriteria#ATTRIBUTE_NAMES} the named attributes and composite keys</li>
+ * 	<li><b><code>r:regex</code></b>: {@link BatchCriteria#REGEX_MATCH} the attributes and composite keys whose name or <b><code>name/key</code></b> matches the regex</li>
+ * 	<li><b><code>t:type,type,...</code></b>: {@link BatchCriteria#VALUE_TYPE} the attributes and composite keys whose type is assignable to one of the 
+ * 		named types. Primitive names match their wrapper and <b><code>java.lang</code></b> types may be unqualified, so <b><code>t:Number</code></b> selects all numerics</li>
+ * 	<li><b><code>*:</code></b>: {@link BatchCriteria#ALL_ATTRIBUTES} all the attributes</li>
+ * 	<li><b><code>n:</code></b>: all the numeric attributes and composite keys, the same as <b><code>t:Number</code></b></li>
+ * </ul></p>
+ * <p>Compiled filters are cached by trimmed filter string, least recently used first out once {@link #MAX_COMPILED_FILTERS} are cached, and each remembers the attributes it selected from each MBean's cached type map, 
+ * so selecting the attributes of an MBean already seen by a filter costs one hash lookup.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.jmx.batch.AttributeFilters</code></p>
@@ -56,17 +71,26 @@ public class AttributeFilters {
 	private static final Pattern COMP_NAME_SPLITTER = Pattern.compile("/");
 	private static final Pattern COMMA_SPLITTER = Pattern.compile(",");
 	private static final NonBlockingHashMap<ObjectName, Map<String, Class<?>>> objectNameTypeMappings = new NonBlockingHashMap<ObjectName, Map<String, Class<?>>>(); 
-	private static final NonBlockingHashMap<ObjectName, Map<String, Class<?>>> objectNameNumericTypeMappings = new NonBlockingHashMap<ObjectName, Map<String, Class<?>>>();
-	private static final IAttributeFilter ALL_FILTER = new AllAttributes();
-	private static final IAttributeFilter NAMES_FILTER = new AttributeNameParser();
-	private static final IAttributeFilter NUMERICS_FILTER = new NumericAttributes();
+	/** The maximum number of compiled filters cached */
+	public static final int MAX_COMPILED_FILTERS = 256;
+	/** The compiled filters keyed by trimmed filter string, in access order so the least recently used is evicted when full */
+	private static final Map<String, CompiledFilter> compiledFilters = Collections.synchronizedMap(new LinkedHashMap<String, CompiledFilter>(64, 0.75f, true) {
+		private static final long serialVersionUID = -2453236720513834113L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledFilter> eldest) {
+			return size() > MAX_COMPILED_FILTERS;
+		}
+	});
 
 	public static final Map<String, Class<?>> primitives;
 	public static final Map<String, Class<?>> primitiveNumerics;
+	/** The wrapper classes keyed by primitive class */
+	public static final Map<Class<?>, Class<?>> wrappers;
 	
 	static {
 		Map<String, Class<?>> tmp = new HashMap<String, Class<?>>();
 		Map<String, Class<?>> tmp2 = new HashMap<String, Class<?>>();
+		Map<Class<?>, Class<?>> tmp3 = new HashMap<Class<?>, Class<?>>();
 		tmp.put(Byte.TYPE.getName(), Byte.TYPE);
 		tmp2.put(Byte.TYPE.getName(), Byte.TYPE);
 		tmp.put(Boolean.TYPE.getName(), Boolean.TYPE);
@@ -83,20 +107,94 @@ public class AttributeFilters {
 		tmp2.put(Float.TYPE.getName(), Float.TYPE);
 		tmp2.put(Long.TYPE.getName(), Long.TYPE);
 		tmp2.put(Double.TYPE.getName(), Double.TYPE);
+		
+		tmp3.put(Byte.TYPE, Byte.class);
+		tmp3.put(Boolean.TYPE, Boolean.class);
+		tmp3.put(Character.TYPE, Character.class);
+		tmp3.put(Short.TYPE, Short.class);
+		tmp3.put(Integer.TYPE, Integer.class);
+		tmp3.put(Float.TYPE, Float.class);
+		tmp3.put(Long.TYPE, Long.class);
+		tmp3.put(Double.TYPE, Double.class);
 
 		primitives = Collections.unmodifiableMap(tmp);
 		primitiveNumerics = Collections.unmodifiableMap(tmp2);
+		wrappers = Collections.unmodifiableMap(tmp3);
 	}
 	
+	/**
+	 * Returns the compiled filter for the passed filter string
+	 * @param attributes The filter string
+	 * @return the compiled filter
+	 */
 	public static IAttributeFilter filter(String attributes) {
+		return compile(attributes);
+	}
+	
+	/**
+	 * Returns the compiled filter for the passed filter string, compiling and caching it on first use
+	 * @param attributes The filter string
+	 * @return the compiled filter
+	 */
+	public static CompiledFilter compile(String attributes) {
 		if(attributes==null || attributes.trim().length() < 2) {
 			throw new RuntimeException("Invalid attribute filter [" + attributes + "]");
 		}
-		String prefix = attributes.substring(0, 2).toLowerCase();
-		if(AllAttributes.prefix.equals(prefix)) return ALL_FILTER; 
-		if(NumericAttributes.prefix.equals(prefix)) return NUMERICS_FILTER;
-		if(AttributeNameParser.prefix.equals(prefix)) return NAMES_FILTER;
-		throw new RuntimeException("Unrecognized attribute filter [" + attributes + "]");
+		final String filter = attributes.trim();
+		CompiledFilter compiled = compiledFilters.get(filter);
+		if(compiled==null) {
+			final String prefix = filter.substring(0, 2).toLowerCase();
+			final String expression = filter.substring(2);
+			try {
+				if(AllAttributes.prefix.equals(prefix)) compiled = new AllAttributes(filter);
+				else if(NumericAttributes.prefix.equals(prefix)) compiled = new NumericAttributes(filter);
+				else if(AttributeNameParser.prefix.equals(prefix)) compiled = new AttributeNameParser(filter, expression);
+				else if(RegexAttributes.prefix.equals(prefix)) compiled = new RegexAttributes(filter, expression);
+				else if(TypeAttributes.prefix.equals(prefix)) compiled = new TypeAttributes(filter, expression);
+			} catch (Exception ex) {
+				throw new RuntimeException("Invalid attribute filter [" + attributes + "]", ex);
+			}
+			if(compiled==null) throw new RuntimeException("Unrecognized attribute filter [" + attributes + "]");
+			synchronized(compiledFilters) {
+				final CompiledFilter prior = compiledFilters.get(filter);
+				if(prior!=null) compiled = prior;
+				else compiledFilters.put(filter, compiled);
+			}
+		}
+		return compiled;
+	}
+	
+	/**
+	 * Discards the cached type maps and filter selections for the passed ObjectName. 
+	 * Called when an MBean is registered, unregistered or its MBeanInfo changes.
+	 * @param objectName The ObjectName of the MBean to invalidate
+	 */
+	public static void invalidate(ObjectName objectName) {
+		objectNameTypeMappings.remove(objectName);
+		final CompiledFilter[] filters;
+		synchronized(compiledFilters) {
+			filters = compiledFilters.values().toArray(new CompiledFilter[compiledFilters.size()]);
+		}
+		for(CompiledFilter compiled: filters) {
+			compiled.invalidate(objectName);
+		}
+	}
+	
+	/**
+	 * Returns the number of cached compiled filters
+	 * @return the number of cached compiled filters
+	 */
+	public static int getCompiledFilterCount() {
+		return compiledFilters.size();
+	}
+	
+	/**
+	 * Indicates if the passed type is numeric
+	 * @param clazz The type to test
+	 * @return true if the type is a numeric primitive or a Number
+	 */
+	static boolean isNumeric(Class<?> clazz) {
+		return Number.class.isAssignableFrom(clazz) || primitiveNumerics.containsKey(clazz.getName());
 	}
 	
 	private AttributeFilters() {
@@ -108,73 +206,256 @@ public class AttributeFilters {
 		public Map<ObjectName, Map<String, Object>> getAttributes(MBeanServer server, ObjectName objectName, QueryExp queryExp, String filter);
 	}
 	
-	public static class AttributeNameParser implements IAttributeFilter {
-		public static final String prefix = "a:";
-
+	/**
+	 * <p>Title: CompiledFilter</p>
+	 * <p>Description: Base class for compiled filters. Selects the attributes of an MBean by testing each entry of its cached type map once,
+	 * then caches the selection by ObjectName.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.AttributeFilters.CompiledFilter</code></p>
+	 */
+	public static abstract class CompiledFilter implements IAttributeFilter {
+		/** The filter string */
+		protected final String filter;
+		/** The criteria implemented by this filter */
+		protected final BatchCriteria criteria;
+		/** The selected attribute names keyed by ObjectName */
+		private final NonBlockingHashMap<ObjectName, String[]> selections = new NonBlockingHashMap<ObjectName, String[]>();
+		/** The distinct selections, so MBeans with the same selected attributes share one array */
+		private final NonBlockingHashMap<List<String>, String[]> distinct = new NonBlockingHashMap<List<String>, String[]>();
+		
+		/**
+		 * Creates a new CompiledFilter
+		 * @param filter The filter string
+		 * @param criteria The criteria implemented by this filter
+		 */
+		protected CompiledFilter(String filter, BatchCriteria criteria) {
+			this.filter = filter;
+			this.criteria = criteria;
+		}
+		
+		/**
+		 * Indicates if the passed attribute or composite key is selected by this filter
+		 * @param name The attribute name or <b><code>name/key</code></b> composite path
+		 * @param type The attribute or composite key type
+		 * @return true if selected, false otherwise
+		 */
+		protected abstract boolean accept(String name, Class<?> type);
+		
+		/**
+		 * Returns the names of the attributes and composite keys of the passed MBean selected by this filter
+		 * @param server The MBeanServer
+		 * @param objectName The MBean's ObjectName
+		 * @return the selected names, sorted. The returned array is shared by all MBeans with the same selection and must not be modified.
+		 */
+		public String[] select(MBeanServer server, ObjectName objectName) {
+			String[] selected = selections.get(objectName);
+			if(selected==null) {
+				final List<String> names = new ArrayList<String>();
+				for(Map.Entry<String, Class<?>> entry: getAttrTypes(server, objectName).entrySet()) {
+					if(accept(entry.getKey(), entry.getValue())) names.add(entry.getKey());
+				}
+				Collections.sort(names);
+				selected = distinct.get(names);
+				if(selected==null) {
+					selected = names.toArray(new String[names.size()]);
+					final String[] shared = distinct.putIfAbsent(names, selected);
+					if(shared!=null) selected = shared;
+				}
+				final String[] prior = selections.putIfAbsent(objectName, selected);
+				if(prior!=null) selected = prior;
+			}
+			return selected;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.batch.AttributeFilters.IAttributeFilter#getAttributes(javax.management.MBeanServer, javax.management.ObjectName, javax.management.QueryExp, java.lang.String)
+		 */
 		@Override
 		public Map<ObjectName, Map<String, Object>> getAttributes(MBeanServer server, ObjectName objectName, QueryExp queryExp, String filter) {
-			Map<ObjectName, Map<String, Object>> results = new HashMap<ObjectName, Map<String, Object>>();
-			if(prefix.equals(filter.substring(0, 2).toLowerCase())) {
-				filter = filter.substring(2);
-			}
-			String[] splitNames = COMMA_SPLITTER.split(filter);
-			Set<String> names = new HashSet<String>(splitNames.length);
-			for(String s: splitNames) {
-				if(!s.trim().isEmpty()) {
-					names.add(s.trim());
-				}
+			if(filter!=null && !this.filter.equals(filter.trim())) {
+				return compile(filter).getAttributes(server, objectName, queryExp, filter);
 			}
+			Map<ObjectName, Map<String, Object>> results = new HashMap<ObjectName, Map<String, Object>>();
 			try {
 				for(ObjectName on: server.queryNames(objectName, queryExp)) {
-					Map<String, Class<?>> typeMap = getAttrTypes(server, objectName);
-					Set<String> keySet = new HashSet<String>(typeMap.keySet());
-					keySet.retainAll(names);
-					results.put(on, getAttributeValues(server, on, keySet));
-				}				
+					results.put(on, getAttributeValues(server, on, new HashSet<String>(Arrays.asList(select(server, on)))));
+				}
 				return results;
 			} catch (Exception ex) {
-				throw new RuntimeException("Failed to get attribute list for filter [" + objectName + "/" + filter + "]", ex);
+				throw new RuntimeException("Failed to get attribute list for filter [" + objectName + "/" + this.filter + "]", ex);
+			}
+		}
+		
+		/**
+		 * Discards the selection for the passed ObjectName, and the distinct selection it shared if no other MBean still uses it
+		 * @param objectName The ObjectName of the MBean to invalidate
+		 */
+		void invalidate(ObjectName objectName) {
+			final String[] removed = selections.remove(objectName);
+			if(removed==null) return;
+			for(String[] selected: selections.values()) {
+				if(selected==removed) return;
 			}
+			distinct.remove(Arrays.asList(removed), removed);
+		}
+		
+		/**
+		 * Returns the number of distinct selections cached by this filter
+		 * @return the number of distinct selections
+		 */
+		public int getDistinctCount() {
+			return distinct.size();
 		}
 		
+		/**
+		 * Returns the filter string
+		 * @return the filter string
+		 */
+		public String getFilter() {
+			return filter;
+		}
+		
+		/**
+		 * Returns the criteria implemented by this filter
+		 * @return the criteria
+		 */
+		public BatchCriteria getCriteria() {
+			return criteria;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return new StringBuilder(getClass().getSimpleName()).append(" [").append(criteria).append(": ").append(filter).append("]").toString();
+		}
 	}
 	
-	public static class AllAttributes implements IAttributeFilter {
-		public static final String prefix = "*:";
+	public static class AttributeNameParser extends CompiledFilter {
+		public static final String prefix = "a:";
+		/** The selected names */
+		private final Set<String> names;
+
+		/**
+		 * Creates a new AttributeNameParser
+		 * @param filter The filter string
+		 * @param expression The comma separated attribute names and composite paths
+		 */
+		AttributeNameParser(String filter, String expression) {
+			super(filter, BatchCriteria.ATTRIBUTE_NAMES);
+			String[] splitNames = COMMA_SPLITTER.split(expression);
+			names = new HashSet<String>(splitNames.length);
+			for(String s: splitNames) {
+				if(!s.trim().isEmpty()) {
+					names.add(s.trim());
+				}
+			}
+		}
 
+		@Override
+		protected boolean accept(String name, Class<?> type) {
+			return names.contains(name);
+		}
+	}
 	
+	public static class RegexAttributes extends CompiledFilter {
+		public static final String prefix = "r:";
+		/** The pattern matched against attribute names and composite paths */
+		private final Pattern pattern;
+		
+		/**
+		 * Creates a new RegexAttributes
+		 * @param filter The filter string
+		 * @param expression The regex
+		 */
+		RegexAttributes(String filter, String expression) {
+			super(filter, BatchCriteria.REGEX_MATCH);
+			pattern = Pattern.compile(expression);
+		}
+
 		@Override
-		public Map<ObjectName, Map<String, Object>> getAttributes(MBeanServer server, ObjectName objectName, QueryExp queryExp, String filter) {
-			Map<ObjectName, Map<String, Object>> results = new HashMap<ObjectName, Map<String, Object>>();
-			try {
-				for(ObjectName on: server.queryNames(objectName, queryExp)) {
-					Map<String, Class<?>> typeMap = getAttrTypes(server, objectName);
-					results.put(on, getAttributeValues(server, on, typeMap.keySet()));
+		protected boolean accept(String name, Class<?> type) {
+			return pattern.matcher(name).matches();
+		}
+	}
+	
+	public static class TypeAttributes extends CompiledFilter {
+		public static final String prefix = "t:";
+		/** The selected types */
+		private final Class<?>[] types;
+		
+		/**
+		 * Creates a new TypeAttributes
+		 * @param filter The filter string
+		 * @param expression The comma separated type names
+		 * @throws ClassNotFoundException thrown if a type name cannot be resolved
+		 */
+		TypeAttributes(String filter, String expression) throws ClassNotFoundException {
+			super(filter, BatchCriteria.VALUE_TYPE);
+			final List<Class<?>> resolved = new ArrayList<Class<?>>();
+			for(String s: COMMA_SPLITTER.split(expression)) {
+				final String name = s.trim();
+				if(name.isEmpty()) continue;
+				Class<?> clazz = primitives.get(name);
+				if(clazz!=null) {
+					clazz = wrappers.get(clazz);
+				} else if(name.indexOf('.')==-1) {
+					clazz = Class.forName("java.lang." + name);
+				} else {
+					clazz = Class.forName(name);
 				}
-				return results;
-			} catch (Exception ex) {
-				throw new RuntimeException("Failed to get attribute list for filter [" + objectName + "/" + filter + "]", ex);
+				resolved.add(clazz);
 			}
-		}		
+			if(resolved.isEmpty()) throw new IllegalArgumentException("No types specified", new Throwable());
+			types = resolved.toArray(new Class<?>[resolved.size()]);
+		}
+
+		@Override
+		protected boolean accept(String name, Class<?> type) {
+			final Class<?> boxed = type.isPrimitive() ? wrappers.get(type) : type;
+			for(Class<?> clazz: types) {
+				if(clazz.isAssignableFrom(boxed)) return true;
+			}
+			return false;
+		}
 	}
 	
-	public static class NumericAttributes implements IAttributeFilter {
+	public static class AllAttributes extends CompiledFilter {
+		public static final String prefix = "*:";
+
+		/**
+		 * Creates a new AllAttributes
+		 * @param filter The filter string
+		 */
+		AllAttributes(String filter) {
+			super(filter, BatchCriteria.ALL_ATTRIBUTES);
+		}
+	
+		@Override
+		protected boolean accept(String name, Class<?> type) {
+			return name.indexOf('/')==-1;
+		}
+	}
+	
+	public static class NumericAttributes extends CompiledFilter {
 		public static final String prefix = "n:";
 
+		/**
+		 * Creates a new NumericAttributes
+		 * @param filter The filter string
+		 */
+		NumericAttributes(String filter) {
+			super(filter, BatchCriteria.VALUE_TYPE);
+		}
 
 		@Override
-		public Map<ObjectName, Map<String, Object>> getAttributes(MBeanServer server, ObjectName objectName, QueryExp queryExp, String filter) {
-			Map<ObjectName, Map<String, Object>> results = new HashMap<ObjectName, Map<String, Object>>();
-			try {
-				for(ObjectName on: server.queryNames(objectName, queryExp)) {
-					Map<String, Class<?>> typeMap = getNumericAttrTypes(server, on);
-					results.put(on, getAttributeValues(server, on, typeMap.keySet()));
-				}
-				return results;
-			} catch (Exception ex) {
-				throw new RuntimeException("Failed to get numeric attribute list for filter [" + objectName + "/" + filter + "]", ex);
-			}
-		}		
+		protected boolean accept(String name, Class<?> type) {
+			return isNumeric(type);
+		}
 	}	
 	
 	
@@ -224,100 +505,72 @@ public class AttributeFilters {
 	}
 
 	/**
-	 * Returns a map of the attribute name to type mappings for the MBean in the passed MBeanServer identified by the passed ObjectName
+	 * Returns a map of the attribute name to type mappings for the MBean in the passed MBeanServer identified by the passed ObjectName.
+	 * Composite attributes are mapped along with each of their keys as <b><code>name/key</code></b>. Types that cannot be loaded are mapped as Object.
 	 * @param server The MBeanServer
 	 * @param objectName The MBean's ObjectName
 	 * @return a map of attribute to type mappings
 	 */
 	public static Map<String, Class<?>> getAttrTypes(MBeanServer server, ObjectName objectName) {
-		Map<String, Class<?>> map =  objectNameTypeMappings.get(objectName);
+		Map<String, Class<?>> map = objectNameTypeMappings.get(objectName);
 		if(map==null) {
-			synchronized(objectNameTypeMappings) {
-				map =  objectNameTypeMappings.get(objectName);
-				if(map==null) {
-					map = new HashMap<String, Class<?>>();
-					try {
-						MBeanInfo info = server.getMBeanInfo(objectName);			
-						ClassLoader classLoader = server.getClassLoaderFor(objectName);
-						for(MBeanAttributeInfo ainfo: info.getAttributes()) {
-							String name = ainfo.getName();
-							String type = ainfo.getType();
-							Class<?> clazz = primitives.get(type);
-							if(clazz==null) clazz = Class.forName(type, true, classLoader);
-							if(CompositeData.class.isAssignableFrom(clazz)) {
-								CompositeData cd = (CompositeData)server.getAttribute(objectName, name);
-								CompositeType ct = cd.getCompositeType();
-								for(String key: ct.keySet()) {
-									name = name + "/" + key;
-									clazz = primitives.get(ct.getType(key).getClassName());
-									if(clazz==null) clazz = Class.forName(ct.getType(key).getClassName(), true, classLoader);
-								}
-							}
-							map.put(name,  clazz);
-						}
-						objectNameTypeMappings.put(objectName, map);
-						return map;
-					} catch (Exception ex) {
-						throw new RuntimeException("Failed to get Attribute Types for objectName [" + objectName + "]");
-					}									
-				}				
-			}
+			// Computed without a lock since composite types may be read from the MBean. A concurrent caller's mappings are kept if they were stored first.
+			map = computeAttrTypes(server, objectName);
+			final Map<String, Class<?>> existing = objectNameTypeMappings.putIfAbsent(objectName, map);
+			if(existing!=null) map = existing;
 		}
 		return map;
 	}
 	
-	//objectNameNumericTypeMappings
 	/**
-	 * Returns a map of the numeric attribute name to type mappings for the MBean in the passed MBeanServer identified by the passed ObjectName
+	 * Builds the attribute name to type mappings for the MBean in the passed MBeanServer identified by the passed ObjectName
 	 * @param server The MBeanServer
 	 * @param objectName The MBean's ObjectName
 	 * @return a map of attribute to type mappings
 	 */
-	public static Map<String, Class<?>> getNumericAttrTypes(MBeanServer server, ObjectName objectName) {
-		Map<String, Class<?>> map =  objectNameNumericTypeMappings.get(objectName);
-		if(map==null) {
-			synchronized(objectNameNumericTypeMappings) {
-				map =  objectNameNumericTypeMappings.get(objectName);
-				if(map==null) {
-					map = new HashMap<String, Class<?>>();
-					try {
-						MBeanInfo info = server.getMBeanInfo(objectName);			
-						ClassLoader classLoader = server.getClassLoaderFor(objectName);
-						for(MBeanAttributeInfo ainfo: info.getAttributes()) {
-							String name = ainfo.getName();
-							String type = ainfo.getType();
-							Class<?> clazz = primitives.get(type);
-							if(clazz==null) clazz = Class.forName(type, true, classLoader);
-							if(Number.class.isAssignableFrom(clazz) || primitiveNumerics.containsKey(clazz.getName())) {
-								map.put(name,  (Class<?>) clazz);
-								continue;
-							} 
-							
-							if(CompositeData.class.isAssignableFrom(clazz)) {
-								CompositeData cd = (CompositeData)server.getAttribute(objectName, name);
-								if(cd==null) continue;
-								CompositeType ct = cd.getCompositeType();
-								for(String key: ct.keySet()) {
-									name = name + "/" + key;
-									clazz = primitives.get(ct.getType(key).getClassName());
-									if(clazz==null) clazz = Class.forName(ct.getType(key).getClassName(), true, classLoader);
-									if(Number.class.isAssignableFrom(clazz) || primitiveNumerics.containsKey(clazz.getName())) {
-										map.put(name,  (Class<?>) clazz);
-									}
-								}
-							}
-							
-						}
-						objectNameNumericTypeMappings.put(objectName, map);
-						return map;
-					} catch (Exception ex) {
-						throw new RuntimeException("Failed to get Numeric Attribute Types for objectName [" + objectName + "]", ex);
-					}									
-				}				
+	private static Map<String, Class<?>> computeAttrTypes(MBeanServer server, ObjectName objectName) {
+		final Map<String, Class<?>> map = new HashMap<String, Class<?>>();
+		try {
+			MBeanInfo info = server.getMBeanInfo(objectName);			
+			ClassLoader classLoader = server.getClassLoaderFor(objectName);
+			for(MBeanAttributeInfo ainfo: info.getAttributes()) {
+				String name = ainfo.getName();
+				Class<?> clazz = type(ainfo.getType(), classLoader);
+				map.put(name,  clazz);
+				if(CompositeData.class.isAssignableFrom(clazz) && ainfo.isReadable()) {
+					// The published OpenType if there is one, otherwise the type of the current value
+					final OpenType<?> openType = AttributeReadPlan.openType(ainfo);
+					CompositeType ct = openType instanceof CompositeType ? (CompositeType)openType : null;
+					if(ct==null) {
+						final CompositeData cd = (CompositeData)server.getAttribute(objectName, name);
+						if(cd==null) continue;
+						ct = cd.getCompositeType();
+					}
+					for(String key: ct.keySet()) {
+						map.put(name + "/" + key, type(ct.getType(key).getClassName(), classLoader));
+					}
+				}
 			}
+			return map;
+		} catch (Exception ex) {
+			throw new RuntimeException("Failed to get Attribute Types for objectName [" + objectName + "]", ex);
 		}
-		return map;
 	}
 	
+	/**
+	 * Loads the named type
+	 * @param type The type name
+	 * @param classLoader The MBean's class loader
+	 * @return the type, or Object if it cannot be loaded
+	 */
+	private static Class<?> type(String type, ClassLoader classLoader) {
+		Class<?> clazz = primitives.get(type);
+		if(clazz!=null) return clazz;
+		try {
+			return Class.forName(type, true, classLoader);
+		} catch (Exception ex) {
+			return Object.class;
+		}
+	}
 	
 }
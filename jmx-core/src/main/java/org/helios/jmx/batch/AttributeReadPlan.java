@@ -0,0 +1,322 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Descriptor;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenMBeanAttributeInfo;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularType;
+
+/**
+ * <p>Title: AttributeReadPlan</p>
+ * <p>Description: A compiled read plan for MBeans sharing the same {@link MBeanInfo}. Attributes are classified
+ * from the MBeanInfo alone, using the attribute's {@link OpenType} where the MBean publishes one (MXBeans and open MBeans) 
+ * and the declared type name otherwise, so no attribute values are read to build a plan.</p>
+ * <p>Composite attributes with no published {@link CompositeType} cannot be resolved without reading them and are classified
+ * as {@link AttributeKind#OPAQUE_COMPOSITE}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.AttributeReadPlan</code></p>
+ */
+
+public class AttributeReadPlan {
+	/** The descriptor field holding an attribute's OpenType */
+	public static final String OPEN_TYPE_FIELD = "openType";
+	/** The class names of numeric types */
+	private static final Set<String> NUMERIC_TYPES;
+	/** The numeric open types */
+	private static final Set<OpenType<?>> NUMERIC_OPEN_TYPES;
+	/** Empty string array const */
+	private static final String[] EMPTY_ARR = {};
+	
+	static {
+		Set<String> tmp = new HashSet<String>(AttributeFilters.primitiveNumerics.keySet());
+		for(Class<?> clazz: new Class<?>[]{Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class}) {
+			tmp.add(clazz.getName());
+		}
+		NUMERIC_TYPES = Collections.unmodifiableSet(tmp);
+		Set<OpenType<?>> otmp = new HashSet<OpenType<?>>();
+		Collections.<OpenType<?>>addAll(otmp, SimpleType.BYTE, SimpleType.SHORT, SimpleType.INTEGER, SimpleType.LONG, SimpleType.FLOAT, SimpleType.DOUBLE, SimpleType.BIGINTEGER, SimpleType.BIGDECIMAL);
+		NUMERIC_OPEN_TYPES = Collections.unmodifiableSet(otmp);
+	}
+	
+	/**
+	 * <p>Title: AttributeKind</p>
+	 * <p>Description: The classification of an attribute in a read plan</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.AttributeReadPlan.AttributeKind</code></p>
+	 */
+	public static enum AttributeKind {
+		/** A primitive or boxed numeric value */
+		NUMERIC,
+		/** A composite value with a known composite type */
+		COMPOSITE,
+		/** A composite value with an unknown composite type */
+		OPAQUE_COMPOSITE,
+		/** A tabular value */
+		TABULAR,
+		/** Any other value */
+		OTHER;
+	}
+	
+	/** The readable attribute names */
+	private final String[] attributeNames;
+	/** The attribute classifications keyed by attribute name */
+	private final Map<String, AttributeKind> kinds;
+	/** The attribute open types keyed by attribute name, for the attributes that publish one */
+	private final Map<String, OpenType<?>> openTypes;
+	/** The names of the numeric attributes */
+	private final String[] numerics;
+	/** The numeric composite keys keyed by composite attribute name */
+	private final Map<String, String[]> compositeNumerics;
+	/** The numeric attribute names and <b><code>Attribute/key</code></b> composite numeric paths */
+	private final String[] allNumerics;
+	/** The numeric flatteners keyed by the name of the attributes that are or may contain numerics */
+	private final Map<String, NumericFlattener> flatteners;
+	/** The batch criteria attribute map that reads the attributes to flatten */
+	private final Map<String, String> flattenRequest;
+	
+	/**
+	 * Compiles a read plan for the passed MBeanInfo
+	 * @param info The MBeanInfo to compile a plan for
+	 * @param classLoader The classloader to resolve declared attribute types not recognized by name. Ignored if null.
+	 * @return the compiled plan
+	 */
+	public static AttributeReadPlan compile(MBeanInfo info, ClassLoader classLoader) {
+		return new AttributeReadPlan(info, classLoader);
+	}
+	
+	/**
+	 * Creates a new AttributeReadPlan
+	 * @param info The MBeanInfo to compile a plan for
+	 * @param classLoader The classloader to resolve declared attribute types not recognized by name. Ignored if null.
+	 */
+	private AttributeReadPlan(MBeanInfo info, ClassLoader classLoader) {
+		final MBeanAttributeInfo[] infos = info.getAttributes();
+		final List<String> readable = new ArrayList<String>(infos.length);
+		final List<String> numericNames = new ArrayList<String>();
+		final List<String> numericPaths = new ArrayList<String>();
+		final Map<String, AttributeKind> kindMap = new LinkedHashMap<String, AttributeKind>(infos.length);
+		final Map<String, OpenType<?>> typeMap = new LinkedHashMap<String, OpenType<?>>();
+		final Map<String, String[]> compositeMap = new LinkedHashMap<String, String[]>();
+		final Map<String, NumericFlattener> flattenerMap = new LinkedHashMap<String, NumericFlattener>();
+		for(MBeanAttributeInfo ainfo: infos) {
+			if(!ainfo.isReadable()) continue;
+			final String name = ainfo.getName();
+			readable.add(name);
+			final OpenType<?> openType = openType(ainfo);
+			final AttributeKind kind;
+			if(openType!=null) {
+				typeMap.put(name, openType);
+				if(NUMERIC_OPEN_TYPES.contains(openType)) {
+					kind = AttributeKind.NUMERIC;
+				} else if(openType instanceof CompositeType) {
+					kind = AttributeKind.COMPOSITE;
+					final CompositeType ct = (CompositeType)openType;
+					final List<String> keys = new ArrayList<String>(ct.keySet().size());
+					for(String key: ct.keySet()) {
+						if(NUMERIC_OPEN_TYPES.contains(ct.getType(key))) {
+							keys.add(key);
+							numericPaths.add(name + "/" + key);
+						}
+					}
+					if(!keys.isEmpty()) compositeMap.put(name, keys.toArray(new String[keys.size()]));
+				} else if(openType instanceof TabularType) {
+					kind = AttributeKind.TABULAR;
+				} else {
+					kind = AttributeKind.OTHER;
+				}
+			} else {
+				kind = classify(ainfo.getType(), classLoader);
+			}
+			kindMap.put(name, kind);
+			if(kind==AttributeKind.NUMERIC) {
+				numericNames.add(name);
+				numericPaths.add(name);
+			}
+			final NumericFlattener flattener;
+			if(kind==AttributeKind.NUMERIC) flattener = NumericFlattener.SCALAR;
+			else if(kind==AttributeKind.OPAQUE_COMPOSITE || (kind==AttributeKind.TABULAR && openType==null)) flattener = NumericFlattener.DYNAMIC;
+			else flattener = NumericFlattener.forType(openType);
+			if(flattener!=null) flattenerMap.put(name, flattener);
+		}
+		attributeNames = readable.toArray(new String[readable.size()]);
+		kinds = Collections.unmodifiableMap(kindMap);
+		openTypes = Collections.unmodifiableMap(typeMap);
+		numerics = numericNames.toArray(new String[numericNames.size()]);
+		compositeNumerics = Collections.unmodifiableMap(compositeMap);
+		allNumerics = numericPaths.isEmpty() ? EMPTY_ARR : numericPaths.toArray(new String[numericPaths.size()]);
+		flatteners = Collections.unmodifiableMap(flattenerMap);
+		final Map<String, String> request = new LinkedHashMap<String, String>(flattenerMap.size());
+		for(String name: flattenerMap.keySet()) request.put(name, null);
+		flattenRequest = Collections.unmodifiableMap(request);
+	}
+	
+	/**
+	 * Returns the OpenType published for the passed attribute
+	 * @param ainfo The attribute info
+	 * @return the attribute's OpenType or null if one was not published
+	 */
+	static OpenType<?> openType(MBeanAttributeInfo ainfo) {
+		if(ainfo instanceof OpenMBeanAttributeInfo) {
+			return ((OpenMBeanAttributeInfo)ainfo).getOpenType();
+		}
+		final Descriptor descriptor = ainfo.getDescriptor();
+		if(descriptor!=null) {
+			final Object openType = descriptor.getFieldValue(OPEN_TYPE_FIELD);
+			if(openType instanceof OpenType) return (OpenType<?>)openType;
+		}
+		return null;
+	}
+	
+	/**
+	 * Classifies an attribute from its declared type name
+	 * @param type The declared type name
+	 * @param classLoader The classloader to resolve types not recognized by name. Ignored if null.
+	 * @return the attribute's classification
+	 */
+	private static AttributeKind classify(String type, ClassLoader classLoader) {
+		if(NUMERIC_TYPES.contains(type)) return AttributeKind.NUMERIC;
+		if(CompositeData.class.getName().equals(type)) return AttributeKind.OPAQUE_COMPOSITE;
+		if(TabularData.class.getName().equals(type)) return AttributeKind.TABULAR;
+		if(AttributeFilters.primitives.containsKey(type) || type.startsWith("java.lang.") || type.startsWith("[")) return AttributeKind.OTHER;
+		if(classLoader!=null) {
+			try {
+				final Class<?> clazz = Class.forName(type, false, classLoader);
+				if(Number.class.isAssignableFrom(clazz)) return AttributeKind.NUMERIC;
+				if(CompositeData.class.isAssignableFrom(clazz)) return AttributeKind.OPAQUE_COMPOSITE;
+				if(TabularData.class.isAssignableFrom(clazz)) return AttributeKind.TABULAR;
+			} catch (Throwable t) { /* No Op */ }
+		}
+		return AttributeKind.OTHER;
+	}
+
+	/**
+	 * Returns the readable attribute names
+	 * @return the readable attribute names
+	 */
+	public String[] getAttributeNames() {
+		return attributeNames.clone();
+	}
+
+	/**
+	 * Returns the classification of the named attribute
+	 * @param attributeName The attribute name
+	 * @return the attribute's classification or null if the attribute is not readable
+	 */
+	public AttributeKind getKind(String attributeName) {
+		return kinds.get(attributeName);
+	}
+	
+	/**
+	 * Returns the attribute classifications keyed by attribute name
+	 * @return the attribute classifications
+	 */
+	public Map<String, AttributeKind> getKinds() {
+		return kinds;
+	}
+
+	/**
+	 * Returns the OpenType of the named attribute
+	 * @param attributeName The attribute name
+	 * @return the attribute's OpenType or null if the MBean does not publish one
+	 */
+	public OpenType<?> getOpenType(String attributeName) {
+		return openTypes.get(attributeName);
+	}
+
+	/**
+	 * Returns the names of the numeric attributes
+	 * @return the names of the numeric attributes
+	 */
+	public String[] getNumerics() {
+		return numerics.clone();
+	}
+
+	/**
+	 * Returns the numeric composite keys keyed by composite attribute name
+	 * @return the numeric composite keys
+	 */
+	public Map<String, String[]> getCompositeNumerics() {
+		return compositeNumerics;
+	}
+
+	/**
+	 * Returns the numeric attribute names and <b><code>Attribute/key</code></b> composite numeric paths
+	 * @return the numeric attribute names and composite numeric paths
+	 */
+	public String[] getAllNumerics() {
+		return allNumerics.clone();
+	}
+	
+	/**
+	 * Returns the batch criteria attribute map that reads the attributes that are or may contain numerics
+	 * @return the attributes to read for {@link #flatten(Map, Map)}
+	 */
+	public Map<String, String> getFlattenRequest() {
+		return flattenRequest;
+	}
+	
+	/**
+	 * Flattens the passed attribute values to their numeric leaves. See {@link NumericFlattener}.
+	 * @param values The attribute values keyed by attribute name
+	 * @param out The map to add the <b><code>(path, number)</code></b> pairs to
+	 */
+	public void flatten(Map<String, Object> values, Map<String, Number> out) {
+		for(Map.Entry<String, Object> entry: values.entrySet()) {
+			final NumericFlattener flattener = flatteners.get(entry.getKey());
+			if(flattener!=null && entry.getValue()!=null) flattener.flatten(entry.getKey(), entry.getValue(), out);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("AttributeReadPlan [attributes:").append(attributeNames.length)
+			.append(", numerics:").append(allNumerics.length)
+			.append(", composites:").append(compositeNumerics.size())
+			.append("]").toString();
+	}
+}
@@ -24,17 +24,35 @@
  */
 package org.helios.jmx.batch;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import javax.management.Attribute;
 import javax.management.ListenerNotFoundException;
-import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
 import javax.management.MBeanServerDelegate;
 import javax.management.MBeanServerNotification;
 import javax.management.Notification;
@@ -44,16 +62,19 @@ import javax.management.NotificationListener;
 import javax.management.ObjectName;
 
 import javax.management.openmbean.CompositeData;
-import javax.management.openmbean.CompositeType;
-import javax.management.openmbean.OpenType;
 
 import javax.management.Query;
 import javax.management.StringValueExp;
 
 
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.cliffc.high_scale_lib.NonBlockingHashSet;
+import org.helios.jmx.concurrency.JMXManagedScheduler;
 import org.helios.jmx.concurrency.JMXManagedThreadPool;
+import org.helios.jmx.util.helpers.ConfigurationHelper;
 import org.helios.jmx.util.helpers.JMXHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>Title: BatchAttributeService</p>
@@ -63,27 +84,104 @@ import org.helios.jmx.util.helpers.JMXHelper;
  * <p><code>org.helios.jmx.batch.BatchAttributeService</code></p>
  */
 
-public class BatchAttributeService extends NotificationBroadcasterSupport implements NotificationListener, NotificationFilter {
+public class BatchAttributeService extends NotificationBroadcasterSupport implements BatchAttributeServiceMBean, NotificationListener, NotificationFilter {
 	/** The singleton instance */
 	private static volatile BatchAttributeService instance = null;
 	/** The singleton instance ctor lock */
 	private static final Object lock = new Object();
 	
-	/** The notification broadcaster thread pool */
+	/** The notification broadcaster and batch collection thread pool */
 	private final JMXManagedThreadPool threadPool;
+	/** The subscription collection scheduler */
+	private final JMXManagedScheduler scheduler;
+	/** The MBeanServer batches are collected from */
+	private final MBeanServer server = JMXHelper.getHeliosMBeanServer();
+	
+	/** The batch service JMX ObjectName */
+	public static final ObjectName OBJECT_NAME = JMXHelper.objectName(BatchAttributeService.class);
+	/** The batch service's thread pool JMX ObjectName */
+	public static final ObjectName THREAD_POOL_OBJECT_NAME = JMXHelper.objectName(new StringBuilder(OBJECT_NAME.toString()).append("ThreadPool"));
+	/** The batch service's subscription scheduler JMX ObjectName */
+	public static final ObjectName SCHEDULER_OBJECT_NAME = JMXHelper.objectName(new StringBuilder(OBJECT_NAME.toString()).append("Scheduler"));
 	
 	/** This services's JMX ObjectName */
-	private final ObjectName objectName = JMXHelper.objectName(getClass());
+	private final ObjectName objectName = OBJECT_NAME;
+	/** Instance logger */
+	private static final Logger LOG = LoggerFactory.getLogger(BatchAttributeService.class);
 	
-    /** A map of numeric typed composite fields in composite types, keyed by the ObjectName/Attribute Name */
-    private final Map<ObjectName, Map<String, String[]>> compositeNumerics = new NonBlockingHashMap<ObjectName, Map<String, String[]>>();
-    /** A map of MBean attribute names that are either numeric or compsites containing numerics keyed by the ObjectName */
-    private final Map<ObjectName, String[]> allNumerics = new NonBlockingHashMap<ObjectName, String[]>();
-    
+	/** The system property or env var name for the default batch timeout in ms. */
+	public static final String BATCH_TIMEOUT_PROP = "batch.timeout";
+	/** The default batch timeout in ms. */
+	public static final long DEFAULT_BATCH_TIMEOUT = 5000L;
+	/** The system property or env var name for the minimum number of attributes in a parallel chunk */
+	public static final String MIN_CHUNK_SIZE_PROP = "batch.chunk.min";
+	/** The default minimum number of attributes in a parallel chunk */
+	public static final int DEFAULT_MIN_CHUNK_SIZE = 64;
+	
+	/** The default batch timeout in ms. */
+	private volatile long batchTimeout = ConfigurationHelper.getLongSystemThenEnvProperty(BATCH_TIMEOUT_PROP, DEFAULT_BATCH_TIMEOUT);
+	/** The minimum number of attributes in a parallel chunk */
+	private volatile int minChunkSize = ConfigurationHelper.getIntSystemThenEnvProperty(MIN_CHUNK_SIZE_PROP, DEFAULT_MIN_CHUNK_SIZE);
+	/** The number of executed batches */
+	private final AtomicLong batchCount = new AtomicLong(0L);
+	/** The number of batches that returned partial results */
+	private final AtomicLong timeoutCount = new AtomicLong(0L);
+	/** The number of failed MBean reads */
+	private final AtomicLong errorCount = new AtomicLong(0L);
+	/** The number of MBeans read in the last batch */
+	private volatile int lastBatchMBeanCount = 0;
+	/** The number of chunks in the last batch */
+	private volatile int lastBatchChunkCount = 0;
+	/** The elapsed time of the last batch in ms. */
+	private volatile long lastBatchElapsed = 0L;
+	
+	/** Compiled read plans keyed by the MBeanInfo they were compiled from, shared by all MBeans with an equal MBeanInfo */
+	private final NonBlockingHashMap<MBeanInfo, AttributeReadPlan> plans = new NonBlockingHashMap<MBeanInfo, AttributeReadPlan>();
+	/** The read plan of each planned MBean keyed by ObjectName */
+	private final NonBlockingHashMap<ObjectName, AttributeReadPlan> mbeanPlans = new NonBlockingHashMap<ObjectName, AttributeReadPlan>();
+	/** The registered batched attribute providers keyed by ObjectName */
+	private final NonBlockingHashMap<ObjectName, BatchedAttributeProviders.Provider> providers = new NonBlockingHashMap<ObjectName, BatchedAttributeProviders.Provider>();
+	/** The planned MBeans this service listens to for MBeanInfo changes */
+	private final NonBlockingHashSet<ObjectName> infoChangeSubscriptions = new NonBlockingHashSet<ObjectName>();
+	/** MBeans registered since the last plan maintenance */
+	private final NonBlockingHashSet<ObjectName> pendingRegistered = new NonBlockingHashSet<ObjectName>();
+	/** MBeans unregistered since the last plan maintenance */
+	private final NonBlockingHashSet<ObjectName> pendingUnregistered = new NonBlockingHashSet<ObjectName>();
+	/** MBeans whose MBeanInfo changed since the last plan maintenance */
+	private final NonBlockingHashSet<ObjectName> pendingChanged = new NonBlockingHashSet<ObjectName>();
+	/** The number of plan generation stripes */
+	private static final int GENERATION_STRIPES = 64;
+	/** Registration, unregistration and MBeanInfo change counts striped by ObjectName, checked by {@link #getPlan(ObjectName)} before caching a plan */
+	private final AtomicLongArray planGenerations = new AtomicLongArray(GENERATION_STRIPES);
+	/** Indicates if a plan maintenance task has been submitted and not yet started */
+	private final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+	/** The number of plan maintenance batches run */
+	private final AtomicLong maintenanceCount = new AtomicLong(0L);
+	/** The number of MBean read plans invalidated */
+	private final AtomicLong invalidationCount = new AtomicLong(0L);
+	/** The plan maintenance task */
+	private final Runnable planMaintenance = new Runnable() {
+		@Override
+		public void run() {
+			maintainPlans();
+		}
+	};
+	
+	/** The notification type emitted by MBeans when their MBeanInfo changes */
+	public static final String MBEAN_INFO_CHANGED = "jmx.mbean.info.changed";
+	/** The notification type prefix of batch subscription notifications. Each subscription's type is suffixed with <b><code>.&lt;id&gt;</code></b> */
+	public static final String SUBSCRIPTION_NOTIFICATION = "jmx.batch.subscription";
+	
+	/** The active subscriptions keyed by subscription id */
+	private final NonBlockingHashMap<Long, BatchSubscription> subscriptions = new NonBlockingHashMap<Long, BatchSubscription>();
+	/** Factory for subscription ids */
+	private final AtomicLong subscriptionIdFactory = new AtomicLong(0L);
+	/** The values sent to "since token" readers */
+	private final DeltaTracker deltaTracker = new DeltaTracker();
 	
 	/** The bean's notification MBeanInfos */
 	private static final MBeanNotificationInfo[] MBEAN_INFO = new  MBeanNotificationInfo[] {
-		
+		new MBeanNotificationInfo(new String[]{SUBSCRIPTION_NOTIFICATION}, Notification.class.getName(), "Notification carrying the attribute values changed since the last collection of a batch subscription")
 	};
 	/** Factory for notification IDs */
 	private final AtomicLong notificationIdFactory = new AtomicLong(0L);
@@ -91,9 +189,6 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	/** The registered listeners */
 	private final Set<ListenerInfo> listeners = new CopyOnWriteArraySet<ListenerInfo>();
 	
-	/** The JMX ObjectNames of known batch attribute providers */
-	private final Set<ObjectName> providers = new CopyOnWriteArraySet<ObjectName>();
-	
 	 
 	/**
 	 * Returns the BatchAttributeService singleton instance
@@ -104,7 +199,11 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 			synchronized(lock) {
 				if(instance==null) {
 					
-					instance = new BatchAttributeService(new JMXManagedThreadPool(JMXHelper.objectName(BatchAttributeService.class), BatchAttributeService.class.getSimpleName()), MBEAN_INFO);
+					JMXManagedThreadPool threadPool = new JMXManagedThreadPool(THREAD_POOL_OBJECT_NAME, BatchAttributeService.class.getSimpleName());
+					// a saturated pool rejects chunks rather than running them on the caller ahead of the deadline wait
+					threadPool.setRejectedExecutionHandler(new JMXManagedThreadPool.AbortPolicy());
+					JMXManagedScheduler scheduler = new JMXManagedScheduler(SCHEDULER_OBJECT_NAME, BatchAttributeService.class.getSimpleName() + "Scheduler");
+					instance = new BatchAttributeService(threadPool, scheduler, MBEAN_INFO);
 				}
 			}
 		}
@@ -114,106 +213,534 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	/**
 	 * Creates a new BatchAttributeService
 	 */
-	private BatchAttributeService(JMXManagedThreadPool threadPool, MBeanNotificationInfo[] ninfos) {
+	private BatchAttributeService(JMXManagedThreadPool threadPool, JMXManagedScheduler scheduler, MBeanNotificationInfo[] ninfos) {
 		super(threadPool, ninfos);
 		this.threadPool = threadPool;
+		this.scheduler = scheduler;
 		JMXHelper.registerMBean(this, objectName);
 		JMXHelper.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, this, null);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>The criteria maps the attribute names to read (or <b><code>Attribute/key</code></b> paths into composite attributes) 
+	 * to the key the value is returned under. A null or empty key returns the value under the requested name.</p>
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetAttributes(java.util.Map)
+	 */
+	@Override
 	public Map<ObjectName, Map<String, Object>> batchGetAttributes(Map<ObjectName, Map<String, String>> criteria) {
-		Map<ObjectName, Map<String, Object>> map = new HashMap<ObjectName, Map<String, Object>>();
-		
+		return batchGetAttributes(criteria, batchTimeout);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>Patterns are expanded once and the attributes requested for each resolved MBean are read in a single <b><code>getAttributes</code></b>
+	 * call. The MBeans are split into chunks of roughly equal attribute counts which are read in parallel on the service thread pool. 
+	 * Chunks rejected by a saturated pool, or still running at the deadline, are treated as timed out and the MBeans they did not read 
+	 * are omitted from the returned map.</p>
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetAttributes(java.util.Map, long)
+	 */
+	@Override
+	public Map<ObjectName, Map<String, Object>> batchGetAttributes(Map<ObjectName, Map<String, String>> criteria, long timeoutMs) {
+		final long start = System.currentTimeMillis();
+		final long deadline = start + (timeoutMs < 1 ? batchTimeout : timeoutMs);
+		batchCount.incrementAndGet();
+		final List<BatchTarget> targets = expand(criteria);
+		final Map<ObjectName, Map<String, Object>> results = new ConcurrentHashMap<ObjectName, Map<String, Object>>(targets.size());
+		final List<List<BatchTarget>> chunks = chunk(targets);
+		final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(chunks.size());
+		boolean complete = true;
+		for(final List<BatchTarget> chunk: chunks) {
+			try {
+				futures.add(threadPool.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() {
+						return read(chunk, results, deadline);
+					}
+				}));
+			} catch (RejectedExecutionException rex) {
+				complete = false;
+				LOG.debug("Batch chunk of {} MBeans rejected by the saturated thread pool", chunk.size());
+			}
+		}
+		for(Future<Boolean> f: futures) {
+			long remaining = deadline - System.currentTimeMillis();
+			try {
+				if(remaining < 1) throw new TimeoutException();
+				complete &= f.get(remaining, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException tex) {
+				f.cancel(true);
+				complete = false;
+			} catch (InterruptedException iex) {
+				f.cancel(true);
+				complete = false;
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException eex) {
+				complete = false;
+				LOG.warn("Batch chunk failed", eex.getCause());
+			}
+		}
+		// Snapshot the results so late writes from cancelled chunks are not visible to the caller
+		final Map<ObjectName, Map<String, Object>> map = new HashMap<ObjectName, Map<String, Object>>(results);
+		if(!complete) {
+			timeoutCount.incrementAndGet();
+			LOG.debug("Batch returned partial results: {} of {} MBeans", map.size(), targets.size());
+		}
+		lastBatchMBeanCount = targets.size();
+		lastBatchChunkCount = chunks.size();
+		lastBatchElapsed = System.currentTimeMillis() - start;
 		return map;
 	}
 	
 	/**
-	 * Returns a map of arrays of composite type keys that represent numeric data keyed by the MBean's attribute name
-	 * @param objectName The object name to get the map for
-	 * @return the map of numeric keys
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetAttributes(java.util.Map, long, long)
 	 */
-	protected Map<String, String[]> getCompositeNumerics(ObjectName objectName) {
-		Map<String, String[]> map = compositeNumerics.get(objectName);
-		if(map==null) {
-			synchronized(compositeNumerics) {
-				map = compositeNumerics.get(objectName);
-				if(map==null) {
-					map = new HashMap<String, String[]>();
-					MBeanInfo infos = JMXHelper.getMBeanInfo(objectName);
-					for(MBeanAttributeInfo info: infos.getAttributes()) {
-						Set<String> numericKeys = new HashSet<String>();
-						try {                                          
-							if(CompositeData.class.isAssignableFrom(Class.forName(info.getType()))) {
-								CompositeData cd = (CompositeData)JMXHelper.getAttribute(objectName, info.getName());
-								CompositeType ct = cd.getCompositeType();
-								for(String key: ct.keySet()) {
-									OpenType<?> ot = ct.getType(key);
-									try {
-										if(Number.class.isAssignableFrom(Class.forName(ot.getClassName()))) {
-											numericKeys.add(key);
-										}
-									} catch (Exception x) { /* No Op */ }
-								}
-								map.put(info.getName(), numericKeys.toArray(new String[numericKeys.size()]));
-							}
-						} catch (Exception x) { /* No Op */ }
+	@Override
+	public DeltaResult batchGetAttributes(Map<ObjectName, Map<String, String>> criteria, long timeoutMs, long sinceToken) {
+		return deltaTracker.delta(sinceToken, batchGetAttributes(criteria, timeoutMs));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetFlatNumerics(javax.management.ObjectName, long)
+	 */
+	@Override
+	public Map<ObjectName, Map<String, Number>> batchGetFlatNumerics(ObjectName pattern, long timeoutMs) {
+		final Map<ObjectName, AttributeReadPlan> targets = new HashMap<ObjectName, AttributeReadPlan>();
+		final Map<ObjectName, Map<String, String>> criteria = new LinkedHashMap<ObjectName, Map<String, String>>();
+		for(ObjectName on: server.queryNames(pattern, null)) {
+			final AttributeReadPlan plan;
+			try {
+				plan = getPlan(on);
+			} catch (Exception ex) {
+				continue;
+			}
+			if(plan.getFlattenRequest().isEmpty()) continue;
+			targets.put(on, plan);
+			criteria.put(on, plan.getFlattenRequest());
+		}
+		final Map<ObjectName, Map<String, Number>> results = new HashMap<ObjectName, Map<String, Number>>(criteria.size());
+		for(Map.Entry<ObjectName, Map<String, Object>> entry: batchGetAttributes(criteria, timeoutMs).entrySet()) {
+			final Map<String, Number> flat = new HashMap<String, Number>();
+			targets.get(entry.getKey()).flatten(entry.getValue(), flat);
+			if(!flat.isEmpty()) results.put(entry.getKey(), flat);
+		}
+		return results;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetFlatNumericsColumnar(javax.management.ObjectName, long)
+	 */
+	@Override
+	public ColumnarResult batchGetFlatNumericsColumnar(ObjectName pattern, long timeoutMs) {
+		return ColumnarResult.encode(batchGetFlatNumerics(pattern, timeoutMs));
+	}
+	
+	/**
+	 * Expands the ObjectName patterns in the passed criteria, merging the requested attributes of MBeans matched by more than one entry
+	 * @param criteria The batch criteria
+	 * @return a list of batch targets, one per matched MBean
+	 */
+	protected List<BatchTarget> expand(Map<ObjectName, Map<String, String>> criteria) {
+		final Map<ObjectName, Map<String, String>> resolved = new LinkedHashMap<ObjectName, Map<String, String>>(criteria.size());
+		for(Map.Entry<ObjectName, Map<String, String>> entry: criteria.entrySet()) {
+			if(entry.getValue()==null || entry.getValue().isEmpty()) continue;
+			final Set<ObjectName> matches;
+			if(entry.getKey().isPattern()) {
+				matches = server.queryNames(entry.getKey(), null);
+			} else {
+				matches = server.isRegistered(entry.getKey()) ? Collections.singleton(entry.getKey()) : Collections.<ObjectName>emptySet();
+			}
+			for(ObjectName on: matches) {
+				Map<String, String> attrs = resolved.get(on);
+				if(attrs==null) {
+					attrs = new LinkedHashMap<String, String>(entry.getValue());
+					resolved.put(on, attrs);
+				} else {
+					attrs.putAll(entry.getValue());
+				}
+			}
+		}
+		final List<BatchTarget> targets = new ArrayList<BatchTarget>(resolved.size());
+		for(Map.Entry<ObjectName, Map<String, String>> entry: resolved.entrySet()) {
+			targets.add(new BatchTarget(entry.getKey(), entry.getValue()));
+		}
+		return targets;
+	}
+	
+	/**
+	 * Splits the passed targets into chunks of roughly equal attribute counts. The number of chunks is capped at the 
+	 * thread pool's core size and no chunk is planned with fewer than {@link #getMinChunkSize()} attributes.
+	 * @param targets The targets to split
+	 * @return a list of chunks
+	 */
+	protected List<List<BatchTarget>> chunk(List<BatchTarget> targets) {
+		if(targets.isEmpty()) return Collections.emptyList();
+		int totalWeight = 0;
+		for(BatchTarget t: targets) totalWeight += t.weight;
+		final int chunkCount = Math.max(1, Math.min(Math.min(threadPool.getCorePoolSize(), targets.size()), totalWeight / Math.max(1, minChunkSize)));
+		if(chunkCount==1) return Collections.singletonList(targets);
+		// Largest first into the lightest chunk
+		final BatchTarget[] sorted = targets.toArray(new BatchTarget[targets.size()]);
+		Arrays.sort(sorted, BatchTarget.WEIGHT_DESC);
+		final List<List<BatchTarget>> chunks = new ArrayList<List<BatchTarget>>(chunkCount);
+		final int[] weights = new int[chunkCount];
+		for(int i = 0; i < chunkCount; i++) chunks.add(new ArrayList<BatchTarget>(targets.size()/chunkCount + 1));
+		for(BatchTarget t: sorted) {
+			int lightest = 0;
+			for(int i = 1; i < chunkCount; i++) {
+				if(weights[i] < weights[lightest]) lightest = i;
+			}
+			chunks.get(lightest).add(t);
+			weights[lightest] += t.weight;
+		}
+		return chunks;
+	}
+	
+	/**
+	 * Reads the passed targets into the results map until done or the deadline passes
+	 * @param chunk The targets to read
+	 * @param results The map to write each MBean's values into
+	 * @param deadline The deadline timestamp
+	 * @return true if all the targets were read, false if the deadline passed or the reading thread was interrupted
+	 */
+	protected boolean read(List<BatchTarget> chunk, Map<ObjectName, Map<String, Object>> results, long deadline) {
+		for(BatchTarget t: chunk) {
+			if(System.currentTimeMillis() > deadline || Thread.currentThread().isInterrupted()) return false;
+			try {
+				results.put(t.objectName, t.read(server, providers.get(t.objectName)));
+			} catch (Exception ex) {
+				errorCount.incrementAndGet();
+				LOG.debug("Failed to read batch attributes from [{}]", t.objectName, ex);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>Title: BatchTarget</p>
+	 * <p>Description: The attributes to read from one MBean in a batch</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.BatchAttributeService.BatchTarget</code></p>
+	 */
+	protected static class BatchTarget {
+		/** Sorts targets by descending weight */
+		static final Comparator<BatchTarget> WEIGHT_DESC = new Comparator<BatchTarget>() {
+			@Override
+			public int compare(BatchTarget t1, BatchTarget t2) {
+				return t1.weight < t2.weight ? 1 : t1.weight > t2.weight ? -1 : 0;
+			}
+		};
+		/** The target MBean's ObjectName */
+		final ObjectName objectName;
+		/** The distinct attribute names passed to <b><code>getAttributes</code></b> */
+		final String[] attributes;
+		/** The attribute name of each requested value */
+		final String[] names;
+		/** The composite key of each requested value, or null for plain attributes */
+		final String[] compositeKeys;
+		/** The result key of each requested value */
+		final String[] keys;
+		/** The number of requested values, used to balance chunks */
+		final int weight;
+		
+		/**
+		 * Creates a new BatchTarget
+		 * @param objectName The target MBean's ObjectName
+		 * @param requested The requested attribute names or paths mapped to their result keys
+		 */
+		BatchTarget(ObjectName objectName, Map<String, String> requested) {
+			this.objectName = objectName;
+			weight = requested.size();
+			names = new String[weight];
+			compositeKeys = new String[weight];
+			keys = new String[weight];
+			final Set<String> distinct = new LinkedHashSet<String>(weight);
+			int i = 0;
+			for(Map.Entry<String, String> entry: requested.entrySet()) {
+				final String path = entry.getKey();
+				final int index = path.indexOf('/');
+				names[i] = index==-1 ? path : path.substring(0, index);
+				compositeKeys[i] = index==-1 ? null : path.substring(index+1);
+				keys[i] = entry.getValue()==null || entry.getValue().isEmpty() ? path : entry.getValue();
+				distinct.add(names[i]);
+				i++;
+			}
+			attributes = distinct.toArray(new String[distinct.size()]);
+		}
+		
+		/**
+		 * Reads the values of this target's distinct attributes, through the generated reader for the batched attributes
+		 * if the target is a registered {@link BatchedAttributeProvider}, and with one <b><code>getAttributes</code></b> call for the rest
+		 * @param server The MBeanServer to read from
+		 * @param provider The target's registered provider, or null if it is not one
+		 * @return a map of the read values keyed by attribute name
+		 * @throws Exception thrown on any error reading the attributes
+		 */
+		Map<String, Object> readRaw(MBeanServer server, BatchedAttributeProviders.Provider provider) throws Exception {
+			String[] remaining = attributes;
+			Map<String, Object> raw = null;
+			if(provider!=null) {
+				try {
+					raw = provider.read();
+					final List<String> missing = new ArrayList<String>(0);
+					for(String name: attributes) {
+						if(!provider.provides(name)) missing.add(name);
 					}
+					remaining = missing.toArray(new String[missing.size()]);
+				} catch (Exception ex) {
+					LOG.debug("Batched read failed for [{}]", objectName, ex);
+					raw = null;
+				}
+			}
+			if(raw==null) raw = new HashMap<String, Object>(weight);
+			if(remaining.length > 0) {
+				for(Attribute attr: server.getAttributes(objectName, remaining).asList()) {
+					raw.put(attr.getName(), attr.getValue());
 				}
-				compositeNumerics.put(objectName, map);
 			}
+			return raw;
+		}
+		
+		/**
+		 * Reads this target's attributes in one call
+		 * @param server The MBeanServer to read from
+		 * @param provider The target's registered provider, or null if it is not one
+		 * @return a map of the read values keyed by the result key
+		 * @throws Exception thrown on any error reading the attributes
+		 */
+		Map<String, Object> read(MBeanServer server, BatchedAttributeProviders.Provider provider) throws Exception {
+			final Map<String, Object> raw = readRaw(server, provider);
+			final Map<String, Object> values = new HashMap<String, Object>(weight);
+			for(int i = 0; i < weight; i++) {
+				Object value = raw.get(names[i]);
+				if(value==null && !raw.containsKey(names[i])) continue;
+				if(compositeKeys[i]!=null) {
+					if(!(value instanceof CompositeData) || !((CompositeData)value).containsKey(compositeKeys[i])) continue;
+					value = ((CompositeData)value).get(compositeKeys[i]);
+				}
+				values.put(keys[i], value);
+			}
+			return values;
 		}
-		return map;
 	}
-
+	
 	/**
-	 * Returns an array of attribute names of attributes with numeric types, or composite types containing numeric types
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#subscribe(javax.management.ObjectName[], java.lang.String, long)
+	 */
+	@Override
+	public long subscribe(ObjectName[] patterns, String attributeFilter, long periodMs) {
+		final long id = subscriptionIdFactory.incrementAndGet();
+		final BatchSubscription subscription = new BatchSubscription(id, this, patterns, attributeFilter, periodMs);
+		subscriptions.put(id, subscription);
+		final ScheduledFuture<?> handle = scheduler.scheduleAtFixedRate(subscription, 0, periodMs, TimeUnit.MILLISECONDS);
+		subscription.setHandle(handle);
+		LOG.info("Started {}", subscription);
+		return id;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#unsubscribe(long)
+	 */
+	@Override
+	public boolean unsubscribe(long subscriptionId) {
+		final BatchSubscription subscription = subscriptions.remove(subscriptionId);
+		if(subscription==null) return false;
+		subscription.cancel();
+		LOG.info("Stopped {}", subscription);
+		return true;
+	}
+	
+	/**
+	 * Returns the subscription with the passed id
+	 * @param subscriptionId The subscription id
+	 * @return the subscription or null if no subscription has the passed id
+	 */
+	public BatchSubscription getSubscription(long subscriptionId) {
+		return subscriptions.get(subscriptionId);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getSubscriptions()
+	 */
+	@Override
+	public String[] getSubscriptions() {
+		final List<String> subs = new ArrayList<String>(subscriptions.size());
+		for(BatchSubscription subscription: subscriptions.values()) {
+			subs.add(subscription.toString());
+		}
+		return subs.toArray(new String[subs.size()]);
+	}
+	
+	/**
+	 * Returns this service's JMX ObjectName
+	 * @return this service's JMX ObjectName
+	 */
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+	
+	/**
+	 * Returns the MBeanServer batches are collected from
+	 * @return the MBeanServer batches are collected from
+	 */
+	MBeanServer getServer() {
+		return server;
+	}
+	
+	/**
+	 * Returns the next notification sequence number
+	 * @return the next notification sequence number
+	 */
+	long nextNotificationId() {
+		return notificationIdFactory.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the read plan for the passed MBean, compiling one if no MBean with an equal MBeanInfo has been planned.
+	 * If the MBean is registered, unregistered or changed while the plan is being compiled, plan maintenance may already 
+	 * have run, so the plan is returned but not cached.
 	 * @param objectName The MBean's ObjectName
-	 * @return the array of numeric attribute names
+	 * @return the MBean's read plan
 	 */
-	 protected String[] getAllNumerics(ObjectName objectName) {
-		String[] attrNames = allNumerics.get(objectName);
-		if(attrNames==null) {
-			synchronized(allNumerics) {
-				attrNames = allNumerics.get(objectName);
-				if(attrNames==null) {
-					Set<String> numericKeys = new HashSet<String>();
-					MBeanInfo infos = JMXHelper.getMBeanInfo(objectName);
-					for(MBeanAttributeInfo info: infos.getAttributes()) {
-						try {
-							Class<?> clazz = Class.forName(info.getType());
-							if(Number.class.isAssignableFrom(clazz)) {
-								numericKeys.add(info.getName());
-							} else if(CompositeData.class.isAssignableFrom(clazz)) {
-								CompositeData cd = (CompositeData)JMXHelper.getAttribute(objectName, info.getName());
-								CompositeType ct = cd.getCompositeType();
-								for(String key: ct.keySet()) {
-									OpenType<?> ot = ct.getType(key);
-									try {
-										if(Number.class.isAssignableFrom(Class.forName(ot.getClassName()))) {
-											numericKeys.add(info.getName() + "/" + key);
-										}
-									} catch (Exception x) { /* No Op */ }
-								}                                                     
-							}
-						} catch (Exception x) { /* No Op */ }
-					}
-					attrNames = numericKeys.toArray(new String[numericKeys.size()]);
+	public AttributeReadPlan getPlan(ObjectName objectName) {
+		AttributeReadPlan plan = mbeanPlans.get(objectName);
+		if(plan==null) {
+			final int stripe = generationStripe(objectName);
+			final long generation = planGenerations.get(stripe);
+			final MBeanInfo info = JMXHelper.getMBeanInfo(server, objectName);
+			plan = plans.get(info);
+			if(plan==null) {
+				ClassLoader classLoader = null;
+				try { classLoader = server.getClassLoaderFor(objectName); } catch (Exception ex) { /* No Op */ }
+				plan = AttributeReadPlan.compile(info, classLoader);
+				final AttributeReadPlan existing = plans.putIfAbsent(info, plan);
+				if(existing!=null) plan = existing;
+			}
+			mbeanPlans.put(objectName, plan);
+			boolean subscribed = false;
+			if(emitsInfoChanged(info) && infoChangeSubscriptions.add(objectName)) {
+				try {
+					server.addNotificationListener(objectName, this, this, objectName);
+					subscribed = true;
+				} catch (Exception ex) {
+					infoChangeSubscriptions.remove(objectName);
+					LOG.debug("Failed to listen for MBeanInfo changes on [{}]", objectName, ex);
+				}
+			}
+			if(planGenerations.get(stripe)!=generation) {
+				mbeanPlans.remove(objectName, plan);
+				if(subscribed && infoChangeSubscriptions.remove(objectName)) {
+					try { server.removeNotificationListener(objectName, this, this, objectName); } catch (Exception ex) { /* No Op */ }
+				}
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Returns the plan generation stripe of the passed ObjectName
+	 * @param objectName The ObjectName
+	 * @return the stripe index
+	 */
+	private static int generationStripe(ObjectName objectName) {
+		return objectName.hashCode() & (GENERATION_STRIPES-1);
+	}
+	
+	/**
+	 * Determines if the MBean described by the passed MBeanInfo emits {@link #MBEAN_INFO_CHANGED} notifications
+	 * @param info The MBeanInfo to inspect
+	 * @return true if the MBean advertises MBeanInfo changed notifications, false otherwise
+	 */
+	private static boolean emitsInfoChanged(MBeanInfo info) {
+		for(MBeanNotificationInfo ninfo: info.getNotifications()) {
+			for(String type: ninfo.getNotifTypes()) {
+				if(MBEAN_INFO_CHANGED.equals(type)) return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Queues a registration, unregistration or MBeanInfo change for the next plan maintenance,
+	 * submitting the maintenance task if one is not already pending
+	 * @param pending The set of pending ObjectNames to add to
+	 * @param objectName The ObjectName of the MBean
+	 */
+	private void queuePlanMaintenance(Set<ObjectName> pending, ObjectName objectName) {
+		planGenerations.incrementAndGet(generationStripe(objectName));
+		pending.add(objectName);
+		if(maintenanceScheduled.compareAndSet(false, true)) {
+			threadPool.execute(planMaintenance);
+		}
+	}
+	
+	/**
+	 * Drops the read plans of MBeans registered, unregistered or changed since the last run, 
+	 * then discards compiled plans no longer used by any MBean. Events arriving while this runs are handled by the next run.
+	 */
+	protected void maintainPlans() {
+		maintenanceScheduled.set(false);
+		int dropped = 0;
+		for(ObjectName on: pendingUnregistered) {
+			pendingUnregistered.remove(on);
+			AttributeFilters.invalidate(on);
+			if(mbeanPlans.remove(on)!=null) dropped++;
+		}
+		for(ObjectName on: pendingRegistered) {
+			pendingRegistered.remove(on);
+			AttributeFilters.invalidate(on);
+			if(mbeanPlans.remove(on)!=null) dropped++;
+		}
+		for(ObjectName on: pendingChanged) {
+			pendingChanged.remove(on);
+			AttributeFilters.invalidate(on);
+			if(mbeanPlans.remove(on)!=null) dropped++;
+		}
+		if(dropped > 0) {
+			final Set<AttributeReadPlan> live = Collections.newSetFromMap(new IdentityHashMap<AttributeReadPlan, Boolean>(plans.size()));
+			live.addAll(mbeanPlans.values());
+			for(Map.Entry<MBeanInfo, AttributeReadPlan> entry: plans.entrySet()) {
+				if(!live.contains(entry.getValue())) {
+					plans.remove(entry.getKey(), entry.getValue());
 				}
 			}
+			invalidationCount.addAndGet(dropped);
 		}
-		return attrNames;
-	 }
+		maintenanceCount.incrementAndGet();
+	}
+	
+	/**
+	 * Returns a map of arrays of composite type keys that represent numeric data keyed by the MBean's attribute name
+	 * @param objectName The object name to get the map for
+	 * @return the map of numeric keys
+	 */
+	protected Map<String, String[]> getCompositeNumerics(ObjectName objectName) {
+		return getPlan(objectName).getCompositeNumerics();
+	}
+
+	/**
+	 * Returns an array of attribute names of attributes with numeric types, or composite types containing numeric types
+	 * @param objectName The MBean's ObjectName
+	 * @return the array of numeric attribute names
+	 */
+	protected String[] getAllNumerics(ObjectName objectName) {
+		return getPlan(objectName).getAllNumerics();
+	}
 	
 	public static final ObjectName GLOBAL_WILDCARD = JMXHelper.objectName("*:*");
 	
 	/**
-	 * Returns a map of attribute values keyed by the attribute name, in a map keyed by ObjectName
-	 * @param type The name of the class or interface that target MBeans must inherrit from
-	 * @param preOp An optional pre-collect no-arg operation to invoke
-	 * @param postOp An optional post-collect no-arg operation to invoke
-	 * @param attrNames The attribute names to collect for from each located MBean
-	 * @return the map of values
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetNumerics(java.lang.String, java.lang.String, java.lang.String, java.lang.String[])
 	 */
+	@Override
 	public Map<ObjectName, Map<String, Number>> batchGetNumerics(String type, String preOp, String postOp, String...attrNames) {
 		Map<ObjectName, Map<String, Number>> results = new HashMap<ObjectName, Map<String, Number>>();
 		ObjectName[] matches = JMXHelper.query(GLOBAL_WILDCARD, Query.isInstanceOf(new StringValueExp(type)));
@@ -236,13 +763,10 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	}
 	
 	/**
-	 * Returns a map of attribute values keyed by the attribute name, in a map keyed by ObjectName
-	 * @param filter An ObjectName filter to narrow down the ObjectNames to query from
-	 * @param preOp An optional pre-collect no-arg operation to invoke
-	 * @param postOp An optional post-collect no-arg operation to invoke
-	 * @param attrNames The attribute names to collect for from each located MBean
-	 * @return the map of values
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#batchGetNumerics(javax.management.ObjectName, java.lang.String, java.lang.String, java.lang.String[])
 	 */
+	@Override
 	public Map<ObjectName, Map<String, Number>> batchGetNumerics(ObjectName filter, String preOp, String postOp, String...attrNames) {
 		Map<ObjectName, Map<String, Number>> results = new HashMap<ObjectName, Map<String, Number>>();
 		ObjectName[] matches = JMXHelper.query(filter);
@@ -265,6 +789,201 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	}
 	
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getBatchTimeout()
+	 */
+	@Override
+	public long getBatchTimeout() {
+		return batchTimeout;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#setBatchTimeout(long)
+	 */
+	@Override
+	public void setBatchTimeout(long timeoutMs) {
+		if(timeoutMs < 1) throw new IllegalArgumentException("Invalid batch timeout [" + timeoutMs + "]", new Throwable());
+		batchTimeout = timeoutMs;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getMinChunkSize()
+	 */
+	@Override
+	public int getMinChunkSize() {
+		return minChunkSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#setMinChunkSize(int)
+	 */
+	@Override
+	public void setMinChunkSize(int minChunkSize) {
+		if(minChunkSize < 1) throw new IllegalArgumentException("Invalid minimum chunk size [" + minChunkSize + "]", new Throwable());
+		this.minChunkSize = minChunkSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getBatchCount()
+	 */
+	@Override
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getTimeoutCount()
+	 */
+	@Override
+	public long getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getErrorCount()
+	 */
+	@Override
+	public long getErrorCount() {
+		return errorCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getLastBatchMBeanCount()
+	 */
+	@Override
+	public int getLastBatchMBeanCount() {
+		return lastBatchMBeanCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getLastBatchChunkCount()
+	 */
+	@Override
+	public int getLastBatchChunkCount() {
+		return lastBatchChunkCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getLastBatchElapsed()
+	 */
+	@Override
+	public long getLastBatchElapsed() {
+		return lastBatchElapsed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getPlanCount()
+	 */
+	@Override
+	public int getPlanCount() {
+		return plans.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getPlannedMBeanCount()
+	 */
+	@Override
+	public int getPlannedMBeanCount() {
+		return mbeanPlans.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getInfoChangeSubscriptionCount()
+	 */
+	@Override
+	public int getInfoChangeSubscriptionCount() {
+		return infoChangeSubscriptions.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getPlanMaintenanceCount()
+	 */
+	@Override
+	public long getPlanMaintenanceCount() {
+		return maintenanceCount.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getPlanInvalidationCount()
+	 */
+	@Override
+	public long getPlanInvalidationCount() {
+		return invalidationCount.get();
+	}
+
+	/**
+	 * Registers the passed MBean in this service's MBeanServer, and as a batched attribute provider if it is annotated 
+	 * with {@link BatchedAttributeProvider}, so batches read its batched attributes through a generated reader
+	 * @param mbean The MBean to register
+	 * @param objectName The ObjectName to register the MBean under
+	 * @return true if the MBean was registered as a batched attribute provider
+	 */
+	public boolean registerProvider(Object mbean, ObjectName objectName) {
+		JMXHelper.registerMBean(server, mbean, objectName);
+		final BatchedAttributeProviders.Provider provider = BatchedAttributeProviders.provider(mbean);
+		if(provider==null) return false;
+		providers.put(objectName, provider);
+		return true;
+	}
+	
+	/**
+	 * Returns the batched attribute provider registered with this service under the passed ObjectName
+	 * @param objectName The ObjectName of the provider
+	 * @return the provider or null if one is not registered
+	 */
+	public BatchedAttributeProviders.Provider getProvider(ObjectName objectName) {
+		return providers.get(objectName);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getProviderCount()
+	 */
+	@Override
+	public int getProviderCount() {
+		return providers.size();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#getDeltaReaderCount()
+	 */
+	@Override
+	public int getDeltaReaderCount() {
+		return deltaTracker.getStateCount();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BatchAttributeServiceMBean#resetStats()
+	 */
+	@Override
+	public void resetStats() {
+		batchCount.set(0L);
+		timeoutCount.set(0L);
+		errorCount.set(0L);
+		maintenanceCount.set(0L);
+		invalidationCount.set(0L);
+		lastBatchMBeanCount = 0;
+		lastBatchChunkCount = 0;
+		lastBatchElapsed = 0L;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see javax.management.NotificationBroadcasterSupport#addNotificationListener(javax.management.NotificationListener, javax.management.NotificationFilter, java.lang.Object)
@@ -302,11 +1021,22 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	 */
 	@Override
 	public void handleNotification(Notification notification, Object handback) {
+		if(MBEAN_INFO_CHANGED.equals(notification.getType())) {
+			if(handback instanceof ObjectName) {
+				queuePlanMaintenance(pendingChanged, (ObjectName)handback);
+			} else if(notification.getSource() instanceof ObjectName) {
+				queuePlanMaintenance(pendingChanged, (ObjectName)notification.getSource());
+			}
+			return;
+		}
 		MBeanServerNotification msn = (MBeanServerNotification)notification;
 		if(msn.getType().equals(MBeanServerNotification.REGISTRATION_NOTIFICATION)) {
-			
+			queuePlanMaintenance(pendingRegistered, msn.getMBeanName());
 		} else if(msn.getType().equals(MBeanServerNotification.UNREGISTRATION_NOTIFICATION)) {
-			
+			queuePlanMaintenance(pendingUnregistered, msn.getMBeanName());
+			// Dropped synchronously so a provider or listener registered again under the same name is not removed by late maintenance
+			providers.remove(msn.getMBeanName());
+			infoChangeSubscriptions.remove(msn.getMBeanName());
 		}
 	}
 	
@@ -316,7 +1046,7 @@ public class BatchAttributeService extends NotificationBroadcasterSupport implem
 	 */
 	@Override
 	public boolean isNotificationEnabled(Notification notification) {
-		return notification!=null && (notification instanceof MBeanServerNotification);
+		return notification!=null && (notification instanceof MBeanServerNotification || MBEAN_INFO_CHANGED.equals(notification.getType()));
 	}
 	
 	
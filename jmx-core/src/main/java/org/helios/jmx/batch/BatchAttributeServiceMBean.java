@@ -0,0 +1,236 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: BatchAttributeServiceMBean</p>
+ * <p>Description: JMX MBean interface for {@link BatchAttributeService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BatchAttributeServiceMBean</code></p>
+ */
+
+public interface BatchAttributeServiceMBean {
+	/**
+	 * Retrieves the requested attributes from all the MBeans matching the passed ObjectNames/patterns, 
+	 * waiting no longer than the default batch timeout
+	 * @param criteria A map of attribute name to result key maps keyed by the ObjectName or ObjectName pattern to read from
+	 * @return a map of attribute values keyed by the result key, in a map keyed by ObjectName
+	 */
+	public Map<ObjectName, Map<String, Object>> batchGetAttributes(Map<ObjectName, Map<String, String>> criteria);
+	
+	/**
+	 * Retrieves the requested attributes from all the MBeans matching the passed ObjectNames/patterns, 
+	 * returning whatever has been read when the timeout elapses 
+	 * @param criteria A map of attribute name to result key maps keyed by the ObjectName or ObjectName pattern to read from
+	 * @param timeoutMs The maximum time to wait for the batch in ms. Values less than 1 use the default batch timeout
+	 * @return a map of attribute values keyed by the result key, in a map keyed by ObjectName
+	 */
+	public Map<ObjectName, Map<String, Object>> batchGetAttributes(Map<ObjectName, Map<String, String>> criteria, long timeoutMs);
+	
+	/**
+	 * Retrieves the requested attributes as {@link #batchGetAttributes(Map, long)} does, returning only the values that changed 
+	 * since the read that returned the passed token. See {@link DeltaTracker}.
+	 * @param criteria A map of attribute name to result key maps keyed by the ObjectName or ObjectName pattern to read from
+	 * @param timeoutMs The maximum time to wait for the batch in ms. Values less than 1 use the default batch timeout
+	 * @param sinceToken The token returned by the caller's last delta read, or <b><code>0</code></b> for a full result
+	 * @return the changed values and the token for the next read
+	 */
+	public DeltaResult batchGetAttributes(Map<ObjectName, Map<String, String>> criteria, long timeoutMs, long sinceToken);
+	
+	/**
+	 * Reads the numeric, composite and tabular attributes of the MBeans matching the passed pattern and flattens them on the server
+	 * to their numeric leaves, so only <b><code>(path, number)</code></b> pairs are returned. See {@link NumericFlattener} for the path format.
+	 * @param pattern The ObjectName or ObjectName pattern of the MBeans to read from
+	 * @param timeoutMs The maximum time to wait for the batch in ms. Values less than 1 use the default batch timeout
+	 * @return a map of numeric values keyed by path, in a map keyed by ObjectName
+	 */
+	public Map<ObjectName, Map<String, Number>> batchGetFlatNumerics(ObjectName pattern, long timeoutMs);
+	
+	/**
+	 * Reads and flattens numerics as {@link #batchGetFlatNumerics(ObjectName, long)} does, encoding the values as a compact {@link ColumnarResult}
+	 * @param pattern The ObjectName or ObjectName pattern of the MBeans to read from
+	 * @param timeoutMs The maximum time to wait for the batch in ms. Values less than 1 use the default batch timeout
+	 * @return the columnar encoding of the flattened numerics
+	 */
+	public ColumnarResult batchGetFlatNumericsColumnar(ObjectName pattern, long timeoutMs);
+	
+	/**
+	 * Returns a map of attribute values keyed by the attribute name, in a map keyed by ObjectName
+	 * @param type The name of the class or interface that target MBeans must inherrit from
+	 * @param preOp An optional pre-collect no-arg operation to invoke
+	 * @param postOp An optional post-collect no-arg operation to invoke
+	 * @param attrNames The attribute names to collect for from each located MBean
+	 * @return the map of values
+	 */
+	public Map<ObjectName, Map<String, Number>> batchGetNumerics(String type, String preOp, String postOp, String...attrNames);
+	
+	/**
+	 * Returns a map of attribute values keyed by the attribute name, in a map keyed by ObjectName
+	 * @param filter An ObjectName filter to narrow down the ObjectNames to query from
+	 * @param preOp An optional pre-collect no-arg operation to invoke
+	 * @param postOp An optional post-collect no-arg operation to invoke
+	 * @param attrNames The attribute names to collect for from each located MBean
+	 * @return the map of values
+	 */
+	public Map<ObjectName, Map<String, Number>> batchGetNumerics(ObjectName filter, String preOp, String postOp, String...attrNames);
+	
+	/**
+	 * Starts a batch subscription which collects the attributes selected by the passed filter from the MBeans matching the passed patterns
+	 * every period and emits one notification carrying the values that changed. See {@link BatchSubscription}.
+	 * @param patterns The ObjectName patterns of the MBeans to collect from
+	 * @param attributeFilter An {@link AttributeFilters} filter: <b><code>*:</code></b> for all attributes, <b><code>n:</code></b> for numeric 
+	 * attributes and composite numerics, <b><code>a:name,name/key,...</code></b> for named attributes, <b><code>r:regex</code></b> for 
+	 * attributes matching a regex or <b><code>t:type,...</code></b> for attributes of the named types
+	 * @param periodMs The collection period in ms.
+	 * @return the subscription id
+	 */
+	public long subscribe(ObjectName[] patterns, String attributeFilter, long periodMs);
+	
+	/**
+	 * Stops a batch subscription
+	 * @param subscriptionId The subscription id
+	 * @return true if the subscription was stopped, false if no subscription had the passed id
+	 */
+	public boolean unsubscribe(long subscriptionId);
+	
+	/**
+	 * Returns a description of each active subscription
+	 * @return a description of each active subscription
+	 */
+	public String[] getSubscriptions();
+	
+	/**
+	 * Returns the default batch timeout in ms.
+	 * @return the default batch timeout in ms.
+	 */
+	public long getBatchTimeout();
+	
+	/**
+	 * Sets the default batch timeout in ms.
+	 * @param timeoutMs the default batch timeout in ms.
+	 */
+	public void setBatchTimeout(long timeoutMs);
+	
+	/**
+	 * Returns the minimum number of attributes in a parallel chunk. Batches with fewer attributes are read in the calling thread.
+	 * @return the minimum number of attributes in a chunk
+	 */
+	public int getMinChunkSize();
+	
+	/**
+	 * Sets the minimum number of attributes in a parallel chunk
+	 * @param minChunkSize the minimum number of attributes in a chunk
+	 */
+	public void setMinChunkSize(int minChunkSize);
+	
+	/**
+	 * Returns the number of batches executed since the last reset
+	 * @return the number of batches executed
+	 */
+	public long getBatchCount();
+	
+	/**
+	 * Returns the number of batches that hit their deadline and returned partial results since the last reset
+	 * @return the number of timed out batches
+	 */
+	public long getTimeoutCount();
+	
+	/**
+	 * Returns the number of MBean reads that failed since the last reset
+	 * @return the number of failed MBean reads
+	 */
+	public long getErrorCount();
+	
+	/**
+	 * Returns the number of MBeans read in the last batch
+	 * @return the number of MBeans read in the last batch
+	 */
+	public int getLastBatchMBeanCount();
+	
+	/**
+	 * Returns the number of chunks the last batch was split into
+	 * @return the number of chunks in the last batch
+	 */
+	public int getLastBatchChunkCount();
+	
+	/**
+	 * Returns the elapsed time of the last batch in ms.
+	 * @return the elapsed time of the last batch in ms.
+	 */
+	public long getLastBatchElapsed();
+	
+	/**
+	 * Returns the number of distinct compiled read plans
+	 * @return the number of compiled read plans
+	 */
+	public int getPlanCount();
+	
+	/**
+	 * Returns the number of MBeans with a cached read plan
+	 * @return the number of planned MBeans
+	 */
+	public int getPlannedMBeanCount();
+	
+	/**
+	 * Returns the number of planned MBeans this service listens to for MBeanInfo changes
+	 * @return the number of MBeanInfo change subscriptions
+	 */
+	public int getInfoChangeSubscriptionCount();
+	
+	/**
+	 * Returns the number of plan maintenance batches run. Registration, unregistration and MBeanInfo change 
+	 * notifications arriving together are handled in one batch.
+	 * @return the number of plan maintenance batches
+	 */
+	public long getPlanMaintenanceCount();
+	
+	/**
+	 * Returns the number of MBean read plans dropped because the MBean was registered, unregistered or its MBeanInfo changed
+	 * @return the number of invalidated MBean read plans
+	 */
+	public long getPlanInvalidationCount();
+	
+	/**
+	 * Returns the number of registered {@link BatchedAttributeProvider} MBeans
+	 * @return the number of batched attribute providers
+	 */
+	public int getProviderCount();
+	
+	/**
+	 * Returns the number of "since token" readers with tracked values
+	 * @return the number of delta readers
+	 */
+	public int getDeltaReaderCount();
+	
+	/**
+	 * Resets the batch stats
+	 */
+	public void resetStats();
+}
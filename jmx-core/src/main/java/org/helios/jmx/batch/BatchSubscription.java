@@ -0,0 +1,246 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.ObjectName;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.helios.jmx.batch.AttributeFilters.CompiledFilter;
+import org.helios.jmx.batch.DeltaTracker.DeltaState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: BatchSubscription</p>
+ * <p>Description: A periodic server side collection of the attributes selected by an {@link AttributeFilters} filter from the MBeans
+ * matching a set of ObjectName patterns. Each collection emits one notification from the {@link BatchAttributeService} 
+ * carrying only the values that changed since the previous collection.</p>
+ * <p>The notification type is {@link BatchAttributeService#SUBSCRIPTION_NOTIFICATION} suffixed with <b><code>.&lt;subscription id&gt;</code></b>
+ * and the user data is a <b><code>HashMap&lt;ObjectName, HashMap&lt;String, Object&gt;&gt;</code></b> of the changed values, as determined
+ * by a {@link DeltaState}. The first notification carries all the values. Non serializable values are not sent.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BatchSubscription</code></p>
+ */
+
+public class BatchSubscription implements Runnable {
+	/** Instance logger */
+	private static final Logger LOG = LoggerFactory.getLogger(BatchSubscription.class);
+	/** The subscription id */
+	private final long id;
+	/** The batch service that collects for and emits notifications for this subscription */
+	private final BatchAttributeService service;
+	/** The ObjectName patterns of the MBeans to collect from */
+	private final ObjectName[] patterns;
+	/** The attribute filter */
+	private final String filter;
+	/** The collection period in ms. */
+	private final long period;
+	/** The notification type emitted for this subscription */
+	private final String notificationType;
+	/** The compiled attribute filter */
+	private final CompiledFilter compiled;
+	/** The batch criteria attribute map for each distinct filter selection, keyed by identity */
+	private final Map<String[], Map<String, String>> requests = new NonBlockingHashMap<String[], Map<String, String>>();
+	/** The fingerprints of the values sent in prior notifications */
+	private final DeltaState sent = new DeltaState();
+	/** The number of collections run */
+	private final AtomicLong collectionCount = new AtomicLong(0L);
+	/** The number of notifications sent */
+	private final AtomicLong notificationCount = new AtomicLong(0L);
+	/** The schedule handle */
+	private volatile ScheduledFuture<?> handle = null;
+	
+	/**
+	 * Creates a new BatchSubscription
+	 * @param id The subscription id
+	 * @param service The batch service that collects for and emits notifications for this subscription
+	 * @param patterns The ObjectName patterns of the MBeans to collect from
+	 * @param filter The attribute filter
+	 * @param period The collection period in ms.
+	 */
+	BatchSubscription(long id, BatchAttributeService service, ObjectName[] patterns, String filter, long period) {
+		if(patterns==null || patterns.length==0) throw new IllegalArgumentException("No ObjectName patterns specified", new Throwable());
+		if(period < 1) throw new IllegalArgumentException("Invalid subscription period [" + period + "]", new Throwable());
+		compiled = AttributeFilters.compile(filter);
+		this.id = id;
+		this.service = service;
+		this.patterns = patterns.clone();
+		this.filter = filter.trim();
+		this.period = period;
+		notificationType = BatchAttributeService.SUBSCRIPTION_NOTIFICATION + "." + id;
+	}
+	
+	/**
+	 * Sets the schedule handle used to cancel this subscription
+	 * @param handle the schedule handle
+	 */
+	void setHandle(ScheduledFuture<?> handle) {
+		this.handle = handle;
+	}
+	
+	/**
+	 * Cancels this subscription's collections and frees the fingerprints of the sent values
+	 */
+	void cancel() {
+		final ScheduledFuture<?> h = handle;
+		if(h!=null) h.cancel(false);
+		synchronized(sent) {
+			sent.close();
+		}
+	}
+	
+	/**
+	 * Collects the subscribed attributes and emits the changed values.
+	 * Not called concurrently as the scheduler does not overlap executions of the same task.
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			collectionCount.incrementAndGet();
+			final Map<ObjectName, Map<String, String>> criteria = new LinkedHashMap<ObjectName, Map<String, String>>();
+			for(ObjectName pattern: patterns) {
+				for(ObjectName on: service.getServer().queryNames(pattern, null)) {
+					if(criteria.containsKey(on)) continue;
+					final Map<String, String> request;
+					try {
+						request = request(compiled.select(service.getServer(), on));
+					} catch (Exception ex) {
+						continue;
+					}
+					if(!request.isEmpty()) criteria.put(on, request);
+				}
+			}
+			final Map<ObjectName, Map<String, Object>> values = service.batchGetAttributes(criteria, Math.min(period, service.getBatchTimeout()));
+			final HashMap<ObjectName, HashMap<String, Object>> delta;
+			synchronized(sent) {
+				// a collection running when the subscription is cancelled sends nothing
+				if(sent.isClosed()) return;
+				delta = sent.delta(values);
+			}
+			if(!delta.isEmpty()) {
+				final Notification notification = new Notification(notificationType, service.getObjectName(), service.nextNotificationId(), System.currentTimeMillis(), "Batch subscription #" + id + ": " + delta.size() + " MBeans changed");
+				notification.setUserData(delta);
+				service.sendNotification(notification);
+				notificationCount.incrementAndGet();
+			}
+		} catch (Exception ex) {
+			LOG.warn("Batch subscription #{} collection failed", id, ex);
+		}
+	}
+	
+	/**
+	 * Returns the batch criteria attribute map for the passed attribute selection
+	 * @param selected The attribute names selected by the filter for an MBean
+	 * @return a map of the attributes to read with null result keys
+	 */
+	private Map<String, String> request(String[] selected) {
+		Map<String, String> request = requests.get(selected);
+		if(request==null) {
+			request = new HashMap<String, String>(selected.length);
+			for(String name: selected) request.put(name, null);
+			requests.put(selected, request);
+		}
+		return request;
+	}
+	
+	/**
+	 * Returns the subscription id
+	 * @return the subscription id
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the ObjectName patterns of the MBeans collected from
+	 * @return the ObjectName patterns
+	 */
+	public ObjectName[] getPatterns() {
+		return patterns.clone();
+	}
+
+	/**
+	 * Returns the attribute filter
+	 * @return the attribute filter
+	 */
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Returns the collection period in ms.
+	 * @return the collection period in ms.
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Returns the notification type emitted for this subscription
+	 * @return the notification type
+	 */
+	public String getNotificationType() {
+		return notificationType;
+	}
+	
+	/**
+	 * Returns the number of collections run
+	 * @return the number of collections run
+	 */
+	public long getCollectionCount() {
+		return collectionCount.get();
+	}
+
+	/**
+	 * Returns the number of notifications sent
+	 * @return the number of notifications sent
+	 */
+	public long getNotificationCount() {
+		return notificationCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("BatchSubscription [id:").append(id)
+			.append(", patterns:").append(Arrays.toString(patterns))
+			.append(", filter:").append(filter)
+			.append(", period:").append(period)
+			.append("]").toString();
+	}
+}
@@ -24,14 +24,26 @@
  */
 package org.helios.jmx.batch;
 
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
 /**
  * <p>Title: BatchedAttributeProvider</p>
- * <p>Description: </p> 
+ * <p>Description: Marks an MBean whose attributes can be read in one generated call by the {@link BatchAttributeService}.
+ * On an MBean class, all the attribute getters of its management interface are batched. On getter methods, only the annotated attributes are.
+ * For MXBeans, only attributes whose open type is the same as their java type (primitives, wrappers and strings) are batched.
+ * Providers must be registered with {@link BatchAttributeService#registerProvider(Object, javax.management.ObjectName)}. 
+ * See {@link BatchedAttributeProviders}.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.jmx.batch.BatchedAttributeProvider</code></p>
  */
-
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
 public @interface BatchedAttributeProvider {
 
 }
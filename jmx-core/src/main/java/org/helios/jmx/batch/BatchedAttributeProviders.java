@@ -0,0 +1,288 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: BatchedAttributeProviders</p>
+ * <p>Description: Generates and caches a {@link BatchedAttributeReader} for each {@link BatchedAttributeProvider} MBean class, and creates the 
+ * {@link Provider} that a service keeps for each registered provider instance. Readers are cached against the MBean class itself, so they
+ * do not keep the class or its class loader reachable once the class is unloaded. The generated reader calls each batched getter directly through the MBean's 
+ * management interface and writes the values into a preallocated array, bypassing the MBeanServer's per attribute reflective dispatch.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BatchedAttributeProviders</code></p>
+ */
+
+public class BatchedAttributeProviders {
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(BatchedAttributeProviders.class);
+	/** The generated readers of each MBean implementation class keyed by management interface, since a class may be registered with different interfaces */
+	private static final ClassValue<NonBlockingHashMap<Class<?>, ReaderClass>> readers = new ClassValue<NonBlockingHashMap<Class<?>, ReaderClass>>() {
+		@Override
+		protected NonBlockingHashMap<Class<?>, ReaderClass> computeValue(Class<?> type) {
+			return new NonBlockingHashMap<Class<?>, ReaderClass>();
+		}
+	};
+	/** The cached entry for classes that are not providers */
+	private static final ReaderClass NO_READER = new ReaderClass(new String[0], null);
+	/** Generated reader class serial number factory */
+	private static final AtomicLong serialFactory = new AtomicLong(0L);
+	/** The types that MXBeans expose unchanged */
+	private static final Set<Class<?>> MXBEAN_IDENTITY_TYPES = Collections.unmodifiableSet(new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+		Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+		String.class, BigDecimal.class, BigInteger.class, Date.class, ObjectName.class
+	)));
+	
+	private BatchedAttributeProviders() {
+	}
+	
+	/**
+	 * Returns a provider for the passed MBean if it is annotated with {@link BatchedAttributeProvider}.
+	 * {@link StandardMBean}s are unwrapped to their implementation.
+	 * @param mbean The MBean
+	 * @return the provider, or null if the MBean is not a provider
+	 */
+	public static Provider provider(Object mbean) {
+		final Object target;
+		final Class<?> iface;
+		if(mbean instanceof StandardMBean) {
+			target = ((StandardMBean)mbean).getImplementation();
+			iface = ((StandardMBean)mbean).getMBeanInterface();
+		} else {
+			target = mbean;
+			iface = managementInterface(mbean.getClass());
+		}
+		if(iface==null) return null;
+		final ReaderClass readerClass = readerClass(target.getClass(), iface);
+		if(readerClass==NO_READER) return null;
+		return new Provider(target, readerClass);
+	}
+	
+	/**
+	 * Returns the standard MBean or MXBean interface implemented by the passed class or its superclasses
+	 * @param clazz The MBean class
+	 * @return the management interface or null if one is not found
+	 */
+	static Class<?> managementInterface(Class<?> clazz) {
+		for(Class<?> c = clazz; c!=null; c = c.getSuperclass()) {
+			for(Class<?> iface: c.getInterfaces()) {
+				if(iface.getName().equals(c.getName() + "MBean") || JMX.isMXBeanInterface(iface)) return iface;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the reader for the passed MBean class and management interface, generating it on first use
+	 * @param clazz The MBean implementation class
+	 * @param iface The MBean's management interface
+	 * @return the reader, or {@link #NO_READER} if the class is not a provider or the reader could not be generated
+	 */
+	private static ReaderClass readerClass(Class<?> clazz, Class<?> iface) {
+		final NonBlockingHashMap<Class<?>, ReaderClass> classReaders = readers.get(clazz);
+		ReaderClass readerClass = classReaders.get(iface);
+		if(readerClass==null) {
+			synchronized(classReaders) {
+				readerClass = classReaders.get(iface);
+				if(readerClass==null) {
+					try {
+						readerClass = generate(clazz, iface);
+					} catch (Exception ex) {
+						LOG.warn("Failed to generate batched attribute reader for [{}] as [{}]", clazz.getName(), iface.getName(), ex);
+						readerClass = NO_READER;
+					}
+					classReaders.put(iface, readerClass);
+				}
+			}
+		}
+		return readerClass;
+	}
+	
+	/**
+	 * Generates the reader for the passed MBean class
+	 * @param clazz The MBean implementation class
+	 * @param iface The MBean's management interface
+	 * @return the reader, or {@link #NO_READER} if the class has no batched attributes
+	 * @throws Exception thrown on any error generating the reader
+	 */
+	private static ReaderClass generate(Class<?> clazz, Class<?> iface) throws Exception {
+		final boolean all = clazz.isAnnotationPresent(BatchedAttributeProvider.class) || iface.isAnnotationPresent(BatchedAttributeProvider.class);
+		final boolean mxbean = JMX.isMXBeanInterface(iface);
+		final Map<String, Method> getters = new HashMap<String, Method>();
+		for(Method m: iface.getMethods()) {
+			final String name = attributeName(m);
+			if(name==null) continue;
+			if(mxbean && !m.getReturnType().isPrimitive() && !MXBEAN_IDENTITY_TYPES.contains(m.getReturnType())) continue;
+			if(!all && !m.isAnnotationPresent(BatchedAttributeProvider.class)) {
+				final Method impl = clazz.getMethod(m.getName());
+				if(!impl.isAnnotationPresent(BatchedAttributeProvider.class)) continue;
+			}
+			getters.put(name, m);
+		}
+		if(getters.isEmpty()) return NO_READER;
+		final List<String> names = new ArrayList<String>(getters.keySet());
+		Collections.sort(names);
+		final ClassPool cp = new ClassPool(true);
+		cp.appendClassPath(new LoaderClassPath(clazz.getClassLoader()));
+		cp.appendClassPath(new ClassClassPath(BatchedAttributeReader.class));
+		final CtClass readerCt = cp.makeClass(clazz.getName() + "BatchedReader" + serialFactory.incrementAndGet());
+		readerCt.addInterface(cp.get(BatchedAttributeReader.class.getName()));
+		final StringBuilder b = new StringBuilder("public void read(Object target, Object[] values) {\n\t");
+		b.append(iface.getName()).append(" t = (").append(iface.getName()).append(")$1;");
+		for(int i = 0; i < names.size(); i++) {
+			b.append("\n\t$2[").append(i).append("] = ($w)t.").append(getters.get(names.get(i)).getName()).append("();");
+		}
+		b.append("\n}");
+		final CtMethod read = CtNewMethod.make(b.toString(), readerCt);
+		readerCt.addMethod(read);
+		final Class<?> readerClazz = readerCt.toClass(clazz.getClassLoader(), clazz.getProtectionDomain());
+		readerCt.detach();
+		return new ReaderClass(names.toArray(new String[names.size()]), (BatchedAttributeReader)readerClazz.getDeclaredConstructor().newInstance());
+	}
+	
+	/**
+	 * Returns the attribute name of the passed getter
+	 * @param m The method
+	 * @return the attribute name, or null if the method is not a getter
+	 */
+	private static String attributeName(Method m) {
+		if(m.getParameterTypes().length!=0 || Modifier.isStatic(m.getModifiers())) return null;
+		final Class<?> type = m.getReturnType();
+		final String name = m.getName();
+		if(name.startsWith("get") && name.length() > 3 && type!=void.class) return name.substring(3);
+		if(name.startsWith("is") && name.length() > 2 && type==boolean.class) return name.substring(2);
+		return null;
+	}
+	
+	/**
+	 * <p>Title: ReaderClass</p>
+	 * <p>Description: The generated reader for an MBean class and the names of the attributes it reads</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.BatchedAttributeProviders.ReaderClass</code></p>
+	 */
+	private static class ReaderClass {
+		/** The attribute names in the order they are read */
+		final String[] names;
+		/** The generated reader */
+		final BatchedAttributeReader reader;
+		
+		/**
+		 * Creates a new ReaderClass
+		 * @param names The attribute names in the order they are read
+		 * @param reader The generated reader
+		 */
+		ReaderClass(String[] names, BatchedAttributeReader reader) {
+			this.names = names;
+			this.reader = reader;
+		}
+	}
+	
+	/**
+	 * <p>Title: Provider</p>
+	 * <p>Description: A registered batched attribute provider instance</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.BatchedAttributeProviders.Provider</code></p>
+	 */
+	public static class Provider {
+		/** The MBean implementation */
+		private final Object target;
+		/** The generated reader for the MBean's class */
+		private final ReaderClass readerClass;
+		
+		/**
+		 * Creates a new Provider
+		 * @param target The MBean implementation
+		 * @param readerClass The generated reader for the MBean's class
+		 */
+		Provider(Object target, ReaderClass readerClass) {
+			this.target = target;
+			this.readerClass = readerClass;
+		}
+		
+		/**
+		 * Returns the names of the batched attributes
+		 * @return the names of the batched attributes
+		 */
+		public String[] getAttributeNames() {
+			return readerClass.names.clone();
+		}
+		
+		/**
+		 * Indicates if the passed attribute is batched
+		 * @param name The attribute name
+		 * @return true if the attribute is batched
+		 */
+		public boolean provides(String name) {
+			return Arrays.binarySearch(readerClass.names, name) >= 0;
+		}
+		
+		/**
+		 * Reads all the batched attributes in one call
+		 * @return a map of the attribute values keyed by attribute name
+		 */
+		public Map<String, Object> read() {
+			final String[] names = readerClass.names;
+			final Object[] values = new Object[names.length];
+			readerClass.reader.read(target, values);
+			final Map<String, Object> map = new HashMap<String, Object>(names.length*2);
+			for(int i = 0; i < names.length; i++) {
+				map.put(names[i], values[i]);
+			}
+			return map;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.RuntimeErrorException;
+import javax.management.RuntimeMBeanException;
+import javax.management.RuntimeOperationsException;
+
+/**
+ * <p>Title: BulkError</p>
+ * <p>Description: Describes the failure of one target of a {@link BulkService} call. Only the exception class name and message are kept
+ * so a remote caller can deserialize the error without the target MBean's classes.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BulkError</code></p>
+ */
+
+public class BulkError implements Serializable {
+	/**  */
+	private static final long serialVersionUID = -2309467164850118465L;
+	/** The ObjectName of the failed target */
+	private final ObjectName objectName;
+	/** The name of the failed attribute, or null if the whole target failed */
+	private final String attribute;
+	/** The class name of the error's cause */
+	private final String errorClass;
+	/** The message of the error's cause */
+	private final String message;
+	
+	/**
+	 * Creates a new BulkError
+	 * @param objectName The ObjectName of the failed target
+	 * @param attribute The name of the failed attribute, or null if the whole target failed
+	 * @param errorClass The class name of the error's cause
+	 * @param message The message of the error's cause
+	 */
+	public BulkError(ObjectName objectName, String attribute, String errorClass, String message) {
+		this.objectName = objectName;
+		this.attribute = attribute;
+		this.errorClass = errorClass;
+		this.message = message;
+	}
+	
+	/**
+	 * Creates a new BulkError from an exception, unwrapping the JMX wrapper exceptions
+	 * @param objectName The ObjectName of the failed target
+	 * @param attribute The name of the failed attribute, or null if the whole target failed
+	 * @param t The error
+	 */
+	public BulkError(ObjectName objectName, String attribute, Throwable t) {
+		this(objectName, attribute, unwrap(t).getClass().getName(), unwrap(t).getMessage());
+	}
+	
+	/**
+	 * Creates a new BulkError for a target that did not complete in time
+	 * @param objectName The ObjectName of the timed out target
+	 * @param timeoutMs The timeout that elapsed in ms
+	 * @return the timeout error
+	 */
+	public static BulkError timeout(ObjectName objectName, long timeoutMs) {
+		return new BulkError(objectName, null, TimeoutException.class.getName(), "Timed out after " + timeoutMs + " ms");
+	}
+	
+	/**
+	 * Returns the cause of the passed JMX wrapper exception, or the passed exception if it is not a wrapper
+	 * @param t The exception to unwrap
+	 * @return the underlying cause
+	 */
+	private static Throwable unwrap(Throwable t) {
+		Throwable cause = null;
+		if(t instanceof MBeanException) cause = ((MBeanException)t).getTargetException();
+		else if(t instanceof ReflectionException) cause = ((ReflectionException)t).getTargetException();
+		else if(t instanceof RuntimeMBeanException) cause = ((RuntimeMBeanException)t).getTargetException();
+		else if(t instanceof RuntimeErrorException) cause = ((RuntimeErrorException)t).getTargetError();
+		else if(t instanceof RuntimeOperationsException) cause = ((RuntimeOperationsException)t).getTargetException();
+		return cause==null ? t : unwrap(cause);
+	}
+
+	/**
+	 * Returns the ObjectName of the failed target
+	 * @return the ObjectName of the failed target
+	 */
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	/**
+	 * Returns the name of the failed attribute
+	 * @return the name of the failed attribute, or null if the whole target failed
+	 */
+	public String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * Returns the class name of the error's cause
+	 * @return the class name of the error's cause
+	 */
+	public String getErrorClass() {
+		return errorClass;
+	}
+
+	/**
+	 * Returns the message of the error's cause
+	 * @return the message of the error's cause
+	 */
+	public String getMessage() {
+		return message;
+	}
+	
+	/**
+	 * Indicates if the target failed because it did not complete in time
+	 * @return true if the target timed out, false otherwise
+	 */
+	public boolean isTimeout() {
+		return TimeoutException.class.getName().equals(errorClass);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("BulkError [").append(objectName);
+		if(attribute!=null) b.append("/").append(attribute);
+		return b.append(": ").append(errorClass).append(": ").append(message).append("]").toString();
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: BulkResult</p>
+ * <p>Description: The result of a {@link BulkService} call: the values of the targets that succeeded and a {@link BulkError} for 
+ * each target or attribute that failed</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BulkResult</code></p>
+ * @param <T> The type of each target's value
+ */
+
+public class BulkResult<T> implements Serializable {
+	/**  */
+	private static final long serialVersionUID = 6215787946071424313L;
+	/** The values keyed by the ObjectName of the target they were read from */
+	private final HashMap<ObjectName, T> values;
+	/** The target and attribute errors */
+	private final ArrayList<BulkError> errors = new ArrayList<BulkError>(0);
+	
+	/**
+	 * Creates a new BulkResult
+	 * @param targets The expected number of targets
+	 */
+	public BulkResult(int targets) {
+		values = new HashMap<ObjectName, T>(targets);
+	}
+	
+	/**
+	 * Adds a target's value
+	 * @param objectName The ObjectName of the target
+	 * @param value The value
+	 */
+	void put(ObjectName objectName, T value) {
+		values.put(objectName, value);
+	}
+	
+	/**
+	 * Adds an error
+	 * @param error The error to add
+	 */
+	void addError(BulkError error) {
+		errors.add(error);
+	}
+	
+	/**
+	 * Adds the values and errors of the passed result to this result
+	 * @param result The result to merge in
+	 */
+	void merge(BulkResult<T> result) {
+		values.putAll(result.values);
+		errors.addAll(result.errors);
+	}
+
+	/**
+	 * Returns the values keyed by the ObjectName of the target they were read from
+	 * @return the values
+	 */
+	public HashMap<ObjectName, T> getValues() {
+		return values;
+	}
+
+	/**
+	 * Returns the target and attribute errors
+	 * @return the errors
+	 */
+	public List<BulkError> getErrors() {
+		return errors;
+	}
+	
+	/**
+	 * Indicates if any targets or attributes failed
+	 * @return true if there were errors, false otherwise
+	 */
+	public boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("BulkResult [values:").append(values.size()).append(", errors:").append(errors).append("]").toString();
+	}
+}
@@ -24,72 +24,342 @@
  */
 package org.helios.jmx.batch;
 
+import java.io.NotSerializableException;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.management.Attribute;
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import org.helios.jmx.concurrency.JMXManagedThreadPool;
+import org.helios.jmx.util.helpers.ConfigurationHelper;
+import org.helios.jmx.util.helpers.JMXHelper;
+
 /**
  * <p>Title: BulkService</p>
- * <p>Description: </p> 
+ * <p>Description: Reads attributes from, and invokes operations on, all the MBeans matching a set of ObjectNames in one call.
+ * Each target MBean is handled by its own task, reading all the requested attributes with one <b><code>getAttributes</code></b> call, 
+ * and the tasks are split into chunks run in parallel on a bounded thread pool shared by all instances. Targets that have not completed 
+ * when the timeout elapses are cancelled and, like any other failed target or attribute, reported as a {@link BulkError}.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.jmx.batch.BulkService</code></p>
  */
 
-public class BulkService implements MBeanRegistration {
+public class BulkService implements BulkServiceMBean, MBeanRegistration {
 	/** This MBean's ObjectName */
 	protected ObjectName myObjectName = null;
 	/** The MBeanServer this service is registered in */
 	protected MBeanServer server = null;
 	/** Indicates if registration has started on this instance */
 	protected boolean registered = false;
+	/** The values sent to "since token" readers */
+	protected final DeltaTracker deltaTracker = new DeltaTracker();
+	/** The default timeout for bulk calls in ms */
+	protected volatile long timeout = ConfigurationHelper.getLongSystemThenEnvProperty(TIMEOUT_PROP, DEFAULT_TIMEOUT);
+	
+	/** The thread pool shared by all bulk services */
+	private static volatile JMXManagedThreadPool threadPool = null;
+	/** The thread pool creation lock */
+	private static final Object lock = new Object();
+	
+	/** The JMX ObjectName of the bulk service thread pool */
+	public static final ObjectName THREAD_POOL_OBJECT_NAME = JMXHelper.objectName(new StringBuilder(JMXHelper.objectName(BulkService.class).toString()).append("ThreadPool"));
+	/** The system property or environment variable name for the default bulk call timeout in ms */
+	public static final String TIMEOUT_PROP = "bulk.timeout";
+	/** The default bulk call timeout in ms */
+	public static final long DEFAULT_TIMEOUT = 5000L;
+	
+	/**
+	 * Returns the thread pool shared by all bulk services, creating it if necessary
+	 * @return the bulk service thread pool
+	 */
+	protected static JMXManagedThreadPool threadPool() {
+		if(threadPool==null) {
+			synchronized(lock) {
+				if(threadPool==null) {
+					JMXManagedThreadPool pool = new JMXManagedThreadPool(THREAD_POOL_OBJECT_NAME, BulkService.class.getSimpleName());
+					// a saturated pool rejects chunks rather than running them on the caller ahead of the deadline wait
+					pool.setRejectedExecutionHandler(new JMXManagedThreadPool.AbortPolicy());
+					threadPool = pool;
+				}
+			}
+		}
+		return threadPool;
+	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#getAttributes(java.util.List, javax.management.ObjectName[])
+	 */
+	@Override
 	public Map<ObjectName, Map<String, Object>> getAttributes(List<String> attributeNames, ObjectName ...objectNames) {
-		Map<ObjectName, Map<String, Object>> map = null;
-		Set<ObjectName> resolved = new HashSet<ObjectName>();
-		for(ObjectName on: objectNames) {
-			resolved.addAll(server.queryNames(on, null));
+		return new HashMap<ObjectName, Map<String, Object>>(bulkGetAttributes(attributeNames, -1, objectNames).getValues());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#getAttributes(long, java.util.List, javax.management.ObjectName[])
+	 */
+	@Override
+	public DeltaResult getAttributes(long sinceToken, List<String> attributeNames, ObjectName ...objectNames) {
+		return deltaTracker.delta(sinceToken, getAttributes(attributeNames, objectNames));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#getAttributesColumnar(java.util.List, javax.management.ObjectName[])
+	 */
+	@Override
+	public ColumnarResult getAttributesColumnar(List<String> attributeNames, ObjectName ...objectNames) {
+		return ColumnarResult.encode(bulkGetAttributes(attributeNames, -1, objectNames));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#bulkGetAttributes(java.util.List, long, javax.management.ObjectName[])
+	 */
+	@Override
+	public BulkResult<HashMap<String, Object>> bulkGetAttributes(List<String> attributeNames, long timeoutMs, ObjectName ...objectNames) {
+		final MBeanServer mbs = server();
+		final String[] attributes = new LinkedHashSet<String>(attributeNames).toArray(new String[0]);
+		final Set<ObjectName> resolved = resolve(mbs, objectNames);
+		final Map<ObjectName, Callable<BulkResult<HashMap<String, Object>>>> tasks = new LinkedHashMap<ObjectName, Callable<BulkResult<HashMap<String, Object>>>>(resolved.size());
+		for(final ObjectName on: resolved) {
+			tasks.put(on, new Callable<BulkResult<HashMap<String, Object>>>() {
+				@Override
+				public BulkResult<HashMap<String, Object>> call() throws Exception {
+					return read(mbs, on, attributes);
+				}
+			});
 		}
-		map = new HashMap<ObjectName, Map<String, Object>>(resolved.size());
-		for(ObjectName on: resolved) { map.put(on, new HashMap<String, Object>()); }
-		for(ObjectName on: resolved) {
-			Map<String, Object> onMap = map.get(on);
-			for(String attr: attributeNames) {
-				try {
-					Object value = server.getAttribute(on, attr);
-					if(value instanceof Serializable) {
-						onMap.put(attr, value);
+		return fanOut(tasks, timeoutMs);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#invoke(javax.management.ObjectName[], java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	@Override
+	public Map<ObjectName, Object> invoke(ObjectName objectNames[], String opName, Object[] params, String[] signature) {
+		return new HashMap<ObjectName, Object>(bulkInvoke(objectNames, opName, params, signature, -1).getValues());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#bulkInvoke(javax.management.ObjectName[], java.lang.String, java.lang.Object[], java.lang.String[], long)
+	 */
+	@Override
+	public BulkResult<Object> bulkInvoke(ObjectName objectNames[], final String opName, final Object[] params, final String[] signature, long timeoutMs) {
+		final MBeanServer mbs = server();
+		final Set<ObjectName> resolved = resolve(mbs, objectNames);
+		final Map<ObjectName, Callable<BulkResult<Object>>> tasks = new LinkedHashMap<ObjectName, Callable<BulkResult<Object>>>(resolved.size());
+		for(final ObjectName on: resolved) {
+			tasks.put(on, new Callable<BulkResult<Object>>() {
+				@Override
+				public BulkResult<Object> call() throws Exception {
+					final BulkResult<Object> result = new BulkResult<Object>(1);
+					final Object value = mbs.invoke(on, opName, params, signature);
+					if(value==null || value instanceof Serializable) {
+						result.put(on, value);
+					} else {
+						result.addError(new BulkError(on, null, new NotSerializableException(value.getClass().getName())));
 					}
-				} catch (Exception ex) {}
+					return result;
+				}
+			});
+		}
+		return fanOut(tasks, timeoutMs);
+	}
+	
+	/**
+	 * Reads the passed attributes from one MBean with one <b><code>getAttributes</code></b> call. Since <b><code>getAttributes</code></b>
+	 * silently omits the attributes it could not read, those are read again singly to capture the cause.
+	 * @param mbs The MBeanServer to read from
+	 * @param on The ObjectName of the MBean to read from
+	 * @param attributes The distinct names of the attributes to read
+	 * @return the read values and any attribute errors
+	 * @throws Exception thrown if the MBean could not be read at all
+	 */
+	protected static BulkResult<HashMap<String, Object>> read(MBeanServer mbs, ObjectName on, String[] attributes) throws Exception {
+		final BulkResult<HashMap<String, Object>> result = new BulkResult<HashMap<String, Object>>(1);
+		final HashMap<String, Object> values = new HashMap<String, Object>(attributes.length);
+		final Set<String> done = new HashSet<String>(attributes.length);
+		for(Attribute attr: mbs.getAttributes(on, attributes).asList()) {
+			put(result, values, on, attr.getName(), attr.getValue());
+			done.add(attr.getName());
+		}
+		if(done.size() < attributes.length) {
+			for(String name: attributes) {
+				if(done.contains(name)) continue;
+				try {
+					put(result, values, on, name, mbs.getAttribute(on, name));
+				} catch (Exception ex) {
+					result.addError(new BulkError(on, name, ex));
+				}
 			}
 		}
-		return map;
+		result.put(on, values);
+		return result;
 	}
 	
-	public Map<ObjectName, Object> invoke(ObjectName objectNames[], String opName, Object[] params, String[] signature) {
-		Map<ObjectName, Object> map = null;
-		Set<ObjectName> resolved = new HashSet<ObjectName>();
-		for(ObjectName on: objectNames) {
-			resolved.addAll(server.queryNames(on, null));
+	/**
+	 * Adds a read attribute value to the passed values, or an error to the passed result if the value is not serializable
+	 * @param result The result to add errors to
+	 * @param values The values to add to
+	 * @param on The ObjectName of the MBean the value was read from
+	 * @param name The attribute name
+	 * @param value The attribute value
+	 */
+	private static void put(BulkResult<HashMap<String, Object>> result, Map<String, Object> values, ObjectName on, String name, Object value) {
+		if(value==null || value instanceof Serializable) {
+			values.put(name, value);
+		} else {
+			result.addError(new BulkError(on, name, new NotSerializableException(value.getClass().getName())));
+		}
+	}
+	
+	/**
+	 * Splits the targets' tasks into at most one chunk per core thread of the bulk thread pool and merges the results of the tasks that 
+	 * complete within the timeout. Each chunk runs its tasks in turn and stops starting tasks once the timeout has elapsed. Chunks rejected 
+	 * by a saturated pool are never run, and chunks still running at the deadline are cancelled, so the targets they did not complete are 
+	 * reported as timed out.
+	 * @param tasks The tasks keyed by the ObjectName of their target
+	 * @param timeoutMs The maximum time to wait for the targets in ms. Values less than 1 use the default timeout
+	 * @return the merged results
+	 */
+	protected <T> BulkResult<T> fanOut(Map<ObjectName, Callable<BulkResult<T>>> tasks, long timeoutMs) {
+		final long effectiveTimeout = timeoutMs < 1 ? timeout : timeoutMs;
+		final long deadline = System.currentTimeMillis() + effectiveTimeout;
+		final JMXManagedThreadPool pool = threadPool();
+		final Map<ObjectName, BulkResult<T>> completed = new ConcurrentHashMap<ObjectName, BulkResult<T>>(tasks.size());
+		final BulkResult<T> result = new BulkResult<T>(tasks.size());
+		if(tasks.isEmpty()) return result;
+		final int chunkCount = Math.max(1, Math.min(pool.getCorePoolSize(), tasks.size()));
+		final List<List<Map.Entry<ObjectName, Callable<BulkResult<T>>>>> chunks = new ArrayList<List<Map.Entry<ObjectName, Callable<BulkResult<T>>>>>(chunkCount);
+		for(int i = 0; i < chunkCount; i++) chunks.add(new ArrayList<Map.Entry<ObjectName, Callable<BulkResult<T>>>>(tasks.size()/chunkCount + 1));
+		int index = 0;
+		for(Map.Entry<ObjectName, Callable<BulkResult<T>>> task: tasks.entrySet()) {
+			chunks.get(index++ % chunkCount).add(task);
 		}
-		map = new HashMap<ObjectName, Object>(resolved.size());
-		for(ObjectName on: resolved) {
+		final List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount);
+		for(final List<Map.Entry<ObjectName, Callable<BulkResult<T>>>> chunk: chunks) {
 			try {
-				Object value = server.invoke(on, opName, params, signature);
-				if(value instanceof Serializable) {
-					map.put(on, value);
-				}				
-			} catch (Exception ex) {}
+				futures.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						runChunk(chunk, completed, deadline);
+					}
+				}));
+			} catch (RejectedExecutionException rex) {
+				/* No Op. The chunk's targets are not completed and are reported as timed out below */
+			}
+		}
+		for(Future<?> f: futures) {
+			long remaining = deadline - System.currentTimeMillis();
+			try {
+				if(remaining < 1 && !f.isDone()) throw new TimeoutException();
+				f.get(remaining < 1 ? 0 : remaining, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException tex) {
+				f.cancel(true);
+			} catch (InterruptedException iex) {
+				f.cancel(true);
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException eex) {
+				/* No Op. Task failures are recorded by the chunk, and the targets it did not complete are reported below */
+			}
+		}
+		// Snapshot the completed targets so late completions of cancelled chunks are not visible to the caller
+		final Map<ObjectName, BulkResult<T>> done = new HashMap<ObjectName, BulkResult<T>>(completed);
+		for(ObjectName on: tasks.keySet()) {
+			final BulkResult<T> r = done.get(on);
+			if(r!=null) result.merge(r);
+			else result.addError(BulkError.timeout(on, effectiveTimeout));
 		}
-		return map;
+		return result;
+	}
+	
+	/**
+	 * Runs the passed tasks in turn, recording each target's result or failure, until done, the deadline passes or the thread is interrupted
+	 * @param chunk The tasks to run keyed by the ObjectName of their target
+	 * @param completed The map to record each completed target's result into
+	 * @param deadline The deadline timestamp
+	 */
+	protected static <T> void runChunk(List<Map.Entry<ObjectName, Callable<BulkResult<T>>>> chunk, Map<ObjectName, BulkResult<T>> completed, long deadline) {
+		for(Map.Entry<ObjectName, Callable<BulkResult<T>>> task: chunk) {
+			if(System.currentTimeMillis() >= deadline || Thread.currentThread().isInterrupted()) return;
+			BulkResult<T> r;
+			try {
+				r = task.getValue().call();
+			} catch (Exception ex) {
+				r = new BulkResult<T>(1);
+				r.addError(new BulkError(task.getKey(), null, ex));
+			}
+			completed.put(task.getKey(), r);
+		}
+	}
+	
+	/**
+	 * Resolves the passed ObjectNames and patterns to the ObjectNames of the target MBeans.
+	 * Plain ObjectNames are not queried so that a missing MBean is reported as an error.
+	 * @param mbs The MBeanServer to query
+	 * @param objectNames The ObjectNames and patterns to resolve
+	 * @return the target ObjectNames
+	 */
+	protected static Set<ObjectName> resolve(MBeanServer mbs, ObjectName...objectNames) {
+		final Set<ObjectName> resolved = new LinkedHashSet<ObjectName>();
+		for(ObjectName on: objectNames) {
+			if(on.isPattern()) {
+				resolved.addAll(mbs.queryNames(on, null));
+			} else {
+				resolved.add(on);
+			}
+		}
+		return resolved;
+	}
+	
+	/**
+	 * Returns the MBeanServer this service is registered in, or the Helios MBeanServer if it has not been registered
+	 * @return the MBeanServer to call
+	 */
+	protected MBeanServer server() {
+		return server!=null ? server : JMXHelper.getHeliosMBeanServer();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#getTimeout()
+	 */
+	@Override
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.batch.BulkServiceMBean#setTimeout(long)
+	 */
+	@Override
+	public void setTimeout(long timeoutMs) {
+		if(timeoutMs < 1) throw new IllegalArgumentException("Invalid bulk timeout [" + timeoutMs + "]", new Throwable());
+		timeout = timeoutMs;
 	}
 
 	/**
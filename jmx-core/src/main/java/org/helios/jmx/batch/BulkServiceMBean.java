@@ -0,0 +1,110 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: BulkServiceMBean</p>
+ * <p>Description: JMX MBean interface for {@link BulkService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.BulkServiceMBean</code></p>
+ */
+
+public interface BulkServiceMBean {
+	/**
+	 * Retrieves the named attributes from the MBeans matching the passed ObjectNames, dropping failed targets and attributes
+	 * @param attributeNames The names of the attributes to read
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to read from
+	 * @return a map of attribute values keyed by attribute name, in a map keyed by ObjectName
+	 */
+	public Map<ObjectName, Map<String, Object>> getAttributes(List<String> attributeNames, ObjectName ...objectNames);
+	
+	/**
+	 * Retrieves the named attributes from the MBeans matching the passed ObjectNames, returning only the values that changed 
+	 * since the read that returned the passed token. See {@link DeltaTracker}.
+	 * @param sinceToken The token returned by the caller's last delta read, or <b><code>0</code></b> for a full result
+	 * @param attributeNames The names of the attributes to read
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to read from
+	 * @return the changed values and the token for the next read
+	 */
+	public DeltaResult getAttributes(long sinceToken, List<String> attributeNames, ObjectName ...objectNames);
+	
+	/**
+	 * Retrieves the named attributes from the MBeans matching the passed ObjectNames as {@link #getAttributes(List, ObjectName...)} does, 
+	 * encoding the values as a compact {@link ColumnarResult}. Failed targets and attributes are returned by {@link ColumnarResult#getErrors()}.
+	 * @param attributeNames The names of the attributes to read
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to read from
+	 * @return the columnar encoding of the values
+	 */
+	public ColumnarResult getAttributesColumnar(List<String> attributeNames, ObjectName ...objectNames);
+	
+	/**
+	 * Retrieves the named attributes from the MBeans matching the passed ObjectNames, reporting each failed target or attribute
+	 * @param attributeNames The names of the attributes to read
+	 * @param timeoutMs The maximum time to wait for the targets in ms. Values less than 1 use the default timeout
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to read from
+	 * @return the attribute values keyed by attribute name for each target, and the errors
+	 */
+	public BulkResult<HashMap<String, Object>> bulkGetAttributes(List<String> attributeNames, long timeoutMs, ObjectName ...objectNames);
+	
+	/**
+	 * Invokes the named operation on the MBeans matching the passed ObjectNames, dropping failed targets
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to invoke
+	 * @param opName The operation name
+	 * @param params The operation parameters
+	 * @param signature The operation signature
+	 * @return the return values keyed by ObjectName
+	 */
+	public Map<ObjectName, Object> invoke(ObjectName objectNames[], String opName, Object[] params, String[] signature);
+	
+	/**
+	 * Invokes the named operation on the MBeans matching the passed ObjectNames, reporting each failed target
+	 * @param objectNames The ObjectNames or ObjectName patterns of the MBeans to invoke
+	 * @param opName The operation name
+	 * @param params The operation parameters
+	 * @param signature The operation signature
+	 * @param timeoutMs The maximum time to wait for the targets in ms. Values less than 1 use the default timeout
+	 * @return the return values keyed by ObjectName, and the errors
+	 */
+	public BulkResult<Object> bulkInvoke(ObjectName objectNames[], String opName, Object[] params, String[] signature, long timeoutMs);
+	
+	/**
+	 * Returns the default timeout for bulk calls
+	 * @return the default timeout in ms
+	 */
+	public long getTimeout();
+	
+	/**
+	 * Sets the default timeout for bulk calls
+	 * @param timeoutMs the default timeout in ms
+	 */
+	public void setTimeout(long timeoutMs);
+}
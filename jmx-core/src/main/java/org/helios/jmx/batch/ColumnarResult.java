@@ -0,0 +1,425 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.helios.jmx.util.helpers.JMXHelper;
+
+/**
+ * <p>Title: ColumnarResult</p>
+ * <p>Description: A compact, column oriented encoding of a map of attribute values keyed by attribute name in a map keyed by ObjectName.
+ * Each distinct ObjectName and attribute name is stored once in a dictionary, and each value is stored as an entry in one of three columns:
+ * integral numbers in a <b><code>long[]</code></b>, floating point numbers in a <b><code>double[]</code></b> and everything else in an
+ * <b><code>Object[]</code></b>. Each column has an ObjectName and an attribute name index vector, and the numeric columns have a type 
+ * vector so the original boxed types can be restored.</p>
+ * <p>Nothing is boxed or parsed on deserialization. The entries can be read one at a time from the columns, or all at once with {@link #decode()}.</p>
+ * <p>The errors of the read that produced the values, if any, are carried alongside the columns and returned by {@link #getErrors()}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.ColumnarResult</code></p>
+ */
+
+public class ColumnarResult implements Serializable {
+	/**  */
+	private static final long serialVersionUID = -4178004535939418946L;
+	
+	/** Type code for a Long value */
+	public static final byte LONG = 0;
+	/** Type code for an Integer value */
+	public static final byte INT = 1;
+	/** Type code for a Short value */
+	public static final byte SHORT = 2;
+	/** Type code for a Byte value */
+	public static final byte BYTE = 3;
+	/** Type code for a Double value */
+	public static final byte DOUBLE = 4;
+	/** Type code for a Float value */
+	public static final byte FLOAT = 5;
+	
+	/** The canonical names of the distinct ObjectNames */
+	private final String[] objectNames;
+	/** The distinct attribute names */
+	private final String[] attributeNames;
+	
+	/** The ObjectName index of each long column entry */
+	private final int[] longObjectNames;
+	/** The attribute name index of each long column entry */
+	private final int[] longAttributes;
+	/** The type code of each long column entry */
+	private final byte[] longTypes;
+	/** The long column values */
+	private final long[] longValues;
+	
+	/** The ObjectName index of each double column entry */
+	private final int[] doubleObjectNames;
+	/** The attribute name index of each double column entry */
+	private final int[] doubleAttributes;
+	/** The type code of each double column entry */
+	private final byte[] doubleTypes;
+	/** The double column values */
+	private final double[] doubleValues;
+	
+	/** The ObjectName index of each object column entry */
+	private final int[] objectObjectNames;
+	/** The attribute name index of each object column entry */
+	private final int[] objectAttributes;
+	/** The object column values */
+	private final Object[] objectValues;
+	
+	/** The target and attribute errors of the read that produced the values */
+	private final ArrayList<BulkError> errors;
+	
+	/** The ObjectNames parsed so far */
+	private transient ObjectName[] parsed = null;
+	
+	/**
+	 * Encodes the passed values
+	 * @param values A map of attribute values keyed by attribute name in a map keyed by ObjectName
+	 * @return the columnar encoding of the values
+	 */
+	public static ColumnarResult encode(Map<ObjectName, ? extends Map<String, ?>> values) {
+		return new ColumnarResult(values, null);
+	}
+	
+	/**
+	 * Encodes the values and errors of the passed bulk read
+	 * @param result The result of a bulk attribute read
+	 * @return the columnar encoding of the values, carrying the errors
+	 */
+	public static ColumnarResult encode(BulkResult<? extends Map<String, ?>> result) {
+		return new ColumnarResult(result.getValues(), result.getErrors());
+	}
+	
+	/**
+	 * Creates a new ColumnarResult
+	 * @param values A map of attribute values keyed by attribute name in a map keyed by ObjectName
+	 * @param errors The errors of the read that produced the values. Null if there were none.
+	 */
+	private ColumnarResult(Map<ObjectName, ? extends Map<String, ?>> values, Collection<BulkError> errors) {
+		this.errors = errors==null ? new ArrayList<BulkError>(0) : new ArrayList<BulkError>(errors);
+		int total = 0;
+		for(Map<String, ?> attrs: values.values()) {
+			total += attrs.size();
+		}
+		objectNames = new String[values.size()];
+		final Map<String, Integer> attributeDictionary = new HashMap<String, Integer>();
+		int[] lon = new int[total], lattr = new int[total], don = new int[total], dattr = new int[total], oon = new int[total], oattr = new int[total];
+		byte[] ltype = new byte[total], dtype = new byte[total];
+		long[] lvals = new long[total];
+		double[] dvals = new double[total];
+		Object[] ovals = new Object[total];
+		int ons = 0, longs = 0, doubles = 0, objects = 0;
+		for(Map.Entry<ObjectName, ? extends Map<String, ?>> entry: values.entrySet()) {
+			final int on = ons++;
+			objectNames[on] = entry.getKey().getCanonicalName();
+			for(Map.Entry<String, ?> attr: entry.getValue().entrySet()) {
+				Integer ai = attributeDictionary.get(attr.getKey());
+				if(ai==null) {
+					ai = attributeDictionary.size();
+					attributeDictionary.put(attr.getKey(), ai);
+				}
+				final Object value = attr.getValue();
+				final byte type = typeOf(value);
+				if(type==-1) {
+					oon[objects] = on; oattr[objects] = ai; ovals[objects] = value;
+					objects++;
+				} else if(type >= DOUBLE) {
+					don[doubles] = on; dattr[doubles] = ai; dtype[doubles] = type; dvals[doubles] = ((Number)value).doubleValue();
+					doubles++;
+				} else {
+					lon[longs] = on; lattr[longs] = ai; ltype[longs] = type; lvals[longs] = ((Number)value).longValue();
+					longs++;
+				}
+			}
+		}
+		attributeNames = new String[attributeDictionary.size()];
+		for(Map.Entry<String, Integer> entry: attributeDictionary.entrySet()) {
+			attributeNames[entry.getValue()] = entry.getKey();
+		}
+		longObjectNames = Arrays.copyOf(lon, longs);
+		longAttributes = Arrays.copyOf(lattr, longs);
+		longTypes = Arrays.copyOf(ltype, longs);
+		longValues = Arrays.copyOf(lvals, longs);
+		doubleObjectNames = Arrays.copyOf(don, doubles);
+		doubleAttributes = Arrays.copyOf(dattr, doubles);
+		doubleTypes = Arrays.copyOf(dtype, doubles);
+		doubleValues = Arrays.copyOf(dvals, doubles);
+		objectObjectNames = Arrays.copyOf(oon, objects);
+		objectAttributes = Arrays.copyOf(oattr, objects);
+		objectValues = Arrays.copyOf(ovals, objects);
+	}
+	
+	/**
+	 * Returns the numeric column type code of the passed value
+	 * @param value The value to type
+	 * @return the type code, or -1 if the value belongs in the object column
+	 */
+	private static byte typeOf(Object value) {
+		if(value instanceof Long) return LONG;
+		if(value instanceof Integer) return INT;
+		if(value instanceof Double) return DOUBLE;
+		if(value instanceof Float) return FLOAT;
+		if(value instanceof Short) return SHORT;
+		if(value instanceof Byte) return BYTE;
+		return -1;
+	}
+	
+	/**
+	 * Boxes a long column value as its original type
+	 * @param type The type code
+	 * @param value The value
+	 * @return the boxed value
+	 */
+	private static Number box(byte type, long value) {
+		switch(type) {
+			case INT: return (int)value;
+			case SHORT: return (short)value;
+			case BYTE: return (byte)value;
+			default: return value;
+		}
+	}
+	
+	/**
+	 * Decodes all the values
+	 * @return a map of attribute values keyed by attribute name in a map keyed by ObjectName
+	 */
+	public HashMap<ObjectName, HashMap<String, Object>> decode() {
+		final HashMap<ObjectName, HashMap<String, Object>> map = new HashMap<ObjectName, HashMap<String, Object>>(objectNames.length);
+		final HashMap<?, ?>[] byIndex = new HashMap<?, ?>[objectNames.length];
+		for(int i = 0; i < objectNames.length; i++) {
+			final HashMap<String, Object> attrs = new HashMap<String, Object>();
+			byIndex[i] = attrs;
+			map.put(getObjectName(i), attrs);
+		}
+		for(int i = 0; i < longValues.length; i++) {
+			attrs(byIndex, longObjectNames[i]).put(attributeNames[longAttributes[i]], box(longTypes[i], longValues[i]));
+		}
+		for(int i = 0; i < doubleValues.length; i++) {
+			attrs(byIndex, doubleObjectNames[i]).put(attributeNames[doubleAttributes[i]], getDoubleValue(i));
+		}
+		for(int i = 0; i < objectValues.length; i++) {
+			attrs(byIndex, objectObjectNames[i]).put(attributeNames[objectAttributes[i]], objectValues[i]);
+		}
+		return map;
+	}
+	
+	/**
+	 * Returns the attribute map at the passed index
+	 * @param byIndex The attribute maps by ObjectName index
+	 * @param index The ObjectName index
+	 * @return the attribute map
+	 */
+	@SuppressWarnings("unchecked")
+	private static HashMap<String, Object> attrs(HashMap<?, ?>[] byIndex, int index) {
+		return (HashMap<String, Object>)byIndex[index];
+	}
+	
+	/**
+	 * Returns the target and attribute errors of the read that produced the values
+	 * @return the errors
+	 */
+	public List<BulkError> getErrors() {
+		return errors;
+	}
+	
+	/**
+	 * Returns the number of distinct ObjectNames
+	 * @return the number of distinct ObjectNames
+	 */
+	public int getObjectNameCount() {
+		return objectNames.length;
+	}
+	
+	/**
+	 * Returns the ObjectName at the passed dictionary index, parsing it on first access
+	 * @param index The ObjectName dictionary index
+	 * @return the ObjectName
+	 */
+	public ObjectName getObjectName(int index) {
+		if(parsed==null) parsed = new ObjectName[objectNames.length];
+		ObjectName on = parsed[index];
+		if(on==null) {
+			on = JMXHelper.objectName(objectNames[index]);
+			parsed[index] = on;
+		}
+		return on;
+	}
+	
+	/**
+	 * Returns the number of distinct attribute names
+	 * @return the number of distinct attribute names
+	 */
+	public int getAttributeNameCount() {
+		return attributeNames.length;
+	}
+	
+	/**
+	 * Returns the attribute name at the passed dictionary index
+	 * @param index The attribute name dictionary index
+	 * @return the attribute name
+	 */
+	public String getAttributeName(int index) {
+		return attributeNames[index];
+	}
+	
+	/**
+	 * Returns the number of entries in the long column
+	 * @return the number of long values
+	 */
+	public int getLongCount() {
+		return longValues.length;
+	}
+	
+	/**
+	 * Returns the ObjectName dictionary index of a long column entry
+	 * @param entry The long column entry
+	 * @return the ObjectName dictionary index
+	 */
+	public int getLongObjectName(int entry) {
+		return longObjectNames[entry];
+	}
+	
+	/**
+	 * Returns the attribute name dictionary index of a long column entry
+	 * @param entry The long column entry
+	 * @return the attribute name dictionary index
+	 */
+	public int getLongAttribute(int entry) {
+		return longAttributes[entry];
+	}
+	
+	/**
+	 * Returns the value of a long column entry
+	 * @param entry The long column entry
+	 * @return the value
+	 */
+	public long getLong(int entry) {
+		return longValues[entry];
+	}
+	
+	/**
+	 * Returns the number of entries in the double column
+	 * @return the number of double values
+	 */
+	public int getDoubleCount() {
+		return doubleValues.length;
+	}
+	
+	/**
+	 * Returns the ObjectName dictionary index of a double column entry
+	 * @param entry The double column entry
+	 * @return the ObjectName dictionary index
+	 */
+	public int getDoubleObjectName(int entry) {
+		return doubleObjectNames[entry];
+	}
+	
+	/**
+	 * Returns the attribute name dictionary index of a double column entry
+	 * @param entry The double column entry
+	 * @return the attribute name dictionary index
+	 */
+	public int getDoubleAttribute(int entry) {
+		return doubleAttributes[entry];
+	}
+	
+	/**
+	 * Returns the value of a double column entry
+	 * @param entry The double column entry
+	 * @return the value
+	 */
+	public double getDouble(int entry) {
+		return doubleValues[entry];
+	}
+	
+	/**
+	 * Returns the value of a double column entry boxed as its original type
+	 * @param entry The double column entry
+	 * @return the boxed value
+	 */
+	private Number getDoubleValue(int entry) {
+		if(doubleTypes[entry]==FLOAT) return (float)doubleValues[entry];
+		return doubleValues[entry];
+	}
+	
+	/**
+	 * Returns the number of entries in the object column
+	 * @return the number of non numeric values
+	 */
+	public int getObjectCount() {
+		return objectValues.length;
+	}
+	
+	/**
+	 * Returns the ObjectName dictionary index of an object column entry
+	 * @param entry The object column entry
+	 * @return the ObjectName dictionary index
+	 */
+	public int getObjectObjectName(int entry) {
+		return objectObjectNames[entry];
+	}
+	
+	/**
+	 * Returns the attribute name dictionary index of an object column entry
+	 * @param entry The object column entry
+	 * @return the attribute name dictionary index
+	 */
+	public int getObjectAttribute(int entry) {
+		return objectAttributes[entry];
+	}
+	
+	/**
+	 * Returns the value of an object column entry
+	 * @param entry The object column entry
+	 * @return the value
+	 */
+	public Object getObject(int entry) {
+		return objectValues[entry];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("ColumnarResult [objectNames:").append(objectNames.length)
+			.append(", attributes:").append(attributeNames.length)
+			.append(", longs:").append(longValues.length)
+			.append(", doubles:").append(doubleValues.length)
+			.append(", objects:").append(objectValues.length)
+			.append(", errors:").append(errors.size())
+			.append("]").toString();
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * <p>Title: DeltaResult</p>
+ * <p>Description: The result of a "since token" batch read. Holds the values that changed since the read that issued the passed token 
+ * and the token to pass to the next read. See {@link DeltaTracker}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.DeltaResult</code></p>
+ */
+
+public class DeltaResult implements Serializable {
+	/**  */
+	private static final long serialVersionUID = 6402581736474426547L;
+	/** The token to pass to the next read */
+	private final long token;
+	/** Indicates if the values are a full result rather than a delta */
+	private final boolean full;
+	/** The changed values keyed by attribute name in a map keyed by ObjectName */
+	private final HashMap<ObjectName, HashMap<String, Object>> values;
+	
+	/**
+	 * Creates a new DeltaResult
+	 * @param token The token to pass to the next read
+	 * @param full true if the values are a full result, false if they are the changes since the passed token
+	 * @param values The changed values
+	 */
+	public DeltaResult(long token, boolean full, HashMap<ObjectName, HashMap<String, Object>> values) {
+		this.token = token;
+		this.full = full;
+		this.values = values;
+	}
+
+	/**
+	 * Returns the token to pass to the next read
+	 * @return the token to pass to the next read
+	 */
+	public long getToken() {
+		return token;
+	}
+
+	/**
+	 * Indicates if the values are a full result, in which case the caller should discard any values it holds from prior reads.
+	 * Full results are returned for the first read, and when the passed token was unknown, expired or stale.
+	 * @return true if the values are a full result, false if they are the changes since the passed token
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Returns the changed values keyed by attribute name in a map keyed by ObjectName
+	 * @return the changed values
+	 */
+	public Map<ObjectName, HashMap<String, Object>> getValues() {
+		return values;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("DeltaResult [token:").append(token)
+			.append(", full:").append(full)
+			.append(", mbeans:").append(values.size())
+			.append("]").toString();
+	}
+}
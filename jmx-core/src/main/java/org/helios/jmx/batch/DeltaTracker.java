@@ -0,0 +1,334 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.helios.jmx.util.helpers.ConfigurationHelper;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongLongMap;
+
+/**
+ * <p>Title: DeltaTracker</p>
+ * <p>Description: Tracks the values last sent to "since token" readers so only changed values need to be sent.</p>
+ * <p>Each reader's state is a {@link DeltaState}: an off-heap {@link UnsafeLongLongMap} of a 64 bit hash of the ObjectName and attribute name
+ * to a 64 bit fingerprint of the last sent value. Numbers are fingerprinted exactly (the long value, or the bits of the double value), strings
+ * by a 64 bit hash and other values by their hash code, so a change in a non-numeric value that leaves its hash code unchanged is not sent.</p>
+ * <p>Tokens combine the state id and a sequence. A read with a token of <b><code>0</code></b>, an unknown or expired token, or a token 
+ * other than the one issued by the state's last read gets a full result.</p>
+ * <p>Each state holds native memory, so states are capped at {@link #MAX_STATES_PROP}. When the cap is reached, expired states are swept and 
+ * if none expired the least recently used state is discarded, so its reader gets a full result on its next read. Discarded states are closed 
+ * to free their tables immediately.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.DeltaTracker</code></p>
+ */
+
+public class DeltaTracker {
+	/** The system property or env var name for the time in ms. after which an unused reader state is discarded */
+	public static final String EXPIRY_PROP = "batch.delta.expiry";
+	/** The default time in ms. after which an unused reader state is discarded */
+	public static final long DEFAULT_EXPIRY = 600000L;
+	/** The system property or env var name for the maximum number of reader states */
+	public static final String MAX_STATES_PROP = "batch.delta.maxstates";
+	/** The default maximum number of reader states */
+	public static final int DEFAULT_MAX_STATES = 1024;
+	/** The token that requests a full result and a new reader state */
+	public static final long NO_TOKEN = 0L;
+	/** The number of token bits holding the sequence */
+	private static final int SEQUENCE_BITS = 24;
+	/** The sequence mask */
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	
+	/** The reader states keyed by state id */
+	private final NonBlockingHashMap<Long, DeltaState> states = new NonBlockingHashMap<Long, DeltaState>();
+	/** Factory for state ids */
+	private final AtomicLong stateIdFactory = new AtomicLong(0L);
+	/** The time in ms. after which an unused reader state is discarded */
+	private final long expiry;
+	/** The maximum number of reader states */
+	private final int maxStates;
+	/** The timestamp of the last expiry sweep */
+	private volatile long lastSweep = System.currentTimeMillis();
+	
+	/**
+	 * Creates a new DeltaTracker with the configured expiry and maximum number of reader states
+	 */
+	public DeltaTracker() {
+		this(ConfigurationHelper.getLongSystemThenEnvProperty(EXPIRY_PROP, DEFAULT_EXPIRY), ConfigurationHelper.getIntSystemThenEnvProperty(MAX_STATES_PROP, DEFAULT_MAX_STATES));
+	}
+	
+	/**
+	 * Creates a new DeltaTracker
+	 * @param expiry The time in ms. after which an unused reader state is discarded
+	 * @param maxStates The maximum number of reader states
+	 */
+	public DeltaTracker(long expiry, int maxStates) {
+		if(expiry < 1) throw new IllegalArgumentException("Invalid expiry [" + expiry + "]", new Throwable());
+		if(maxStates < 1) throw new IllegalArgumentException("Invalid max states [" + maxStates + "]", new Throwable());
+		this.expiry = expiry;
+		this.maxStates = maxStates;
+	}
+	
+	/**
+	 * Computes the delta of the passed values for the reader holding the passed token
+	 * @param sinceToken The token returned by the reader's last read, or {@link #NO_TOKEN} for a full result
+	 * @param values The values just read
+	 * @return the changed values and the next token
+	 */
+	public DeltaResult delta(long sinceToken, Map<ObjectName, Map<String, Object>> values) {
+		final long now = System.currentTimeMillis();
+		if(now - lastSweep > expiry/4) sweep(now);
+		final long stateId = sinceToken >>> SEQUENCE_BITS;
+		DeltaState state = sinceToken==NO_TOKEN ? null : states.get(stateId);
+		while(true) {
+			if(state==null) state = newState(now);
+			synchronized(state) {
+				// a state discarded since it was looked up is replaced
+				if(!state.isClosed()) {
+					state.lastUsed = now;
+					final boolean full = sinceToken!=state.token();
+					if(full) state.clear();
+					final HashMap<ObjectName, HashMap<String, Object>> delta = state.delta(values);
+					state.sequence = (state.sequence + 1) & SEQUENCE_MASK;
+					return new DeltaResult(state.token(), full, delta);
+				}
+			}
+			state = null;
+		}
+	}
+	
+	/**
+	 * Creates and registers a new reader state, first making room if the maximum number of states has been reached
+	 * @param now The current time
+	 * @return the new state
+	 */
+	private DeltaState newState(long now) {
+		if(states.size() >= maxStates) {
+			sweep(now);
+			while(states.size() >= maxStates && evictOldest()) {/* No Op */}
+		}
+		final DeltaState state = new DeltaState();
+		final long id = stateIdFactory.incrementAndGet();
+		state.id = id;
+		states.put(id, state);
+		return state;
+	}
+	
+	/**
+	 * Discards and closes the least recently used reader state
+	 * @return true if a state was discarded, false if there were no states
+	 */
+	private boolean evictOldest() {
+		Map.Entry<Long, DeltaState> oldest = null;
+		for(Map.Entry<Long, DeltaState> entry: states.entrySet()) {
+			if(oldest==null || entry.getValue().lastUsed < oldest.getValue().lastUsed) oldest = entry;
+		}
+		if(oldest==null) return false;
+		if(states.remove(oldest.getKey(), oldest.getValue())) discard(oldest.getValue());
+		return true;
+	}
+	
+	/**
+	 * Discards reader states not used within the expiry period
+	 * @param now The current time
+	 */
+	private void sweep(long now) {
+		lastSweep = now;
+		for(Iterator<DeltaState> iter = states.values().iterator(); iter.hasNext();) {
+			final DeltaState state = iter.next();
+			if(now - state.lastUsed > expiry) {
+				iter.remove();
+				discard(state);
+			}
+		}
+	}
+	
+	/**
+	 * Closes a discarded reader state once no reader is using it
+	 * @param state The discarded state
+	 */
+	private static void discard(DeltaState state) {
+		synchronized(state) {
+			state.close();
+		}
+	}
+	
+	/**
+	 * Returns the number of reader states
+	 * @return the number of reader states
+	 */
+	public int getStateCount() {
+		return states.size();
+	}
+	
+	/**
+	 * Returns a 64 bit FNV-1a hash of the passed characters, continuing from the passed hash
+	 * @param hash The hash to continue from
+	 * @param chars The characters to hash
+	 * @return the updated hash
+	 */
+	private static long fnv(long hash, CharSequence chars) {
+		for(int i = 0, len = chars.length(); i < len; i++) {
+			hash ^= chars.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * Returns the table key for the passed ObjectName and attribute name
+	 * @param objectName The ObjectName hash
+	 * @param attributeName The attribute name
+	 * @return the table key
+	 */
+	static long key(long objectName, String attributeName) {
+		return fnv(objectName ^ '/', attributeName);
+	}
+	
+	/**
+	 * Returns the 64 bit fingerprint of the passed value
+	 * @param value The value
+	 * @return the fingerprint
+	 */
+	static long fingerprint(Object value) {
+		if(value==null) return 0x5bd1e9955bd1e995L;
+		if(value instanceof Double || value instanceof Float) return Double.doubleToLongBits(((Number)value).doubleValue());
+		if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) return ((Number)value).longValue();
+		if(value instanceof Boolean) return ((Boolean)value).booleanValue() ? 1L : 2L;
+		if(value instanceof CharSequence) return fnv(0xcbf29ce484222325L, (CharSequence)value);
+		long h = Arrays.deepHashCode(new Object[]{value}) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+	
+	/**
+	 * <p>Title: DeltaState</p>
+	 * <p>Description: The fingerprints of the values last sent to one reader. The fingerprints are held in native memory 
+	 * which is freed when the state is closed, or failing that, when it is collected.</p> 
+	 * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.DeltaTracker.DeltaState</code></p>
+	 */
+	public static class DeltaState implements Closeable {
+		/** The value the table returns for missing keys */
+		private static final long NO_ENTRY = Long.MIN_VALUE + 0x5bd1L;
+		/** The number of stale entries tolerated beyond twice the number of values in a delta before the table is reset */
+		private static final int STALE_SLACK = 1024;
+		/** The value fingerprints keyed by ObjectName and attribute name */
+		private final UnsafeLongLongMap table = new UnsafeLongLongMap(UnsafeLongLongMap.DEFAULT_CAPACITY, UnsafeLongLongMap.DEFAULT_LOAD_FACTOR, NO_ENTRY);
+		/** The state id */
+		long id;
+		/** The current sequence */
+		long sequence = 1;
+		/** The timestamp of the last read */
+		volatile long lastUsed = System.currentTimeMillis();
+		/** Indicates if the state has been closed */
+		private boolean closed = false;
+		
+		/**
+		 * Returns the state's current token
+		 * @return the current token
+		 */
+		long token() {
+			return (id << SEQUENCE_BITS) | sequence;
+		}
+		
+		/**
+		 * Forgets all sent values so the next delta returns all the values
+		 */
+		public void clear() {
+			table.clear();
+		}
+		
+		/**
+		 * Frees the table. The state cannot be used once closed, and closing it again has no effect.
+		 * @see java.io.Closeable#close()
+		 */
+		@Override
+		public void close() {
+			if(closed) return;
+			closed = true;
+			table.close();
+		}
+		
+		/**
+		 * Indicates if the state has been closed
+		 * @return true if the state has been closed, false otherwise
+		 */
+		public boolean isClosed() {
+			return closed;
+		}
+		
+		/**
+		 * Returns the number of tracked values
+		 * @return the number of tracked values
+		 */
+		public int size() {
+			return table.size();
+		}
+		
+		/**
+		 * Returns the passed values which differ from the values last passed, and records them as sent. 
+		 * Non serializable values are not returned or recorded. When the table holds more than twice the number of passed values 
+		 * (from MBeans or attributes no longer read) it is reset, so the next delta returns all the values.
+		 * @param values The values just read
+		 * @return the changed values keyed by attribute name in a map keyed by ObjectName
+		 */
+		public HashMap<ObjectName, HashMap<String, Object>> delta(Map<ObjectName, ? extends Map<String, Object>> values) {
+			final HashMap<ObjectName, HashMap<String, Object>> delta = new HashMap<ObjectName, HashMap<String, Object>>();
+			int touched = 0;
+			for(Map.Entry<ObjectName, ? extends Map<String, Object>> entry: values.entrySet()) {
+				final long onHash = fnv(0xcbf29ce484222325L, entry.getKey().getCanonicalName());
+				HashMap<String, Object> changed = null;
+				for(Map.Entry<String, Object> value: entry.getValue().entrySet()) {
+					final Object v = value.getValue();
+					if(v!=null && !(v instanceof Serializable)) continue;
+					touched++;
+					final long key = key(onHash, value.getKey());
+					final long fp = fingerprint(v);
+					final long prior = table.get(key);
+					if(prior==fp && (fp!=NO_ENTRY || table.containsKey(key))) continue;
+					table.put(key, fp);
+					if(changed==null) changed = new HashMap<String, Object>();
+					changed.put(value.getKey(), v);
+				}
+				if(changed!=null) delta.put(entry.getKey(), changed);
+			}
+			if(table.size() > (touched * 2) + STALE_SLACK) {
+				table.clear();
+			}
+			return delta;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.jmx.batch;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularType;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+
+/**
+ * <p>Title: NumericFlattener</p>
+ * <p>Description: Walks an attribute value down to its numeric leaves, emitting each as a <b><code>(path, number)</code></b> pair.
+ * Flatteners are compiled once per {@link OpenType} and only visit the composite keys and tabular columns that lead to numerics.
+ * Paths extend the attribute name with <b><code>/key</code></b> for composite items and <b><code>/index</code></b> for tabular rows, where the index
+ * is the row's index values joined with commas. The value column of MXBean map rows (<b><code>key</code></b> and <b><code>value</code></b>) is not named in the path,
+ * so <b><code>LastGcInfo/memoryUsageAfterGc/PS Eden Space/used</code></b>. Integral values are emitted as Longs and floating point values as Doubles.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.batch.NumericFlattener</code></p>
+ */
+
+public abstract class NumericFlattener {
+	/** The compiled flatteners keyed by OpenType */
+	private static final NonBlockingHashMap<OpenType<?>, NumericFlattener> flatteners = new NonBlockingHashMap<OpenType<?>, NumericFlattener>();
+	/** The numeric simple types */
+	private static final Set<OpenType<?>> NUMERIC_TYPES = new HashSet<OpenType<?>>();
+	
+	static {
+		Collections.<OpenType<?>>addAll(NUMERIC_TYPES, SimpleType.BYTE, SimpleType.SHORT, SimpleType.INTEGER, SimpleType.LONG, SimpleType.FLOAT, SimpleType.DOUBLE, SimpleType.BIGINTEGER, SimpleType.BIGDECIMAL);
+	}
+	
+	/** The cached entry for types with no numerics */
+	private static final NumericFlattener NONE = new NumericFlattener() {
+		@Override
+		public void flatten(String path, Object value, Map<String, Number> out) {
+			/* No Op */
+		}
+	};
+	
+	/** Flattens a numeric value to itself */
+	public static final NumericFlattener SCALAR = new NumericFlattener() {
+		@Override
+		public void flatten(String path, Object value, Map<String, Number> out) {
+			final Number n = primitive(value);
+			if(n!=null) out.put(path, n);
+		}
+	};
+	
+	/** Flattens composite and tabular values whose type is only known from the value, compiling a flattener for each type seen */
+	public static final NumericFlattener DYNAMIC = new NumericFlattener() {
+		@Override
+		public void flatten(String path, Object value, Map<String, Number> out) {
+			final OpenType<?> type;
+			if(value instanceof CompositeData) type = ((CompositeData)value).getCompositeType();
+			else if(value instanceof TabularData) type = ((TabularData)value).getTabularType();
+			else {
+				SCALAR.flatten(path, value, out);
+				return;
+			}
+			final NumericFlattener flattener = forType(type);
+			if(flattener!=null) flattener.flatten(path, value, out);
+		}
+	};
+	
+	/**
+	 * Returns the flattener for values of the passed OpenType, compiling it on first use
+	 * @param type The OpenType
+	 * @return the flattener, or null if values of the type contain no numerics
+	 */
+	public static NumericFlattener forType(OpenType<?> type) {
+		if(type==null) return null;
+		if(NUMERIC_TYPES.contains(type)) return SCALAR;
+		if(!(type instanceof CompositeType) && !(type instanceof TabularType)) return null;
+		NumericFlattener flattener = flatteners.get(type);
+		if(flattener==null) {
+			flattener = type instanceof CompositeType ? CompositeFlattener.compile((CompositeType)type, null) : TabularFlattener.compile((TabularType)type);
+			if(flattener==null) flattener = NONE;
+			final NumericFlattener prior = flatteners.putIfAbsent(type, flattener);
+			if(prior!=null) flattener = prior;
+		}
+		return flattener==NONE ? null : flattener;
+	}
+	
+	/**
+	 * Returns the passed value as a Long or a Double
+	 * @param value The value
+	 * @return the numeric value or null if the value is not a number
+	 */
+	static Number primitive(Object value) {
+		if(value instanceof Long || value instanceof Double) return (Number)value;
+		if(value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof BigInteger) return ((Number)value).longValue();
+		if(value instanceof Float || value instanceof BigDecimal) return ((Number)value).doubleValue();
+		return null;
+	}
+	
+	/**
+	 * Adds the numeric leaves of the passed value to the passed map
+	 * @param path The path of the value
+	 * @param value The value to flatten
+	 * @param out The map to add the <b><code>(path, number)</code></b> pairs to
+	 */
+	public abstract void flatten(String path, Object value, Map<String, Number> out);
+	
+	/**
+	 * <p>Title: CompositeFlattener</p>
+	 * <p>Description: Flattens the composite items that lead to numerics</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.NumericFlattener.CompositeFlattener</code></p>
+	 */
+	static class CompositeFlattener extends NumericFlattener {
+		/** The composite keys to visit */
+		final String[] keys;
+		/** The flattener for each key */
+		final NumericFlattener[] children;
+		
+		/**
+		 * Compiles a flattener for the passed composite type
+		 * @param type The composite type
+		 * @param skip The keys to skip, or null
+		 * @return the flattener, or null if the type contains no numerics
+		 */
+		static CompositeFlattener compile(CompositeType type, Set<String> skip) {
+			final List<String> keys = new ArrayList<String>();
+			final List<NumericFlattener> children = new ArrayList<NumericFlattener>();
+			for(String key: type.keySet()) {
+				if(skip!=null && skip.contains(key)) continue;
+				final NumericFlattener child = forType(type.getType(key));
+				if(child!=null) {
+					keys.add(key);
+					children.add(child);
+				}
+			}
+			if(keys.isEmpty()) return null;
+			return new CompositeFlattener(keys.toArray(new String[keys.size()]), children.toArray(new NumericFlattener[children.size()]));
+		}
+		
+		/**
+		 * Creates a new CompositeFlattener
+		 * @param keys The composite keys to visit
+		 * @param children The flattener for each key
+		 */
+		private CompositeFlattener(String[] keys, NumericFlattener[] children) {
+			this.keys = keys;
+			this.children = children;
+		}
+		
+		@Override
+		public void flatten(String path, Object value, Map<String, Number> out) {
+			if(!(value instanceof CompositeData)) return;
+			final CompositeData cd = (CompositeData)value;
+			for(int i = 0; i < keys.length; i++) {
+				children[i].flatten(path + "/" + keys[i], cd.get(keys[i]), out);
+			}
+		}
+	}
+	
+	/**
+	 * <p>Title: TabularFlattener</p>
+	 * <p>Description: Flattens each row of a tabular value under its index</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.batch.NumericFlattener.TabularFlattener</code></p>
+	 */
+	static class TabularFlattener extends NumericFlattener {
+		/** The index column names */
+		final String[] indexNames;
+		/** The flattener for the non index columns of each row */
+		final CompositeFlattener row;
+		/** The flattener for the value column of MXBean map rows, null for other tables */
+		final NumericFlattener mapValue;
+		
+		/**
+		 * Compiles a flattener for the passed tabular type
+		 * @param type The tabular type
+		 * @return the flattener, or null if the type contains no numerics
+		 */
+		static TabularFlattener compile(TabularType type) {
+			final List<String> index = type.getIndexNames();
+			final CompositeType rowType = type.getRowType();
+			if(index.size()==1 && "key".equals(index.get(0)) && rowType.keySet().size()==2 && rowType.containsKey("value")) {
+				final NumericFlattener value = forType(rowType.getType("value"));
+				return value==null ? null : new TabularFlattener(index, null, value);
+			}
+			final CompositeFlattener row = CompositeFlattener.compile(rowType, new HashSet<String>(index));
+			return row==null ? null : new TabularFlattener(index, row, null);
+		}
+		
+		/**
+		 * Creates a new TabularFlattener
+		 * @param indexNames The index column names
+		 * @param row The flattener for the non index columns of each row
+		 * @param mapValue The flattener for the value column of MXBean map rows
+		 */
+		private TabularFlattener(List<String> indexNames, CompositeFlattener row, NumericFlattener mapValue) {
+			this.indexNames = indexNames.toArray(new String[indexNames.size()]);
+			this.row = row;
+			this.mapValue = mapValue;
+		}
+		
+		@Override
+		public void flatten(String path, Object value, Map<String, Number> out) {
+			if(!(value instanceof TabularData)) return;
+			final StringBuilder b = new StringBuilder();
+			for(Object r: ((TabularData)value).values()) {
+				final CompositeData cd = (CompositeData)r;
+				b.setLength(0);
+				b.append(path).append('/');
+				for(int i = 0; i < indexNames.length; i++) {
+					if(i > 0) b.append(',');
+					b.append(cd.get(indexNames[i]));
+				}
+				if(mapValue!=null) {
+					mapValue.flatten(b.toString(), cd.get("value"), out);
+				} else {
+					row.flatten(b.toString(), cd, out);
+				}
+			}
+		}
+	}
+}
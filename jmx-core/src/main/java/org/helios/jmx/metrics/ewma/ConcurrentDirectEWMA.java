@@ -39,19 +39,20 @@ import javax.management.openmbean.CompositeType;
 import org.helios.jmx.annotation.Reflector;
 import org.helios.jmx.managed.Invoker;
 import org.helios.jmx.util.unsafe.UnsafeAdapter;
-import org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.ReadWriteSpinLock;
 
 /**
  * <p>Title: ConcurrentDirectEWMA</p>
- * <p>Description: A thread safe version of {@link DirectEWMA} which is safe to be accessed by concurrent threads at the small cost of a spin lock on each access.</p> 
+ * <p>Description: A thread safe version of {@link DirectEWMA} which is safe to be accessed by concurrent threads at the small cost of a spin lock on each access.
+ * Reads share an off-heap read lock so concurrent readers do not block each other, while appends take the write lock.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.rindle.period.impl.ConcurrentDirectEWMA</code></p>
  */
 
 public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirectEWMAMBean {
-	/** The spin lock to guard the EWMA */
-	protected final SpinLock lock = UnsafeAdapter.allocateSpinLock();
+	/** The read-write spin lock to guard the EWMA */
+	protected final ReadWriteSpinLock lock = UnsafeAdapter.allocateReadWriteSpinLock();
 	
 	/** The composite type for this class */
 	private static final CompositeType concurrentOpenType;
@@ -113,11 +114,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 * @return the timestamp of the last sample 
 	 */
 	public long getLastSample() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return UnsafeAdapter.getLong(address[0] + LAST_SAMPLE);
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -126,11 +127,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 * @return the most recently appended value 
 	 */
 	public double getLastValue() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return UnsafeAdapter.getDouble(address[0] + LAST_VALUE);
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 
@@ -174,11 +175,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public long getErrors() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return UnsafeAdapter.getLong(address[0] + ERRORS);
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}	
 	
@@ -201,11 +202,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 * @see org.helios.jmx.metrics.ewma.DirectEWMA#getAverage()
 	 */
 	public double getAverage() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.getAverage();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -216,11 +217,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public long getCount() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.getCount();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -230,11 +231,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public double getMaximum() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.getMaximum();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -244,11 +245,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public double getMean() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.getMean();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -258,11 +259,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public double getMinimum() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.getMinimum();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -272,11 +273,11 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public String toString() {
-		lock.xlock();
+		lock.slock();
 		try {
 			return super.toString();
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}
 	}
 	
@@ -360,7 +361,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public Object[] getAll(String[] keys) {
-		lock.xlock();
+		lock.slock();
 		try {
 			Object[] results = new Object[keys.length];
 			for(int i = 0; i < keys.length; i++) {
@@ -368,7 +369,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 			}
 			return results;		
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}					
 	}
 
@@ -388,7 +389,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public boolean containsValue(Object value) {
-		lock.xlock();
+		lock.slock();
 		try {
 			if(value==null) return false;
 			for(Invoker invoker: concurrentInvokers.values()) {
@@ -397,7 +398,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 			}
 			return false;
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}					
 	}
 
@@ -407,7 +408,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 	 */
 	@Override
 	public Collection<?> values() {
-		lock.xlock();
+		lock.slock();
 		try {
 			List<Object> values = new ArrayList<Object>(concurrentInvokers.size());
 			for(Invoker invoker: concurrentInvokers.values()) {
@@ -415,7 +416,7 @@ public class ConcurrentDirectEWMA extends DirectEWMA implements ConcurrentDirect
 			}
 			return values;
 		} finally {
-			lock.xunlock();
+			lock.sunlock();
 		}					
 	}
 	
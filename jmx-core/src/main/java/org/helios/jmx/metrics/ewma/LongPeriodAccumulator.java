@@ -43,8 +43,14 @@ import org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock;
 public class LongPeriodAccumulator implements DeAllocateMe {
 	/** The offset of the last reset timestamp */
 	public final static byte LAST_RESET = 0;
+	/** The offset of the minimum value appended since the last reset */
+	public final static byte MIN = LAST_RESET + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the maximum value appended since the last reset */
+	public final static byte MAX = MIN + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the sum of the values appended since the last reset */
+	public final static byte SUM = MAX + UnsafeAdapter.LONG_SIZE;
 	/** The offset of the current allocated capacity */
-	public final static byte CAPACITY = LAST_RESET + UnsafeAdapter.LONG_SIZE;
+	public final static byte CAPACITY = SUM + UnsafeAdapter.LONG_SIZE;
 	/** The offset of the current size */
 	public final static byte ALLOCATED = CAPACITY + UnsafeAdapter.INT_SIZE;
 	/** The offset of the initial size */
@@ -64,28 +70,62 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 	/** A zero byte const */
 	public static final byte ZERO_BYTE = 0;
 
-	/** The address[0][0] of the current allocation */
+	/** The index of the active buffer address */
+	public static final int ACTIVE = 0;
+	/** The index of the drain buffer address in double buffered mode */
+	public static final int DRAIN = 1;
+
+	/** The address[ACTIVE][0] of the current allocation, and in double buffered mode, address[DRAIN][0] of the drain buffer */
 	protected long[][] address = {{-1L}};
 	
 	/** The spin lock to prevent concurrent access */
 	protected SpinLock lock = UnsafeAdapter.allocateSpinLock();
+	/** The spin lock guarding the drain buffer in double buffered mode, null otherwise */
+	protected final SpinLock drainLock;
+	/** The number of drains, used to invalidate stale {@link DrainedPeriod}s */
+	protected volatile long drainGeneration = 0;
 	
 	/**
-	 * Creates a new LongPeriodAccumulator
+	 * Creates a new single buffered LongPeriodAccumulator
 	 * @param initialSize The initial number of longs to allocate capacity for
 	 * @param extendSize The number of longs to re-allocate capacity for when space is exhausted
 	 * @param maxSize The maximum number of longs allocate capacity for
 	 * @param resetOnClear true to reset the size of the allocation on clear
 	 */
 	public LongPeriodAccumulator(int initialSize, int extendSize, int maxSize, boolean resetOnClear) {
+		this(initialSize, extendSize, maxSize, resetOnClear, false);
+	}
+	
+	/**
+	 * Creates a new LongPeriodAccumulator
+	 * @param initialSize The initial number of longs to allocate capacity for
+	 * @param extendSize The number of longs to re-allocate capacity for when space is exhausted
+	 * @param maxSize The maximum number of longs allocate capacity for
+	 * @param resetOnClear true to reset the size of the allocation on clear (or on recycle of the drain buffer)
+	 * @param doubleBuffered true to allocate a second buffer so readers can {@link #drain()} without blocking appends
+	 */
+	public LongPeriodAccumulator(int initialSize, int extendSize, int maxSize, boolean resetOnClear, boolean doubleBuffered) {
 		validate(initialSize, extendSize, maxSize);
+		if(doubleBuffered) {
+			// both addresses must be in the holder before it is registered for deallocation
+			address = new long[][] {{-1L}, {-1L}};
+		}
 		final long bodySize = initialSize << 3;
-		address[0][0] = UnsafeAdapter.allocateAlignedMemory((bodySize) + TOTAL, this);
+		address[ACTIVE][0] = UnsafeAdapter.allocateAlignedMemory((bodySize) + TOTAL, this);
 		// final values, only set in ctor
 		UnsafeAdapter.putInt(address[0][0] + CAPACITY, initialSize);	// not really final	
 		UnsafeAdapter.putInt(address[0][0] + INITIAL_SIZE, initialSize);
 		UnsafeAdapter.putInt(address[0][0] + EXTEND_SIZE, extendSize);		
+		UnsafeAdapter.putInt(address[0][0] + MAX_SIZE, maxSize);
 		UnsafeAdapter.putBoolean(address[0][0] + RESET, resetOnClear);
+		if(doubleBuffered) {
+			address[DRAIN][0] = UnsafeAdapter.allocateAlignedMemory((bodySize) + TOTAL);
+			UnsafeAdapter.copyMemory(address[ACTIVE][0], address[DRAIN][0], TOTAL);
+			init(DRAIN);
+			drainLock = UnsafeAdapter.allocateSpinLock();
+		} else {
+			drainLock = null;
+		}
 		// dynamic values init
 		init();
 	}
@@ -94,10 +134,30 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 	 * Initializes the memory spaces at init and reset
 	 */
 	protected void init() {
-		UnsafeAdapter.putInt(address[0][0] + ALLOCATED, 0);		
-		UnsafeAdapter.putInt(address[0][0] + OVERRUNS, 0);
-		UnsafeAdapter.setMemory(address[0][0] + TOTAL, getCapacity() << 3, ZERO_BYTE);		
-		UnsafeAdapter.putLong(address[0][0] + LAST_RESET, System.currentTimeMillis());
+		init(ACTIVE);
+	}
+	
+	/**
+	 * Initializes the memory spaces of the specified buffer at init and reset
+	 * @param buffer The buffer index ({@link #ACTIVE} or {@link #DRAIN})
+	 */
+	protected void init(int buffer) {
+		final long base = address[buffer][0];
+		UnsafeAdapter.putInt(base + ALLOCATED, 0);		
+		UnsafeAdapter.putInt(base + OVERRUNS, 0);
+		UnsafeAdapter.putLong(base + MIN, Long.MAX_VALUE);
+		UnsafeAdapter.putLong(base + MAX, Long.MIN_VALUE);
+		UnsafeAdapter.putLong(base + SUM, 0L);
+		UnsafeAdapter.setMemory(base + TOTAL, UnsafeAdapter.getInt(base + CAPACITY) << 3, ZERO_BYTE);		
+		UnsafeAdapter.putLong(base + LAST_RESET, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Indicates if this accumulator is double buffered
+	 * @return true if this accumulator is double buffered, false otherwise
+	 */
+	public boolean isDoubleBuffered() {
+		return drainLock!=null;
 	}
 
 	/**
@@ -178,7 +238,7 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 	 * @return the total byte size of the memory allocated for this instance
 	 */
 	public long getTotalSize() {
-		return TOTAL + getCapacity() << 3;
+		return TOTAL + (getCapacity() << 3);
 	}
 	
 	/**
@@ -201,7 +261,10 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 				extend();
 			}
 			UnsafeAdapter.putInt(address[0][0] + ALLOCATED, currentSize + 1);
-			UnsafeAdapter.putLong(address[0][0] + TOTAL + ((currentSize + 1) << 3), value);			
+			UnsafeAdapter.putLong(address[0][0] + TOTAL + (currentSize << 3), value);
+			if(value < UnsafeAdapter.getLong(address[0][0] + MIN)) UnsafeAdapter.putLong(address[0][0] + MIN, value);
+			if(value > UnsafeAdapter.getLong(address[0][0] + MAX)) UnsafeAdapter.putLong(address[0][0] + MAX, value);
+			UnsafeAdapter.putLong(address[0][0] + SUM, UnsafeAdapter.getLong(address[0][0] + SUM) + value);
 			return currentSize; // -- the index of the just appended value
 		} finally {
 			lock.xunlock();
@@ -219,14 +282,233 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 	 * the size would have already been set to zero. 
 	 */
 	protected void shrinkToInitial() {	
-		log("Shrinking from [%s] back to [%s]", getCapacity(), getInitialSize());
-		UnsafeAdapter.putInt(address[0][0] + CAPACITY, getInitialSize());
-		if(getSize() > getInitialSize()) {
-			UnsafeAdapter.putInt(address[0][0] + ALLOCATED, getInitialSize());
+		shrinkToInitial(ACTIVE);
+	}
+	
+	/**
+	 * Shrinks the specified buffer back to the initial size. See {@link #shrinkToInitial()}.
+	 * @param buffer The buffer index ({@link #ACTIVE} or {@link #DRAIN})
+	 */
+	protected void shrinkToInitial(int buffer) {
+		final long base = address[buffer][0];
+		final int initialSize = UnsafeAdapter.getInt(base + INITIAL_SIZE);
+		UnsafeAdapter.putInt(base + CAPACITY, initialSize);
+		if(UnsafeAdapter.getInt(base + ALLOCATED) > initialSize) {
+			UnsafeAdapter.putInt(base + ALLOCATED, initialSize);
 		}
-		address[0][0] = UnsafeAdapter.reallocateAlignedMemory(address[0][0], TOTAL + (getInitialSize() << 3));
-		log("Shrunk");
+		address[buffer][0] = UnsafeAdapter.reallocateAlignedMemory(base, TOTAL + (initialSize << 3));
+	}
+	
+	/**
+	 * <p>Swaps the active and drain buffers and returns a view of the drained buffer, which holds all the values
+	 * appended since the last drain (or creation). Appends are only blocked for the pointer swap. The drain buffer
+	 * being recycled as the new active buffer is reset (and shrunk to the initial size if reset on clear is enabled)
+	 * before the swap, so none of that work is done under the append lock.</p>
+	 * <p>The returned view reads the drained buffer without blocking appends, and is valid until the next drain.
+	 * The overrun count of the drained period is carried with the drained buffer.</p>
+	 * @return a view of the drained buffer
+	 */
+	public DrainedPeriod drain() {
+		if(drainLock==null) throw new IllegalStateException("This LongPeriodAccumulator is not double buffered", new Throwable());
+		drainLock.xlock();
+		try {
+			final long recycle = address[DRAIN][0];
+			if(UnsafeAdapter.getBoolean(recycle + RESET) && UnsafeAdapter.getInt(recycle + CAPACITY) > UnsafeAdapter.getInt(recycle + INITIAL_SIZE)) {
+				shrinkToInitial(DRAIN);
+			}
+			init(DRAIN);
+			lock.xlock();
+			try {
+				final long drained = address[ACTIVE][0];
+				address[ACTIVE][0] = address[DRAIN][0];
+				address[DRAIN][0] = drained;
+			} finally {
+				lock.xunlock();
+			}
+			return new DrainedPeriod(++drainGeneration);
+		} finally {
+			drainLock.xunlock();
+		}
+	}
+	
+	/**
+	 * <p>Title: DrainedPeriod</p>
+	 * <p>Description: A read only view of the drain buffer of a double buffered {@link LongPeriodAccumulator}, 
+	 * valid until the next drain.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.metrics.ewma.LongPeriodAccumulator.DrainedPeriod</code></p>
+	 */
+	public class DrainedPeriod {
+		/** The drain generation this view was created for */
+		private final long generation;
 		
+		/**
+		 * Creates a new DrainedPeriod
+		 * @param generation The drain generation this view was created for
+		 */
+		DrainedPeriod(long generation) {
+			this.generation = generation;
+		}
+		
+		/**
+		 * Acquires the drain lock and returns the drained buffer address
+		 * @return the drained buffer address
+		 */
+		private long lock() {
+			drainLock.xlock();
+			if(generation!=drainGeneration) {
+				drainLock.xunlock();
+				throw new IllegalStateException("This DrainedPeriod has been recycled by a subsequent drain", new Throwable());
+			}
+			return address[DRAIN][0];
+		}
+		
+		/**
+		 * Indicates if this view is still valid
+		 * @return true if no drain has occurred since this view was created, false otherwise
+		 */
+		public boolean isValid() {
+			return generation==drainGeneration;
+		}
+		
+		/**
+		 * Returns the number of values in the drained period
+		 * @return the number of values
+		 */
+		public int getSize() {
+			final long base = lock();
+			try {
+				return UnsafeAdapter.getInt(base + ALLOCATED);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the number of appends that overran the buffer during the drained period
+		 * @return the number of overruns
+		 */
+		public int getOverruns() {
+			final long base = lock();
+			try {
+				return UnsafeAdapter.getInt(base + OVERRUNS);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the timestamp of the start of the drained period as a long UTC
+		 * @return the start of the drained period
+		 */
+		public long getPeriodStart() {
+			final long base = lock();
+			try {
+				return UnsafeAdapter.getLong(base + LAST_RESET);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the minimum value in the drained period, or -1L if it is empty
+		 * @return the minimum value
+		 */
+		public long getMin() {
+			final long base = lock();
+			try {
+				return min(base);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the maximum value in the drained period, or -1L if it is empty
+		 * @return the maximum value
+		 */
+		public long getMax() {
+			final long base = lock();
+			try {
+				return max(base);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the sum of the values in the drained period
+		 * @return the sum of the values
+		 */
+		public long getSum() {
+			final long base = lock();
+			try {
+				return UnsafeAdapter.getLong(base + SUM);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the mean of the values in the drained period, or -1L if it is empty
+		 * @return the mean of the values
+		 */
+		public long getMean() {
+			final long base = lock();
+			try {
+				return mean(base);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns the pth percentile value of the drained period. See {@link LongPeriodAccumulator#getPercentile(int)}.
+		 * @param perc The percentile to get (1 - 100)
+		 * @return the pth percentile value
+		 */
+		public long getPercentile(int perc) {
+			checkPercentile(perc);
+			final long base = lock();
+			try {
+				return percentile(base, perc);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Returns all the values in the drained period as an array
+		 * @return an array of the values
+		 */
+		public long[] toArray() {
+			final long base = lock();
+			try {
+				final long[] arr = new long[UnsafeAdapter.getInt(base + ALLOCATED)];
+				_toArray(base, arr, 0, 0, arr.length);
+				return arr;
+			} finally {
+				drainLock.xunlock();
+			}
+		}
+		
+		/**
+		 * Copies the values in the passed index range of the drained period into the passed array
+		 * @param target The array to copy into
+		 * @param targetOffset The index in the target array to copy the first value to
+		 * @param startIndex The index of the first value to copy (inclusive)
+		 * @param endIndex The index of the last value to copy (exclusive)
+		 * @return the number of values copied
+		 */
+		public int toArray(long[] target, int targetOffset, int startIndex, int endIndex) {
+			final long base = lock();
+			try {
+				return checkedToArray(base, target, targetOffset, startIndex, endIndex);
+			} finally {
+				drainLock.xunlock();
+			}
+		}
 	}
 	
 	/**
@@ -239,35 +521,292 @@ public class LongPeriodAccumulator implements DeAllocateMe {
 		final int extend = getExtendSize();
 		final long newChunkOffset =  currentCapacity << 3;
 		final long newChunkSize = extend << 3;
-		log("Extending [%s] by [%s] to [%s]", currentCapacity, extend, currentCapacity + extend);
 		UnsafeAdapter.putInt(address[0][0] + CAPACITY, currentCapacity + extend);
 		address[0][0] = UnsafeAdapter.reallocateAlignedMemory(address[0][0], TOTAL + newChunkOffset + newChunkSize);
-		UnsafeAdapter.setMemory(address[0][0] + newChunkOffset, newChunkSize, ZERO_BYTE);
-		log("Extended");
+		UnsafeAdapter.setMemory(address[0][0] + TOTAL + newChunkOffset, newChunkSize, ZERO_BYTE);
 	}
 	
+	/**
+	 * Discards all the values in the accumulator, resets the overrun count and statistics,
+	 * and if reset on clear is enabled, shrinks the buffer back to the initial size.
+	 */
 	public void clear() {
-		
+		lock.xlock();
+		try {
+			if(isResetOnClear() && getCapacity() > getInitialSize()) {
+				shrinkToInitial();
+			}
+			init();
+		} finally {
+			lock.xunlock();
+		}
 	}
 	
+	/**
+	 * Returns the values in the passed index range as a new array
+	 * @param startIndex The index of the first value to return (inclusive)
+	 * @param endIndex The index of the last value to return (exclusive)
+	 * @return an array of the values in the passed range
+	 */
 	public long[] toArray(int startIndex, int endIndex) {
-		return null;
+		lock.xlock();
+		try {
+			checkRange(address[0][0], startIndex, endIndex);
+			final long[] arr = new long[endIndex - startIndex];
+			_toArray(address[0][0], arr, 0, startIndex, endIndex);
+			return arr;
+		} finally {
+			lock.xunlock();
+		}
 	}
 	
+	/**
+	 * Copies the values in the passed index range into the passed array
+	 * @param target The array to copy into
+	 * @param targetOffset The index in the target array to copy the first value to
+	 * @param startIndex The index of the first value to copy (inclusive)
+	 * @param endIndex The index of the last value to copy (exclusive)
+	 * @return the number of values copied
+	 */
+	public int toArray(long[] target, int targetOffset, int startIndex, int endIndex) {
+		lock.xlock();
+		try {
+			return checkedToArray(address[0][0], target, targetOffset, startIndex, endIndex);
+		} finally {
+			lock.xunlock();
+		}
+	}
+	
+	/**
+	 * Returns all the values in the accumulator as an array
+	 * @return an array of all the values
+	 */
+	public long[] toArray() {
+		lock.xlock();
+		try {
+			final long[] arr = new long[getSize()];
+			_toArray(address[0][0], arr, 0, 0, arr.length);
+			return arr;
+		} finally {
+			lock.xunlock();
+		}
+	}
+	
+	/**
+	 * Unlocked copy of values from the passed buffer into an array, with range checks
+	 * @param base The buffer address
+	 * @param target The array to copy into
+	 * @param targetOffset The index in the target array to copy the first value to
+	 * @param startIndex The index of the first value to copy (inclusive)
+	 * @param endIndex The index of the last value to copy (exclusive)
+	 * @return the number of values copied
+	 */
+	protected static int checkedToArray(long base, long[] target, int targetOffset, int startIndex, int endIndex) {
+		checkRange(base, startIndex, endIndex);
+		final int count = endIndex - startIndex;
+		if(targetOffset < 0 || targetOffset + count > target.length) throw new IllegalArgumentException("Target array of length [" + target.length + "] cannot hold [" + count + "] values at offset [" + targetOffset + "]", new Throwable());
+		_toArray(base, target, targetOffset, startIndex, endIndex);
+		return count;
+	}
+	
+	/**
+	 * Unlocked and unchecked copy of values from the passed buffer into an array
+	 * @param base The buffer address
+	 * @param target The array to copy into
+	 * @param targetOffset The index in the target array to copy the first value to
+	 * @param startIndex The index of the first value to copy (inclusive)
+	 * @param endIndex The index of the last value to copy (exclusive)
+	 */
+	protected static void _toArray(long base, long[] target, int targetOffset, int startIndex, int endIndex) {
+		if(endIndex > startIndex) {
+			UnsafeAdapter.copyMemory(null, base + TOTAL + (startIndex << 3), target, UnsafeAdapter.LONG_ARRAY_OFFSET + (targetOffset << 3), (endIndex - startIndex) << 3);
+		}
+	}
+	
+	/**
+	 * Validates an index range against the size of the passed buffer
+	 * @param base The buffer address
+	 * @param startIndex The index of the first value (inclusive)
+	 * @param endIndex The index of the last value (exclusive)
+	 */
+	protected static void checkRange(long base, int startIndex, int endIndex) {
+		final int size = UnsafeAdapter.getInt(base + ALLOCATED);
+		if(startIndex < 0 || endIndex > size || startIndex > endIndex) throw new IllegalArgumentException("Invalid range [" + startIndex + "-" + endIndex + "] for size [" + size + "]", new Throwable());
+	}
+	
+	/**
+	 * Returns the minimum value in the passed buffer, or -1L if it is empty
+	 * @param base The buffer address
+	 * @return the minimum value
+	 */
+	protected static long min(long base) {
+		return UnsafeAdapter.getInt(base + ALLOCATED)==0 ? -1L : UnsafeAdapter.getLong(base + MIN);
+	}
+	
+	/**
+	 * Returns the maximum value in the passed buffer, or -1L if it is empty
+	 * @param base The buffer address
+	 * @return the maximum value
+	 */
+	protected static long max(long base) {
+		return UnsafeAdapter.getInt(base + ALLOCATED)==0 ? -1L : UnsafeAdapter.getLong(base + MAX);
+	}
+	
+	/**
+	 * Returns the mean of the values in the passed buffer, or -1L if it is empty
+	 * @param base The buffer address
+	 * @return the mean value
+	 */
+	protected static long mean(long base) {
+		final int size = UnsafeAdapter.getInt(base + ALLOCATED);
+		return size==0 ? -1L : UnsafeAdapter.getLong(base + SUM) / size;
+	}
+	
+	/**
+	 * Returns the pth percentile value in the passed buffer, or -1L if it is empty
+	 * @param base The buffer address
+	 * @param perc The percentile to get (1 - 100)
+	 * @return the pth percentile value
+	 */
+	protected static long percentile(long base, int perc) {
+		final int size = UnsafeAdapter.getInt(base + ALLOCATED);
+		if(size==0) return -1L;
+		final int rank = (int)Math.ceil((perc / 100d) * size) - 1;
+		return select(base + TOTAL, size, rank < 0 ? 0 : rank);
+	}
+	
+	/**
+	 * Validates a percentile
+	 * @param perc The percentile to validate
+	 */
+	protected static void checkPercentile(int perc) {
+		if (perc < 1 || perc > 100) {
+			throw new IllegalArgumentException("invalid percentile: " + perc);
+		}
+	}
+	
+	/**
+	 * Returns the minimum value appended since the last reset, or -1L if the accumulator is empty
+	 * @return the minimum value
+	 */
 	public long getMin() {
-		return -1;
+		lock.xlock();
+		try {
+			return min(address[0][0]);
+		} finally {
+			lock.xunlock();
+		}
 	}
 	
+	/**
+	 * Returns the maximum value appended since the last reset, or -1L if the accumulator is empty
+	 * @return the maximum value
+	 */
 	public long getMax() {
-		return -1;
+		lock.xlock();
+		try {
+			return max(address[0][0]);
+		} finally {
+			lock.xunlock();
+		}
+	}
+	
+	/**
+	 * Returns the sum of the values appended since the last reset. (Overflow is not checked)
+	 * @return the sum of the values
+	 */
+	public long getSum() {
+		lock.xlock();
+		try {
+			return UnsafeAdapter.getLong(address[0][0] + SUM);
+		} finally {
+			lock.xunlock();
+		}
 	}
 	
+	/**
+	 * Returns the mean of the values appended since the last reset, or -1L if the accumulator is empty
+	 * @return the mean of the values
+	 */
 	public long getMean() {
-		return -1;
+		lock.xlock();
+		try {
+			return mean(address[0][0]);
+		} finally {
+			lock.xunlock();
+		}
 	}
 	
+	/**
+	 * Returns the pth percentile value using the nearest rank formula, or -1L if the accumulator is empty.
+	 * The value is found by an in-place selection on the buffer, so <b>the order of the values in the buffer
+	 * will be changed</b> by this call.
+	 * @param perc The percentile to get (1 - 100)
+	 * @return the pth percentile value
+	 */
 	public long getPercentile(int perc) {
-		return -1;
+		checkPercentile(perc);
+		lock.xlock();
+		try {
+			return percentile(address[0][0], perc);
+		} finally {
+			lock.xunlock();
+		}
+	}
+	
+	/**
+	 * Finds the kth smallest of the longs at the passed address using an in-place quickselect
+	 * @param base The address of the first long
+	 * @param size The number of longs
+	 * @param k The zero based rank of the value to find
+	 * @return the kth smallest value
+	 */
+	protected static long select(final long base, final int size, final int k) {
+		int left = 0, right = size - 1;
+		while(right > left) {
+			// median of three pivot to avoid quadratic behaviour on sorted input
+			final int mid = (left + right) >>> 1;
+			if(at(base, mid) < at(base, left)) swap(base, mid, left);
+			if(at(base, right) < at(base, left)) swap(base, right, left);
+			if(at(base, right) < at(base, mid)) swap(base, right, mid);
+			final long pivot = at(base, mid);
+			int i = left, j = right;
+			while(i <= j) {
+				while(at(base, i) < pivot) i++;
+				while(at(base, j) > pivot) j--;
+				if(i <= j) {
+					swap(base, i, j);
+					i++; j--;
+				}
+			}
+			if(k <= j) right = j;
+			else if(k >= i) left = i;
+			else break;
+		}
+		return at(base, k);
+	}
+	
+	/**
+	 * Returns the long at the passed index
+	 * @param base The base address
+	 * @param index The index
+	 * @return the long value
+	 */
+	private static long at(long base, int index) {
+		return UnsafeAdapter.getLong(base + (((long)index) << 3));
+	}
+	
+	/**
+	 * Swaps the longs at the passed indexes
+	 * @param base The base address
+	 * @param i The first index
+	 * @param j The second index
+	 */
+	private static void swap(long base, int i, int j) {
+		final long ai = base + (((long)i) << 3), aj = base + (((long)j) << 3);
+		final long t = UnsafeAdapter.getLong(ai);
+		UnsafeAdapter.putLong(ai, UnsafeAdapter.getLong(aj));
+		UnsafeAdapter.putLong(aj, t);
 	}
 	
 	/**
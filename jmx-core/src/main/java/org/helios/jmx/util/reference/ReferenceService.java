@@ -31,7 +31,10 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -45,10 +48,14 @@ import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.helios.jmx.concurrency.JMXManagedThreadPool;
 import org.helios.jmx.metrics.ewma.ConcurrentDirectEWMA;
 import org.helios.jmx.util.helpers.JMXHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * <p>Title: ReferenceService</p>
- * <p>Description: </p> 
+ * <p>Description: Processes enqueued references, running the cleared task of each.</p>
+ * <p>Enqueued references are drained in batches of up to {@link #BATCH_SIZE_PROP} references. Each batch is grouped by reference type
+ * and its cleared tasks are run in one thread pool task, so a collection that clears many references at once does not flood the thread pool.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.jmx.util.reference.ReferenceService</code></p>
@@ -59,6 +66,8 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	private static volatile ReferenceService instance = null;
 	/** The singleton instance ctor lock */
 	private static final Object lock = new Object();
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ReferenceService.class);
 	
 	/** The ref queue cleaner thread */
 	private final Thread refQueueThread;
@@ -71,18 +80,25 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	/** A map of counts of cleared references keyed by the reference class name */
 	private final NonBlockingHashMap<String, ReferenceTypeCountMBean> countsByType = new NonBlockingHashMap<String, ReferenceTypeCountMBean>(); 
 	
-	/** Elapsed time stats in ms. to process a ref clear */
+	/** Elapsed time stats in ns. to process a ref clear, averaged over each batch */
 	private ConcurrentDirectEWMA clearStats;
+	/** Elapsed time stats in ns. to process a batch of cleared refs */
+	private ConcurrentDirectEWMA batchStats;
 	/** A count of cleared refs */
 	private final AtomicLong refCount = new AtomicLong(0L);
-	
-	/** The task start time for each task execution thread */
-	private final ThreadLocal<long[]> taskStartTime = new ThreadLocal<long[]>() {
-		@Override
-		protected long[] initialValue() {			
-			return new long[1];
-		}
-	};
+	/** A count of processed batches */
+	private final AtomicLong batchCount = new AtomicLong(0L);
+	/** The size of the last processed batch */
+	private volatile int lastBatchSize = 0;
+	/** The largest batch processed since the last reset */
+	private volatile int maxBatchSize = 0;
+	/** The maximum number of references drained into one batch */
+	private final int batchSize;
+	
+	/** The system property defining the maximum number of references drained into one batch */
+	public static final String BATCH_SIZE_PROP = "reference.service.batch";
+	/** The default maximum number of references drained into one batch */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
 	
 	/** The ref service JMX ObjectName */
 	public static final ObjectName OBJECT_NAME = JMXHelper.objectName(ReferenceService.class);
@@ -192,7 +208,9 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 				if(instance==null) {
 					instance = new ReferenceService();
 					instance.clearStats = new ConcurrentDirectEWMA(100);
+					instance.batchStats = new ConcurrentDirectEWMA(100);
 					instance.threadPool = new JMXManagedThreadPool(THREAD_POOL_OBJECT_NAME, "ReferenceService", 2, 10, 5000, 60000, 100, 99, false);
+					// a saturated pool runs batches on the reference queue thread as back-pressure, see run()
 					instance.threadPool.setRejectedExecutionHandler(new JMXManagedThreadPool.CallerRunsPolicy());					
 					JMXHelper.registerMBean(instance, OBJECT_NAME);
 					JMXHelper.registerMBean(instance.threadPool, THREAD_POOL_OBJECT_NAME);
@@ -206,6 +224,13 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	 * Creates a new ReferenceService
 	 */
 	private ReferenceService() {
+		int size = DEFAULT_BATCH_SIZE;
+		try {
+			size = Integer.parseInt(System.getProperty(BATCH_SIZE_PROP, "" + DEFAULT_BATCH_SIZE).trim());
+		} catch (Exception ex) {
+			size = DEFAULT_BATCH_SIZE;
+		}
+		batchSize = size < 1 ? 1 : size;
 		refQueueThread = new Thread(this, getClass().getSimpleName() + "RefQueueThread");
 		refQueueThread.setDaemon(true);
 		refQueueThread.start();		
@@ -242,7 +267,11 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	 */
 	public void resetStats() {
 		refCount.set(0);
+		batchCount.set(0);
+		lastBatchSize = 0;
+		maxBatchSize = 0;
 		clearStats.reset();
+		batchStats.reset();
 		for(ReferenceTypeCountMBean rtc: countsByType.values()) {
 			rtc.reset();
 		}
@@ -250,10 +279,11 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	
 
 	/**
-	 * Updates the count for the passed class name
-	 * @param className The name of class of a cleared reference
+	 * Adds to the count for the passed class name
+	 * @param className The name of class of the cleared references
+	 * @param count The number of cleared references
 	 */
-	private void updateTypeCount(String className) {
+	private void updateTypeCount(String className, int count) {
 		if(className==null || className.trim().isEmpty()) return;
 		ReferenceTypeCountMBean rtc = countsByType.get(className);
 		if(rtc==null) {
@@ -265,51 +295,89 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 				}
 			}
 		}
-		rtc.increment();
+		rtc.add(count);
 	}
-
 	
-	/** The thread pool timing pre-task */
-	private final Runnable preTask = new Runnable() {
-		public void run() {
-			taskStartTime.get()[0] = System.nanoTime();
+	/**
+	 * Drains a batch of up to {@link #batchSize} enqueued references without blocking
+	 * @param first The first reference of the batch, or null to poll for it
+	 * @return the batch, which is empty if the queue was empty
+	 */
+	private List<Reference<?>> pollBatch(Reference<?> first) {
+		final List<Reference<?>> batch = new ArrayList<Reference<?>>();
+		if(first!=null) batch.add(first);
+		Reference<?> removed;
+		while(batch.size() < batchSize && (removed = refQueue.poll())!=null) {
+			batch.add(removed);
 		}
-	};
+		return batch;
+	}
 	
-	/** The thread pool timing post-task */
-	private final Runnable postTask = new Runnable() {
-		public void run() {			
-			clearStats.append(System.nanoTime() - taskStartTime.get()[0]);			
+	/**
+	 * Processes a batch of cleared references, grouped by reference type so each type count is updated once,
+	 * then runs each cleared task in the calling thread and records the elapsed time of the batch.
+	 * @param batch The batch of cleared references
+	 */
+	private void processBatch(List<Reference<?>> batch) {
+		final long start = System.nanoTime();
+		final Map<Class<?>, List<Reference<?>>> byType = new LinkedHashMap<Class<?>, List<Reference<?>>>();
+		for(Reference<?> ref: batch) {
+			List<Reference<?>> refs = byType.get(ref.getClass());
+			if(refs==null) {
+				refs = new ArrayList<Reference<?>>();
+				byType.put(ref.getClass(), refs);
+			}
+			refs.add(ref);
 		}
-	};
-	
+		int executed = 0;
+		for(Map.Entry<Class<?>, List<Reference<?>>> entry: byType.entrySet()) {
+			final List<Reference<?>> refs = entry.getValue();
+			updateTypeCount(entry.getKey().getName(), refs.size());
+			for(Reference<?> ref: refs) {
+				if(ref instanceof ReferenceRunnable) {
+					final ReferenceRunnable rr = (ReferenceRunnable)ref;
+					if(rr.getClearedRunnable()!=null) {
+						try {
+							rr.run();
+							executed++;
+						} catch (Throwable t) {
+							LOG.error("Failed to run cleared task for [{}]", ref.getClass().getName(), t);
+							clearStats.error();
+						}
+					}
+				}
+			}
+		}
+		final int size = batch.size();
+		refCount.addAndGet(size);
+		batchCount.incrementAndGet();
+		lastBatchSize = size;
+		if(size > maxBatchSize) maxBatchSize = size;
+		final long elapsed = System.nanoTime() - start;
+		batchStats.append(elapsed);
+		if(executed > 0) clearStats.append(elapsed / executed);
+	}
 	
 	/**
 	 * {@inheritDoc}
+	 * <p>Each batch is handed to the thread pool. The pool's caller runs rejection policy is intended as back-pressure:
+	 * when the pool and its queue are saturated, this thread processes the batch itself and stops draining the reference
+	 * queue until it is done, rather than queueing an unbounded backlog of batches or dropping cleanup tasks, which would leak native memory.</p>
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
 		while(true) {
 			try {
-				final Object removed = refQueue.remove();
+				final Reference<?> removed = refQueue.remove();
 				if(removed==null) continue;
-				refCount.incrementAndGet();	
-				
-				updateTypeCount(removed.getClass().getName());
-				if(removed instanceof ReferenceRunnable) {
-					final ReferenceRunnable rr = (ReferenceRunnable)removed;
-//					System.out.println(">>>>>>> Dequeued [" + removed.getClass().getName() + "]");
-					if(rr.getClearedRunnable()!=null) {
-						threadPool.submit(new Runnable(){
-							public void run() {
-								rr.run();
-//								System.out.println(">>>>>>> Executed Clear Task [" + removed.getClass().getName() + "]");
-							}
-						}, preTask, postTask, this);
-					}					
-				}
+				final List<Reference<?>> batch = pollBatch(removed);
+				threadPool.execute(new Runnable(){
+					public void run() {
+						processBatch(batch);
+					}
+				});
 			} catch (Throwable t) {
-				t.printStackTrace(System.err);
+				LOG.error("Failed to dispatch cleared reference batch", t);
 				clearStats.error();
 				if(Thread.interrupted()) Thread.interrupted();
 			}
@@ -317,6 +385,23 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 	}
 	
 	
+	/**
+	 * {@inheritDoc}
+	 * <p>Used when cleared references must be processed urgently, e.g. to free native memory, 
+	 * rather than waiting for the queue thread and the thread pool.</p>
+	 * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#drain()
+	 */
+	@Override
+	public int drain() {
+		int drained = 0;
+		List<Reference<?>> batch;
+		while(!(batch = pollBatch(null)).isEmpty()) {
+			drained += batch.size();
+			processBatch(batch);
+		}
+		return drained;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getCountsByTypes()
@@ -558,6 +643,69 @@ public class ReferenceService implements Runnable, ReferenceServiceMXBean, Uncau
 		return clearStats.getMinimum();
 	}
 
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getBatchCount()
+     */
+    @Override
+    public long getBatchCount() {
+    	return batchCount.get();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getBatchSize()
+     */
+    @Override
+    public int getBatchSize() {
+    	return batchSize;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getLastBatchSize()
+     */
+    @Override
+    public int getLastBatchSize() {
+    	return lastBatchSize;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getMaxBatchSize()
+     */
+    @Override
+    public int getMaxBatchSize() {
+    	return maxBatchSize;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getLastBatchTime()
+     */
+    @Override
+    public long getLastBatchTime() {
+    	return batchStats.getLastSample();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getAverageBatchTime()
+     */
+    @Override
+    public double getAverageBatchTime() {
+    	return batchStats.getAverage();
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.reference.ReferenceServiceMXBean#getMaximumBatchTime()
+     */
+    @Override
+    public double getMaximumBatchTime() {
+    	return batchStats.getMaximum();
+    }
+
 	/**
 	 * {@inheritDoc}
 	 * @see java.lang.Thread.UncaughtExceptionHandler#uncaughtException(java.lang.Thread, java.lang.Throwable)
@@ -52,6 +52,12 @@ public interface ReferenceServiceMXBean {
 	 */
 	public void resetStats();
 	
+	/**
+	 * Drains the reference queue in the calling thread, running the cleared tasks of the drained references
+	 * @return the number of references drained
+	 */
+	public int drain();
+	
 	/**
 	 * Returns the last computed average.
 	 * @return the last computed average 
@@ -88,6 +94,48 @@ public interface ReferenceServiceMXBean {
 	 */
 	public long getErrors();
 	
+	/**
+	 * Returns the number of batches of cleared references processed since the last reset
+	 * @return the number of batches
+	 */
+	public long getBatchCount();
+	
+	/**
+	 * Returns the maximum number of cleared references drained into one batch
+	 * @return the maximum batch size
+	 */
+	public int getBatchSize();
+	
+	/**
+	 * Returns the number of cleared references in the last processed batch
+	 * @return the last batch size
+	 */
+	public int getLastBatchSize();
+	
+	/**
+	 * Returns the largest number of cleared references processed in one batch since the last reset
+	 * @return the largest batch size
+	 */
+	public int getMaxBatchSize();
+	
+	/**
+	 * Returns the elapsed time in ns. to process the last batch
+	 * @return the last batch elapsed time
+	 */
+	public long getLastBatchTime();
+	
+	/**
+	 * Returns the average elapsed time in ns. to process a batch
+	 * @return the average batch elapsed time
+	 */
+	public double getAverageBatchTime();
+	
+	/**
+	 * Returns the maximum elapsed time in ns. to process a batch since the last reset
+	 * @return the maximum batch elapsed time
+	 */
+	public double getMaximumBatchTime();
+	
 	/**
 	 * Returns a map of the counts of cleared references by reference type name
 	 * @return a map of the counts of cleared references by reference type name
@@ -69,6 +69,14 @@ public class ReferenceTypeCount implements ReferenceTypeCountMBean, Serializable
 		counter.increment();
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.reference.ReferenceTypeCountMBean#add(long)
+	 */
+	public void add(long count) {
+		counter.add(count);
+	}
+	
 
 	/**
 	 * {@inheritDoc}
@@ -49,6 +49,12 @@ public interface ReferenceTypeCountMBean {
 	 */
 	public void increment();
 	
+	/**
+	 * Adds to the cleared reference count
+	 * @param count The number of cleared references to add
+	 */
+	public void add(long count);
+	
 	/**
 	 * Sets the count to zero
 	 */
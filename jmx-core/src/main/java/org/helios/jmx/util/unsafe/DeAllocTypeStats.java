@@ -0,0 +1,172 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
+import org.helios.jmx.util.helpers.NumericCounter;
+
+/**
+ * <p>Title: DeAllocTypeStats</p>
+ * <p>Description: Registration and deallocation counts for one {@link DeAllocateMe} implementation class,
+ * kept in striped counters so registering costs no contended update.</p>
+ * <p>The live memory of each class is not counted on allocation, since most allocations do not identify the owning instance.
+ * Instead, it is summed from the tracked sizes of the addresses of the live registrations when the stats are read.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.DeAllocTypeStats</code></p>
+ */
+
+public class DeAllocTypeStats {
+	/** The stats keyed by the deallocatable class */
+	private static final NonBlockingHashMap<Class<?>, DeAllocTypeStats> statsByType = new NonBlockingHashMap<Class<?>, DeAllocTypeStats>();
+
+	/** The composite type for one deallocatable class */
+	public static final CompositeType TYPE_STATS;
+	/** The tabular type for all deallocatable classes */
+	public static final TabularType TABULAR_TYPE_STATS;
+	/** The composite type item names */
+	private static final String[] ITEM_NAMES = {"Type", "Registered", "Cleared", "Live", "Memory"};
+
+	static {
+		try {
+			TYPE_STATS = new CompositeType("UnsafeMemoryByType", "Native memory registrations for one DeAllocateMe class", ITEM_NAMES,
+					new String[]{"The DeAllocateMe class name", "The number of registrations", "The number of deallocated registrations", "The number of live registrations", "The tracked bytes of the live registrations, or -1 if tracking is disabled"},
+					new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+			TABULAR_TYPE_STATS = new TabularType("UnsafeMemoryByTypeSummary", "Native memory registrations by DeAllocateMe class", TYPE_STATS, new String[]{"Type"});
+		} catch (Exception ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/** The deallocatable class */
+	private final Class<?> type;
+	/** The deallocatable class name */
+	private final String typeName;
+	/** The number of registrations */
+	private final NumericCounter registered = new NumericCounter();
+	/** The number of deallocated registrations */
+	private final NumericCounter cleared = new NumericCounter();
+
+	/**
+	 * Returns the stats for the passed deallocatable class
+	 * @param type The deallocatable class
+	 * @return the stats
+	 */
+	public static DeAllocTypeStats getStats(Class<?> type) {
+		DeAllocTypeStats stats = statsByType.get(type);
+		if(stats==null) {
+			stats = new DeAllocTypeStats(type);
+			final DeAllocTypeStats prior = statsByType.putIfAbsent(type, stats);
+			if(prior!=null) stats = prior;
+		}
+		return stats;
+	}
+
+	/**
+	 * Creates a new DeAllocTypeStats
+	 * @param type The deallocatable class
+	 */
+	private DeAllocTypeStats(Class<?> type) {
+		this.type = type;
+		typeName = type.getName();
+	}
+
+	/**
+	 * Records a registration
+	 */
+	void registered() {
+		registered.increment();
+	}
+
+	/**
+	 * Records a deallocation
+	 */
+	void cleared() {
+		cleared.increment();
+	}
+
+	/**
+	 * Returns the deallocatable class
+	 * @return the deallocatable class
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the deallocatable class name
+	 * @return the deallocatable class name
+	 */
+	public String getTypeName() {
+		return typeName;
+	}
+
+	/**
+	 * Returns the number of registrations
+	 * @return the number of registrations
+	 */
+	public long getRegistered() {
+		return registered.get();
+	}
+
+	/**
+	 * Returns the number of deallocated registrations
+	 * @return the number of deallocated registrations
+	 */
+	public long getCleared() {
+		return cleared.get();
+	}
+
+	/**
+	 * Returns the stats of every deallocatable class as tabular data
+	 * @param memoryByType The tracked live bytes keyed by stats, or null if tracking is disabled
+	 * @return the tabular data
+	 */
+	static TabularDataSupport toTabularData(Map<DeAllocTypeStats, long[]> memoryByType) {
+		final TabularDataSupport tds = new TabularDataSupport(TABULAR_TYPE_STATS);
+		for(DeAllocTypeStats stats: statsByType.values()) {
+			final long reg = stats.getRegistered();
+			final long clr = stats.getCleared();
+			long memory = -1L;
+			if(memoryByType!=null) {
+				final long[] m = memoryByType.get(stats);
+				memory = m==null ? 0L : m[0];
+			}
+			try {
+				final CompositeData cd = new CompositeDataSupport(TYPE_STATS, ITEM_NAMES, new Object[]{stats.typeName, reg, clr, reg - clr, memory});
+				tds.put(cd);
+			} catch (OpenDataException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		return tds;
+	}
+
+	/**
+	 * Returns a new empty map for accumulating the live bytes of each type
+	 * @return a new map
+	 */
+	static Map<DeAllocTypeStats, long[]> newMemoryMap() {
+		return new HashMap<DeAllocTypeStats, long[]>(statsByType.size());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "DeAllocTypeStats [type=" + typeName + ", registered=" + getRegistered() + ", cleared=" + getCleared() + "]";
+	}
+}
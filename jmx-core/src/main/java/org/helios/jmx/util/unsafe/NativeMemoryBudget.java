@@ -0,0 +1,172 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.helios.jmx.util.reference.ReferenceService;
+
+/**
+ * <p>Title: NativeMemoryBudget</p>
+ * <p>Description: A cap on the native memory allocated through {@link UnsafeAdapter}, configured by {@link UnsafeAdapter#BUDGET_PROP}.
+ * Allocations reserve against the budget with a CAS and frees release their bytes back to it.</p>
+ * <p>Above {@link UnsafeAdapter#BUDGET_DRAIN_PCT} percent of the budget, the allocating thread drains the reference queue to free
+ * unreachable allocations. An allocation that would exceed the budget drains the queue, requests a rate limited <b><code>System.gc()</code></b>
+ * and waits up to the configured wait time for memory to be freed before failing with an {@link OutOfMemoryError}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.NativeMemoryBudget</code></p>
+ */
+
+public class NativeMemoryBudget {
+	/** The budget in bytes */
+	private final long budget;
+	/** The ms an allocation that would exceed the budget waits */
+	private final long wait;
+	/** The minimum ms between <b><code>System.gc()</code></b> calls */
+	private final long gcInterval;
+	/** The usage above which allocations drain the reference queue */
+	private final long drainLimit;
+	/** The native memory allocated against the budget */
+	private final AtomicLong usage = new AtomicLong(0L);
+	/** The number of allocations that waited for budget */
+	private final AtomicLong waits = new AtomicLong(0L);
+	/** The number of allocations that failed for lack of budget */
+	private final AtomicLong failures = new AtomicLong(0L);
+	/** The number of <b><code>System.gc()</code></b> calls made to relieve the budget */
+	private final AtomicLong gcCalls = new AtomicLong(0L);
+	/** The time of the last <b><code>System.gc()</code></b> call */
+	private final AtomicLong lastGc = new AtomicLong(0L);
+	/** Set while a thread is draining the reference queue to relieve budget pressure */
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	/**
+	 * Creates a new NativeMemoryBudget
+	 * @param budget The budget in bytes
+	 * @param wait The ms an allocation that would exceed the budget waits for memory to be freed. Zero fails fast.
+	 * @param gcInterval The minimum ms between <b><code>System.gc()</code></b> calls made to free memory. Zero disables the calls.
+	 */
+	public NativeMemoryBudget(long budget, long wait, long gcInterval) {
+		if(budget<1) throw new IllegalArgumentException("Invalid budget [" + budget + "]", new Throwable());
+		this.budget = budget;
+		this.wait = wait;
+		this.gcInterval = gcInterval;
+		drainLimit = budget / 100 * UnsafeAdapter.BUDGET_DRAIN_PCT;
+	}
+
+	/**
+	 * Reserves the passed number of bytes against the budget, relieving pressure and waiting as described in the class doc
+	 * @param size The number of bytes to reserve
+	 * @throws OutOfMemoryError thrown if the bytes could not be reserved, as it would be by a failed native allocation
+	 */
+	public void reserve(long size) {
+		if(tryReserve(size)) {
+			if(usage.get() > drainLimit) relievePressure(false);
+			return;
+		}
+		waits.incrementAndGet();
+		final long deadline = System.currentTimeMillis() + wait;
+		while(true) {
+			relievePressure(true);
+			if(tryReserve(size)) return;
+			if(System.currentTimeMillis() >= deadline) {
+				failures.incrementAndGet();
+				throw new OutOfMemoryError("Native memory budget exceeded. Budget: [" + budget + "], Usage: [" + usage.get() + "], Requested: [" + size + "]");
+			}
+			LockSupport.parkNanos(1000000L);
+		}
+	}
+
+	/**
+	 * Reserves the passed number of bytes against the budget if they fit
+	 * @param size The number of bytes to reserve
+	 * @return true if the bytes were reserved, false otherwise
+	 */
+	public boolean tryReserve(long size) {
+		while(true) {
+			final long used = usage.get();
+			if(used + size > budget) return false;
+			if(usage.compareAndSet(used, used + size)) return true;
+		}
+	}
+
+	/**
+	 * Releases the passed number of bytes back to the budget
+	 * @param size The number of bytes to release
+	 */
+	public void release(long size) {
+		usage.addAndGet(-size);
+	}
+
+	/**
+	 * Drains the reference queue to free the memory of unreachable allocations, if no other thread is doing so
+	 * @param urgent true if an allocation is waiting, in which case a rate limited <b><code>System.gc()</code></b> is also requested
+	 */
+	private void relievePressure(boolean urgent) {
+		if(!draining.compareAndSet(false, true)) return;
+		try {
+			ReferenceService.getInstance().drain();
+			if(urgent && gcInterval>0) {
+				final long now = System.currentTimeMillis();
+				final long last = lastGc.get();
+				if(now - last >= gcInterval && lastGc.compareAndSet(last, now)) {
+					gcCalls.incrementAndGet();
+					System.gc();
+					ReferenceService.getInstance().drain();
+				}
+			}
+		} finally {
+			draining.set(false);
+		}
+	}
+
+	/**
+	 * Returns the budget in bytes
+	 * @return the budget
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the native memory allocated against the budget in bytes
+	 * @return the usage
+	 */
+	public long getUsage() {
+		return usage.get();
+	}
+
+	/**
+	 * Returns the number of allocations that waited for memory to be freed because they would have exceeded the budget
+	 * @return the number of waits
+	 */
+	public long getWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * Returns the number of allocations that failed because they would have exceeded the budget
+	 * @return the number of failures
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Returns the number of <b><code>System.gc()</code></b> calls made to relieve the budget
+	 * @return the number of gc calls
+	 */
+	public long getGcCalls() {
+		return gcCalls.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "NativeMemoryBudget [budget=" + budget + ", usage=" + usage.get() + ", waits=" + waits.get() + ", failures=" + failures.get() + "]";
+	}
+}
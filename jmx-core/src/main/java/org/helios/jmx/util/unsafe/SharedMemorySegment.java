@@ -0,0 +1,412 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter.DiskSpinLock;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.PIDThread;
+
+/**
+ * <p>Title: SharedMemorySegment</p>
+ * <p>Description: A memory mapped file divided into fixed width slots of longs, which processes on the same host use to publish metrics
+ * to a single collector without JMX or sockets. Each publishing process claims one or more slots and publishes values into them,
+ * and the collector reads every claimed slot.</p>
+ * <p>The segment starts with a {@link DiskSpinLock} which guards the formatting of the header when the file is created.
+ * The header is followed by the slots, each of which is:<ul>
+ * 	<li><b>Owner</b>: The owning process encoded as a {@link PIDThread} with a thread id of zero. Zero when the slot is free.</li>
+ * 	<li><b>Sequence</b>: Incremented before and after each publish, so it is odd while a publish is in progress</li>
+ * 	<li><b>Timestamp</b>: The time of the last publish in ms</li>
+ * 	<li><b>Key</b>: The key the publisher claimed the slot with, identifying the metrics published in it</li>
+ * 	<li><b>Values</b>: The published values</li>
+ * </ul></p>
+ * <p>Each slot has a single writer, its owner. Readers use the sequence to get a consistent copy of the values without locking.
+ * Slots owned by processes that are no longer running are reclaimed by {@link #claim(long)} and {@link #reclaimStale()}.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.SharedMemorySegment</code></p>
+ */
+
+public class SharedMemorySegment implements Closeable {
+	/** The segment file */
+	protected final File file;
+	/** The mapped buffer, referenced so the mapping stays valid for the life of the segment */
+	protected final MappedByteBuffer mbb;
+	/** The segment address */
+	protected final long address;
+	/** The lock guarding the header */
+	protected final DiskSpinLock lock;
+	/** The number of slots */
+	protected final int slotCount;
+	/** The number of values in each slot */
+	protected final int width;
+	/** The size of each slot in bytes */
+	protected final int slotSize;
+	/** The slots claimed through this instance */
+	protected final Set<Slot> claimed = new CopyOnWriteArraySet<Slot>();
+
+	/** The segment magic number */
+	public static final long MAGIC = 0x48656C696F73534DL;
+	/** The segment format version */
+	public static final int VERSION = 1;
+
+	/** The offset of the magic number */
+	public static final int MAGIC_OFFSET = DiskSpinLock.LOCK_SIZE;
+	/** The offset of the format version */
+	public static final int VERSION_OFFSET = MAGIC_OFFSET + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the slot count */
+	public static final int SLOT_COUNT_OFFSET = VERSION_OFFSET + UnsafeAdapter.INT_SIZE;
+	/** The offset of the slot width */
+	public static final int WIDTH_OFFSET = SLOT_COUNT_OFFSET + UnsafeAdapter.INT_SIZE;
+	/** The size of the segment header in bytes */
+	public static final int HEADER_SIZE = 64;
+
+	/** The offset of the owner in a slot */
+	public static final int OWNER = 0;
+	/** The offset of the sequence in a slot */
+	public static final int SEQUENCE = OWNER + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the timestamp in a slot */
+	public static final int TIMESTAMP = SEQUENCE + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the key in a slot */
+	public static final int KEY = TIMESTAMP + UnsafeAdapter.LONG_SIZE;
+	/** The offset of the values in a slot */
+	public static final int VALUES = KEY + UnsafeAdapter.LONG_SIZE;
+
+	/** The slot owner value for a free slot */
+	public static final long FREE = 0L;
+	/** The slot owner value for slots owned by this process */
+	public static final long ME = PIDThread.encode(UnsafeAdapter.JVM_PID, 0);
+
+	/**
+	 * Creates or attaches to the shared memory segment in the passed file.
+	 * If the file is new, the segment is formatted with the passed dimensions, otherwise the dimensions must match the existing segment.
+	 * @param file The segment file
+	 * @param slotCount The number of slots
+	 * @param width The number of long values in each slot
+	 * @return the shared memory segment
+	 */
+	public static SharedMemorySegment open(File file, int slotCount, int width) {
+		if(file==null) throw new IllegalArgumentException("The passed file was null", new Throwable());
+		if(slotCount<1) throw new IllegalArgumentException("Invalid slot count [" + slotCount + "]", new Throwable());
+		if(width<1) throw new IllegalArgumentException("Invalid slot width [" + width + "]", new Throwable());
+		return new SharedMemorySegment(file, slotCount, width, true);
+	}
+
+	/**
+	 * Attaches to the existing shared memory segment in the passed file, using the dimensions in its header
+	 * @param file The segment file
+	 * @return the shared memory segment
+	 */
+	public static SharedMemorySegment open(File file) {
+		if(file==null) throw new IllegalArgumentException("The passed file was null", new Throwable());
+		if(file.length()<HEADER_SIZE) throw new IllegalArgumentException("The file [" + file + "] is not a shared memory segment", new Throwable());
+		final MappedByteBuffer header = DiskSpinLock.map(file, HEADER_SIZE);
+		final long headerAddress = DiskSpinLock.mappedAddress(header);
+		if(UnsafeAdapter.getLongVolatile(null, headerAddress + MAGIC_OFFSET)!=MAGIC) throw new IllegalArgumentException("The file [" + file + "] is not a shared memory segment", new Throwable());
+		return new SharedMemorySegment(file, UnsafeAdapter.getInt(headerAddress + SLOT_COUNT_OFFSET), UnsafeAdapter.getInt(headerAddress + WIDTH_OFFSET), false);
+	}
+
+	/**
+	 * Creates a new SharedMemorySegment
+	 * @param file The segment file
+	 * @param slotCount The number of slots
+	 * @param width The number of long values in each slot
+	 * @param format true to format the segment if it is new
+	 */
+	private SharedMemorySegment(File file, int slotCount, int width, boolean format) {
+		this.file = file;
+		this.slotCount = slotCount;
+		this.width = width;
+		slotSize = VALUES + (width * UnsafeAdapter.LONG_SIZE);
+		mbb = DiskSpinLock.map(file, HEADER_SIZE + ((long)slotCount * slotSize));
+		address = DiskSpinLock.mappedAddress(mbb);
+		lock = new DiskSpinLock(file, mbb, 0);
+		if(format) {
+			lock.xlock();
+			try {
+				if(UnsafeAdapter.getLongVolatile(null, address + MAGIC_OFFSET)!=MAGIC) {
+					UnsafeAdapter.putInt(address + VERSION_OFFSET, VERSION);
+					UnsafeAdapter.putInt(address + SLOT_COUNT_OFFSET, slotCount);
+					UnsafeAdapter.putInt(address + WIDTH_OFFSET, width);
+					UnsafeAdapter.putLongVolatile(null, address + MAGIC_OFFSET, MAGIC);
+				}
+			} finally {
+				lock.xunlock();
+			}
+		}
+		final int version = UnsafeAdapter.getInt(address + VERSION_OFFSET);
+		if(version!=VERSION) throw new IllegalArgumentException("Unsupported segment version [" + version + "] in [" + file + "]", new Throwable());
+		final int existingSlots = UnsafeAdapter.getInt(address + SLOT_COUNT_OFFSET);
+		final int existingWidth = UnsafeAdapter.getInt(address + WIDTH_OFFSET);
+		if(existingSlots!=slotCount || existingWidth!=width) {
+			throw new IllegalArgumentException("The segment [" + file + "] has [" + existingSlots + "] slots of width [" + existingWidth + "], not [" + slotCount + "] of width [" + width + "]", new Throwable());
+		}
+	}
+
+	/**
+	 * Returns the address of the passed slot
+	 * @param slot The slot index
+	 * @return the slot address
+	 */
+	protected long slotAddress(int slot) {
+		if(slot<0 || slot>=slotCount) throw new ArrayIndexOutOfBoundsException("Invalid slot [" + slot + "]. Slot count is [" + slotCount + "]");
+		return address + HEADER_SIZE + ((long)slot * slotSize);
+	}
+
+	/**
+	 * Indicates if the passed slot owner is stale, meaning the owning process is no longer running.
+	 * Where process liveness cannot be checked, an owner is stale when it has not published for longer than the {@link DiskSpinLock#LEASE},
+	 * and if the lease is disabled (the default) the slot is never reclaimed.
+	 * @param slotAddress The slot address
+	 * @param owner The slot owner
+	 * @return true if the owner is stale, false otherwise
+	 */
+	protected boolean isStale(long slotAddress, long owner) {
+		if(owner==FREE || owner==ME) return false;
+		if(DiskSpinLock.PROC_FS) return DiskSpinLock.isOwnerDead(owner);
+		return DiskSpinLock.LEASE>0 && System.currentTimeMillis() - UnsafeAdapter.getLongVolatile(null, slotAddress + TIMESTAMP) > DiskSpinLock.LEASE;
+	}
+
+	/**
+	 * Claims a free or stale slot for this process
+	 * @param key The key identifying the metrics that will be published in the slot
+	 * @return the claimed slot
+	 * @throws IllegalStateException thrown if there are no free slots
+	 */
+	public Slot claim(long key) {
+		for(int i = 0; i < slotCount; i++) {
+			final long slotAddress = slotAddress(i);
+			final long owner = UnsafeAdapter.getLongVolatile(null, slotAddress + OWNER);
+			if((owner==FREE || isStale(slotAddress, owner)) && UnsafeAdapter.compareAndSwapLong(null, slotAddress + OWNER, owner, ME)) {
+				final Slot slot = new Slot(i, slotAddress, key);
+				claimed.add(slot);
+				return slot;
+			}
+		}
+		throw new IllegalStateException("No free slots in segment [" + file + "]", new Throwable());
+	}
+
+	/**
+	 * Frees the slots owned by processes that are no longer running
+	 * @return the number of slots freed
+	 */
+	public int reclaimStale() {
+		int freed = 0;
+		for(int i = 0; i < slotCount; i++) {
+			final long slotAddress = slotAddress(i);
+			final long owner = UnsafeAdapter.getLongVolatile(null, slotAddress + OWNER);
+			if(isStale(slotAddress, owner) && UnsafeAdapter.compareAndSwapLong(null, slotAddress + OWNER, owner, FREE)) freed++;
+		}
+		return freed;
+	}
+
+	/**
+	 * Reads a consistent copy of the values in the passed slot
+	 * @param slot The slot index
+	 * @param values The array to copy the values into, which must be at least {@link #getWidth()} long
+	 * @return the timestamp of the copied values, or -1 if the slot is free or its owner died while publishing
+	 */
+	public long read(int slot, long[] values) {
+		if(values==null || values.length<width) throw new IllegalArgumentException("The values array must have a length of at least [" + width + "]", new Throwable());
+		final long slotAddress = slotAddress(slot);
+		int attempts = 0;
+		while(true) {
+			final long owner = UnsafeAdapter.getLongVolatile(null, slotAddress + OWNER);
+			if(owner==FREE) return -1L;
+			final long seq = UnsafeAdapter.getLongVolatile(null, slotAddress + SEQUENCE);
+			if((seq & 1L)==0L) {
+				final long timestamp = UnsafeAdapter.getLongVolatile(null, slotAddress + TIMESTAMP);
+				for(int i = 0; i < width; i++) {
+					values[i] = UnsafeAdapter.getLongVolatile(null, slotAddress + VALUES + (i * UnsafeAdapter.LONG_SIZE));
+				}
+				if(UnsafeAdapter.getLongVolatile(null, slotAddress + SEQUENCE)==seq) return timestamp;
+			} else if(++attempts % DiskSpinLock.STALE_CHECK_INTERVAL == 0 && isStale(slotAddress, owner)) {
+				return -1L;
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Indicates if the passed slot is claimed
+	 * @param slot The slot index
+	 * @return true if the slot is claimed, false otherwise
+	 */
+	public boolean isClaimed(int slot) {
+		return UnsafeAdapter.getLongVolatile(null, slotAddress(slot) + OWNER)!=FREE;
+	}
+
+	/**
+	 * Returns the owner of the passed slot
+	 * @param slot The slot index
+	 * @return the owner of the slot, or {@link UnsafeAdapter#NO_DISK_LOCK} if the slot is free
+	 */
+	public PIDThread getOwner(int slot) {
+		return PIDThread.decode(UnsafeAdapter.getLongVolatile(null, slotAddress(slot) + OWNER));
+	}
+
+	/**
+	 * Returns the key of the passed slot
+	 * @param slot The slot index
+	 * @return the key of the slot
+	 */
+	public long getKey(int slot) {
+		return UnsafeAdapter.getLongVolatile(null, slotAddress(slot) + KEY);
+	}
+
+	/**
+	 * Returns the timestamp of the last publish to the passed slot
+	 * @param slot The slot index
+	 * @return the timestamp of the last publish in ms
+	 */
+	public long getTimestamp(int slot) {
+		return UnsafeAdapter.getLongVolatile(null, slotAddress(slot) + TIMESTAMP);
+	}
+
+	/**
+	 * Returns the number of slots
+	 * @return the number of slots
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Returns the number of values in each slot
+	 * @return the number of values in each slot
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the segment file
+	 * @return the segment file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Releases all the slots claimed through this instance.
+	 * The mapping itself is released when this segment is collected.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		for(Slot slot: claimed) {
+			slot.release();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SharedMemorySegment [file=" + file + ", slots=" + slotCount + ", width=" + width + "]";
+	}
+
+	/**
+	 * <p>Title: Slot</p>
+	 * <p>Description: A slot claimed by this process, into which values are published</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.SharedMemorySegment.Slot</code></p>
+	 */
+	public class Slot {
+		/** The slot index */
+		protected final int index;
+		/** The slot address */
+		protected final long slotAddress;
+		/** The slot key */
+		protected final long key;
+
+		/**
+		 * Creates a new Slot
+		 * @param index The slot index
+		 * @param slotAddress The slot address
+		 * @param key The slot key
+		 */
+		private Slot(int index, long slotAddress, long key) {
+			this.index = index;
+			this.slotAddress = slotAddress;
+			this.key = key;
+			final long seq = UnsafeAdapter.getLongVolatile(null, slotAddress + SEQUENCE);
+			// a stale owner may have died while publishing
+			if((seq & 1L)!=0L) UnsafeAdapter.putLongVolatile(null, slotAddress + SEQUENCE, seq + 1);
+			publish(key, new long[width]);
+		}
+
+		/**
+		 * Publishes the passed values into this slot.
+		 * If fewer values than the slot width are passed, the remaining values are unchanged.
+		 * @param values The values to publish
+		 */
+		public void publish(long...values) {
+			publish(key, values);
+		}
+
+		/**
+		 * Publishes the passed key and values into this slot
+		 * @param key The slot key
+		 * @param values The values to publish
+		 */
+		private synchronized void publish(long key, long[] values) {
+			if(UnsafeAdapter.getLongVolatile(null, slotAddress + OWNER)!=ME) throw new IllegalStateException("Slot [" + index + "] is no longer owned by this process", new Throwable());
+			final int count = Math.min(values.length, width);
+			final long seq = UnsafeAdapter.getLong(slotAddress + SEQUENCE);
+			UnsafeAdapter.putLongVolatile(null, slotAddress + SEQUENCE, seq + 1);
+			UnsafeAdapter.putOrderedLong(null, slotAddress + KEY, key);
+			for(int i = 0; i < count; i++) {
+				UnsafeAdapter.putOrderedLong(null, slotAddress + VALUES + (i * UnsafeAdapter.LONG_SIZE), values[i]);
+			}
+			UnsafeAdapter.putOrderedLong(null, slotAddress + TIMESTAMP, System.currentTimeMillis());
+			UnsafeAdapter.putOrderedLong(null, slotAddress + SEQUENCE, seq + 2);
+		}
+
+		/**
+		 * Publishes one value into this slot
+		 * @param index The index of the value
+		 * @param value The value
+		 */
+		public synchronized void set(int index, long value) {
+			if(index<0 || index>=width) throw new ArrayIndexOutOfBoundsException("Invalid index [" + index + "]. Slot width is [" + width + "]");
+			if(UnsafeAdapter.getLongVolatile(null, slotAddress + OWNER)!=ME) throw new IllegalStateException("Slot [" + this.index + "] is no longer owned by this process", new Throwable());
+			final long seq = UnsafeAdapter.getLong(slotAddress + SEQUENCE);
+			UnsafeAdapter.putLongVolatile(null, slotAddress + SEQUENCE, seq + 1);
+			UnsafeAdapter.putOrderedLong(null, slotAddress + VALUES + (index * UnsafeAdapter.LONG_SIZE), value);
+			UnsafeAdapter.putOrderedLong(null, slotAddress + TIMESTAMP, System.currentTimeMillis());
+			UnsafeAdapter.putOrderedLong(null, slotAddress + SEQUENCE, seq + 2);
+		}
+
+		/**
+		 * Frees this slot
+		 */
+		public void release() {
+			if(claimed.remove(this)) {
+				UnsafeAdapter.compareAndSwapLong(null, slotAddress + OWNER, ME, FREE);
+			}
+		}
+
+		/**
+		 * Returns the slot index
+		 * @return the slot index
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Returns the slot key
+		 * @return the slot key
+		 */
+		public long getKey() {
+			return key;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>Title: SiteSampler</p>
+ * <p>Description: Randomized 1-in-N event sampler with per site counters, shared by the {@link StripedAllocationTracker} and the {@link UnsafeLeakDetector}.</p>
+ * <p>Each thread counts down a randomized interval averaging the sample rate, so sampling costs a thread local decrement until a sample is due.
+ * Sampled events are recorded against a site key with a count and a byte total.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.SiteSampler</code></p>
+ */
+
+class SiteSampler {
+	/** The site counter index of the sample count */
+	static final int COUNT = 0;
+	/** The site counter index of the sampled bytes */
+	static final int BYTES = 1;
+
+	/** The mean number of events between samples. Zero disables sampling */
+	private final int sampleRate;
+	/** The per thread count down to the next sample */
+	private final ThreadLocal<int[]> countdown = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[]{nextInterval()};
+		}
+	};
+	/** The sample count and sampled bytes keyed by site */
+	private final ConcurrentHashMap<String, AtomicLongArray> sites = new ConcurrentHashMap<String, AtomicLongArray>();
+
+	/**
+	 * Creates a new SiteSampler
+	 * @param sampleRate The mean number of events between samples. Zero disables sampling.
+	 */
+	SiteSampler(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Counts an event on the calling thread
+	 * @return true if the event should be sampled, false otherwise
+	 */
+	boolean sample() {
+		if(sampleRate<1) return false;
+		final int[] cd = countdown.get();
+		if(--cd[0] > 0) return false;
+		cd[0] = nextInterval();
+		return true;
+	}
+
+	/**
+	 * Records a sample against the passed site
+	 * @param site The site key
+	 * @param bytes The bytes of the sampled event, ignored if not positive
+	 * @return true if this is the first sample recorded for the site, false otherwise
+	 */
+	boolean record(String site, long bytes) {
+		boolean first = false;
+		AtomicLongArray counts = sites.get(site);
+		if(counts==null) {
+			counts = new AtomicLongArray(2);
+			final AtomicLongArray prior = sites.putIfAbsent(site, counts);
+			if(prior!=null) counts = prior;
+			else first = true;
+		}
+		counts.incrementAndGet(COUNT);
+		if(bytes>0) counts.addAndGet(BYTES, bytes);
+		return first;
+	}
+
+	/**
+	 * Returns one counter of each site multiplied by the passed factor, largest first
+	 * @param counter The counter to return, {@link #COUNT} or {@link #BYTES}
+	 * @param factor The factor to multiply the counter by
+	 * @return the counter values keyed by site
+	 */
+	Map<String, Long> getSites(int counter, long factor) {
+		final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(sites.size());
+		for(Map.Entry<String, AtomicLongArray> entry: sites.entrySet()) {
+			entries.add(new SimpleImmutableEntry<String, Long>(entry.getKey(), entry.getValue().get(counter) * factor));
+		}
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		final Map<String, Long> map = new LinkedHashMap<String, Long>(entries.size());
+		for(Map.Entry<String, Long> entry: entries) {
+			map.put(entry.getKey(), entry.getValue());
+		}
+		return map;
+	}
+
+	/**
+	 * Clears the recorded sites
+	 */
+	void reset() {
+		sites.clear();
+	}
+
+	/**
+	 * Returns the mean number of events between samples
+	 * @return the sample rate, or zero if sampling is disabled
+	 */
+	int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Returns a random interval to the next sample, averaging the sample rate
+	 * @return the number of events until the next sample
+	 */
+	private int nextInterval() {
+		return sampleRate<2 ? 1 : 1 + ThreadLocalRandom.current().nextInt(sampleRate * 2 - 1);
+	}
+}
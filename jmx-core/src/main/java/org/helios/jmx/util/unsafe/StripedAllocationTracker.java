@@ -0,0 +1,346 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.Map;
+
+/**
+ * <p>Title: StripedAllocationTracker</p>
+ * <p>Description: Low overhead native memory allocation tracker used by {@link UnsafeAdapter} when the tracking mode
+ * ({@link UnsafeAdapter#TRACK_MODE_PROP}) is <b><code>striped</code></b>.</p>
+ * <p>The size of each allocation is recorded in an off-heap open addressing table keyed by address, which is split into stripes
+ * selected by the address hash, each with its own lock and its own allocation count, size and alignment overhead totals.
+ * The stripe totals are only written under the stripe lock, so an allocation costs no more than the uncontended stripe lock
+ * and the table update. The totals are the sum of the stripe totals, so they are exact once concurrent allocations complete.</p>
+ * <p>Allocating call sites are sampled: each thread counts down a randomized interval averaging {@link UnsafeAdapter#SAMPLE_RATE_PROP} allocations,
+ * and only then walks the stack to record the allocating class. The bytes allocated by each class are estimated from the samples.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.StripedAllocationTracker</code></p>
+ */
+
+public class StripedAllocationTracker {
+	/** The number of stripes */
+	public static final int STRIPES = 64;
+	/** The initial number of slots in each stripe */
+	public static final int INITIAL_CAPACITY = 256;
+	/** The size of a table slot: the address, the size and the alignment overhead */
+	private static final int SLOT_SIZE = UnsafeAdapter.LONG_SIZE * 3;
+	/** The prefix of the class names skipped when finding the allocating call site */
+	private static final String ADAPTER_PREFIX = UnsafeAdapter.class.getName();
+
+	/** The stripes */
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	/** The call site sampler and the sampled allocation count and bytes keyed by the allocating class name */
+	private final SiteSampler sampler;
+
+	/**
+	 * Creates a new StripedAllocationTracker
+	 * @param sampleRate The mean number of allocations between call site samples. Zero disables sampling.
+	 */
+	public StripedAllocationTracker(int sampleRate) {
+		sampler = new SiteSampler(sampleRate);
+		for(int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Hashes the passed address
+	 * @param address The address
+	 * @return the hash
+	 */
+	private static long hash(long address) {
+		return address * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Returns the stripe for the passed address
+	 * @param address The address
+	 * @return the stripe
+	 */
+	private Stripe stripe(long address) {
+		return stripes[(int)(hash(address) >>> 58)];
+	}
+
+	/**
+	 * Records an allocation
+	 * @param address The address of the allocation
+	 * @param size The size of the allocation in bytes
+	 * @param overhead The number of bytes allocated in excess of requested for alignment
+	 */
+	public void add(long address, long size, long overhead) {
+		stripe(address).put(address, size, overhead);
+		if(sampler.sample()) sample(size);
+	}
+
+	/**
+	 * Removes the allocation at the passed address
+	 * @param address The address of the allocation
+	 * @return the size of the removed allocation, or -1 if the address was not tracked
+	 */
+	public long remove(long address) {
+		return stripe(address).remove(address);
+	}
+
+	/**
+	 * Returns the size of the allocation at the passed address
+	 * @param address The address of the allocation
+	 * @return the size of the allocation, or -1 if the address is not tracked
+	 */
+	public long sizeOf(long address) {
+		return stripe(address).get(address);
+	}
+
+	/**
+	 * Returns the number of tracked allocations
+	 * @return the number of tracked allocations
+	 */
+	public int getCount() {
+		int count = 0;
+		for(Stripe s: stripes) count += s.size();
+		return count;
+	}
+
+	/**
+	 * Returns the total size of the tracked allocations in bytes
+	 * @return the total size of the tracked allocations
+	 */
+	public long getBytes() {
+		long bytes = 0;
+		for(Stripe s: stripes) bytes += s.bytes();
+		return bytes;
+	}
+
+	/**
+	 * Returns the total alignment overhead of the tracked allocations in bytes
+	 * @return the total alignment overhead
+	 */
+	public long getOverhead() {
+		long overhead = 0;
+		for(Stripe s: stripes) overhead += s.overhead();
+		return overhead;
+	}
+
+	/**
+	 * Returns the mean number of allocations between call site samples
+	 * @return the sample rate, or zero if sampling is disabled
+	 */
+	public int getSampleRate() {
+		return sampler.getSampleRate();
+	}
+
+	/**
+	 * Returns the estimated bytes allocated since the last reset, keyed by the allocating class, largest first.
+	 * The estimate is the sampled bytes multiplied by the sample rate.
+	 * @return the estimated bytes allocated by each allocating class
+	 */
+	public Map<String, Long> getAllocationSites() {
+		return sampler.getSites(SiteSampler.BYTES, sampler.getSampleRate());
+	}
+
+	/**
+	 * Clears the sampled allocation sites
+	 */
+	public void resetAllocationSites() {
+		sampler.reset();
+	}
+
+	/**
+	 * Records a sample of the calling allocation site
+	 * @param size The size of the allocation
+	 */
+	private void sample(long size) {
+		String site = "Unknown";
+		for(StackTraceElement ste: new Throwable().getStackTrace()) {
+			final String className = ste.getClassName();
+			if(!className.startsWith(ADAPTER_PREFIX) && !className.equals(StripedAllocationTracker.class.getName())) {
+				site = className;
+				break;
+			}
+		}
+		sampler.record(site, size);
+	}
+
+	/**
+	 * <p>Title: Stripe</p>
+	 * <p>Description: One stripe of the allocation table: an off-heap linear probing table of address, size and overhead,
+	 * with backward shift deletion. Zero is never a valid address, so it marks a free slot.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.StripedAllocationTracker.Stripe</code></p>
+	 */
+	private static class Stripe {
+		/** The table address */
+		private long table;
+		/** The slot index mask */
+		private int mask;
+		/** The number of tracked allocations */
+		private int size = 0;
+		/** The total size of the tracked allocations */
+		private long bytes = 0;
+		/** The total alignment overhead of the tracked allocations */
+		private long overhead = 0;
+
+		/**
+		 * Creates a new Stripe
+		 */
+		Stripe() {
+			table = allocate(INITIAL_CAPACITY);
+			mask = INITIAL_CAPACITY - 1;
+		}
+
+		/**
+		 * Allocates and zeroes a table, bypassing the tracking in {@link UnsafeAdapter}
+		 * @param capacity The number of slots
+		 * @return the table address
+		 */
+		private static long allocate(int capacity) {
+			final long address = UnsafeAdapter.UNSAFE.allocateMemory((long)capacity * SLOT_SIZE);
+			UnsafeAdapter.UNSAFE.setMemory(address, (long)capacity * SLOT_SIZE, UnsafeAdapter.ZERO_BYTE);
+			return address;
+		}
+
+		/**
+		 * Returns the home slot index of the passed address
+		 * @param address The address
+		 * @return the slot index
+		 */
+		private int home(long address) {
+			return (int)(hash(address) >>> 32) & mask;
+		}
+
+		/**
+		 * Returns the address of the passed slot index
+		 * @param index The slot index
+		 * @return the slot address
+		 */
+		private long slot(int index) {
+			return table + ((long)index * SLOT_SIZE);
+		}
+
+		/**
+		 * Finds the slot index of the passed address
+		 * @param address The address
+		 * @return the slot index or -1 if the address is not in the table
+		 */
+		private int find(long address) {
+			for(int i = home(address); ; i = (i + 1) & mask) {
+				final long key = UnsafeAdapter.UNSAFE.getLong(slot(i));
+				if(key==address) return i;
+				if(key==0L) return -1;
+			}
+		}
+
+		/**
+		 * Returns the number of tracked allocations
+		 * @return the number of tracked allocations
+		 */
+		synchronized int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the total size of the tracked allocations
+		 * @return the total size of the tracked allocations
+		 */
+		synchronized long bytes() {
+			return bytes;
+		}
+
+		/**
+		 * Returns the total alignment overhead of the tracked allocations
+		 * @return the total alignment overhead
+		 */
+		synchronized long overhead() {
+			return overhead;
+		}
+
+		/**
+		 * Returns the size of the allocation at the passed address
+		 * @param address The address
+		 * @return the size or -1 if the address is not in the table
+		 */
+		synchronized long get(long address) {
+			final int i = find(address);
+			return i==-1 ? -1L : UnsafeAdapter.UNSAFE.getLong(slot(i) + UnsafeAdapter.LONG_SIZE);
+		}
+
+		/**
+		 * Records an allocation, replacing any prior allocation at the same address
+		 * @param address The address
+		 * @param allocSize The size of the allocation
+		 * @param allocOverhead The alignment overhead of the allocation
+		 */
+		synchronized void put(long address, long allocSize, long allocOverhead) {
+			if((size + 1) * 2 > mask + 1) resize();
+			int i = home(address);
+			while(true) {
+				final long key = UnsafeAdapter.UNSAFE.getLong(slot(i));
+				if(key==0L) {
+					size++;
+					break;
+				}
+				if(key==address) {
+					bytes -= UnsafeAdapter.UNSAFE.getLong(slot(i) + UnsafeAdapter.LONG_SIZE);
+					overhead -= UnsafeAdapter.UNSAFE.getLong(slot(i) + UnsafeAdapter.LONG_SIZE * 2);
+					break;
+				}
+				i = (i + 1) & mask;
+			}
+			final long s = slot(i);
+			UnsafeAdapter.UNSAFE.putLong(s, address);
+			UnsafeAdapter.UNSAFE.putLong(s + UnsafeAdapter.LONG_SIZE, allocSize);
+			UnsafeAdapter.UNSAFE.putLong(s + UnsafeAdapter.LONG_SIZE * 2, allocOverhead);
+			bytes += allocSize;
+			overhead += allocOverhead;
+		}
+
+		/**
+		 * Removes the allocation at the passed address
+		 * @param address The address
+		 * @return the size of the removed allocation or -1 if the address was not in the table
+		 */
+		synchronized long remove(long address) {
+			int i = find(address);
+			if(i==-1) return -1L;
+			final long allocSize = UnsafeAdapter.UNSAFE.getLong(slot(i) + UnsafeAdapter.LONG_SIZE);
+			bytes -= allocSize;
+			overhead -= UnsafeAdapter.UNSAFE.getLong(slot(i) + UnsafeAdapter.LONG_SIZE * 2);
+			size--;
+			// shift back following entries that would no longer be reachable from their home slot
+			int j = i;
+			while(true) {
+				j = (j + 1) & mask;
+				final long key = UnsafeAdapter.UNSAFE.getLong(slot(j));
+				if(key==0L) break;
+				final int h = home(key);
+				final boolean reachable = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+				if(!reachable) {
+					UnsafeAdapter.UNSAFE.copyMemory(slot(j), slot(i), SLOT_SIZE);
+					i = j;
+				}
+			}
+			UnsafeAdapter.UNSAFE.putLong(slot(i), 0L);
+			return allocSize;
+		}
+
+		/**
+		 * Doubles the capacity of the table
+		 */
+		private void resize() {
+			final long oldTable = table;
+			final int oldCapacity = mask + 1;
+			table = allocate(oldCapacity * 2);
+			mask = oldCapacity * 2 - 1;
+			for(int i = 0; i < oldCapacity; i++) {
+				final long old = oldTable + ((long)i * SLOT_SIZE);
+				final long key = UnsafeAdapter.UNSAFE.getLong(old);
+				if(key==0L) continue;
+				int j = home(key);
+				while(UnsafeAdapter.UNSAFE.getLong(slot(j))!=0L) j = (j + 1) & mask;
+				UnsafeAdapter.UNSAFE.copyMemory(old, slot(j), SLOT_SIZE);
+			}
+			UnsafeAdapter.UNSAFE.freeMemory(oldTable);
+		}
+	}
+}
@@ -4,6 +4,7 @@
 package org.helios.jmx.util.unsafe;
 
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.lang.management.ManagementFactory;
@@ -19,11 +20,24 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
 
 import org.cliffc.high_scale_lib.NonBlockingHashMapLong;
 import org.helios.jmx.util.helpers.JMXHelper;
@@ -70,6 +84,10 @@ public class UnsafeAdapter {
     
     /** The size of a <b><code>char</code></b>  */
     public final static int CHAR_SIZE = 2;
+    /** The size of a <b><code>short</code></b>  */
+    public final static int SHORT_SIZE = 2;
+    /** The size of a <b><code>short[]</code></b> array offset */
+    public final static int SHORT_ARRAY_OFFSET;
 
     /** The size of an <b><code>int</code></b>  */
     public final static int INT_SIZE = 4;
@@ -114,11 +132,55 @@ public class UnsafeAdapter {
 	private static final AtomicLong totalMemoryAllocated;
 	/** The total native memory allocation overhead for alignment */
 	private static final AtomicLong totalAlignmentOverhead;
+	/** The striped allocation tracker, used instead of the allocation map and totals when the tracking mode is striped */
+	private static final StripedAllocationTracker allocationTracker;
 	
 	/** The system prop indicating that allocations should be tracked */
 	public static final String TRACK_ALLOCS_PROP = "unsafe.allocations.track"; 
 	/** The system prop indicating that allocations should be alligned */
 	public static final String ALIGN_ALLOCS_PROP = "unsafe.allocations.align";
+	/** The system prop specifying the allocation tracking mode, {@link #TRACK_MODE_FULL} (the default) or {@link #TRACK_MODE_STRIPED} */
+	public static final String TRACK_MODE_PROP = "unsafe.allocations.track.mode";
+	/** The tracking mode which records every allocation in a concurrent map with global totals */
+	public static final String TRACK_MODE_FULL = "full";
+	/** The tracking mode which records allocations in a {@link StripedAllocationTracker} */
+	public static final String TRACK_MODE_STRIPED = "striped";
+	/** The system prop specifying the mean number of allocations between allocating call site samples in the striped tracking mode. Zero disables sampling. */
+	public static final String SAMPLE_RATE_PROP = "unsafe.allocations.sample";
+	/** The default mean number of allocations between allocating call site samples */
+	public static final int DEFAULT_SAMPLE_RATE = 1024;
+	/** The system prop specifying the native memory budget in bytes, optionally suffixed with K, M or G. Enables allocation tracking. Zero or less is unlimited. */
+	public static final String BUDGET_PROP = "unsafe.allocations.budget";
+	/** The system prop specifying the ms an allocation that would exceed the budget waits for memory to be freed before failing. Zero fails fast. */
+	public static final String BUDGET_WAIT_PROP = "unsafe.allocations.budget.wait";
+	/** The default ms an allocation that would exceed the budget waits */
+	public static final long DEFAULT_BUDGET_WAIT = 1000L;
+	/** The system prop specifying the minimum ms between <b><code>System.gc()</code></b> calls made to free memory when the budget is exhausted. Zero disables the calls. */
+	public static final String BUDGET_GC_INTERVAL_PROP = "unsafe.allocations.budget.gc.interval";
+	/** The default minimum ms between budget <b><code>System.gc()</code></b> calls */
+	public static final long DEFAULT_BUDGET_GC_INTERVAL = 5000L;
+	/** The percentage of the budget above which allocations drain the reference queue */
+	public static final int BUDGET_DRAIN_PCT = 90;
+	
+	/** The native memory budget in bytes, or zero if unlimited */
+	public static final long nativeBudget = parseBytes(System.getProperty(BUDGET_PROP, "0"));
+	/** The native memory budget, or null if unlimited */
+	private static final NativeMemoryBudget budget = nativeBudget>0 ? new NativeMemoryBudget(nativeBudget, 
+			Long.parseLong(System.getProperty(BUDGET_WAIT_PROP, "" + DEFAULT_BUDGET_WAIT).trim()), 
+			Long.parseLong(System.getProperty(BUDGET_GC_INTERVAL_PROP, "" + DEFAULT_BUDGET_GC_INTERVAL).trim())) : null;
+	/** The system prop indicating that {@link #allocateSpinLock()} should create {@link AdaptiveSpinLock}s */
+	public static final String ADAPTIVE_SPINLOCK_PROP = "unsafe.spinlock.adaptive";
+	/** The system prop specifying the number of spins an {@link AdaptiveSpinLock} makes before parking */
+	public static final String SPINLOCK_SPINS_PROP = "unsafe.spinlock.spins";
+	/** The default number of spins an {@link AdaptiveSpinLock} makes before parking */
+	public static final int DEFAULT_SPINLOCK_SPINS = 64;
+	/** The system prop specifying the lease in ms after which a held {@link DiskSpinLock} is considered stale even if its owner is alive */
+	public static final String DISK_LOCK_LEASE_PROP = "unsafe.disklock.lease";
+	/** The default {@link DiskSpinLock} lease in ms, which is disabled so a live owner is never displaced */
+	public static final long DEFAULT_DISK_LOCK_LEASE = 0L;
+	
+	/** The configured spin lock type. If true, {@link #allocateSpinLock()} creates {@link AdaptiveSpinLock}s */
+	public static final boolean adaptiveSpinLocks = "true".equalsIgnoreCase(System.getProperty(ADAPTIVE_SPINLOCK_PROP, "false").trim());
 	
 	/** The debug agent library */
 	public static final String AGENT_LIB = "-agentlib:";
@@ -261,6 +323,77 @@ public class UnsafeAdapter {
     	 */
     	public int getPendingRefs();
     	
+    	/**
+    	 * Returns the histogram of contended {@link AdaptiveSpinLock} wait times, one row per bucket
+    	 * @return the spin lock wait histogram
+    	 */
+    	public TabularData getSpinLockWaits();
+    	
+    	/**
+    	 * Returns the number of contended {@link AdaptiveSpinLock} acquisitions since the last reset
+    	 * @return the number of contended acquisitions
+    	 */
+    	public long getSpinLockContended();
+    	
+    	/**
+    	 * Returns the number of contended {@link AdaptiveSpinLock} acquisitions that parked since the last reset
+    	 * @return the number of parked acquisitions
+    	 */
+    	public long getSpinLockParked();
+    	
+    	/**
+    	 * Resets the {@link AdaptiveSpinLock} wait histogram and counters
+    	 */
+    	public void resetSpinLockWaits();
+    	
+    	/**
+    	 * Returns the allocation tracking mode
+    	 * @return the allocation tracking mode, or <b><code>none</code></b> if tracking is disabled
+    	 */
+    	public String getTrackingMode();
+    	
+    	/**
+    	 * Returns the estimated bytes allocated by each sampled allocating class, largest first.
+    	 * Only available in the {@link UnsafeAdapter#TRACK_MODE_STRIPED} tracking mode.
+    	 * @return the estimated bytes allocated keyed by the allocating class name
+    	 */
+    	public Map<String, Long> getAllocationSites();
+    	
+    	/**
+    	 * Clears the sampled allocation sites
+    	 */
+    	public void resetAllocationSites();
+    	
+    	/**
+    	 * Returns the native memory budget in bytes
+    	 * @return the native memory budget, or -1 if unlimited
+    	 */
+    	public long getNativeMemoryBudget();
+    	
+    	/**
+    	 * Returns the native memory allocated against the budget in bytes
+    	 * @return the native memory allocated against the budget, or -1 if unlimited
+    	 */
+    	public long getNativeMemoryBudgetUsage();
+    	
+    	/**
+    	 * Returns the number of allocations that waited for memory to be freed because they would have exceeded the budget
+    	 * @return the number of allocations that waited
+    	 */
+    	public long getBudgetWaits();
+    	
+    	/**
+    	 * Returns the number of allocations that failed because they would have exceeded the budget
+    	 * @return the number of failed allocations
+    	 */
+    	public long getBudgetFailures();
+    	
+    	/**
+    	 * Returns the registration counts and live tracked bytes of each {@link DeAllocateMe} class
+    	 * @return the allocations by DeAllocateMe class
+    	 */
+    	public TabularData getAllocationsByType();
+    	
     }
 
     /**
@@ -335,6 +468,114 @@ public class UnsafeAdapter {
 		public int getPendingRefs() {			
 			return -1;
 		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockWaits()
+		 */
+		@Override
+		public TabularData getSpinLockWaits() {
+			return AdaptiveSpinLock.getWaitHistogram();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockContended()
+		 */
+		@Override
+		public long getSpinLockContended() {
+			return AdaptiveSpinLock.getContended();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockParked()
+		 */
+		@Override
+		public long getSpinLockParked() {
+			return AdaptiveSpinLock.getParked();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#resetSpinLockWaits()
+		 */
+		@Override
+		public void resetSpinLockWaits() {
+			AdaptiveSpinLock.resetWaitHistogram();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getTrackingMode()
+		 */
+		@Override
+		public String getTrackingMode() {
+			return "none";
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getAllocationSites()
+		 */
+		@Override
+		public Map<String, Long> getAllocationSites() {
+			return EMPTY_STAT_MAP;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#resetAllocationSites()
+		 */
+		@Override
+		public void resetAllocationSites() {
+			/* No Op */
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getNativeMemoryBudget()
+		 */
+		@Override
+		public long getNativeMemoryBudget() {
+			return nativeBudget>0 ? nativeBudget : -1L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getNativeMemoryBudgetUsage()
+		 */
+		@Override
+		public long getNativeMemoryBudgetUsage() {
+			return nativeBudget>0 ? budget.getUsage() : -1L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getBudgetWaits()
+		 */
+		@Override
+		public long getBudgetWaits() {
+			return nativeBudget>0 ? budget.getWaits() : 0L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getBudgetFailures()
+		 */
+		@Override
+		public long getBudgetFailures() {
+			return nativeBudget>0 ? budget.getFailures() : 0L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getAllocationsByType()
+		 */
+		@Override
+		public TabularData getAllocationsByType() {
+			return UnsafeAdapter.getAllocationsByType();
+		}
 
 		/**
 		 * {@inheritDoc}
@@ -394,6 +635,12 @@ public class UnsafeAdapter {
     		map.put(ALLOC_MEMM, getTotalAllocatedMemoryMb());
     		map.put(ALLOC_COUNT, (long)getTotalAllocationCount());
     		map.put(PENDING_COUNT, (long)getPendingRefs());    		
+    		if(nativeBudget>0) {
+    			map.put("Budget", nativeBudget);
+    			map.put("BudgetUsage", budget.getUsage());
+    			map.put("BudgetWaits", budget.getWaits());
+    			map.put("BudgetFailures", budget.getFailures());
+    		}
     		map.put("BaselineMemory", BASELINE_MEM);
     		map.put("BaselineAllocations", (long)BASELINE_ALLOCS);
     		map.put("BaselinePending", (long)BASELINE_PENDING);
@@ -429,7 +676,7 @@ public class UnsafeAdapter {
 		@Override
 		public long getTotalAllocatedMemory() {
 			if(!trackMem) return -1L;
-			return totalMemoryAllocated.get()-BASELINE_MEM;
+			return trackedBytes()-BASELINE_MEM;
 		}
 		
 		/**
@@ -438,7 +685,7 @@ public class UnsafeAdapter {
 		 */
 		public long getAlignedMemoryOverhead() {
 			if(!trackMem) return -1L;
-			return totalAlignmentOverhead.get()-BASELINE_AO;
+			return (allocationTracker!=null ? allocationTracker.getOverhead() : totalAlignmentOverhead.get())-BASELINE_AO;
 		}
 
 		/**
@@ -448,7 +695,7 @@ public class UnsafeAdapter {
 		@Override
 		public int getTotalAllocationCount() {
 			if(!trackMem) return -1;
-			return memoryAllocations.size()-BASELINE_ALLOCS;
+			return (allocationTracker!=null ? allocationTracker.getCount() : memoryAllocations.size())-BASELINE_ALLOCS;
 		}
 
 		/**
@@ -458,7 +705,7 @@ public class UnsafeAdapter {
 		@Override
 		public long getTotalAllocatedMemoryKb() {
 			if(!trackMem) return -1L;
-			long t = totalMemoryAllocated.get();
+			long t = trackedBytes();
 			if(t<1) return 0L;
 			return t/1024;
 		}
@@ -470,11 +717,19 @@ public class UnsafeAdapter {
 		@Override
 		public long getTotalAllocatedMemoryMb() {
 			if(!trackMem) return -1L;
-			long t = totalMemoryAllocated.get();
+			long t = trackedBytes();
 			if(t<1) return 0L;
 			return t/1024/1024;
 		}
 		
+		/**
+		 * Returns the total tracked allocation size in bytes
+		 * @return the total tracked allocation size
+		 */
+		private long trackedBytes() {
+			return allocationTracker!=null ? allocationTracker.getBytes() : totalMemoryAllocated.get();
+		}
+		
     	/**
     	 * Returns the number of retained phantom references to memory allocations
     	 * @return the number of retained phantom references to memory allocations
@@ -482,7 +737,114 @@ public class UnsafeAdapter {
     	public int getPendingRefs() {
     		return deAllocs.size() - BASELINE_PENDING;
     	}
+    	
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockWaits()
+		 */
+		@Override
+		public TabularData getSpinLockWaits() {
+			return AdaptiveSpinLock.getWaitHistogram();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockContended()
+		 */
+		@Override
+		public long getSpinLockContended() {
+			return AdaptiveSpinLock.getContended();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getSpinLockParked()
+		 */
+		@Override
+		public long getSpinLockParked() {
+			return AdaptiveSpinLock.getParked();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#resetSpinLockWaits()
+		 */
+		@Override
+		public void resetSpinLockWaits() {
+			AdaptiveSpinLock.resetWaitHistogram();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getTrackingMode()
+		 */
+		@Override
+		public String getTrackingMode() {
+			return allocationTracker!=null ? TRACK_MODE_STRIPED : TRACK_MODE_FULL;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getAllocationSites()
+		 */
+		@Override
+		public Map<String, Long> getAllocationSites() {
+			return allocationTracker!=null ? allocationTracker.getAllocationSites() : EMPTY_STAT_MAP;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#resetAllocationSites()
+		 */
+		@Override
+		public void resetAllocationSites() {
+			if(allocationTracker!=null) allocationTracker.resetAllocationSites();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getNativeMemoryBudget()
+		 */
+		@Override
+		public long getNativeMemoryBudget() {
+			return nativeBudget>0 ? nativeBudget : -1L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getNativeMemoryBudgetUsage()
+		 */
+		@Override
+		public long getNativeMemoryBudgetUsage() {
+			return nativeBudget>0 ? budget.getUsage() : -1L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getBudgetWaits()
+		 */
+		@Override
+		public long getBudgetWaits() {
+			return nativeBudget>0 ? budget.getWaits() : 0L;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getBudgetFailures()
+		 */
+		@Override
+		public long getBudgetFailures() {
+			return nativeBudget>0 ? budget.getFailures() : 0L;
+		}
 		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.UnsafeMemoryMBean#getAllocationsByType()
+		 */
+		@Override
+		public TabularData getAllocationsByType() {
+			return UnsafeAdapter.getAllocationsByType();
+		}
 		
     }
     
@@ -501,6 +863,12 @@ public class UnsafeAdapter {
     	private final long[][] addresses;
     	/** Debug runnable */
     	private final Runnable runOnClear;
+    	/** The registration stats of the referent's class */
+    	private final DeAllocTypeStats typeStats;
+    	/** Indicates if this reference has been cleared */
+    	private boolean cleared = false;
+    	/** The sampled allocating stack of a closeable referent, reported if the referent is collected without having been cleared */
+    	private final Throwable allocationSite;
     	
     	private static final ReferenceQueue<DeAllocateMe> refQueue = ReferenceService.getInstance().getReferenceQueue(DeAllocateMe.class);
     	
@@ -511,6 +879,9 @@ public class UnsafeAdapter {
 		public MemoryAllocationReference(final DeAllocateMe referent) {
 			super(referent, refQueue);
 			addresses = referent==null ? EMPTY_ADDRESSES : referent.getAddresses();
+			typeStats = referent==null ? null : DeAllocTypeStats.getStats(referent.getClass());
+			if(typeStats!=null) typeStats.registered();
+			allocationSite = referent instanceof Closeable ? UnsafeLeakDetector.sample() : null;
 			deAllocs.put(index, this);
 			
 			if(LOG.isTraceEnabled()) {
@@ -528,11 +899,41 @@ public class UnsafeAdapter {
 		}    	
 		
 		/**
-		 * {@inheritDoc}
+		 * Frees the referenced memory. Synchronized since an {@link UnsafeArena} may close 
+		 * while the reference service is clearing this reference.
 		 * @see java.lang.ref.Reference#clear()
 		 */
 		@Override
-		public void clear() {
+		public synchronized void clear() {
+			if(!cleared) {
+				cleared = true;
+				if(typeStats!=null) typeStats.cleared();
+			}
+			free();
+		}
+		
+		/**
+		 * Frees the referenced memory when the referent has been collected, 
+		 * reporting a leak if the referent was sampled and had not been closed.
+		 */
+		private synchronized void collected() {
+			if(!cleared && allocationSite!=null) {
+				long bytes = -1L;
+				for(long[] address: addresses) {
+					if(address[0]>0) {
+						final long size = sizeOf(address[0]);
+						if(size>0) bytes = (bytes<0 ? 0 : bytes) + size;
+					}
+				}
+				UnsafeLeakDetector.leaked(typeStats.getType(), allocationSite, bytes);
+			}
+			clear();
+		}
+		
+		/**
+		 * Frees each non-zero referenced address
+		 */
+		private void free() {
 			for(long[] address: addresses) {
 				if(address[0]>0) {
 					freeMemory(address[0]);
@@ -551,7 +952,7 @@ public class UnsafeAdapter {
 		 */
 		@Override
 		public void run() {			
-			clear();    
+			collected();    
 			if(runOnClear!=null) {
 				runOnClear.run();
 			}			
@@ -570,6 +971,38 @@ public class UnsafeAdapter {
     
     /** Static class logger */
     private static final Logger LOG = LoggerFactory.getLogger(UnsafeAdapter.class);
+    
+    /**
+     * Returns the registration counts of each {@link DeAllocateMe} class, and if tracking is enabled, 
+     * the tracked bytes of each class's live registrations
+     * @return a tabular data of {@link DeAllocTypeStats#TYPE_STATS} composites
+     */
+    public static TabularData getAllocationsByType() {
+    	Map<DeAllocTypeStats, long[]> memoryByType = null;
+    	if(trackMem) {
+    		memoryByType = DeAllocTypeStats.newMemoryMap();
+    		// objects registered more than once share their address arrays, so each is only counted once
+    		final Map<long[], Boolean> counted = new IdentityHashMap<long[], Boolean>();
+    		for(MemoryAllocationReference ref: deAllocs.values()) {
+    			if(ref.typeStats==null) continue;
+    			long bytes = 0;
+    			for(long[] address: ref.addresses) {
+    				final long addr = address[0];
+    				if(addr>0 && counted.put(address, Boolean.TRUE)==null) {
+    					final long size = sizeOf(addr);
+    					if(size>0) bytes += size;
+    				}
+    			}
+    			long[] total = memoryByType.get(ref.typeStats);
+    			if(total==null) {
+    				total = new long[1];
+    				memoryByType.put(ref.typeStats, total);
+    			}
+    			total[0] += bytes;
+    		}
+    	}
+    	return DeAllocTypeStats.toTabularData(memoryByType);
+    }
 
     
 //    /** The memory allocation de-allocator task */
@@ -591,6 +1024,12 @@ public class UnsafeAdapter {
     
 //    private static final CountDownLatch latch = new CountDownLatch(1);
     
+    /**
+     * Registers the passed deallocatables so their memory is freed when they become phantom reachable.
+     * If an {@link UnsafeArena} is bound to the calling thread, it also adopts the registrations and frees the memory when it is closed.
+     * @param deallocators The deallocatables to register
+     * @return the created references
+     */
     public static List<MemoryAllocationReference> registerForDeAlloc(DeAllocateMe...deallocators) {
 //    	try {
 //    		latch.await();
@@ -599,11 +1038,14 @@ public class UnsafeAdapter {
 //    	}
     	if(deallocators==null || deallocators.length==0) return EMPTY_ALLOC_LIST;
     	List<MemoryAllocationReference> refs = new ArrayList<MemoryAllocationReference>();
+    	final UnsafeArena arena = UnsafeArena.current();
     	for(DeAllocateMe dame: deallocators) {
     		if(dame==null) continue;
     		long[][] addresses = dame.getAddresses();
     		if(addresses==null || addresses.length==0) continue;
-    		refs.add(new MemoryAllocationReference(dame));
+    		final MemoryAllocationReference ref = new MemoryAllocationReference(dame);
+    		refs.add(ref);
+    		if(arena!=null) arena.adopt(ref, dame);
     	}
     	if(refs.isEmpty()) return EMPTY_ALLOC_LIST;
     	if(LOG.isTraceEnabled()) {
@@ -614,7 +1056,21 @@ public class UnsafeAdapter {
     		}
 //    		LOG.trace("Created {} MemoryAllocationReferences: {}", refs.size(), names.toString());
     	}
-    	return null; //Collections.unmodifiableList(refs);
+    	return Collections.unmodifiableList(refs);
+    }
+    
+    /**
+     * Registers the passed deallocatable so its memory is freed when it becomes phantom reachable,
+     * without being adopted by the {@link UnsafeArena} bound to the calling thread. 
+     * Used for memory whose lifetime is not bound to the allocating scope.
+     * @param dealloc The deallocatable to register
+     * @return the created reference, or null if the deallocatable has no addresses
+     */
+    public static MemoryAllocationReference registerForDeAllocUnscoped(DeAllocateMe dealloc) {
+    	if(dealloc==null) return null;
+    	long[][] addresses = dealloc.getAddresses();
+    	if(addresses==null || addresses.length==0) return null;
+    	return new MemoryAllocationReference(dealloc);
     }
     
     
@@ -635,6 +1091,7 @@ public class UnsafeAdapter {
             BYTES_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
             OBJECTS_OFFSET = UNSAFE.arrayBaseOffset(Object[].class);
             INT_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(int[].class);
+            SHORT_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(short[].class);
             LONG_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(long[].class);
             DOUBLE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(double[].class);
             BYTE_ARRAY_OFFSET = UNSAFE.arrayBaseOffset(byte[].class);
@@ -654,18 +1111,27 @@ public class UnsafeAdapter {
             }
             FIVE_COPY = copyMemCount>1;
             FOUR_SET = setMemCount>1;
-        	trackMem = System.getProperties().containsKey(TRACK_ALLOCS_PROP) || ("false".equalsIgnoreCase(System.getProperty(TRACK_ALLOCS_PROP)) && isDebugAgentLoaded() );   
+        	trackMem = System.getProperties().containsKey(TRACK_ALLOCS_PROP) || ("false".equalsIgnoreCase(System.getProperty(TRACK_ALLOCS_PROP)) && isDebugAgentLoaded() ) || nativeBudget>0;   
         	alignMem = System.getProperties().containsKey(ALIGN_ALLOCS_PROP);
         	if(trackMem) {
         		unsafeMemoryStats = new UnsafeMemory();
-        		memoryAllocations = new NonBlockingHashMapLong<long[]>(1024, true);
-        		totalMemoryAllocated = new AtomicLong(0L);
-        		totalAlignmentOverhead = new AtomicLong(0L);
+        		if(TRACK_MODE_STRIPED.equalsIgnoreCase(System.getProperty(TRACK_MODE_PROP, TRACK_MODE_FULL).trim())) {
+        			allocationTracker = new StripedAllocationTracker(Math.max(0, Integer.parseInt(System.getProperty(SAMPLE_RATE_PROP, "" + DEFAULT_SAMPLE_RATE).trim())));
+            		memoryAllocations = null;
+            		totalMemoryAllocated = null;
+            		totalAlignmentOverhead = null;
+        		} else {
+        			allocationTracker = null;
+	        		memoryAllocations = new NonBlockingHashMapLong<long[]>(1024, true);
+	        		totalMemoryAllocated = new AtomicLong(0L);
+	        		totalAlignmentOverhead = new AtomicLong(0L);
+        		}
         		JMXHelper.registerMBean(unsafeMemoryStats, JMXHelper.objectName("%s:%s=%s", UnsafeAdapter.class.getPackage().getName(), "service", UnsafeMemory.class.getSimpleName()));
         	} else {
         		totalMemoryAllocated = null;
         		memoryAllocations = null;
         		totalAlignmentOverhead = null;
+        		allocationTracker = null;
         		unsafeMemoryStats = new InactiveUnsafeMemory();
         	}
         	ReferenceService.getInstance();
@@ -808,12 +1274,28 @@ public class UnsafeAdapter {
 	 */
 	public static long sizeOf(long address) {
 		if(trackMem) {
+			if(allocationTracker!=null) return allocationTracker.sizeOf(address);
 			long[] alloc = memoryAllocations.get(address);
 			return alloc!=null ? alloc[0] : -1L;
 		}
 		return -1L;
 	}
 	
+	/**
+	 * Parses a byte count, optionally suffixed with K, M or G
+	 * @param value The value to parse
+	 * @return the number of bytes
+	 */
+	public static long parseBytes(String value) {
+		String v = value.trim().toUpperCase();
+		long multiplier = 1;
+		if(v.endsWith("K")) multiplier = 1024L;
+		else if(v.endsWith("M")) multiplier = 1024L * 1024L;
+		else if(v.endsWith("G")) multiplier = 1024L * 1024L * 1024L;
+		if(multiplier>1) v = v.substring(0, v.length()-1).trim();
+		return Long.parseLong(v) * multiplier;
+	}
+	
 	/**
 	 * Allocates a chunk of memory and returns its address
 	 * @param size The number of bytes to allocate
@@ -822,8 +1304,19 @@ public class UnsafeAdapter {
 	 * @see sun.misc.Unsafe#allocateMemory(long)
 	 */
 	private static long _allocateMemory(long size, long alignmentOverhead) {
-		long address = UNSAFE.allocateMemory(size);
+		if(nativeBudget>0) budget.reserve(size);
+		long address;
+		try {
+			address = UNSAFE.allocateMemory(size);
+		} catch (OutOfMemoryError oome) {
+			if(nativeBudget>0) budget.release(size);
+			throw oome;
+		}
 		if(trackMem) {		
+			if(allocationTracker!=null) {
+				allocationTracker.add(address, size, alignmentOverhead);
+				return address;
+			}
 			memoryAllocations.put(address, new long[]{size, alignmentOverhead});
 			totalMemoryAllocated.addAndGet(size);
 			totalAlignmentOverhead.addAndGet(alignmentOverhead);
@@ -839,8 +1332,25 @@ public class UnsafeAdapter {
 	 * @see sun.misc.Unsafe#reallocateMemory(long, long)
 	 */
 	public static long _reallocateMemory(long address, long size, long alignmentOverhead) {
-		long newAddress = UNSAFE.reallocateMemory(address, size);
+		long delta = 0;
+		if(nativeBudget>0) {
+			delta = size - Math.max(0L, sizeOf(address));
+			if(delta>0) budget.reserve(delta);
+		}
+		long newAddress;
+		try {
+			newAddress = UNSAFE.reallocateMemory(address, size);
+		} catch (OutOfMemoryError oome) {
+			if(delta>0) budget.release(delta);
+			throw oome;
+		}
+		if(delta<0) budget.release(-delta);
 		if(trackMem) {
+			if(allocationTracker!=null) {
+				allocationTracker.remove(address);
+				allocationTracker.add(newAddress, size, alignmentOverhead);
+				return newAddress;
+			}
 			// ==========================================================
 			//  Subtract pervious allocation
 			// ==========================================================				
@@ -943,7 +1453,10 @@ public class UnsafeAdapter {
 	 * @see sun.misc.Unsafe#freeMemory(long)
 	 */
 	public static void freeMemory(long address) {
-		if(trackMem) {
+		if(trackMem && allocationTracker!=null) {
+			final long size = allocationTracker.remove(address);
+			if(nativeBudget>0 && size>0) budget.release(size);
+		} else if(trackMem) {
 			// ==========================================================
 			//  Subtract pervious allocation
 			// ==========================================================				
@@ -951,6 +1464,7 @@ public class UnsafeAdapter {
 			if(alloc!=null) {				
 				totalMemoryAllocated.addAndGet(-1L * alloc[0]);
 				totalAlignmentOverhead.addAndGet(-1L * alloc[1]);
+				if(nativeBudget>0) budget.release(alloc[0]);
 			}
 		}		
 		UNSAFE.freeMemory(address);
@@ -2151,15 +2665,55 @@ public class UnsafeAdapter {
 	public static final PIDThread NO_DISK_LOCK = new PIDThread();	
 	
 	/**
-	 * Allocates an initialized and initially unlocked memory based spin lock
+	 * Allocates an initialized and initially unlocked memory based spin lock.
+	 * Returns an {@link AdaptiveSpinLock} if the system property {@link #ADAPTIVE_SPINLOCK_PROP} is true,
+	 * otherwise a {@link MemSpinLock}.
 	 * @return the spin lock
 	 */
 	public static SpinLock allocateSpinLock() {
+		return adaptiveSpinLocks ? allocateAdaptiveSpinLock() : allocateMemSpinLock();
+	}
+	
+	/**
+	 * Allocates an initialized and initially unlocked {@link MemSpinLock}
+	 * @return the spin lock
+	 */
+	public static SpinLock allocateMemSpinLock() {
 		long address = allocateAlignedMemory(UnsafeAdapter.LONG_SIZE);
 		putLong(address, NO_LOCK);
 		return new MemSpinLock(address);
 	}
 	
+	/**
+	 * Allocates an initialized and initially unlocked {@link AdaptiveSpinLock}
+	 * @return the spin lock
+	 */
+	public static SpinLock allocateAdaptiveSpinLock() {
+		long address = allocateAlignedMemory(UnsafeAdapter.LONG_SIZE);
+		putLong(address, NO_LOCK);
+		return new AdaptiveSpinLock(address);
+	}
+	
+	/**
+	 * Creates an initially unlocked {@link DiskSpinLock} over a temp file.
+	 * The lock is only sharable with processes that are passed the file name (see {@link DiskSpinLock#getFileName()}).
+	 * @return the disk spin lock
+	 */
+	public static DiskSpinLock allocateDiskSpinLock() {
+		return new DiskSpinLock();
+	}
+	
+	/**
+	 * Creates or attaches to the {@link DiskSpinLock} in the passed file, 
+	 * which is shared with every other process that maps the same file
+	 * @param file The lock file
+	 * @return the disk spin lock
+	 */
+	public static DiskSpinLock allocateDiskSpinLock(File file) {
+		if(file==null) throw new IllegalArgumentException("The passed file was null", new Throwable());
+		return new DiskSpinLock(file);
+	}
+	
 	/**
 	 * Acquires the lock at the passed address exclusively
 	 * @param address The address of the lock
@@ -2340,38 +2894,356 @@ public class UnsafeAdapter {
 	}
 	
 	/**
-	 * <p>Title: MemSpinLock</p>
-	 * <p>Description: Disk based spin lock that is sharable with other processes</p> 
+	 * <p>Title: AdaptiveSpinLock</p>
+	 * <p>Description: Unsafe memory based spin lock for use within the JVM only, which spins for a bounded number of attempts
+	 * (re-reading the lock word with an increasing backoff between CAS attempts) and then parks the waiting thread on a FIFO queue.
+	 * Unlocking unparks the head of the queue. Unlike {@link MemSpinLock}, waiters that cannot get the lock quickly
+	 * stop consuming CPU, so the lock holder is not starved when there are more waiters than cores.</p>
+	 * <p>The wait times of contended acquisitions across all instances are recorded in a log2 histogram
+	 * exposed through {@link UnsafeMemoryMBean#getSpinLockWaits()}.</p>
 	 * <p>Company: Helios Development Group LLC</p>
 	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
-	 * <p><code>org.helios.jmx.util.unsafe.UnsafeAdapter.DiskSpinLock</code></p>
-	 * FIXME: 
-	 */
-
-	public static class DiskSpinLock implements SpinLock, DeAllocateMe {
-		/** The lock file name */
-		protected final File diskFile;
-		/** The mapped lock file address */
-		protected final long address;
-		/**
-		 * Creates a new MemSpinLock
-		 * @param address The address of the lock
-		 */
-		private DiskSpinLock() {
+	 * <p><code>org.helios.jmx.util.unsafe.UnsafeAdapter.AdaptiveSpinLock</code></p>
+	 */
+	public static class AdaptiveSpinLock implements SpinLock, DeAllocateMe {
+		/** The number of spins before parking */
+		public static final int SPINS = Math.max(1, Integer.parseInt(System.getProperty(SPINLOCK_SPINS_PROP, "" + DEFAULT_SPINLOCK_SPINS).trim()));
+		/** The maximum number of lock word reads between CAS attempts while spinning */
+		private static final int MAX_BACKOFF = 64;
+		/** The number of histogram buckets. Bucket <b><code>n</code></b> counts waits of less than <b><code>2^n</code></b> microseconds, and the last is the overflow */
+		public static final int BUCKETS = 24;
+		/** The contended wait time histogram */
+		private static final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKETS);
+		/** The number of contended acquisitions */
+		private static final AtomicLong contended = new AtomicLong(0L);
+		/** The number of acquisitions that parked */
+		private static final AtomicLong parked = new AtomicLong(0L);
+		/** The composite type for one wait histogram bucket */
+		public static final CompositeType WAIT_BUCKET_TYPE;
+		/** The tabular type for the wait histogram */
+		public static final TabularType WAIT_HISTOGRAM_TYPE;
+		/** The wait bucket composite type item names */
+		private static final String[] WAIT_BUCKET_ITEMS = {"Bucket", "UpperBoundMicros", "Count"};
+		
+		static {
 			try {
-				diskFile = File.createTempFile("DiskSpinLock", ".spinlock");
-				diskFile.deleteOnExit();
-				FileChannel fc = new RandomAccessFile(diskFile, "rw").getChannel();
-				MappedByteBuffer mbb = fc.map(FileChannel.MapMode.READ_WRITE, 0, LONG_SIZE * 2);
-				address =  ((sun.nio.ch.DirectBuffer) mbb).address();
+				WAIT_BUCKET_TYPE = new CompositeType("SpinLockWaitBucket", "One bucket of the adaptive spin lock contended wait histogram", WAIT_BUCKET_ITEMS,
+						new String[]{"The bucket name", "The exclusive upper bound of the bucket in microseconds, or -1 for the overflow bucket", "The number of waits in the bucket"},
+						new OpenType<?>[]{SimpleType.STRING, SimpleType.LONG, SimpleType.LONG});
+				WAIT_HISTOGRAM_TYPE = new TabularType("SpinLockWaitHistogram", "Adaptive spin lock contended wait histogram", WAIT_BUCKET_TYPE, new String[]{"Bucket"});
 			} catch (Exception ex) {
-				throw new RuntimeException("Failed to allocate disk lock", ex);
+				throw new RuntimeException(ex);
 			}
-			
 		}
+		
+		/** The lock address */
+		protected final long address;
+		/** The parked waiters */
+		private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
 
 		/**
-		 * Returns the lock address
+		 * Creates a new AdaptiveSpinLock
+		 * @param address The address of the lock
+		 */
+		private AdaptiveSpinLock(long address) {
+			this.address = address;
+			UnsafeAdapter.registerForDeAlloc(this);
+		}
+		
+		/**
+		 * Returns the lock address
+		 * @return the lock address
+		 */
+		public long address() {
+			return address;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 */
+		@Override
+		public long[][] getAddresses() {
+			return new long[][] {{address}};
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xlock()
+		 */
+		@Override
+		public void xlock() {
+			xlock(false);
+		}
+
+		/**
+		 * Acquires the lock with the calling thread
+		 * @param barge If true, the calling thread spins until the lock is acquired and never parks
+		 */
+		@Override
+		public void xlock(boolean barge) {
+			final long tId = Thread.currentThread().getId();
+			if(getLong(address)==tId) return;
+			if(compareAndSwapLong(null, address, NO_LOCK, tId)) return;
+			final long start = System.nanoTime();
+			for(int i = 0; i < SPINS || barge; i++) {
+				// test before test-and-set, re-reading the lock word as the pause between attempts
+				for(int b = 0, backoff = Math.min(1 << Math.min(i, 6), MAX_BACKOFF); b < backoff; b++) {
+					if(getLongVolatile(null, address)==NO_LOCK) break;
+				}
+				if(compareAndSwapLong(null, address, NO_LOCK, tId)) {
+					record(start, false);
+					return;
+				}
+			}
+			final Thread current = Thread.currentThread();
+			boolean interrupted = false;
+			waiters.add(current);
+			while(waiters.peek()!=current || !compareAndSwapLong(null, address, NO_LOCK, tId)) {
+				LockSupport.park(this);
+				if(Thread.interrupted()) interrupted = true;
+			}
+			waiters.remove();
+			record(start, true);
+			if(interrupted) current.interrupt();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xunlock()
+		 */
+		@Override
+		public void xunlock() {
+			final long tId = Thread.currentThread().getId();
+			if(compareAndSwapLong(null, address, tId, NO_LOCK)) {
+				final Thread next = waiters.peek();
+				if(next!=null) LockSupport.unpark(next);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLocked()
+		 */
+		@Override
+		public boolean isLocked() {
+			return UnsafeAdapter.xislocked(address);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLockedByMe()
+		 */
+		@Override
+		public boolean isLockedByMe() {
+			return UnsafeAdapter.xislockedbyt(address);
+		}
+		
+		/**
+		 * Returns the number of threads parked waiting for this lock
+		 * @return the number of parked threads
+		 */
+		public int getQueueLength() {
+			return waiters.size();
+		}
+		
+		/**
+		 * Records a contended acquisition
+		 * @param start The start time of the wait in nanos
+		 * @param didPark true if the acquiring thread parked
+		 */
+		private static void record(long start, boolean didPark) {
+			final long micros = (System.nanoTime() - start) / 1000;
+			final int bucket = micros < 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+			waitHistogram.incrementAndGet(bucket < BUCKETS ? bucket : BUCKETS-1);
+			contended.incrementAndGet();
+			if(didPark) parked.incrementAndGet();
+		}
+		
+		/**
+		 * Returns the contended wait histogram across all adaptive spin locks, one row per bucket 
+		 * keyed by the bucket name, with the exclusive upper bound of the bucket in microseconds and the count.
+		 * @return the wait histogram
+		 */
+		public static TabularData getWaitHistogram() {
+			final TabularDataSupport tds = new TabularDataSupport(WAIT_HISTOGRAM_TYPE, BUCKETS, 0.75f);
+			try {
+				for(int i = 0; i < BUCKETS-1; i++) {
+					tds.put(new CompositeDataSupport(WAIT_BUCKET_TYPE, WAIT_BUCKET_ITEMS, new Object[]{"<" + (1L << i) + "us", 1L << i, waitHistogram.get(i)}));
+				}
+				tds.put(new CompositeDataSupport(WAIT_BUCKET_TYPE, WAIT_BUCKET_ITEMS, new Object[]{">=" + (1L << (BUCKETS-2)) + "us", -1L, waitHistogram.get(BUCKETS-1)}));
+			} catch (OpenDataException ex) {
+				throw new RuntimeException(ex);
+			}
+			return tds;
+		}
+		
+		/**
+		 * Returns the number of contended acquisitions across all adaptive spin locks
+		 * @return the number of contended acquisitions
+		 */
+		public static long getContended() {
+			return contended.get();
+		}
+		
+		/**
+		 * Returns the number of contended acquisitions across all adaptive spin locks that parked
+		 * @return the number of parked acquisitions
+		 */
+		public static long getParked() {
+			return parked.get();
+		}
+		
+		/**
+		 * Resets the wait histogram and counters
+		 */
+		public static void resetWaitHistogram() {
+			for(int i = 0; i < BUCKETS; i++) {
+				waitHistogram.set(i, 0L);
+			}
+			contended.set(0L);
+			parked.set(0L);
+		}
+	}
+	
+	/**
+	 * <p>Title: DiskSpinLock</p>
+	 * <p>Description: Spin lock over a memory mapped file that is sharable with other processes on the same host.</p>
+	 * <p>The lock is two longs in the mapped region. The first is the owner word, which encodes the owning process id
+	 * in the high 32 bits and the owning thread id in the low 32 bits (see {@link PIDThread#encode(long, long)}), so a
+	 * single CAS acquires the lock. A zero (a newly created file) or {@link UnsafeAdapter#NO_LOCK} owner word means the lock is free.
+	 * The second long is the time the lock was acquired in ms.</p>
+	 * <p>A waiter periodically checks whether the owner is stale and, if so, CASes the stale owner out. An owner is stale when:<ul>
+	 * 	<li>It is a thread in this JVM that is no longer alive</li>
+	 * 	<li>It is another process that is no longer running (checked through <b><code>/proc/&lt;pid&gt;</code></b> where available)</li>
+	 * 	<li>It has held the lock for longer than the lease set by {@link UnsafeAdapter#DISK_LOCK_LEASE_PROP}. The lease is disabled by default,
+	 * since it would hand the lock to a second thread while a slow but live owner is still inside it. It should only be enabled
+	 * where owner liveness cannot be checked and a live owner is known never to hold the lock that long.</li>
+	 * </ul></p>
+	 * <p>The lock is not reentrant. Calling {@link #xlock()} while holding the lock returns immediately, and one {@link #xunlock()} releases it.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.UnsafeAdapter.DiskSpinLock</code></p>
+	 */
+
+	public static class DiskSpinLock implements SpinLock {
+		/** The size of the lock in the mapped region in bytes */
+		public static final int LOCK_SIZE = LONG_SIZE * 2;
+		/** The number of failed acquisition attempts between stale owner checks */
+		public static final int STALE_CHECK_INTERVAL = 1024;
+		/** The lock lease in ms. A lock held for longer than this is considered stale. Zero or less disables the lease */
+		public static final long LEASE = Long.parseLong(System.getProperty(DISK_LOCK_LEASE_PROP, "" + DEFAULT_DISK_LOCK_LEASE).trim());
+		/** Indicates if process liveness can be checked through the proc file system */
+		public static final boolean PROC_FS = new File("/proc/self").isDirectory();
+		/** The number of stale owners recovered across all disk locks in this JVM */
+		private static final AtomicLong staleRecoveries = new AtomicLong(0L);
+		
+		/** The lock file */
+		protected final File diskFile;
+		/** The mapped buffer, referenced so the mapping stays valid for the life of the lock */
+		protected final MappedByteBuffer mbb;
+		/** The mapped lock address */
+		protected final long address;
+		
+		/**
+		 * Creates a new DiskSpinLock over a temp file which is deleted on exit
+		 */
+		private DiskSpinLock() {
+			this(tempFile());
+		}
+		
+		/**
+		 * Creates a new DiskSpinLock over the passed file, creating it if it does not exist.
+		 * Every process that maps the same file shares the lock.
+		 * @param diskFile The lock file
+		 */
+		private DiskSpinLock(File diskFile) {
+			this(diskFile, map(diskFile, LOCK_SIZE), 0);
+		}
+		
+		/**
+		 * Creates a new DiskSpinLock at an offset within an existing mapping
+		 * @param diskFile The mapped file
+		 * @param mbb The mapped buffer
+		 * @param offset The offset of the lock in the mapped buffer
+		 */
+		protected DiskSpinLock(File diskFile, MappedByteBuffer mbb, long offset) {
+			this.diskFile = diskFile;
+			this.mbb = mbb;
+			address = mappedAddress(mbb) + offset;
+		}
+		
+		/**
+		 * Creates a temp lock file which is deleted on exit
+		 * @return the temp file
+		 */
+		private static File tempFile() {
+			try {
+				File f = File.createTempFile("DiskSpinLock", ".spinlock");
+				f.deleteOnExit();
+				return f;
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to create disk lock file", ex);
+			}
+		}
+		
+		/**
+		 * Maps the first <b><code>size</code></b> bytes of the passed file read-write, extending the file if it is shorter.
+		 * The mapping stays valid after the file is closed, until the returned buffer is collected.
+		 * @param file The file to map
+		 * @param size The number of bytes to map
+		 * @return the mapped buffer
+		 */
+		public static MappedByteBuffer map(File file, long size) {
+			RandomAccessFile raf = null;
+			try {
+				raf = new RandomAccessFile(file, "rw");
+				MappedByteBuffer buff = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+				buff.order(ByteOrder.nativeOrder());
+				return buff;
+			} catch (Exception ex) {
+				throw new RuntimeException("Failed to map file [" + file + "]", ex);
+			} finally {
+				if(raf!=null) try { raf.close(); } catch (Exception x) {/* No Op */}
+			}
+		}
+		
+		/**
+		 * Returns the address of the passed mapped buffer
+		 * @param mbb The mapped buffer
+		 * @return the address
+		 */
+		public static long mappedAddress(MappedByteBuffer mbb) {
+			return ((sun.nio.ch.DirectBuffer) mbb).address();
+		}
+		
+		/**
+		 * Indicates if the owner encoded in the passed word is known to be dead,
+		 * i.e. a thread in this JVM that has terminated, or another process that is no longer running.
+		 * Where process liveness cannot be checked, other processes are assumed to be alive.
+		 * @param owner The encoded owner word
+		 * @return true if the owner is known to be dead, false otherwise
+		 */
+		public static boolean isOwnerDead(long owner) {
+			if(owner==0L || owner==NO_LOCK) return false;
+			final long pid = owner >>> 32;
+			final long tId = owner & 0xFFFFFFFFL;
+			if(pid==JVM_PID) {
+				return tId!=0L && ManagementFactory.getThreadMXBean().getThreadInfo(tId)==null;
+			}
+			return PROC_FS && !new File("/proc/" + pid).exists();
+		}
+		
+		/**
+		 * Returns the number of stale owners recovered across all disk locks in this JVM
+		 * @return the number of stale owners recovered
+		 */
+		public static long getStaleRecoveries() {
+			return staleRecoveries.get();
+		}
+
+		/**
+		 * Returns the lock address
 		 * @return the lock address
 		 */
 		public long address() {
@@ -2386,16 +3258,14 @@ public class UnsafeAdapter {
 			return diskFile.getAbsolutePath();
 		}
 		
-		
 		/**
-		 * {@inheritDoc}
-		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 * Returns the current owner of the lock
+		 * @return the current owner, or {@link UnsafeAdapter#NO_DISK_LOCK} if the lock is free
 		 */
-		@Override
-		public long[][] getAddresses() {
-			return new long[][] {{address}};
+		public PIDThread getOwner() {
+			return PIDThread.decode(getLongVolatile(null, address));
 		}
-
+		
 		/**
 		 * Acquires the lock with the calling thread
 		 */
@@ -2404,39 +3274,76 @@ public class UnsafeAdapter {
 			xlock(false);
 		}
 		
-/**
+		/**
 		 * {@inheritDoc}
 		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xlock(boolean)
 		 */
 		@Override
 		public void xlock(boolean barge) {
-			final long tId = Thread.currentThread().getId();
-			while(!compareAndSwapLong(null, address, NO_LOCK, JVM_PID)) { if(!barge) Thread.yield(); }
-			while(!compareAndSwapLong(null, address + LONG_SIZE, NO_LOCK, tId)) { if(!barge) Thread.yield(); }
-		}		
+			final long me = PIDThread.encode(JVM_PID, Thread.currentThread().getId());
+			int attempts = 0;
+			long expired = NO_LOCK;
+			while(true) {
+				final long owner = getLongVolatile(null, address);
+				if(owner==me) return;
+				if(owner==0L || owner==NO_LOCK) {
+					if(compareAndSwapLong(null, address, owner, me)) break;
+				} else if(++attempts % STALE_CHECK_INTERVAL == 0) {
+					boolean stale = isOwnerDead(owner);
+					if(!stale) {
+						// the acquisition time is written just after the owner word, so the lease
+						// must be seen expired for the same owner on two consecutive checks 
+						if(isLeaseExpired()) {
+							stale = expired==owner;
+							expired = owner;
+						} else {
+							expired = NO_LOCK;
+						}
+					}
+					if(stale && compareAndSwapLong(null, address, owner, me)) {
+						staleRecoveries.incrementAndGet();
+						LOG.warn("Recovered disk lock [{}] from stale owner [{}]", getFileName(), PIDThread.decode(owner));
+						break;
+					}
+				}
+				if(!barge) Thread.yield();
+			}
+			putOrderedLong(null, address + LONG_SIZE, System.currentTimeMillis());
+		}
+		
+		/**
+		 * Indicates if the current holder has held the lock for longer than the {@link #LEASE}
+		 * @return true if the lease has expired, false otherwise
+		 */
+		private boolean isLeaseExpired() {
+			return LEASE>0 && System.currentTimeMillis() - getLongVolatile(null, address + LONG_SIZE) > LEASE;
+		}
 		
 		/**
 		 * Releases the lock if it is held by the calling thread
 		 */
 		@Override
 		public void xunlock() {
-			final long tId = Thread.currentThread().getId();
-			if(getLong(address)==JVM_PID  &&  getLong(address + LONG_SIZE)==tId) {
-				compareAndSwapLong(null, address + LONG_SIZE, tId, NO_LOCK);
-				compareAndSwapLong(null, address, JVM_PID, NO_LOCK);
-			}
+			compareAndSwapLong(null, address, PIDThread.encode(JVM_PID, Thread.currentThread().getId()), NO_LOCK);
 		}
 
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLocked()
+		 */
 		@Override
 		public boolean isLocked() {
-			// TODO Auto-generated method stub
-			return false;
+			final long owner = getLongVolatile(null, address);
+			return owner!=0L && owner!=NO_LOCK;
 		}
 
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLockedByMe()
+		 */
 		@Override
 		public boolean isLockedByMe() {
-			// TODO Auto-generated method stub
-			return false;
+			return getLongVolatile(null, address)==PIDThread.encode(JVM_PID, Thread.currentThread().getId());
 		}
 	}
 	
@@ -2444,18 +3351,22 @@ public class UnsafeAdapter {
 	
 	/**
 	 * <p>Title: PIDThread</p>
-	 * <p>Description: </p> 
+	 * <p>Description: A process id and thread id pair identifying the owner of a {@link DiskSpinLock} or a shared memory slot.
+	 * The pair is encoded into one long with the pid in the high 32 bits and the thread id in the low 32 bits.
+	 * A thread id of zero identifies the process rather than one of its threads.</p> 
 	 * <p>Company: Helios Development Group LLC</p>
 	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
 	 * <p><code>org.helios.jmx.util.unsafe.UnsafeAdapter.PIDThread</code></p>
 	 */
 	public static class PIDThread {
+		/** The thread id */
 		public final long threadId;
+		/** The process id */
 		public final long pid;
 		
-		private PIDThread(long threadId) {
+		private PIDThread(long pid, long threadId) {
 			this.threadId = threadId;
-			pid = JVM_PID;
+			this.pid = pid;
 		}
 		
 		private PIDThread() {
@@ -2463,6 +3374,34 @@ public class UnsafeAdapter {
 			this.pid = -1;
 		}
 		
+		/**
+		 * Encodes the passed process id and thread id into one long
+		 * @param pid The process id
+		 * @param threadId The thread id, of which only the low 32 bits are kept
+		 * @return the encoded owner word
+		 */
+		public static long encode(long pid, long threadId) {
+			return (pid << 32) | (threadId & 0xFFFFFFFFL);
+		}
+		
+		/**
+		 * Decodes the passed owner word
+		 * @param owner The owner word
+		 * @return the decoded PIDThread, or {@link UnsafeAdapter#NO_DISK_LOCK} if the word represents no owner
+		 */
+		public static PIDThread decode(long owner) {
+			if(owner==0L || owner==NO_LOCK) return NO_DISK_LOCK;
+			return new PIDThread(owner >>> 32, owner & 0xFFFFFFFFL);
+		}
+		
+		/**
+		 * Returns the encoded owner word for this PIDThread
+		 * @return the encoded owner word
+		 */
+		public long encode() {
+			return this==NO_DISK_LOCK ? NO_LOCK : encode(pid, threadId);
+		}
+		
 		public String toString() {
 			return String.format("%s@%s", threadId, pid);
 		}
@@ -2504,11 +3443,278 @@ public class UnsafeAdapter {
 	}
 	
 	
-//	public static boolean slock(final long address) {
-//		if(compareAndSwapLong(null, address, NO_LOCK, SHARED_LOCK)) return true;
-//		while(!compareAndSwapLong(null, address, NO_LOCK, SHARED_LOCK)) {/* No Op */}
-//		return true;
-//	}
+	/** The read-write lock word value when no lock is held or waited for */
+	public static final long RW_UNLOCKED = 0L;
+	/** The read-write lock word bit set when the write lock is held */
+	public static final long RW_WRITER = 1L << 62;
+	/** The read-write lock word increment for each waiting writer */
+	public static final long RW_WRITER_WAITING = 1L << 32;
+	/** The read-write lock word mask of the waiting writer count (bits 32-61) */
+	public static final long RW_WAITING_MASK = ((1L << 30) - 1) << 32;
+	/** The read-write lock word mask of the reader count (bits 0-31) */
+	public static final long RW_READER_MASK = (1L << 32) - 1;
+	
+	/**
+	 * Allocates an initialized and initially unlocked memory based read-write spin lock
+	 * @return the read-write spin lock
+	 */
+	public static ReadWriteSpinLock allocateReadWriteSpinLock() {
+		long address = allocateAlignedMemory(UnsafeAdapter.LONG_SIZE);
+		putLong(address, RW_UNLOCKED);
+		return new ReadWriteSpinLock(address);
+	}
+	
+	/**
+	 * Acquires a shared (read) lock on the read-write lock word at the passed address.
+	 * Readers wait while the write lock is held or while any writer is waiting, so writers are not starved.
+	 * The lock word is not reentrant: a thread that already holds the lock must not call this 
+	 * while a writer may be waiting (see {@link ReadWriteSpinLock} for a reentrant wrapper).
+	 * @param address The address of the read-write lock word
+	 */
+	public static void slock(final long address) {
+		while(true) {
+			final long word = getLongVolatile(null, address);
+			if((word & (RW_WRITER | RW_WAITING_MASK))==0) {
+				if(compareAndSwapLong(null, address, word, word + 1)) return;
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Attempts to acquire a shared (read) lock on the read-write lock word at the passed address without waiting
+	 * @param address The address of the read-write lock word
+	 * @return true if the read lock was acquired, false if the write lock is held or a writer is waiting
+	 */
+	public static boolean tryslock(final long address) {
+		while(true) {
+			final long word = getLongVolatile(null, address);
+			if((word & (RW_WRITER | RW_WAITING_MASK))!=0) return false;
+			if(compareAndSwapLong(null, address, word, word + 1)) return true;
+		}
+	}
+	
+	/**
+	 * Releases a shared (read) lock on the read-write lock word at the passed address
+	 * @param address The address of the read-write lock word
+	 */
+	public static void sunlock(final long address) {
+		while(true) {
+			final long word = getLongVolatile(null, address);
+			if((word & RW_READER_MASK)==0) throw new IllegalStateException("No read lock held on [" + address + "]", new Throwable());
+			if(compareAndSwapLong(null, address, word, word - 1)) return;
+		}
+	}
+	
+	/**
+	 * Acquires the exclusive (write) lock on the read-write lock word at the passed address.
+	 * The caller is first registered as a waiting writer, which blocks new readers, then waits for the current readers to drain.
+	 * @param address The address of the read-write lock word
+	 */
+	public static void wlock(final long address) {
+		long word;
+		do {
+			word = getLongVolatile(null, address);
+		} while(!compareAndSwapLong(null, address, word, word + RW_WRITER_WAITING));
+		while(true) {
+			word = getLongVolatile(null, address);
+			if((word & (RW_WRITER | RW_READER_MASK))==0) {
+				if(compareAndSwapLong(null, address, word, (word - RW_WRITER_WAITING) | RW_WRITER)) return;
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Releases the exclusive (write) lock on the read-write lock word at the passed address
+	 * @param address The address of the read-write lock word
+	 */
+	public static void wunlock(final long address) {
+		while(true) {
+			final long word = getLongVolatile(null, address);
+			if((word & RW_WRITER)==0) throw new IllegalStateException("No write lock held on [" + address + "]", new Throwable());
+			if(compareAndSwapLong(null, address, word, word & ~RW_WRITER)) return;
+		}
+	}
+	
+	/**
+	 * Returns the number of read locks held on the read-write lock word at the passed address
+	 * @param address The address of the read-write lock word
+	 * @return the number of read locks held
+	 */
+	public static int rwreaders(final long address) {
+		return (int)(getLongVolatile(null, address) & RW_READER_MASK);
+	}
+	
+	/**
+	 * Indicates if the write lock is held on the read-write lock word at the passed address
+	 * @param address The address of the read-write lock word
+	 * @return true if the write lock is held, false otherwise
+	 */
+	public static boolean rwiswlocked(final long address) {
+		return (getLongVolatile(null, address) & RW_WRITER)!=0;
+	}
+	
+	/**
+	 * <p>Title: ReadWriteSpinLock</p>
+	 * <p>Description: Unsafe memory based read-write spin lock for use within the JVM only. The lock state is one off-heap word
+	 * holding the reader count, the number of waiting writers and a writer bit (see {@link UnsafeAdapter#slock(long)} and {@link UnsafeAdapter#wlock(long)}),
+	 * with writer preference. The {@link SpinLock} <b><code>xlock</code></b> methods acquire the write lock.</p>
+	 * <p>Both locks are reentrant per thread, and a thread holding the write lock may also take the read lock. 
+	 * Reentrant acquisitions are counted on the heap and do not touch the lock word, so a nested read is never blocked by a waiting writer.</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.UnsafeAdapter.ReadWriteSpinLock</code></p>
+	 */
+	public static class ReadWriteSpinLock implements SpinLock, DeAllocateMe {
+		/** The lock address */
+		protected final long address;
+		/** The thread id of the write lock owner, or {@link UnsafeAdapter#NO_LOCK} */
+		private volatile long writeOwner = NO_LOCK;
+		/** The write lock hold count of the owner */
+		private int writeHolds = 0;
+		/** The per thread read lock hold counts */
+		private final ThreadLocal<int[]> readHolds = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[1];
+			}
+		};
+
+		/**
+		 * Creates a new ReadWriteSpinLock
+		 * @param address The address of the lock word
+		 */
+		private ReadWriteSpinLock(long address) {
+			this.address = address;
+			UnsafeAdapter.registerForDeAlloc(this);
+		}
+		
+		/**
+		 * Returns the lock address
+		 * @return the lock address
+		 */
+		public long address() {
+			return address;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 */
+		@Override
+		public long[][] getAddresses() {
+			return new long[][] {{address}};
+		}
+		
+		/**
+		 * Acquires the shared read lock
+		 */
+		public void slock() {
+			final int[] holds = readHolds.get();
+			if(holds[0] > 0 || writeOwner==Thread.currentThread().getId()) {
+				holds[0]++;
+				return;
+			}
+			UnsafeAdapter.slock(address);
+			holds[0] = 1;
+		}
+		
+		/**
+		 * Releases the shared read lock
+		 */
+		public void sunlock() {
+			final int[] holds = readHolds.get();
+			if(holds[0]==0) throw new IllegalStateException("Read lock not held by this thread", new Throwable());
+			if(--holds[0]==0 && writeOwner!=Thread.currentThread().getId()) {
+				UnsafeAdapter.sunlock(address);
+			}
+		}
+
+		/**
+		 * Acquires the exclusive write lock. 
+		 * A thread holding only the read lock must release it first, otherwise it will wait on itself.
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xlock()
+		 */
+		@Override
+		public void xlock() {
+			final long tId = Thread.currentThread().getId();
+			if(writeOwner==tId) {
+				writeHolds++;
+				return;
+			}
+			UnsafeAdapter.wlock(address);
+			writeOwner = tId;
+			writeHolds = 1;
+		}
+
+		/**
+		 * Acquires the exclusive write lock. Barging is not supported by this lock and the flag is ignored.
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xlock(boolean)
+		 */
+		@Override
+		public void xlock(boolean barge) {
+			xlock();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#xunlock()
+		 */
+		@Override
+		public void xunlock() {
+			if(writeOwner!=Thread.currentThread().getId()) return;
+			if(--writeHolds==0) {
+				// a read lock taken while writing is carried over as a real read lock
+				final boolean downgrade = readHolds.get()[0] > 0;
+				writeOwner = NO_LOCK;
+				if(downgrade) {
+					long word;
+					do {
+						word = getLongVolatile(null, address);
+					} while(!compareAndSwapLong(null, address, word, (word & ~RW_WRITER) + 1));
+				} else {
+					UnsafeAdapter.wunlock(address);
+				}
+			}
+		}
+
+		/**
+		 * Indicates if the read or write lock is held by any thread
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLocked()
+		 */
+		@Override
+		public boolean isLocked() {
+			return (getLongVolatile(null, address) & (RW_WRITER | RW_READER_MASK))!=0;
+		}
+
+		/**
+		 * Indicates if the write lock is held by the calling thread
+		 * @see org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock#isLockedByMe()
+		 */
+		@Override
+		public boolean isLockedByMe() {
+			return writeOwner==Thread.currentThread().getId();
+		}
+		
+		/**
+		 * Indicates if the calling thread holds the read lock
+		 * @return true if the calling thread holds the read lock, false otherwise
+		 */
+		public boolean isReadLockedByMe() {
+			return readHolds.get()[0] > 0;
+		}
+		
+		/**
+		 * Returns the number of threads holding the read lock
+		 * @return the number of readers
+		 */
+		public int getReaders() {
+			return rwreaders(address);
+		}
+	}
 	
 	/**
 	 * Executes the passed task after acquiring the exclusive lock the given address.
@@ -0,0 +1,212 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter.MemoryAllocationReference;
+
+/**
+ * <p>Title: UnsafeArena</p>
+ * <p>Description: A scope that owns the off-heap memory allocated within it and frees it all when it is closed,
+ * rather than when the owning objects' phantom references are eventually processed after garbage collection.</p>
+ * <p>An arena is bound to the thread that opens it until it is closed. Every {@link DeAllocateMe} registered through
+ * {@link UnsafeAdapter#registerForDeAlloc(DeAllocateMe...)} on that thread while it is bound (e.g. unsafe arrays, EWMAs and spin locks)
+ * is adopted by the arena:<pre>
+ * try(UnsafeArena arena = UnsafeArena.open()) {
+ *    UnsafeLongArray arr = UnsafeArrayBuilder.newBuilder().buildLongArray();
+ *    ...
+ * }  // arr's memory is freed here
+ * </pre></p>
+ * <p>Arenas can be nested, in which case the innermost open arena adopts the registrations. The phantom references
+ * remain as a safety net, so memory owned by objects collected while the arena is open, or by an arena that is never closed, is still freed.</p>
+ * <p>Adopted objects that are {@link Closeable} and still reachable are freed by closing them, so an unsafe array whose memory block
+ * is shared with snapshots hands the block to the snapshots rather than freeing it from under them. Snapshots therefore remain readable
+ * after the arena is closed.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>Objects owned by an arena must not be used after the arena is closed.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.UnsafeArena</code></p>
+ */
+
+public class UnsafeArena implements Closeable {
+	/** The arena bound to each thread */
+	private static final ThreadLocal<UnsafeArena> current = new ThreadLocal<UnsafeArena>();
+
+	/** The arena that was bound to the owner thread when this arena was opened */
+	private final UnsafeArena parent;
+	/** The thread that opened this arena */
+	private final Thread owner;
+	/** The references to the memory owned by this arena */
+	private final List<MemoryAllocationReference> refs = new ArrayList<MemoryAllocationReference>();
+	/** The closeable owners of each reference in {@link #refs}, weakly referenced so the arena does not keep them reachable, or null if not closeable */
+	private final List<WeakReference<Closeable>> closeables = new ArrayList<WeakReference<Closeable>>();
+	/** The raw blocks allocated through this arena, referenced so they are only collected with the arena */
+	private final List<RawBlock> rawBlocks = new ArrayList<RawBlock>();
+	/** Indicates if this arena is closed */
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens a new arena and binds it to the calling thread
+	 * @return the new arena
+	 */
+	public static UnsafeArena open() {
+		final UnsafeArena arena = new UnsafeArena(current());
+		current.set(arena);
+		return arena;
+	}
+
+	/**
+	 * Returns the innermost open arena bound to the calling thread
+	 * @return the current arena or null if there is none
+	 */
+	public static UnsafeArena current() {
+		UnsafeArena arena = current.get();
+		while(arena!=null && arena.closed) arena = arena.parent;
+		return arena;
+	}
+
+	/**
+	 * Creates a new UnsafeArena
+	 * @param parent The arena that was bound to the calling thread
+	 */
+	private UnsafeArena(UnsafeArena parent) {
+		this.parent = parent;
+		owner = Thread.currentThread();
+	}
+
+	/**
+	 * Adopts the passed reference so its memory is freed when this arena is closed
+	 * @param ref The reference to adopt
+	 * @param dealloc The deallocatable the reference was created for
+	 * @return true if the reference was adopted, false if this arena is closed
+	 */
+	synchronized boolean adopt(MemoryAllocationReference ref, DeAllocateMe dealloc) {
+		if(closed) return false;
+		refs.add(ref);
+		closeables.add(dealloc instanceof Closeable ? new WeakReference<Closeable>((Closeable)dealloc) : null);
+		return true;
+	}
+
+	/**
+	 * Registers the passed deallocatable with this arena, whether or not it is the current arena
+	 * @param dealloc The deallocatable
+	 */
+	public void register(DeAllocateMe dealloc) {
+		if(dealloc==null) throw new IllegalArgumentException("The passed deallocatable was null", new Throwable());
+		final MemoryAllocationReference ref = UnsafeAdapter.registerForDeAllocUnscoped(dealloc);
+		if(ref!=null && !adopt(ref, dealloc)) throw new IllegalStateException("The arena is closed", new Throwable());
+	}
+
+	/**
+	 * Allocates a block of memory owned by this arena
+	 * @param size The number of bytes to allocate
+	 * @return the address of the block
+	 */
+	public long allocate(long size) {
+		final RawBlock block = new RawBlock(UnsafeAdapter.allocateAlignedMemory(size));
+		synchronized(this) {
+			if(closed) {
+				UnsafeAdapter.freeMemory(block.address[0][0]);
+				throw new IllegalStateException("The arena is closed", new Throwable());
+			}
+			rawBlocks.add(block);
+		}
+		register(block);
+		return block.address[0][0];
+	}
+
+	/**
+	 * Returns the number of registrations owned by this arena
+	 * @return the number of registrations
+	 */
+	public synchronized int size() {
+		return refs.size();
+	}
+
+	/**
+	 * Indicates if this arena is closed
+	 * @return true if this arena is closed, false otherwise
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Frees all the memory owned by this arena, most recent registrations first, and unbinds it from the owner thread.
+	 * Owners that are {@link Closeable} and still reachable are closed, so they can release memory still shared with other objects.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		final MemoryAllocationReference[] owned;
+		final List<WeakReference<Closeable>> owners;
+		synchronized(this) {
+			if(closed) return;
+			closed = true;
+			owned = refs.toArray(new MemoryAllocationReference[refs.size()]);
+			owners = new ArrayList<WeakReference<Closeable>>(closeables);
+			refs.clear();
+			closeables.clear();
+			rawBlocks.clear();
+		}
+		for(int i = owned.length-1; i >= 0; i--) {
+			final Closeable owner = owners.get(i)==null ? null : owners.get(i).get();
+			if(owner!=null) {
+				try {
+					owner.close();
+				} catch (IOException iex) {
+					/* the registration is cleared below regardless */
+				}
+			}
+			// a no-op if the owner's close already cleared it
+			owned[i].clear();
+		}
+		if(Thread.currentThread()==owner && current.get()==this) {
+			final UnsafeArena restore = current();
+			if(restore==null) current.remove();
+			else current.set(restore);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "UnsafeArena [owner=" + owner.getName() + ", size=" + size() + ", closed=" + closed + "]";
+	}
+
+	/**
+	 * <p>Title: RawBlock</p>
+	 * <p>Description: A block of memory allocated through {@link UnsafeArena#allocate(long)}</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.UnsafeArena.RawBlock</code></p>
+	 */
+	private static class RawBlock implements DeAllocateMe {
+		/** The block address */
+		private final long[][] address;
+
+		/**
+		 * Creates a new RawBlock
+		 * @param address The block address
+		 */
+		RawBlock(long address) {
+			this.address = new long[][]{{address}};
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 */
+		@Override
+		public long[][] getAddresses() {
+			return address;
+		}
+	}
+}
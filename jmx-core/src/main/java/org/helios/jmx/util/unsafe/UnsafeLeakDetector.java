@@ -0,0 +1,178 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.helios.jmx.util.helpers.JMXHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Title: UnsafeLeakDetector</p>
+ * <p>Description: Sampled detector of {@link java.io.Closeable} {@link DeAllocateMe}s (e.g. unsafe arrays) that are garbage collected without having been closed.</p>
+ * <p>When enabled by setting {@link #LEAK_SAMPLE_PROP} to N, the allocating stack of a randomized 1-in-N closeable registrations is recorded.
+ * If a sampled registration's memory is freed by the reference service rather than by closing the owner (or its {@link UnsafeArena}),
+ * the allocating stack is reported as a leak site and logged the first time it is seen.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.UnsafeLeakDetector</code></p>
+ */
+
+public class UnsafeLeakDetector implements UnsafeLeakDetectorMXBean {
+	/** The system property defining the mean number of closeable registrations between samples. Zero, the default, disables detection. */
+	public static final String LEAK_SAMPLE_PROP = "unsafe.leaks.sample";
+	/** The maximum number of stack frames recorded for a leak site */
+	public static final int MAX_FRAMES = 12;
+	/** The package prefix of the frames skipped when recording a leak site */
+	private static final String SKIP_PREFIX = UnsafeLeakDetector.class.getPackage().getName() + ".";
+	/** The package prefix of the unsafe collections, which are not skipped */
+	private static final String COLLECTIONS_PREFIX = SKIP_PREFIX + "collections.";
+
+	/** The mean number of closeable registrations between samples */
+	private static final int sampleRate;
+	/** The singleton instance, null if detection is disabled */
+	private static final UnsafeLeakDetector instance;
+	/** Static class logger */
+	private static final Logger LOG = LoggerFactory.getLogger(UnsafeLeakDetector.class);
+
+	/** The registration sampler and the leak count and leaked bytes keyed by the leak site */
+	private final SiteSampler sampler = new SiteSampler(sampleRate);
+	/** The number of sampled registrations */
+	private final AtomicLong sampled = new AtomicLong(0L);
+	/** The number of detected leaks */
+	private final AtomicLong leaks = new AtomicLong(0L);
+	/** The number of bytes freed by detected leaks, where tracked */
+	private final AtomicLong leakedBytes = new AtomicLong(0L);
+
+	static {
+		int rate = 0;
+		try {
+			rate = Math.max(0, Integer.parseInt(System.getProperty(LEAK_SAMPLE_PROP, "0").trim()));
+		} catch (Exception ex) {
+			rate = 0;
+		}
+		sampleRate = rate;
+		if(sampleRate>0) {
+			instance = new UnsafeLeakDetector();
+			JMXHelper.registerMBean(instance, JMXHelper.objectName("%s:%s=%s", UnsafeLeakDetector.class.getPackage().getName(), "service", UnsafeLeakDetector.class.getSimpleName()));
+		} else {
+			instance = null;
+		}
+	}
+
+	/**
+	 * Returns the leak detector
+	 * @return the leak detector, or null if detection is disabled
+	 */
+	public static UnsafeLeakDetector getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Creates a new UnsafeLeakDetector
+	 */
+	private UnsafeLeakDetector() {
+	}
+
+	/**
+	 * Called when a closeable deallocatable is registered. Returns the allocating stack if the registration is sampled.
+	 * @return the allocating stack, or null if the registration is not sampled or detection is disabled
+	 */
+	static Throwable sample() {
+		if(instance==null || !instance.sampler.sample()) return null;
+		instance.sampled.incrementAndGet();
+		return new Throwable("Unclosed allocation");
+	}
+
+	/**
+	 * Records a sampled registration whose referent was collected without having been closed
+	 * @param type The class of the leaked deallocatable
+	 * @param allocationSite The allocating stack
+	 * @param bytes The number of bytes freed, or -1 if not tracked
+	 */
+	static void leaked(Class<?> type, Throwable allocationSite, long bytes) {
+		if(instance==null) return;
+		final String site = site(type, allocationSite);
+		instance.leaks.incrementAndGet();
+		if(bytes>0) instance.leakedBytes.addAndGet(bytes);
+		if(instance.sampler.record(site, bytes)) {
+			LOG.warn("Unclosed {} was garbage collected. Allocated at:\n{}", type.getName(), site);
+		}
+	}
+
+	/**
+	 * Formats the leak site for the passed type and allocating stack, skipping the unsafe adapter frames
+	 * @param type The class of the leaked deallocatable
+	 * @param allocationSite The allocating stack
+	 * @return the leak site
+	 */
+	private static String site(Class<?> type, Throwable allocationSite) {
+		final StringBuilder b = new StringBuilder(type.getName());
+		int frames = 0;
+		for(StackTraceElement ste: allocationSite.getStackTrace()) {
+			final String className = ste.getClassName();
+			if(frames==0 && className.startsWith(SKIP_PREFIX) && !className.startsWith(COLLECTIONS_PREFIX)) continue;
+			b.append("\n\tat ").append(ste);
+			if(++frames==MAX_FRAMES) break;
+		}
+		return b.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#getSampleRate()
+	 */
+	@Override
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#getSampledCount()
+	 */
+	@Override
+	public long getSampledCount() {
+		return sampled.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#getLeakCount()
+	 */
+	@Override
+	public long getLeakCount() {
+		return leaks.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#getLeakedBytes()
+	 */
+	@Override
+	public long getLeakedBytes() {
+		return leakedBytes.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#getLeakSites()
+	 */
+	@Override
+	public Map<String, Long> getLeakSites() {
+		return sampler.getSites(SiteSampler.COUNT, 1L);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean#reset()
+	 */
+	@Override
+	public void reset() {
+		sampler.reset();
+		sampled.set(0L);
+		leaks.set(0L);
+		leakedBytes.set(0L);
+	}
+}
@@ -0,0 +1,49 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe;
+
+import java.util.Map;
+
+/**
+ * <p>Title: UnsafeLeakDetectorMXBean</p>
+ * <p>Description: JMX MXBean interface for {@link UnsafeLeakDetector}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.UnsafeLeakDetectorMXBean</code></p>
+ */
+
+public interface UnsafeLeakDetectorMXBean {
+	/**
+	 * Returns the mean number of closeable registrations between samples
+	 * @return the sample rate
+	 */
+	public int getSampleRate();
+
+	/**
+	 * Returns the number of sampled registrations since the last reset
+	 * @return the number of sampled registrations
+	 */
+	public long getSampledCount();
+
+	/**
+	 * Returns the number of sampled registrations collected without having been closed since the last reset
+	 * @return the number of detected leaks
+	 */
+	public long getLeakCount();
+
+	/**
+	 * Returns the bytes freed by the reference service for the detected leaks, where allocations are tracked
+	 * @return the leaked bytes
+	 */
+	public long getLeakedBytes();
+
+	/**
+	 * Returns the number of detected leaks keyed by the leaked class and allocating stack, most frequent first
+	 * @return the leak counts keyed by leak site
+	 */
+	public Map<String, Long> getLeakSites();
+
+	/**
+	 * Clears the leak sites and counters
+	 */
+	public void reset();
+}
@@ -0,0 +1,344 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+
+/**
+ * <p>Title: ConcurrentDoubleSlidingWindow</p>
+ * <p>Description: A fixed size sliding window unsafe double array, guarded by a {@link ReentrantReadWriteLock}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.ConcurrentDoubleSlidingWindow</code></p>
+ */
+
+public class ConcurrentDoubleSlidingWindow extends DoubleSlidingWindow implements IDoubleSlidingWindow {
+	/** The reentrant read/write lock */
+	private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock(false);
+	/** The concurrent read lock */
+	private final ReadLock readLock = readWriteLock.readLock();
+	/** The exclusive write lock */
+	private final WriteLock writeLock = readWriteLock.writeLock();
+
+	/**
+	 * Creates a new ConcurrentDoubleSlidingWindow
+	 * @param size the fixed size of the sliding window
+	 */
+	public ConcurrentDoubleSlidingWindow(int size) {
+		super(size);
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSlidingWindow
+	 * @param size the fixed size of the sliding window
+	 * @param values the initial values of the sliding window
+	 */
+	public ConcurrentDoubleSlidingWindow(int size, double[] values) {
+		super(size, values);
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSlidingWindow cloned from the passed array
+	 * @param array The array to base this sliding window from
+	 */
+	private ConcurrentDoubleSlidingWindow(UnsafeDoubleArray array) {
+		super(array);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#insert(double[])
+	 */
+	@Override
+	public void insert(double...values) {
+		writeLock.lock();
+		try {
+			super.insert(values);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#insert(double)
+	 */
+	@Override
+	public Double insert(double value) {
+		writeLock.lock();
+		try {
+			return super.insert(value);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#clear()
+	 */
+	@Override
+	public void clear() {
+		writeLock.lock();
+		try {
+			super.clear();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		readLock.lock();
+		try {
+			return super.isEmpty();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#isFull()
+	 */
+	@Override
+	public boolean isFull() {
+		readLock.lock();
+		try {
+			return super.isFull();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#get(int)
+	 */
+	@Override
+	public double get(int index) {
+		readLock.lock();
+		try {
+			return super.get(index);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSlidingWindow#getFirst()
+	 */
+	@Override
+	public double getFirst() {
+		readLock.lock();
+		try {
+			return super.getFirst();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSlidingWindow#getLast()
+	 */
+	@Override
+	public double getLast() {
+		readLock.lock();
+		try {
+			return super.getLast();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#asDoubleArray()
+	 */
+	@Override
+	public double[] asDoubleArray() {
+		readLock.lock();
+		try {
+			return super.asDoubleArray();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#size()
+	 */
+	@Override
+	public int size() {
+		readLock.lock();
+		try {
+			return super.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#sum(int)
+	 */
+	@Override
+	public double sum(int within) {
+		readLock.lock();
+		try {
+			return super.sum(within);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#sum()
+	 */
+	@Override
+	public double sum() {
+		readLock.lock();
+		try {
+			return super.sum();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#min()
+	 */
+	@Override
+	public double min() {
+		readLock.lock();
+		try {
+			return super.min();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#max()
+	 */
+	@Override
+	public double max() {
+		readLock.lock();
+		try {
+			return super.max();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#avg(int)
+	 */
+	@Override
+	public double avg(int within) {
+		readLock.lock();
+		try {
+			return super.avg(within);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#avg()
+	 */
+	@Override
+	public double avg() {
+		readLock.lock();
+		try {
+			return super.avg();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#percentile(int)
+	 */
+	@Override
+	public double percentile(int p) {
+		readLock.lock();
+		try {
+			return super.percentile(p);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		readLock.lock();
+		try {
+			return super.toString();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public DoubleSlidingWindow clone() {
+		readLock.lock();
+		try {
+			return new ConcurrentDoubleSlidingWindow(array.clone());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a read only snapshot of this sliding window. The read lock is only held while the snapshot is created, 
+	 * and the snapshot can be read without any locking.
+	 * @return a read only snapshot of this sliding window
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSlidingWindow#snapshot()
+	 */
+	@Override
+	public DoubleSlidingWindow snapshot() {
+		readLock.lock();
+		try {
+			return super.snapshot();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#close()
+	 */
+	@Override
+	public void close() {
+		writeLock.lock();
+		try {
+			super.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
@@ -0,0 +1,245 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+
+/**
+ * <p>Title: ConcurrentDoubleSortedSet</p>
+ * <p>Description: An extension of {@link DoubleSortedSet} which adds thread safety and increased concurrency through a Read/Write lock pair.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.ConcurrentDoubleSortedSet</code></p>
+ */
+public class ConcurrentDoubleSortedSet extends DoubleSortedSet {
+
+	/** The reentrant read/write lock */
+	private final ReentrantReadWriteLock readWriteLock;
+	/** The concurrent read lock */
+	private final ReadLock readLock;
+	/** The exclusive write lock */
+	private final WriteLock writeLock;
+
+	/**
+	 * Creates a new ConcurrentDoubleSortedSet
+	 * @param fair the fairness of the lock
+	 * @param array the cloned array
+	 */
+	protected ConcurrentDoubleSortedSet(boolean fair, UnsafeDoubleArray array) {
+		super(array);
+		readWriteLock = new ReentrantReadWriteLock(fair);
+		readLock = readWriteLock.readLock();
+		writeLock = readWriteLock.writeLock();
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSortedSet with an unfair lock
+	 * @param array the cloned array
+	 */
+	protected ConcurrentDoubleSortedSet(UnsafeDoubleArray array) {
+		this(false, array);
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSortedSet with the default initial capacity of {@link UnsafeArray#DEFAULT_CAPACITY} and an unfair lock.
+	 */
+	public ConcurrentDoubleSortedSet() {
+		this(false, UnsafeArray.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSortedSet with the specified initial capacity.
+	 * @param fair the fairness of the lock
+	 * @param initialCapacity The initial number of allocated slots
+	 */
+	public ConcurrentDoubleSortedSet(boolean fair, int initialCapacity) {
+		this(fair, UnsafeArrayBuilder.newBuilder().sorted(true).initialCapacity(initialCapacity).buildDoubleArray());
+	}
+
+	/**
+	 * Creates a new ConcurrentDoubleSortedSet initialized with the passed values and with an unfair lock
+	 * @param values The double array to initialize with
+	 */
+	public ConcurrentDoubleSortedSet(double...values) {
+		this(false, UnsafeArray.DEFAULT_CAPACITY);
+		array.insertIfNotExists(values);
+	}
+
+	/**
+	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already.
+	 * Batches are sorted and de-duplicated before the lock is acquired, and then merged in one pass.
+	 * @param values The values to insert
+	 * @return true if any of the values were successfully added
+	 * <p>Requires a <b>WRITE</b> lock.
+	 */
+	@Override
+	public boolean add(double...values) {
+		if(values!=null && values.length>1) {
+			final double[] batch = values.clone();
+			final int count = UnsafeDoubleArray.sortUnique(batch);
+			writeLock.lock();
+			try {
+				return array.mergeIfNotExists(batch, count)>0;
+			} finally {
+				writeLock.unlock();
+			}
+		}
+		writeLock.lock();
+		try {
+			return super.add(values);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#clear()
+	 * <p>Requires a <b>WRITE</b> lock.
+	 */
+	@Override
+	public void clear() {
+		writeLock.lock();
+		try {
+			super.clear();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#remove(double[])
+	 * <p>Requires a <b>WRITE</b> lock.
+	 */
+	@Override
+	public boolean remove(double...values) {
+		writeLock.lock();
+		try {
+			return super.remove(values);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#get(int)
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public double get(int index) {
+		readLock.lock();
+		try {
+			return super.get(index);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#size()
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public int size() {
+		readLock.lock();
+		try {
+			return super.size();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#asDoubleArray()
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public double[] asDoubleArray() {
+		readLock.lock();
+		try {
+			return super.asDoubleArray();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#contains(double)
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public boolean contains(double value) {
+		readLock.lock();
+		try {
+			return super.contains(value);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public String toString() {
+		readLock.lock();
+		try {
+			return super.toString();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public DoubleSortedSet clone() {
+		readLock.lock();
+		try {
+			return new ConcurrentDoubleSortedSet(array.clone());
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#isEmpty()
+	 * <p>Requires a <b>READ</b> lock.
+	 */
+	@Override
+	public boolean isEmpty() {
+		readLock.lock();
+		try {
+			return super.isEmpty();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.DoubleSortedSet#close()
+	 * <p>Requires a <b>WRITE</b> lock.
+	 */
+	@Override
+	public void close() {
+		writeLock.lock();
+		try {
+			super.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+}
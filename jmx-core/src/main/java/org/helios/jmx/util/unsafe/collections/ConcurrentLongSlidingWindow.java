@@ -283,6 +283,22 @@ public class ConcurrentLongSlidingWindow extends LongSlidingWindow implements IL
 		}
 	}
 	
+	/**
+	 * Returns a read only snapshot of this sliding window. The read lock is only held while the snapshot is created, 
+	 * and the snapshot can be read without any locking.
+	 * @return a read only snapshot of this sliding window
+	 * @see org.helios.jmx.util.unsafe.collections.LongSlidingWindow#snapshot()
+	 */
+	@Override
+	public LongSlidingWindow snapshot() {
+		readLock.lock();
+		try {
+			return super.snapshot();
+		} finally {
+			readLock.unlock();
+		}
+	}
+	
 	/**
 	 * Returns the most recent value in the array or -1L if the size is 0.
 	 * @return the most recent in the array or -1L if the size is 0.
@@ -365,14 +381,9 @@ public class ConcurrentLongSlidingWindow extends LongSlidingWindow implements IL
 	 */
 	@Override
 	public long min() {
-		if(array.size==0) throw new RuntimeException("Cannot get min for empty array");
-		long[] arr = null;
-		readLock.lock();
-		try {
-			arr = asLongArray();
-		} finally {
-			readLock.unlock();
-		}
+		// copied under the read lock and sorted without it
+		long[] arr = asLongArray();
+		if(arr.length==0) throw new RuntimeException("Cannot get min for empty array");
 		Arrays.sort(arr);
 		return arr[0];
 	}
@@ -383,30 +394,25 @@ public class ConcurrentLongSlidingWindow extends LongSlidingWindow implements IL
 	 */
 	@Override
 	public long max() {
-		if(array.size==0) throw new RuntimeException("Cannot get max for empty array");
-		long[] arr = null;
-		readLock.lock();
-		try {
-			arr = asLongArray();
-		} finally {
-			readLock.unlock();
-		}
+		long[] arr = asLongArray();
+		if(arr.length==0) throw new RuntimeException("Cannot get max for empty array");
 		Arrays.sort(arr);
 		return arr[arr.length-1];		
 	}
 	
 	/**
 	 * Returns the pth percentile value from this array using the nearest rank formula.
+	 * The values are copied under the read lock so the sort runs without holding the lock.
 	 * @param p The percentile to get
 	 * @return the pth percentile value
 	 */
 	public long percentile(int p) {
-		readLock.lock();
-		try {
-			return super.percentile(p);
-		} finally {
-			readLock.unlock();
+		if (p < 1 || p > 100) {
+			throw new IllegalArgumentException("invalid percentile: " + p);
 		}
+		final long[] arr = asLongArray();
+		if(arr.length==0) throw new RuntimeException("Cannot get percentile for empty array");
+		return percentile(p, arr);
 	}
 	
 	/**
@@ -467,6 +473,18 @@ public class ConcurrentLongSlidingWindow extends LongSlidingWindow implements IL
 
 	}
 	
-	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.LongSlidingWindow#close()
+	 */
+	@Override
+	public void close() {
+		writeLock.lock();
+		try {
+			super.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
 
 }
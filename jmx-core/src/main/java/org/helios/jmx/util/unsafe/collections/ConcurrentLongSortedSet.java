@@ -123,12 +123,23 @@ public class ConcurrentLongSortedSet extends LongSortedSet {
 	}
 	
 	/**
-	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already. 
+	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already.
+	 * Batches are sorted and de-duplicated before the lock is acquired, and then merged in one pass.
 	 * @param values The values to insert
 	 * @return true if any of the values were successfully added
 	 * <p>Requires a <b>READ</b> lock.
 	 */
 	public boolean add(long...values) {
+		if(values!=null && values.length>1) {
+			final long[] batch = values.clone();
+			final int count = UnsafeLongArray.sortUnique(batch);
+			writeLock.lock();
+			try {
+				return array.mergeIfNotExists(batch, count)>0;
+			} finally {
+				writeLock.unlock();
+			}
+		}
 		writeLock.lock();
 		try {
 			return super.add(values);
@@ -266,5 +277,18 @@ public class ConcurrentLongSortedSet extends LongSortedSet {
 		
 	}
 	
-
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.LongSortedSet#close()
+	 * <p>Requires a <b>WRITE</b> lock.
+	 */
+	@Override
+	public void close() {
+		writeLock.lock();
+		try {
+			super.close();
+		} finally {
+			writeLock.unlock();
+		}
+	}
 }
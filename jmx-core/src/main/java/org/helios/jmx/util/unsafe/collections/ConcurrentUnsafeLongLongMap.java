@@ -0,0 +1,260 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongLongMap.LongLongProcedure;
+
+/**
+ * <p>Title: ConcurrentUnsafeLongLongMap</p>
+ * <p>Description: A thread safe, striped map of long keys to long values built from a number of {@link UnsafeLongLongMap}s,
+ * each guarded by its own Read/Write lock pair. Keys are assigned to a stripe using the high bits of the key hash,
+ * and to a slot within the stripe using the low bits, so the stripes stay evenly loaded.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.ConcurrentUnsafeLongLongMap</code></p>
+ */
+
+public class ConcurrentUnsafeLongLongMap {
+	/** The default number of stripes */
+	public static final int DEFAULT_STRIPES = 16;
+
+	/** The stripe maps */
+	private final UnsafeLongLongMap[] maps;
+	/** The stripe locks */
+	private final ReentrantReadWriteLock[] locks;
+	/** The number of bits to shift the hash right to get the stripe index */
+	private final int stripeShift;
+	/** The value returned for a key that is not in the map */
+	private final long noEntryValue;
+
+	/**
+	 * Creates a new ConcurrentUnsafeLongLongMap with the default number of stripes and default stripe capacity
+	 */
+	public ConcurrentUnsafeLongLongMap() {
+		this(DEFAULT_STRIPES, UnsafeLongLongMap.DEFAULT_CAPACITY, UnsafeLongLongMap.DEFAULT_LOAD_FACTOR, UnsafeLongLongMap.DEFAULT_NO_ENTRY_VALUE);
+	}
+
+	/**
+	 * Creates a new ConcurrentUnsafeLongLongMap with the default stripe capacity
+	 * @param stripes The number of stripes, which will be rounded up to the next power of 2
+	 */
+	public ConcurrentUnsafeLongLongMap(int stripes) {
+		this(stripes, UnsafeLongLongMap.DEFAULT_CAPACITY, UnsafeLongLongMap.DEFAULT_LOAD_FACTOR, UnsafeLongLongMap.DEFAULT_NO_ENTRY_VALUE);
+	}
+
+	/**
+	 * Creates a new ConcurrentUnsafeLongLongMap
+	 * @param stripes The number of stripes, which will be rounded up to the next power of 2
+	 * @param stripeCapacity The initial capacity of each stripe
+	 * @param loadFactor The load factor of each stripe
+	 * @param noEntryValue The value returned for a key that is not in the map
+	 */
+	public ConcurrentUnsafeLongLongMap(int stripes, int stripeCapacity, float loadFactor, long noEntryValue) {
+		if(stripes<1 || stripes>(1 << 16)) throw new IllegalArgumentException("Invalid number of stripes [" + stripes + "]", new Throwable());
+		final int stripeCount = stripes==1 ? 1 : UnsafeAdapter.findNextPositivePowerOfTwo(stripes);
+		this.noEntryValue = noEntryValue;
+		stripeShift = 64 - Integer.numberOfTrailingZeros(stripeCount);
+		maps = new UnsafeLongLongMap[stripeCount];
+		locks = new ReentrantReadWriteLock[stripeCount];
+		for(int i = 0; i < stripeCount; i++) {
+			maps[i] = new UnsafeLongLongMap(stripeCapacity, loadFactor, noEntryValue);
+			locks[i] = new ReentrantReadWriteLock();
+		}
+	}
+
+	/**
+	 * Returns the stripe index for the passed key
+	 * @param key The key
+	 * @return the stripe index
+	 */
+	private int stripe(long key) {
+		return maps.length==1 ? 0 : (int)(UnsafeLongLongMap.hash(key) >>> stripeShift);
+	}
+
+	/**
+	 * Returns the value for the passed key
+	 * @param key The key to get the value for
+	 * @return the value or the no entry value if the key is not in the map
+	 */
+	public long get(long key) {
+		final int s = stripe(key);
+		locks[s].readLock().lock();
+		try {
+			return maps[s].get(key);
+		} finally {
+			locks[s].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Indicates if the passed key is in the map
+	 * @param key The key to test for
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(long key) {
+		final int s = stripe(key);
+		locks[s].readLock().lock();
+		try {
+			return maps[s].containsKey(key);
+		} finally {
+			locks[s].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Puts the passed key and value into the map
+	 * @param key The key
+	 * @param value The value
+	 * @return the prior value for the key, or the no entry value if the key was not in the map
+	 */
+	public long put(long key, long value) {
+		final int s = stripe(key);
+		locks[s].writeLock().lock();
+		try {
+			return maps[s].put(key, value);
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Puts the passed key and value into the map if the key is not already in the map
+	 * @param key The key
+	 * @param value The value
+	 * @return the existing value for the key, or the no entry value if the passed value was put
+	 */
+	public long putIfAbsent(long key, long value) {
+		final int s = stripe(key);
+		locks[s].writeLock().lock();
+		try {
+			return maps[s].putIfAbsent(key, value);
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the passed delta to the value of the passed key, putting the delta if the key is not in the map
+	 * @param key The key
+	 * @param delta The amount to add
+	 * @return the new value of the key
+	 */
+	public long adjustOrPut(long key, long delta) {
+		final int s = stripe(key);
+		locks[s].writeLock().lock();
+		try {
+			return maps[s].adjustOrPut(key, delta);
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the passed key from the map
+	 * @param key The key to remove
+	 * @return the value of the removed key, or the no entry value if the key was not in the map
+	 */
+	public long remove(long key) {
+		final int s = stripe(key);
+		locks[s].writeLock().lock();
+		try {
+			return maps[s].remove(key);
+		} finally {
+			locks[s].writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Iterates the entries of the map, one stripe at a time, holding each stripe's read lock while it is iterated.
+	 * The procedure must not modify this map.
+	 * @param procedure The procedure to call for each entry
+	 * @return true if all entries were iterated, false if the procedure stopped the iteration
+	 */
+	public boolean forEachEntry(LongLongProcedure procedure) {
+		for(int s = 0; s < maps.length; s++) {
+			locks[s].readLock().lock();
+			try {
+				if(!maps[s].forEachEntry(procedure)) return false;
+			} finally {
+				locks[s].readLock().unlock();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Removes all entries from the map
+	 */
+	public void clear() {
+		for(int s = 0; s < maps.length; s++) {
+			locks[s].writeLock().lock();
+			try {
+				maps[s].clear();
+			} finally {
+				locks[s].writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of entries in the map.
+	 * The stripes are counted one at a time, so the result is approximate while the map is being modified.
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		int size = 0;
+		for(int s = 0; s < maps.length; s++) {
+			locks[s].readLock().lock();
+			try {
+				size += maps[s].size();
+			} finally {
+				locks[s].readLock().unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Indicates if the map is empty
+	 * @return true if the map is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size()==0;
+	}
+
+	/**
+	 * Returns the number of stripes
+	 * @return the number of stripes
+	 */
+	public int stripes() {
+		return maps.length;
+	}
+
+	/**
+	 * Returns the value returned for keys that are not in the map
+	 * @return the no entry value
+	 */
+	public long noEntryValue() {
+		return noEntryValue;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder b = new StringBuilder("{");
+		forEachEntry(new LongLongProcedure() {
+			@Override
+			public boolean execute(long key, long value) {
+				b.append(key).append("=").append(value).append(",");
+				return true;
+			}
+		});
+		if(b.length()>1) b.deleteCharAt(b.length()-1);
+		return b.append("}").toString();
+	}
+}
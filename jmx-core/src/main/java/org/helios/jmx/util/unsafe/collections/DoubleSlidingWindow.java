@@ -0,0 +1,273 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: DoubleSlidingWindow</p>
+ * <p>Description: A fixed size "list" of doubles that when full, drops the oldest entry to make room for the newest.
+ * The double counterpart of {@link LongSlidingWindow}, for windows of ratios and rates.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time, or use
+ * {@link ConcurrentDoubleSlidingWindow}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.DoubleSlidingWindow</code></p>
+ */
+
+public class DoubleSlidingWindow implements IDoubleSlidingWindow {
+	/** The underlying UnsafeDoubleArray */
+	protected final UnsafeDoubleArray array;
+
+	/**
+	 * Creates a new and empty DoubleSlidingWindow
+	 * @param size The size of the sliding window
+	 */
+	public DoubleSlidingWindow(int size) {
+		array = UnsafeArrayBuilder.newBuilder().sorted(false).fixed(true).initialCapacity(size).maxCapacity(size).buildDoubleArray();
+	}
+
+	/**
+	 * Creates a new DoubleSlidingWindow with the provided initial values
+	 * @param size The size of the sliding window
+	 * @param values The initial values to load
+	 */
+	public DoubleSlidingWindow(int size, double[] values) {
+		this(size);
+		for(double v: values) {
+			array.rollRight(0, v);
+		}
+	}
+
+	/**
+	 * Creates a new DoubleSlidingWindow cloned from the passed array
+	 * @param array The array to base this sliding window from
+	 */
+	protected DoubleSlidingWindow(UnsafeDoubleArray array) {
+		this.array = array;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#insert(double[])
+	 */
+	@Override
+	public void insert(double...values) {
+		for(double v: values) {
+			array.rollRight(0, v);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#insert(double)
+	 */
+	@Override
+	public Double insert(double value) {
+		return array.rollRightCap(0, value);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#clear()
+	 */
+	@Override
+	public void clear() {
+		array.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return array.size()==0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#isFull()
+	 */
+	@Override
+	public boolean isFull() {
+		return array.size()==array.maxCapacity;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return array.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public DoubleSlidingWindow clone() {
+		return new DoubleSlidingWindow(array.clone());
+	}
+
+	/**
+	 * Returns a read only snapshot of this sliding window which shares the underlying memory
+	 * until this window is next modified. See {@link UnsafeDoubleArray#snapshot()}.
+	 * @return a read only snapshot of this sliding window
+	 */
+	public DoubleSlidingWindow snapshot() {
+		return new DoubleSlidingWindow(array.snapshot());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#get(int)
+	 */
+	@Override
+	public double get(int index) {
+		return array.get(index);
+	}
+
+	/**
+	 * Returns the first (chronologically the most recent) value in the array or NaN if the size is 0.
+	 * @return the first value in the array or NaN if the size is 0.
+	 */
+	public double getFirst() {
+		if(size()<1) return Double.NaN;
+		return array.get(0);
+	}
+
+	/**
+	 * Returns the last value (chronologically the oldest) in the array or NaN if the size is 0.
+	 * @return the last value in the array or NaN if the size is 0.
+	 */
+	public double getLast() {
+		if(size()<1) return Double.NaN;
+		return array.get(size()-1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#asDoubleArray()
+	 */
+	@Override
+	public double[] asDoubleArray() {
+		return array.getArray();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#size()
+	 */
+	@Override
+	public int size() {
+		return array.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#sum(int)
+	 */
+	@Override
+	public double sum(int within) {
+		double total = 0;
+		int end = within<array.size ? within : array.size;
+		for(int i = 0; i < end; i++) {
+			total += array.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#sum()
+	 */
+	@Override
+	public double sum() {
+		return sum(array.size);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#min()
+	 */
+	@Override
+	public double min() {
+		if(array.size==0) throw new RuntimeException("Cannot get min for empty array");
+		double min = array.get(0);
+		for(int i = 1; i < array.size; i++) {
+			min = Math.min(min, array.get(i));
+		}
+		return min;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#max()
+	 */
+	@Override
+	public double max() {
+		if(array.size==0) throw new RuntimeException("Cannot get max for empty array");
+		double max = array.get(0);
+		for(int i = 1; i < array.size; i++) {
+			max = Math.max(max, array.get(i));
+		}
+		return max;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#avg(int)
+	 */
+	@Override
+	public double avg(int within) {
+		int end = within<array.size ? within : array.size;
+		if(end<1) return 0;
+		return sum(end)/end;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#avg()
+	 */
+	@Override
+	public double avg() {
+		return avg(array.size);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#percentile(int)
+	 */
+	@Override
+	public double percentile(int p) {
+		if (p < 1 || p > 100) {
+			throw new IllegalArgumentException("invalid percentile: " + p);
+		}
+		if(array.size==0) throw new RuntimeException("Cannot get percentile for empty array");
+		return percentile(p, asDoubleArray());
+	}
+
+	/**
+	 * Sorts the passed array and returns the pth percentile value using the nearest rank formula.
+	 * @param p The percentile to get
+	 * @param arr The array of values, which will be sorted in place
+	 * @return the pth percentile value
+	 */
+	protected static double percentile(int p, double[] arr) {
+		double _pp = p/100d;
+		Arrays.sort(arr);
+		int ix = (int)Math.ceil(_pp*arr.length)-1;
+		return arr[ix < 0 ? 0 : ix];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow#close()
+	 */
+	@Override
+	public void close() {
+		array.close();
+	}
+}
@@ -0,0 +1,154 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.io.Closeable;
+
+/**
+ * <p>Title: DoubleSortedSet</p>
+ * <p>Description: A managed off-heap array of unique doubles, maintained in sorted order. The double counterpart of {@link LongSortedSet}.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time, or use
+ * {@link ConcurrentDoubleSortedSet}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.DoubleSortedSet</code></p>
+ */
+public class DoubleSortedSet implements Closeable {
+
+	/** The underlying UnsafeDoubleArray */
+	protected final UnsafeDoubleArray array;
+
+	/**
+	 * Creates a new DoubleSortedSet
+	 * @param array the cloned array
+	 */
+	protected DoubleSortedSet(UnsafeDoubleArray array) {
+		this.array = array;
+	}
+
+	/**
+	 * Creates a new DoubleSortedSet with the default initial capacity of {@link UnsafeArray#DEFAULT_CAPACITY}.
+	 */
+	public DoubleSortedSet() {
+		this(UnsafeArray.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new DoubleSortedSet with the specified initial capacity
+	 * @param initialCapacity The initial number of allocated slots
+	 */
+	public DoubleSortedSet(int initialCapacity) {
+		array = UnsafeArrayBuilder.newBuilder().sorted(true).initialCapacity(initialCapacity).buildDoubleArray();
+	}
+
+	/**
+	 * Creates a new DoubleSortedSet initialized with the passed values
+	 * @param values The double array to initialize with
+	 */
+	public DoubleSortedSet(double[] values) {
+		this(UnsafeArray.DEFAULT_CAPACITY);
+		array.insertIfNotExists(values);
+	}
+
+	/**
+	 * Creates a new DoubleSortedSet initialized with the passed values
+	 * @param values the values to copy into this new sorted set
+	 */
+	public DoubleSortedSet(DoubleSortedSet values) {
+		array = UnsafeArrayBuilder.newBuilder().sorted(true).buildDoubleArray(values.array);
+	}
+
+	/**
+	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already.
+	 * Multiple values are sorted, de-duplicated and merged in one pass (see {@link UnsafeDoubleArray#mergeIfNotExists(double[], int)}).
+	 * @param values The values to insert
+	 * @return true if any of the values were successfully added
+	 */
+	public boolean add(double...values) {
+		return array.insertIfNotExists(values)>0;
+	}
+
+	/**
+	 * Removes all the values from this array, shrinking the capacity if necessary.
+	 */
+	public void clear() {
+		array.clear();
+	}
+
+	/**
+	 * Removes all the passed values from the array
+	 * @param values The values to remove from the array
+	 * @return true if one or more of the values was removed
+	 */
+	public boolean remove(double...values) {
+		return array.remove(values)>0;
+	}
+
+	/**
+	 * Returns the double value at the specified array index
+	 * @param index the index of the value to retrieve
+	 * @return the double value at the specified array index
+	 */
+	public double get(int index) {
+		return array.get(index);
+	}
+
+	/**
+	 * Returns the number of entries in the array
+	 * @return the number of entries in the array
+	 */
+	public int size() {
+		return array.size();
+	}
+
+	/**
+	 * Returns this array as an array of doubles
+	 * @return an array of doubles
+	 */
+	public double[] asDoubleArray() {
+		return array.getArray();
+	}
+
+	/**
+	 * Returns true if the passed double value is in the array
+	 * @param value the double value to test for
+	 * @return true if the passed double value is in the array, false otherwise
+	 */
+	public boolean contains(double value) {
+		return array.binarySearch(value)>=0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return array.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public DoubleSortedSet clone() {
+		return new DoubleSortedSet(array.clone());
+	}
+
+	/**
+	 * Indicates if this set is empty
+	 * @return true if this set is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return array.size()==0;
+	}
+
+	/**
+	 * Frees this set's memory. The set cannot be used once closed.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		array.close();
+	}
+}
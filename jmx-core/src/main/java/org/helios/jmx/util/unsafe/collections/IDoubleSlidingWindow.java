@@ -0,0 +1,115 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.io.Closeable;
+
+/**
+ * <p>Title: IDoubleSlidingWindow</p>
+ * <p>Description: Defines a fixed size window of doubles that when full, drops the oldest entry to make room for the newest.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.IDoubleSlidingWindow</code></p>
+ */
+
+public interface IDoubleSlidingWindow extends Closeable {
+
+	/**
+	 * Inserts the each passed value into the first slot position in the array dropping the values in the last slot to make room if required
+	 * @param values The values to insert
+	 */
+	public abstract void insert(double... values);
+
+	/**
+	 * Inserts the passed value into the first slot of the array, moving all other other populated slots to the right.
+	 * @param value The value to insert
+	 * @return The dropped value if one was dropped, otherwise null
+	 */
+	public abstract Double insert(double value);
+
+	/**
+	 * Returns this array as an array of doubles
+	 * @return an array of doubles
+	 */
+	public abstract double[] asDoubleArray();
+
+	/**
+	 * Removes all the values from this array, keeping the capacity fixed.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Indicates if this window is empty
+	 * @return true if this window is empty, false otherwise
+	 */
+	public abstract boolean isEmpty();
+
+	/**
+	 * Indicates if this window is full
+	 * @return true if this window is full, false otherwise
+	 */
+	public abstract boolean isFull();
+
+	/**
+	 * Returns the double value at the specified array index
+	 * @param index the index of the value to retrieve
+	 * @return the double value at the specified array index
+	 */
+	public abstract double get(int index);
+
+	/**
+	 * Returns the number of entries in the array
+	 * @return the number of entries in the array
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns the sum of all the doubles in the array within the passed ending index range
+	 * @param within The index of the last entry to sum
+	 * @return the sum of all the doubles in the array
+	 */
+	public abstract double sum(int within);
+
+	/**
+	 * Returns the sum of all the doubles in the array
+	 * @return the sum of all the doubles in the array
+	 */
+	public abstract double sum();
+
+	/**
+	 * Returns the minumum value in the array
+	 * @return the minumum value in the array
+	 */
+	public abstract double min();
+
+	/**
+	 * Returns the maxumum value in the array
+	 * @return the maxumum value in the array
+	 */
+	public abstract double max();
+
+	/**
+	 * Returns the average of all the doubles in the array within the passed ending index range
+	 * @param within The index of the last entry to average
+	 * @return the average of all the doubles in the array
+	 */
+	public abstract double avg(int within);
+
+	/**
+	 * Returns the average of all the doubles in the array
+	 * @return the average of all the doubles in the array
+	 */
+	public abstract double avg();
+
+	/**
+	 * Returns the pth percentile value from this array using the nearest rank formula.
+	 * @param p The percentile to get
+	 * @return the pth percentile value
+	 */
+	public abstract double percentile(int p);
+
+	/**
+	 * Frees the sliding window's memory. The window cannot be used once closed.
+	 * @see java.io.Closeable#close()
+	 */
+	public abstract void close();
+}
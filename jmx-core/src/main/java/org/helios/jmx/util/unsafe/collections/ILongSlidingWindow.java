@@ -1,6 +1,7 @@
 /** Helios Development Group LLC, 2013 */
 package org.helios.jmx.util.unsafe.collections;
 
+import java.io.Closeable;
 import java.nio.LongBuffer;
 
 /**
@@ -11,7 +12,7 @@ import java.nio.LongBuffer;
  * <p><code>org.helios.apmrouter.collections.ILongSlidingWindow</code></p>
  */
 
-public interface ILongSlidingWindow {
+public interface ILongSlidingWindow extends Closeable {
 
 	/**
 	 * Inserts the each passed value into the first slot position in the array dropping the values in the last slot to make room if required
@@ -152,5 +153,11 @@ public interface ILongSlidingWindow {
 	 * @return the average of all the longs in the array
 	 */
 	public abstract long avg();
+	
+	/**
+	 * Frees the sliding window's memory. The window cannot be used once closed.
+	 * @see java.io.Closeable#close()
+	 */
+	public abstract void close();
 
 }
\ No newline at end of file
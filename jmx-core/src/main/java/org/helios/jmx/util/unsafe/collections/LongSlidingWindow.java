@@ -149,6 +149,15 @@ public class LongSlidingWindow  implements ILongSlidingWindow {
 		return new LongSlidingWindow(array.clone());
 	}
 	
+	/**
+	 * Returns a read only snapshot of this sliding window which shares the underlying memory 
+	 * until this window is next modified. See {@link UnsafeLongArray#snapshot()}.
+	 * @return a read only snapshot of this sliding window
+	 */
+	public LongSlidingWindow snapshot() {
+		return new LongSlidingWindow(array.snapshot());
+	}
+	
 	/**
 	 * Returns the long value at the specified array index
 	 * @param index the index of the value to retrieve 
@@ -284,11 +293,22 @@ public class LongSlidingWindow  implements ILongSlidingWindow {
 		if (p < 1 || p > 100) {
 			throw new IllegalArgumentException("invalid percentile: " + p);
 		}
+		if(array.size==0) throw new RuntimeException("Cannot get percentile for empty array");
+		return percentile(p, asLongArray());
+	}
+	
+	/**
+	 * Sorts the passed array and returns the pth percentile value using the nearest rank formula.
+	 * @param p The percentile to get
+	 * @param arr The array of values, which will be sorted in place
+	 * @return the pth percentile value
+	 */
+	protected static long percentile(int p, long[] arr) {
 		double _p = p;
 		double _pp = _p/100d;
-		LongSlidingWindow sorted = new LongSlidingWindow(new LongSortedSet(clone().array).array);
-		int ix = (int)((_pp*sorted.size())+ONE_HALF);
-		return sorted.get(ix);
+		Arrays.sort(arr);
+		int ix = (int)Math.ceil(_pp*arr.length)-1;
+		return arr[ix < 0 ? 0 : ix];
 	}
 	
 	public static void main(String[] args) {
@@ -398,4 +418,13 @@ public class LongSlidingWindow  implements ILongSlidingWindow {
 		
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.ILongSlidingWindow#close()
+	 */
+	@Override
+	public void close() {
+		array.close();
+	}
+
 }
@@ -1,6 +1,8 @@
 /** Helios Development Group LLC, 2013 */
 package org.helios.jmx.util.unsafe.collections;
 
+import java.io.Closeable;
+
 /**
  * <p>Title: LongSortedSet</p>
  * <p>Description: A managed off-heap array of unique longs, maintained in sorted order.</p>
@@ -10,7 +12,7 @@ package org.helios.jmx.util.unsafe.collections;
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.collections.LongSortedSet</code></p>
  */
-public class LongSortedSet {
+public class LongSortedSet implements Closeable {
 
 	/** The underlying UnsafeLongArray */
 	protected final UnsafeLongArray array;
@@ -57,7 +59,8 @@ public class LongSortedSet {
 	}
 	
 	/**
-	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already 
+	 * Inserts the each passed value into the correct slot position in the array if the value is not present in the array already.
+	 * Multiple values are sorted, de-duplicated and merged in one pass (see {@link UnsafeLongArray#mergeIfNotExists(long[], int)}).
 	 * @param values The values to insert
 	 * @return true if any of the values were successfully added
 	 */
@@ -148,4 +151,13 @@ public class LongSortedSet {
 	public boolean isEmpty() {
 		return array.size()==0;
 	}
+	
+	/**
+	 * Frees this set's memory. The set cannot be used once closed.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		array.close();
+	}
 }
@@ -1,20 +1,29 @@
 /** Helios Development Group LLC, 2013 */
 package org.helios.jmx.util.unsafe.collections;
 
+import java.io.Closeable;
+import java.lang.ref.Reference;
 import java.lang.reflect.Array;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.helios.jmx.util.reference.ReferenceService;
 import org.helios.jmx.util.unsafe.DeAllocateMe;
 import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.MemoryAllocationReference;
 
 /**
  * <p>Title: UnsafeArray</p>
  * <p>Description: Base class for unsafe array implementations</p> 
+ * <p>An array's memory is freed when the array is closed, or otherwise when the array is garbage collected. 
+ * Closing an array that may be garbage collected while it is still in use is not required, 
+ * but frees the memory immediately, and stops the array being reported by the {@link org.helios.jmx.util.unsafe.UnsafeLeakDetector}.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeArray</code></p>
  */
 
-public abstract class UnsafeArray implements DeAllocateMe {
+public abstract class UnsafeArray implements DeAllocateMe, Closeable {
 	
 	/** The default number of slots that will be allocated when the array needs to be extended */
 	public static final int DEFAULT_ALLOC_INCR = 128;
@@ -50,6 +59,129 @@ public abstract class UnsafeArray implements DeAllocateMe {
 	protected int capacity;
 	/** The current size of the array */
 	protected int size;
+	/** Indicates this array is a read only snapshot of another array */
+	protected final boolean snapshot;
+	/** The shared block holder while the current memory block is shared with snapshots, null otherwise */
+	protected SharedBlock shared = null;
+	/** The deallocation reference of the memory owned by this array, null for snapshots */
+	private final MemoryAllocationReference deallocRef;
+	/** The reference counting this snapshot against its shared block until it is closed or collected, null for owners */
+	private final Reference<?> snapshotRef;
+	
+	/**
+	 * <p>Title: SharedBlock</p>
+	 * <p>Description: Holds a memory block shared between an array and its snapshots, counting the snapshots
+	 * which have not been closed or collected.
+	 * While the block is shared, the holder pins the owning array, which remains responsible for the block.
+	 * When the owner next writes while snapshots are counted, it copies the block, and ownership of the old block passes to this holder 
+	 * which frees it when the count drops to zero. If no snapshots are counted, the owner writes in place.</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeArray.SharedBlock</code></p>
+	 */
+	protected static class SharedBlock implements DeAllocateMe {
+		/** The address of the released block */
+		private final long address[][] = new long[1][1];
+		/** The array that owns the block until it next writes */
+		private UnsafeArray owner;
+		/** The collection references of the counted snapshots */
+		private final Set<Reference<?>> snapshots = new HashSet<Reference<?>>();
+		/** The reference that frees the block once it has been released by the owner, null until then */
+		private MemoryAllocationReference deallocRef = null;
+		
+		/**
+		 * Creates a new SharedBlock
+		 * @param owner The array that owns the shared block
+		 */
+		SharedBlock(UnsafeArray owner) {
+			this.owner = owner;
+		}
+		
+		/**
+		 * Counts the passed snapshot until it is closed or collected
+		 * @param snapshot The new snapshot of the block
+		 * @return the reference to pass to {@link #unretain(Reference)} when the snapshot is closed
+		 */
+		synchronized Reference<?> retain(UnsafeArray snapshot) {
+			final SnapshotCollected onCollect = new SnapshotCollected(this);
+			final Reference<?> ref = ReferenceService.getInstance().newPhantomReference(snapshot, onCollect);
+			onCollect.ref = ref;
+			snapshots.add(ref);
+			return ref;
+		}
+		
+		/**
+		 * Stops counting a snapshot, freeing the block if it was released by the owner and this was the last snapshot
+		 * @param ref The reference returned when the snapshot was counted
+		 */
+		synchronized void unretain(Reference<?> ref) {
+			if(!snapshots.remove(ref)) return;
+			ref.clear();
+			if(snapshots.isEmpty() && deallocRef!=null) deallocRef.clear();
+		}
+		
+		/**
+		 * Indicates if any snapshots of the block are still counted
+		 * @return true if the block is shared, false otherwise
+		 */
+		synchronized boolean isShared() {
+			return !snapshots.isEmpty();
+		}
+		
+		/**
+		 * Takes ownership of the passed block and registers for deallocation, unless no snapshots are counted
+		 * @param addr The address of the block being released by the owner
+		 * @return true if ownership was taken, false if the owner remains responsible for the block
+		 */
+		synchronized boolean release(long addr) {
+			if(snapshots.isEmpty()) return false;
+			address[0][0] = addr;
+			owner = null;
+			// snapshots may outlive any arena bound to the writing thread
+			deallocRef = UnsafeAdapter.registerForDeAllocUnscoped(this);
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 */
+		@Override
+		public long[][] getAddresses() {
+			return address;
+		}
+	}
+	
+	/**
+	 * <p>Title: SnapshotCollected</p>
+	 * <p>Description: Stops counting a snapshot against its shared block when the snapshot is collected without being closed</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeArray.SnapshotCollected</code></p>
+	 */
+	private static class SnapshotCollected implements Runnable {
+		/** The shared block the snapshot is counted against */
+		private final SharedBlock block;
+		/** The snapshot's collection reference */
+		private Reference<?> ref;
+		
+		/**
+		 * Creates a new SnapshotCollected
+		 * @param block The shared block the snapshot is counted against
+		 */
+		SnapshotCollected(SharedBlock block) {
+			this.block = block;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			block.unretain(ref);
+		}
+	}
 	
 	
 
@@ -72,6 +204,31 @@ public abstract class UnsafeArray implements DeAllocateMe {
      */
     protected abstract int getSlotSize();
     
+    /**
+     * Compares the value at the passed index to an item of a primitive array of this array's type
+     * @param index The index of the value in this array
+     * @param values The primitive array
+     * @param item The index of the item in the primitive array
+     * @return a negative integer, zero or a positive integer as the value is less than, equal to or greater than the item
+     */
+    protected abstract int compareItem(int index, Object values, int item);
+    
+    /**
+     * Sets the value at the passed index to an item of a primitive array of this array's type, without any checks
+     * @param index The index of the value in this array
+     * @param values The primitive array
+     * @param item The index of the item in the primitive array
+     */
+    protected abstract void putItem(int index, Object values, int item);
+    
+    /**
+     * Binary searches this array for an item of a primitive array of this array's type
+     * @param values The primitive array
+     * @param item The index of the item in the primitive array
+     * @return index of the item, if it is contained in this array; otherwise, <b><code>(-(insertion point) - 1)</code></b>.
+     */
+    protected abstract int searchItem(Object values, int item);
+    
     /**
      * Appends the specified item to the passed StringBuilder
      * @param index The index of the item to append
@@ -119,7 +276,9 @@ public abstract class UnsafeArray implements DeAllocateMe {
 		this.clearedSlotsFree = clearedSlotsFree;
 		slotSize = getSlotSize();
 		capacity = initialCapacity;
-		UnsafeAdapter.registerForDeAlloc(this);
+		snapshot = false;
+		snapshotRef = null;
+		deallocRef = UnsafeAdapter.registerForDeAlloc(this).get(0);
 		address(allocateMemory(capacity << slotSize));
 		UnsafeAdapter.setMemory(null, address(), capacity << slotSize, (byte)0);		
 		size = 0;
@@ -148,11 +307,109 @@ public abstract class UnsafeArray implements DeAllocateMe {
 		slotSize = getSlotSize();		
 		this.size = size;
 		this.capacity = capacity;
-		UnsafeAdapter.registerForDeAlloc(this);
+		snapshot = false;
+		snapshotRef = null;
+		deallocRef = UnsafeAdapter.registerForDeAlloc(this).get(0);
 		this.address(allocateMemory(capacity << slotSize));
 		UnsafeAdapter.copyMemory(address, this.address(), size << slotSize);
 		
 	}
+	
+	/**
+	 * Creates a new read only snapshot of the passed array which shares the source's memory block.
+	 * The snapshot is not registered for deallocation since it never owns the block, but is counted against the shared block until it is closed or collected.
+	 * Snapshots must not be created concurrently with writes to the source.
+	 * @param source The array to snapshot
+	 * @param shared The shared block holder which keeps the block allocated while this snapshot is counted
+	 */
+	protected UnsafeArray(UnsafeArray source, SharedBlock shared) {
+		this.sorted = source.sorted;
+		this.fixed = source.fixed;
+		this.maxCapacity = source.maxCapacity;
+		this.minCapacity = source.minCapacity;
+		this.allocationIncrement = source.allocationIncrement;
+		this.clearedSlotsFree = source.clearedSlotsFree;
+		slotSize = source.slotSize;
+		size = source.size;
+		capacity = source.capacity;
+		snapshot = true;
+		this.shared = shared;
+		deallocRef = null;
+		address(source.address());
+		snapshotRef = shared.retain(this);
+	}
+	
+	/**
+	 * Returns the shared block holder for a new snapshot of this array, creating it if the block is not already shared.
+	 * @return the shared block holder
+	 */
+	protected synchronized SharedBlock share() {
+		_check();
+		if(snapshot) return shared;
+		if(shared==null) shared = new SharedBlock(this);
+		return shared;
+	}
+	
+	/**
+	 * Called before any modification of the memory block or the capacity.
+	 * Throws an {@link UnsupportedOperationException} if this array is a snapshot, 
+	 * and copies the block if it is currently shared with snapshots which have not been closed or collected.
+	 */
+	protected final void beforeWrite() {
+		if(snapshot) throw new UnsupportedOperationException("Snapshots are read only", new Throwable());
+		if(shared!=null) copyOnWrite();
+	}
+	
+	/**
+	 * Copies the shared memory block into a new block owned by this array, and hands the old block to the snapshots.
+	 * If every snapshot has been closed or collected, the block is no longer shared and is written in place.
+	 */
+	private synchronized void copyOnWrite() {
+		final SharedBlock sb = shared;
+		if(sb==null) return;
+		shared = null;
+		if(!sb.isShared()) return;
+		final long bytes = capacity << slotSize;
+		final long newAddress = allocateMemory(bytes);
+		UnsafeAdapter.copyMemory(address(), newAddress, bytes);
+		final long oldAddress = address();
+		address(newAddress);
+		// the last snapshot may have been closed while copying
+		if(!sb.release(oldAddress)) freeMemory(oldAddress);
+	}
+	
+	/**
+	 * Frees this array's memory. If the memory block is shared with snapshots, it is handed to the snapshots 
+	 * and freed once they are all closed or collected. Closing a snapshot only detaches it from the shared block. 
+	 * The array cannot be used once closed, and closing it again has no effect.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			// unchecked reads of a closed array see an empty array rather than freed memory
+			size = 0;
+			capacity = 0;
+			final SharedBlock sb = shared;
+			shared = null;
+			if(snapshot) {
+				address(0);
+				if(sb!=null) sb.unretain(snapshotRef);
+				return;
+			}
+			// a block still shared with snapshots is handed to them, otherwise it is freed below
+			if(sb!=null && sb.release(address())) address(0);
+		}
+		deallocRef.clear();
+	}
+	
+	/**
+	 * Indicates if this array is a read only snapshot
+	 * @return true if this array is a snapshot, false otherwise
+	 */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
 
 	/**
 	 * Initializes this array from one of the following supported types:<ol>
@@ -252,12 +509,13 @@ public abstract class UnsafeArray implements DeAllocateMe {
      */
     protected int extend(boolean allowTruncate, int items) {
     	assert items > 0;
+    	beforeWrite();
     	if(fixed && capacity==maxCapacity) throw new ArrayOverflowException("Capacity cannot be extended:" + (fixed ? "Array is fixed capacity" : "Array is at maximum capacity"), new Throwable());
     	long targetCap = (long)capacity + (long)items;
     	if(targetCap > Integer.MAX_VALUE) throw new ArrayOverflowException("Capacity cannot be extended by [" + items + "] as it would overflow Integer.MAX_ITEMS", new Throwable());
 
     	int targetCapacity = size + items;
-    	if(fixed && targetCapacity > maxCapacity) { 		
+    	if(targetCapacity > maxCapacity) { 		
     		if(!allowTruncate) throw new ArrayOverflowException("Capacity cannot be extended to [" + targetCapacity + "] as it would overflow the defined maximum capacity of [" + maxCapacity + "]", new Throwable());
     		items = targetCapacity - maxCapacity;
     		targetCapacity = maxCapacity;
@@ -309,6 +567,7 @@ public abstract class UnsafeArray implements DeAllocateMe {
      */
     protected boolean rollRight(int index) {
     	_check(); _checkc(index);
+    	beforeWrite();
     	final int numberOfSlotsToMove;
     	final boolean incrSize;
     	if(size==capacity) {
@@ -361,6 +620,7 @@ public abstract class UnsafeArray implements DeAllocateMe {
      */
     public void rollLeft(boolean shrink, int index) {
     	_check(); _check(index);
+    	beforeWrite();
     	int newInd = index+1;
     	int numberOfSlotsToMove = size-newInd;
     	long srcOffset = (newInd << slotSize); 
@@ -409,6 +669,7 @@ public abstract class UnsafeArray implements DeAllocateMe {
      * @param clear The number of free slots to shrink out of the array
      */
     private void _shrink(int clear) {
+    	beforeWrite();
     	capacity -= clear;
     	address(UnsafeAdapter.reallocateMemory(address(), capacity << slotSize));
     }
@@ -419,6 +680,243 @@ public abstract class UnsafeArray implements DeAllocateMe {
     
 	
 
+	/**
+	 * Replaces this array's memory block with a copy of the passed values
+	 * @param src The object holding the values, or null if the address is absolute
+	 * @param srcOffset The offset of the values in the object, or their address
+	 * @param length The number of values to copy
+	 */
+	protected void loadFrom(Object src, long srcOffset, int length) {
+		if(length>maxCapacity) throw new ArrayOverflowException("Passed array of length [" + length + "] is too large for this " + getClass().getSimpleName() + " with a max capacity of [" + maxCapacity + "]", new Throwable());
+		beforeWrite();
+		freeMemory(address());
+		address(allocateMemory((long)length << slotSize));
+		UnsafeAdapter.copyMemory(src, srcOffset, null, address(), (long)length << slotSize);
+		size = capacity = length;
+	}
+	
+	/**
+	 * Appends the passed primitive array of this array's type, extending the capacity as required
+	 * @param values The values to append
+	 */
+	protected void appendFrom(Object values) {
+		_check();
+		final int vl = values==null ? 0 : Array.getLength(values);
+		if(vl==0) return;
+		final int newSize = vl + size;
+		if(newSize > maxCapacity) throw new ArrayOverflowException("Passed array of length [" + vl + "] is too large for this " + getClass().getSimpleName() + " with a max capacity of [" + maxCapacity + "]", new Throwable());
+		beforeWrite();
+		while(newSize > capacity) {
+			extend(false, vl);
+		}
+		UnsafeAdapter.copyMemory(values, arrayOffset(values), null, address() + ((long)size << slotSize), (long)vl << slotSize);
+		size = newSize;
+	}
+	
+	/**
+	 * Appends as many of the passed primitive array of this array's type as will fit up to the max capacity
+	 * @param values The values to append
+	 * @return the number of values that were dropped
+	 */
+	protected int appendWhatFitsFrom(Object values) {
+		_check();
+		final int vl = values==null ? 0 : Array.getLength(values);
+		if(vl==0) return 0;
+		final int howManyWillFit = Math.min(vl, maxCapacity-size);
+		beforeWrite();
+		final int newSize = size + howManyWillFit;
+		while(newSize > capacity) {
+			extend(true, howManyWillFit);
+		}
+		UnsafeAdapter.copyMemory(values, arrayOffset(values), null, address() + ((long)size << slotSize), (long)howManyWillFit << slotSize);
+		size = newSize;
+		return vl-howManyWillFit;
+	}
+	
+	/**
+	 * Inserts each item of the passed primitive array of this array's type at the location returned from a binary search
+	 * @param values The values to insert
+	 */
+	protected void insertFrom(Object values) {
+		_check();
+		if(!sorted) throw new RuntimeException("Cannot insert into an unsorted array", new Throwable());
+		final int vl = values==null ? 0 : Array.getLength(values);
+		for(int i = 0; i < vl; i++) {
+			try {
+				insertItem(values, i);
+			} catch (Exception e) {
+				throw new PartialArrayOverflowException(i, "Partial overflow at item [" + i + "]", e);
+			}
+		}
+	}
+	
+	/**
+	 * Inserts the leading items of the passed primitive array of this array's type which are not already present, one at a time
+	 * @param values The values to insert
+	 * @param count The number of leading items to insert
+	 * @return the number of items inserted
+	 */
+	protected int insertAbsentFrom(Object values, int count) {
+		int insertCount = 0;
+		for(int i = 0; i < count; i++) {
+			try {
+				if(searchItem(values, i)<0) {
+					insertItem(values, i);
+					insertCount++;
+				}
+			} catch (Exception e) {
+				throw new PartialArrayOverflowException(insertCount, "Partial overflow at item [" + i + "]", e);
+			}
+		}
+		return insertCount;
+	}
+	
+	/**
+	 * Inserts one item of the passed primitive array of this array's type at the location returned from a binary search, extending the array if necessary
+	 * @param values The primitive array
+	 * @param item The index of the item to insert
+	 */
+	private void insertItem(Object values, int item) {
+		beforeWrite();
+		if(size==capacity) {
+			extend(fixed, 1);  // allow truncation if capacity is fixed
+		}
+		int index = searchItem(values, item);
+		if(index<0) index = (index*-1)-1;
+		if(index==size) {
+			putItem(size, values, item);
+			size++;
+		} else {
+			rollRight(index);
+			putItem(index, values, item);
+		}
+	}
+	
+	/**
+	 * <p>Merges a batch of values into this array in one linear pass, skipping values already present.
+	 * The first <b><code>count</code></b> items in the batch <b>must</b> be sorted and unique.
+	 * The array is reallocated at most once to the size required for the merged values, and the merge runs
+	 * right to left, shifting each run of existing values in one block, so that no existing value is moved more than once, 
+	 * giving <b><code>O(n + k)</code></b> rather than a binary search and a roll per inserted value.</p>
+	 * <p>If the merged size would exceed the max capacity, the batch falls back to one at a time inserts
+	 * so that a {@link PartialArrayOverflowException} reports the values inserted before the overflow.</p>
+	 * Throws a {@link RuntimeException} if this array is not sorted.
+	 * @param batch The primitive array of this array's type holding the sorted and unique values to merge
+	 * @param count The number of leading items in the batch to merge
+	 * @return the number of items inserted
+	 */
+	protected int mergeFrom(Object batch, int count) {
+		_check();
+		if(!sorted) throw new RuntimeException("Cannot merge into an unsorted array", new Throwable());
+		if(batch==null || count<1) return 0;
+		// count the values not already present
+		int added = 0;
+		for(int i = 0, j = 0; j < count; ) {
+			if(i==size) { added += count-j; break; }
+			int c = compareItem(i, batch, j);
+			if(c < 0) i++;
+			else if(c > 0) { added++; j++; }
+			else { i++; j++; }
+		}
+		if(added==0) return 0;
+		beforeWrite();
+		final int newSize = size + added;
+		if(newSize > maxCapacity) return insertAbsentFrom(batch, count);
+		if(newSize > capacity) {
+			long incr = allocationIncrement < 1 ? 1 : allocationIncrement;
+			long newCapacity = capacity + ((newSize - capacity + incr - 1) / incr) * incr;
+			if(newCapacity > maxCapacity) newCapacity = maxCapacity;
+			address(UnsafeAdapter.reallocateMemory(address(), newCapacity << slotSize));
+			capacity = (int)newCapacity;
+		}
+		// merge from the right so the existing values can be shifted in place
+		int w = newSize-1, i = size-1, j = count-1;
+		while(j >= 0) {
+			int c = 0, run = i;
+			while(run >= 0 && (c = compareItem(run, batch, j)) > 0) run--;
+			final int moved = i - run;
+			if(moved > 0) {
+				w -= moved;
+				UnsafeAdapter.copyMemory(address() + ((long)(run+1) << slotSize), address() + ((long)(w+1) << slotSize), (long)moved << slotSize);
+				i = run;
+			}
+			if(i >= 0 && c == 0) { j--; continue; }
+			putItem(w--, batch, j--);
+		}
+		size = newSize;
+		return added;
+	}
+	
+	/**
+	 * Removes the first, or every, instance of each item of the passed primitive array of this array's type
+	 * <p><b>NOTE:</b>This operation can be slow-ish if the array is not sorted.
+	 * @param values The values to remove
+	 * @param all true to remove every instance of each value, false to remove the first
+	 * @return the number of removed values
+	 */
+	protected int removeFrom(Object values, boolean all) {
+		_check();
+		final int _size = size;
+		final int vl = values==null ? 0 : Array.getLength(values);
+		for(int j = 0; j < vl; j++) {
+			if(sorted) {
+				while(removeAt(searchItem(values, j)) && all);
+			} else if(all) {
+				for(int i = size-1; i >= 0; i--) {
+					if(compareItem(i, values, j)==0) removeAt(i);
+				}
+			} else {
+				for(int i = 0; i < size; i++) {
+					if(compareItem(i, values, j)==0) {
+						removeAt(i);
+						break;
+					}
+				}
+			}
+		}
+		shrink();
+		return _size - size;
+	}
+	
+	/**
+	 * Removes the value at the passed index, if the index is <b><code>&gt;=0</code></b>, by rolling all the values at the next index down by one and decrementing the size
+	 * @param index The index to remove the value from
+	 * @return true if the value was removed, false if no change occured
+	 */
+	private boolean removeAt(int index) {
+		if(index>=0) {
+			rollLeft(false, index);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Copies the populated slots of this array into the passed primitive array of this array's type
+	 * @param arr The primitive array to copy into, which must have at least {@link #size()} items
+	 */
+	protected void copyTo(Object arr) {
+		if(size>0) UnsafeAdapter.copyMemory(null, address(), arr, arrayOffset(arr), (long)size << slotSize);
+	}
+	
+	/**
+	 * Overwrites the populated slots of this array with the passed primitive array of this array's type
+	 * @param arr The primitive array to copy from, which must have at least {@link #size()} items
+	 */
+	protected void copyFrom(Object arr) {
+		beforeWrite();
+		if(size>0) UnsafeAdapter.copyMemory(arr, arrayOffset(arr), null, address(), (long)size << slotSize);
+	}
+	
+	/**
+	 * Returns the base offset of the passed primitive array
+	 * @param arr The primitive array
+	 * @return the base offset
+	 */
+	private static long arrayOffset(Object arr) {
+		return UnsafeAdapter.arrayBaseOffset(arr.getClass());
+	}
+
 	/**
 	 * Returns the current capacity of the array, i.e. the number of used slots 
 	 * @return the current capacity of the array
@@ -431,6 +929,7 @@ public abstract class UnsafeArray implements DeAllocateMe {
 	 * Removes all values and if applicable, shrinks the capacity.
 	 */
 	public void clear() {
+		beforeWrite();
 		size = 0;
 		shrink();
 	}
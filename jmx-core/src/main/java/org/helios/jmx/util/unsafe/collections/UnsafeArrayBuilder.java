@@ -3,7 +3,7 @@ package org.helios.jmx.util.unsafe.collections;
 
 /**
  * <p>Title: UnsafeArrayBuilder</p>
- * <p>Description: A builder class to handle the construction parameters for instances of {@link UnsafeLongArray}</p> 
+ * <p>Description: A builder class to handle the construction parameters for instances of {@link UnsafeLongArray}, {@link UnsafeDoubleArray}, {@link UnsafeIntArray} and {@link UnsafeShortArray}</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.apmrouter.collections.UnsafeArrayBuilder</code></p>
@@ -54,6 +54,57 @@ public class UnsafeArrayBuilder {
 		return UnsafeLongArray.build(this, data);
 	}
 	
+	/**
+	 * Builds and returns an UnsafeDoubleArray 
+	 * @return a new UnsafeDoubleArray
+	 */
+	public UnsafeDoubleArray buildDoubleArray() {
+		return UnsafeDoubleArray.build(this);
+	}
+	
+	/**
+	 * Builds and returns an UnsafeDoubleArray, initializing it with the values from the passed object
+	 * @param data The values to initialize the array with, a double array or an UnsafeDoubleArray  
+	 * @return a new UnsafeDoubleArray
+	 */
+	public UnsafeDoubleArray buildDoubleArray(Object data) {
+		return UnsafeDoubleArray.build(this, data);
+	}
+	
+	/**
+	 * Builds and returns an UnsafeIntArray 
+	 * @return a new UnsafeIntArray
+	 */
+	public UnsafeIntArray buildIntArray() {
+		return UnsafeIntArray.build(this);
+	}
+	
+	/**
+	 * Builds and returns an UnsafeIntArray, initializing it with the values from the passed object
+	 * @param data The values to initialize the array with, an int array or an UnsafeIntArray  
+	 * @return a new UnsafeIntArray
+	 */
+	public UnsafeIntArray buildIntArray(Object data) {
+		return UnsafeIntArray.build(this, data);
+	}
+	
+	/**
+	 * Builds and returns an UnsafeShortArray 
+	 * @return a new UnsafeShortArray
+	 */
+	public UnsafeShortArray buildShortArray() {
+		return UnsafeShortArray.build(this);
+	}
+	
+	/**
+	 * Builds and returns an UnsafeShortArray, initializing it with the values from the passed object
+	 * @param data The values to initialize the array with, a short array or an UnsafeShortArray  
+	 * @return a new UnsafeShortArray
+	 */
+	public UnsafeShortArray buildShortArray(Object data) {
+		return UnsafeShortArray.build(this, data);
+	}
+	
 	
 	
 	
@@ -0,0 +1,456 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.Arrays;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+
+
+/**
+ * <p>Title: UnsafeIntArray</p>
+ * <p>Description: Utility class for storing int arrays in direct memory with self resizing.
+ * The int counterpart of {@link UnsafeLongArray}, using half the memory for values such as latencies in microseconds which fit in an int.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time, or used one
+ * of the concurrent/synchronized versions</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeIntArray</code></p>
+ */
+public class UnsafeIntArray extends UnsafeArray {
+
+	/**
+	 * Creates a new UnsafeIntArray
+	 * @param initialCapacity The initial allocated capacity
+	 * @param sorted Indicates the array will be maintained in sorted order
+	 * @param fixed Indicates the capacity of the array will be fixed
+	 * @param maxCapacity The maximum capacity of the array
+	 * @param minCapacity The minimum capacity of the array
+	 * @param allocationIncrement The number of slots that will be allocated when the array needs to be extended
+	 * @param clearedSlotsFree The number of excess slots that are emptied by rollLefts before the array capacity is shrunk
+	 */
+	private UnsafeIntArray(int initialCapacity, boolean sorted, boolean fixed, int maxCapacity,
+			int minCapacity, int allocationIncrement, int clearedSlotsFree) {
+		super(initialCapacity, sorted, fixed, fixed ? initialCapacity : maxCapacity, minCapacity, allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Creates a new UnsafeIntArray. Used for cloning.
+	 * @param size The size of the clone
+	 * @param capacity The capacity of the clone
+	 * @param address The memory address of the array to be cloned
+	 * @param sorted Indicates the array will be maintained in sorted order
+	 * @param fixed Indicates the capacity of the array will be fixed
+	 * @param maxCapacity The maximum capacity of the array
+	 * @param minCapacity The minimum capacity of the array
+	 * @param allocationIncrement The number of slots that will be allocated when the array needs to be extended
+	 * @param clearedSlotsFree The number of excess slots that are emptied by rollLefts before the array capacity is shrunk
+	 */
+	private UnsafeIntArray(int size, int capacity, long address, boolean sorted,
+			boolean fixed, int maxCapacity, int minCapacity,
+			int allocationIncrement, int clearedSlotsFree) {
+		super(size, capacity, address, sorted, fixed, maxCapacity, minCapacity,
+				allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Creates a new read only snapshot of the passed array
+	 * @param source The array to snapshot
+	 * @param shared The shared block holder
+	 */
+	private UnsafeIntArray(UnsafeIntArray source, SharedBlock shared) {
+		super(source, shared);
+	}
+
+	/**
+	 * Creates a new UnsafeIntArray from the passed builder
+	 * @param builder The builder to configure the new UnsafeIntArray
+	 * @param data The optional data load load
+	 * @return the new UnsafeIntArray
+	 */
+	static UnsafeIntArray build(UnsafeArrayBuilder builder, Object data) {
+		UnsafeIntArray uia = new UnsafeIntArray(builder.initialCapacity(), builder.sorted(), builder.fixed(), builder.maxCapacity(), builder.minCapacity(), builder.allocationIncrement(), builder.clearedSlotsFree());
+		if(data!=null) {
+			if(data instanceof int[]) {
+				uia.load((int[])data);
+			} else if(data instanceof UnsafeIntArray) {
+				uia.load((UnsafeIntArray)data);
+			}
+		}
+		return uia;
+	}
+
+	/**
+	 * Creates a new UnsafeIntArray from the passed builder
+	 * @param builder The builder to configure the new UnsafeIntArray
+	 * @return the new UnsafeIntArray
+	 */
+	static UnsafeIntArray build(UnsafeArrayBuilder builder) {
+		return build(builder, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#getSlotSize()
+	 */
+	@Override
+	protected int getSlotSize() {
+		return 2;
+	}
+
+	// ======================================================================================
+	//			Standard Load Impls.
+	// ======================================================================================
+
+	/**
+	 * Loads this array from a int array
+	 * @param arr The array to load
+	 */
+	protected void load(int[] arr) {
+		if(arr.length<1) return;
+		loadFrom(arr, UnsafeAdapter.INT_ARRAY_OFFSET, arr.length);
+		if(sorted) sort();
+	}
+
+	/**
+	 * Loads this array from another UnsafeIntArray
+	 * @param uia The UnsafeIntArray to copy
+	 */
+	private void load(UnsafeIntArray uia) {
+		loadFrom(null, uia.address(), uia.size);
+		if(sorted) sort();
+	}
+
+	// ======================================================================================
+
+	/**
+	 * Rolls all the entries in the array one slot to the right after the referenced index and sets the new slot to the passed value.
+	 * See {@link UnsafeLongArray#rollRight(int, long)}.
+	 * @param index The index after which the remaining values are rolled to the right
+	 * @param newValue The value to place into the new slot
+	 * @return this array
+	 */
+	public UnsafeIntArray rollRight(int index, int newValue) {
+		if(sorted && normalizedBinarySearch(newValue)!=index) throw new RuntimeException("The index [" + index + "] is incorrect for the value [" + newValue + "] for this sorted array", new Throwable());
+		rollRight(index);
+		a(index, newValue);
+		return this;
+	}
+
+	/**
+	 * Rolls all the entries in the array one slot to the right after the referenced index and sets the new slot to the passed value.
+	 * See {@link UnsafeLongArray#rollRightCap(int, long)}.
+	 * @param index The index after which the remaining values are rolled to the right
+	 * @param newValue The value to place into the new slot
+	 * @return the value of the dropped slot, or null if a slot was not dropped
+	 */
+	public Integer rollRightCap(int index, int newValue) {
+		if(sorted && normalizedBinarySearch(newValue)!=index) throw new RuntimeException("The index [" + index + "] is incorrect for the value [" + newValue + "] for this sorted array", new Throwable());
+		_check();
+		final Integer dropped = (fixed && size==capacity && size>0) ? a(size-1) : null;
+		rollRight(index);
+		a(index, newValue);
+		return dropped;
+	}
+
+	/**
+	 * Adjusts the binary search result to the actual index to insert into
+	 * @param v The int value to insert
+	 * @return the index to insert into
+	 */
+	public int normalizedBinarySearch(int v) {
+		int index = binarySearch(v);
+		return (index<0) ? (index*-1)-1 : index;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#append(java.lang.StringBuilder, int)
+	 */
+	@Override
+	protected StringBuilder append(StringBuilder b, int i) {
+		return b.append(a(i));
+	}
+
+	/**
+	 * Appends the passed int values to this array.
+	 * If this array is sorted, this operation will trigger a sort once the append is complete
+	 * @param values the values to add
+	 * @return this array
+	 */
+	public UnsafeIntArray append(int...values) {
+		appendFrom(values);
+		if(sorted) sort();
+		return this;
+	}
+
+	/**
+	 * Appends as many of the passed int values to this array as will fit up to the max capacity, discarding the remaining values.
+	 * If this array is sorted, this operation will trigger a sort once the append is complete
+	 * @param values the values to add
+	 * @return the number of dicarded values that were dropped
+	 */
+	public int appendWhatFits(int...values) {
+		final int dropped = appendWhatFitsFrom(values);
+		if(sorted) sort();
+		return dropped;
+	}
+
+	/**
+	 * Inserts the passed int values to this array at the location returned from a binary search.
+	 * Throws a {@link RuntimeException} if this array is not sorted.
+	 * May throw a {@link PartialArrayOverflowException} if the capacity is exhausted in which case the exception will provide the number of values successfully inserted.
+	 * @param values the values to insert
+	 * @return this array
+	 */
+	public UnsafeIntArray insert(int...values) {
+		insertFrom(values);
+		return this;
+	}
+
+	/**
+	 * Inserts the passed int values to this array if they are not present already.
+	 * Multiple values are merged in one pass (see {@link #mergeIfNotExists(int[], int)}).
+	 * Throws a {@link RuntimeException} if this array is not sorted.
+	 * May throw a {@link PartialArrayOverflowException} if the capacity is exhausted in which case the exception will provide the number of values successfully inserted.
+	 * @param values the values to insert
+	 * @return the number of items inserted
+	 */
+	public int insertIfNotExists(int...values) {
+		_check();
+		if(sorted && values!=null && values.length>1) {
+			final int[] batch = values.clone();
+			return mergeIfNotExists(batch, sortUnique(batch));
+		}
+		return values==null ? 0 : insertAbsentFrom(values, values.length);
+	}
+
+	/**
+	 * Merges the passed batch of values into this array in one linear pass, skipping values already present.
+	 * The first <b><code>count</code></b> items in the batch <b>must</b> be sorted and unique (see {@link #sortUnique(int[])}).
+	 * See {@link UnsafeArray#mergeFrom(Object, int)}.
+	 * @param batch The sorted and unique values to merge
+	 * @param count The number of leading items in the batch to merge
+	 * @return the number of items inserted
+	 */
+	public int mergeIfNotExists(int[] batch, int count) {
+		return mergeFrom(batch, count);
+	}
+
+	/**
+	 * Sorts the passed array in place and compacts the unique values to the front of it
+	 * @param values The values to sort
+	 * @return the number of unique values, which occupy the leading slots of the passed array
+	 */
+	public static int sortUnique(int[] values) {
+		if(values==null || values.length==0) return 0;
+		Arrays.sort(values);
+		int k = 1;
+		for(int i = 1; i < values.length; i++) {
+			if(compare(values[i], values[k-1])!=0) values[k++] = values[i];
+		}
+		return k;
+	}
+
+	/**
+	 * <p>Removes the first instance of each of the passed int values from this array if they are present.
+	 * <p><b>NOTE:</b>This operation can be slow-ish if the array is not sorted.
+	 * @param values the values to remove
+	 * @return the number of removed values
+	 */
+	public int remove(int...values) {
+		return removeFrom(values, false);
+	}
+
+	/**
+	 * Removes all instances of each of the passed int values from this array if they are present
+	 * <p><b>NOTE:</b>This operation can be slow-ish if the array is not sorted.
+	 * @param values the values to remove
+	 * @return the number of removed items
+	 */
+	public int removeAll(int...values) {
+		return removeFrom(values, true);
+	}
+
+	/**
+	 * Returns the int at the specified index
+	 * @param index The index of the int to retrieve
+	 * @return the specified int
+	 */
+	private int a(int index) {
+		return UnsafeAdapter.getInt(this.address() + (index << 2));
+	}
+
+	/**
+	 * Sets the int value at the specified index
+	 * @param index The index of the array to set the int at
+	 * @param value The int to set
+	 */
+	private void a(int index, int value) {
+		beforeWrite();
+		UnsafeAdapter.putInt(this.address() + (index << 2), value);
+	}
+
+	/**
+	 * Returns the int at the specified index
+	 * @param index The index of the int to retrieve
+	 * @return the specified int
+	 */
+	public int get(int index) {
+		_check(); _check(index);
+		return UnsafeAdapter.getInt(this.address() + (index << 2));
+	}
+
+	/**
+	 * Sets the int value at the specified index
+	 * @param index The index of the array to set the int at
+	 * @param value The int to set
+	 * @return this array
+	 */
+	public UnsafeIntArray set(int index, int value) {
+		_check(); _check(index);
+		beforeWrite();
+		UnsafeAdapter.putInt(this.address() + (index << 2), value);
+		return this;
+	}
+
+	/**
+	 * Returns a traditional int array representing the ints in this array
+	 * @return a int array with the same values as this array
+	 */
+	public int[] getArray() {
+		_check();
+		final int[] arr = new int[size];
+		copyTo(arr);
+		return arr;
+	}
+
+	/**
+	 * Creates a read only snapshot of this array which shares this array's memory block until this array is next modified.
+	 * See {@link UnsafeLongArray#snapshot()}.
+	 * @return a read only snapshot of this array
+	 */
+	public UnsafeIntArray snapshot() {
+		return new UnsafeIntArray(this, share());
+	}
+
+	/**
+	 * <p>Creates a clone of this array in a completely seprarate memory adddress, meaning
+	 * that changes to the clone are not seen by this array and vice-versa.
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public UnsafeIntArray clone() {
+		_check();
+		return new UnsafeIntArray(size, capacity, address(), sorted, fixed, maxCapacity, minCapacity, allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Compares two ints
+	 * @param i1 the first int
+	 * @param i2 the second int
+	 * @return the comparison
+	 */
+	private static int compare(int i1, int i2) {
+		return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#compareItem(int, java.lang.Object, int)
+	 */
+	@Override
+	protected int compareItem(int index, Object values, int item) {
+		return compare(a(index), ((int[])values)[item]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#putItem(int, java.lang.Object, int)
+	 */
+	@Override
+	protected void putItem(int index, Object values, int item) {
+		UnsafeAdapter.putInt(this.address() + (index << 2), ((int[])values)[item]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#searchItem(java.lang.Object, int)
+	 */
+	@Override
+	protected int searchItem(Object values, int item) {
+		return binarySearch(((int[])values)[item]);
+	}
+
+	/**
+	 * Searches this unsafe int array for the specified value using the binary search algorithm based on {@link java.util.Arrays#binarySearch(int[], int)}.
+	 * If this unsafe int array contains multiple elements with the specified value, there is no guarantee which one will be found.
+	 * @param key the value to be searched for
+	 * @return index of the search key, if it is contained in this array; otherwise, <b><code>(-(insertion point) - 1)</code></b>.
+	 */
+	public int binarySearch(int key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(a(mid), key);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return mid; // key found
+		}
+		return -(low + 1);  // key not found.
+	}
+
+	/**
+	 * Sorts the array. The values are copied to the heap in one block, sorted with {@link Arrays#sort(int[])}, and copied back.
+	 * Sorted arrays only sort on bulk loads and appends, since inserts are placed by binary search.
+	 * @return this array
+	 */
+	public UnsafeIntArray sort() {
+		_check();
+		if(size<2) return this;
+		final int[] arr = getArray();
+		Arrays.sort(arr);
+		copyFrom(arr);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		_check();
+		int result = 1;
+		for(int i = 0; i < size; i++) {
+			result = 31 * result + a(i);
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		UnsafeIntArray other = (UnsafeIntArray) obj;
+		if (address != other.address) {
+			return false;
+		}
+		return true;
+	}
+}
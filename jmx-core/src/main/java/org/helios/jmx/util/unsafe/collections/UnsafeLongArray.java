@@ -94,6 +94,15 @@ public class UnsafeLongArray extends UnsafeArray {
 				allocationIncrement, clearedSlotsFree);
 	}
 	
+	/**
+	 * Creates a new read only snapshot of the passed array
+	 * @param source The array to snapshot
+	 * @param shared The shared block holder
+	 */
+	private UnsafeLongArray(UnsafeLongArray source, SharedBlock shared) {
+		super(source, shared);
+	}
+	
 	/**
 	 * Creates a new fixed capacity and unsorted UnsafeLongArray with initial, min and max capacity set to the passed size.
 	 * For internal use.
@@ -165,6 +174,7 @@ public class UnsafeLongArray extends UnsafeArray {
 	protected void initAndLoad(byte[] arr) {
 		int len = arr.length;
 		if(len%8!=0) throw new RuntimeException("Mod check failed", new Throwable());
+		beforeWrite();
 		size = len/8;
 		freeMemory(address());
 		address(allocateMemory(len << 3));
@@ -178,6 +188,7 @@ public class UnsafeLongArray extends UnsafeArray {
 	protected void load(long[] arr) {		
 		if(arr.length<1) return;
 		if(arr.length>maxCapacity) throw new ArrayOverflowException("Passed array of length [" + arr.length + "] is too large for this UnsafeLongArray with a max capacity of [" + maxCapacity + "]", new Throwable());
+		beforeWrite();
 		freeMemory(address());
 		address(allocateMemory(arr.length << 3));
 		UnsafeAdapter.copyMemory(arr, UnsafeAdapter.LONG_ARRAY_OFFSET, null, address(), arr.length << 3);
@@ -191,6 +202,7 @@ public class UnsafeLongArray extends UnsafeArray {
 	 */
 	private void load(UnsafeLongArray ula) {				
 		if(ula.size>maxCapacity) throw new ArrayOverflowException("Passed UnsafeLongArray of size [" + ula.size + "] is too large for this UnsafeLongArray with a max capacity of [" + maxCapacity + "]", new Throwable());
+		beforeWrite();
 		freeMemory(address());		
 		address(allocateMemory(ula.size << 3));
 		UnsafeAdapter.copyMemory(ula.address(), address(), ula.size << 3);
@@ -279,6 +291,7 @@ public class UnsafeLongArray extends UnsafeArray {
      */
     protected Long rollRightCap(int index) {
     	_check(); _checkc(index);
+    	beforeWrite();
     	final int numberOfSlotsToMove;
     	final boolean incrSize;
     	final Long dropped;
@@ -345,6 +358,7 @@ public class UnsafeLongArray extends UnsafeArray {
     		int vl = values.length;
     		int newSize = vl + size;
     		if(newSize > maxCapacity) throw new ArrayOverflowException("Passed array of length [" + vl + "] is too large for this UnsafeLongArray with a max capacity of [" + maxCapacity + "]", new Throwable());
+    		beforeWrite();
     		while(newSize > capacity) {
     			extend(false, vl);
     		}
@@ -392,6 +406,7 @@ public class UnsafeLongArray extends UnsafeArray {
     		vl = values.length;
     		int currentCap = (maxCapacity-size); 
     		howManyWillFit = vl<=currentCap ? vl : currentCap;
+    		beforeWrite();
     		int newSize = size + howManyWillFit; 
     		while(newSize > capacity) {
     			extend(true, vl);
@@ -437,7 +452,11 @@ public class UnsafeLongArray extends UnsafeArray {
      */
     public int insertIfNotExists(long...values) {
     	_check();
-    	int insertCount = 0; 
+    	if(sorted && values!=null && values.length>1) {
+    		final long[] batch = values.clone();
+    		return mergeIfNotExists(batch, sortUnique(batch));
+    	}
+    	int insertCount = 0;
     	if(values!=null && values.length>0) {
     		for(int i = 0; i < values.length; i++) {
     			try {
@@ -452,10 +471,37 @@ public class UnsafeLongArray extends UnsafeArray {
     	}
     	return insertCount;
     }
-    
-    
-    
-    
+
+    /**
+     * Merges the passed batch of values into this array in one linear pass, skipping values already present.
+     * The first <b><code>count</code></b> items in the batch <b>must</b> be sorted and unique (see {@link #sortUnique(long[])}).
+     * See {@link UnsafeArray#mergeFrom(Object, int)}.
+     * @param batch The sorted and unique values to merge
+     * @param count The number of leading items in the batch to merge
+     * @return the number of items inserted
+     */
+    public int mergeIfNotExists(long[] batch, int count) {
+    	return mergeFrom(batch, count);
+    }
+
+    /**
+     * Sorts the passed array in place and compacts the unique values to the front of it
+     * @param values The values to sort
+     * @return the number of unique values, which occupy the leading slots of the passed array
+     */
+    public static int sortUnique(long[] values) {
+    	if(values==null || values.length==0) return 0;
+    	Arrays.sort(values);
+    	int k = 1;
+    	for(int i = 1; i < values.length; i++) {
+    		if(values[i]!=values[k-1]) values[k++] = values[i];
+    	}
+    	return k;
+    }
+
+
+
+
     /**
      * Inserts the passed long to the array, extending the size of the array if necessary
      * @param v the long to insert
@@ -569,6 +615,7 @@ public class UnsafeLongArray extends UnsafeArray {
      * @param value The long to set
      */
     private void a(int index, long value) {
+    	beforeWrite();
     	UnsafeAdapter.putLong(this.address() + (index << 3), value);
     }
     
@@ -590,6 +637,7 @@ public class UnsafeLongArray extends UnsafeArray {
      */
     public UnsafeLongArray set(int index, long value) {
     	_check(); _check(index);
+    	beforeWrite();
     	UnsafeAdapter.putLong(this.address() + (index << 3), value);
     	return this;
     }
@@ -636,6 +684,18 @@ public class UnsafeLongArray extends UnsafeArray {
     }
     
     
+    /**
+     * Creates a read only snapshot of this array which shares this array's memory block until this array is next modified,
+     * at which point this array copies the block and the snapshot retains the original. 
+     * Creating a snapshot costs no copy, and snapshots are counted until closed or collected, so readers that close 
+     * their snapshots before the next write pay nothing.
+     * Any attempt to modify the snapshot throws an {@link UnsupportedOperationException}.
+     * @return a read only snapshot of this array
+     */
+    public UnsafeLongArray snapshot() {
+    	return new UnsafeLongArray(this, share());
+    }
+    
     /**
      * <p>Creates a clone of this array in a completely seprarate memory adddress, meaning
      * that changes to the clone are not seen by this array and vice-versa.
@@ -651,6 +711,34 @@ public class UnsafeLongArray extends UnsafeArray {
 
     
     
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#compareItem(int, java.lang.Object, int)
+     */
+    @Override
+    protected int compareItem(int index, Object values, int item) {
+    	final long e = a(index), v = ((long[])values)[item];
+    	return (e < v) ? -1 : ((e == v) ? 0 : 1);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#putItem(int, java.lang.Object, int)
+     */
+    @Override
+    protected void putItem(int index, Object values, int item) {
+    	UnsafeAdapter.putLong(this.address() + (index << 3), ((long[])values)[item]);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#searchItem(java.lang.Object, int)
+     */
+    @Override
+    protected int searchItem(Object values, int item) {
+    	return binarySearch(((long[])values)[item]);
+    }
+    
     /**
      * Searches this unsafe long array for the specified value using the binary search algorithm based on {@link java.util.Arrays#binarySearch(long[], long)}. 
      * If this unsafe long array contains multiple elements with the specified value, there is no guarantee which one will be found. 
@@ -0,0 +1,478 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.io.Closeable;
+
+import org.helios.jmx.util.unsafe.DeAllocateMe;
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.MemoryAllocationReference;
+
+/**
+ * <p>Title: UnsafeLongLongMap</p>
+ * <p>Description: An open addressing, linear probing map of long keys to long values stored entirely in direct memory.
+ * Each slot is a 16 byte key/value pair in one contiguous allocation, so no per-entry objects are created.</p>
+ * <p>A key of <b><code>0</code></b> marks an empty slot, so the zero key, if present, is held on the heap alongside the table.
+ * Removals use backward shift deletion, so the table never accumulates tombstones.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time, or use
+ * {@link ConcurrentUnsafeLongLongMap}</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeLongLongMap</code></p>
+ */
+
+public class UnsafeLongLongMap implements DeAllocateMe, Closeable {
+	/** The default initial capacity */
+	public static final int DEFAULT_CAPACITY = 128;
+	/** The default load factor */
+	public static final float DEFAULT_LOAD_FACTOR = 0.75f;
+	/** The default value returned for a key that is not in the map */
+	public static final long DEFAULT_NO_ENTRY_VALUE = -1L;
+	/** The key value that marks an empty slot */
+	private static final long FREE_KEY = 0L;
+	/** The bitshift factor for the size of one slot (a key and a value) */
+	private static final int SLOT_SHIFT = 4;
+	/** The largest supported capacity */
+	private static final int MAX_CAPACITY = 1 << 30;
+	/** The golden ratio multiplier used to spread the key bits */
+	private static final long PHI = 0x9E3779B97F4A7C15L;
+
+	/** The native memory address of the table */
+	protected final long address[][] = new long[1][1];
+	/** The load factor */
+	protected final float loadFactor;
+	/** The value returned for a key that is not in the map */
+	protected final long noEntryValue;
+	/** The number of slots in the table, always a power of 2 */
+	protected int capacity;
+	/** The slot index mask */
+	protected int mask;
+	/** The size at which the table will be resized */
+	protected int threshold;
+	/** The number of entries in the table, not including the zero key */
+	protected int size;
+	/** Indicates if the zero key is in the map */
+	protected boolean hasZeroKey = false;
+	/** The value of the zero key */
+	protected long zeroValue;
+	/** The reference that frees the table when the map is closed or collected */
+	private final MemoryAllocationReference deallocRef;
+
+	/**
+	 * <p>Title: LongLongProcedure</p>
+	 * <p>Description: Callback for iterating the entries of an {@link UnsafeLongLongMap} without creating entry objects</p>
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeLongLongMap.LongLongProcedure</code></p>
+	 */
+	public interface LongLongProcedure {
+		/**
+		 * Called for each entry in the map
+		 * @param key The entry key
+		 * @param value The entry value
+		 * @return true to continue iterating, false to stop
+		 */
+		public boolean execute(long key, long value);
+	}
+
+	/**
+	 * Creates a new UnsafeLongLongMap with the default capacity and load factor
+	 */
+	public UnsafeLongLongMap() {
+		this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR, DEFAULT_NO_ENTRY_VALUE);
+	}
+
+	/**
+	 * Creates a new UnsafeLongLongMap with the default load factor
+	 * @param initialCapacity The number of entries the map should hold before it is resized
+	 */
+	public UnsafeLongLongMap(int initialCapacity) {
+		this(initialCapacity, DEFAULT_LOAD_FACTOR, DEFAULT_NO_ENTRY_VALUE);
+	}
+
+	/**
+	 * Creates a new UnsafeLongLongMap
+	 * @param initialCapacity The number of entries the map should hold before it is resized
+	 * @param loadFactor The ratio of entries to slots at which the table is doubled
+	 * @param noEntryValue The value returned for a key that is not in the map
+	 */
+	public UnsafeLongLongMap(int initialCapacity, float loadFactor, long noEntryValue) {
+		if(initialCapacity<1) throw new IllegalArgumentException("Invalid initial capacity [" + initialCapacity + "]", new Throwable());
+		if(loadFactor<=0f || loadFactor>=1f) throw new IllegalArgumentException("Invalid load factor [" + loadFactor + "]. Must be > 0 and < 1", new Throwable());
+		this.loadFactor = loadFactor;
+		this.noEntryValue = noEntryValue;
+		capacity = tableSizeFor((long)Math.ceil(initialCapacity / loadFactor));
+		mask = capacity-1;
+		threshold = (int)(capacity * loadFactor);
+		address[0][0] = allocateTable(capacity);
+		deallocRef = UnsafeAdapter.registerForDeAlloc(this).get(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+	 */
+	@Override
+	public long[][] getAddresses() {
+		return address;
+	}
+
+	/**
+	 * Spreads the bits of the passed key
+	 * @param key The key to hash
+	 * @return the hash
+	 */
+	static long hash(long key) {
+		long h = key * PHI;
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * Returns the power of 2 table size for the passed number of slots
+	 * @param slots The minimum number of slots
+	 * @return the table size
+	 */
+	private static int tableSizeFor(long slots) {
+		if(slots >= MAX_CAPACITY) return MAX_CAPACITY;
+		if(slots < 2) return 2;
+		return UnsafeAdapter.findNextPositivePowerOfTwo((int)slots);
+	}
+
+	/**
+	 * Allocates and zeroes a table of the passed number of slots
+	 * @param slots The number of slots
+	 * @return the address of the table
+	 */
+	private static long allocateTable(int slots) {
+		final long bytes = ((long)slots) << SLOT_SHIFT;
+		final long addr = UnsafeAdapter.allocateMemory(bytes);
+		UnsafeAdapter.setMemory(addr, bytes, UnsafeAdapter.ZERO_BYTE);
+		return addr;
+	}
+
+	/**
+	 * Checks that the map has not been deallocated, throwing a {@link IllegalStateException} if it has.
+	 */
+	protected void _check() {
+		if(address[0][0]==0) throw new IllegalStateException("This UnsafeLongLongMap has been deallocated", new Throwable());
+	}
+
+	/**
+	 * Returns the address of the key in the passed slot
+	 * @param slot The slot index
+	 * @return the address of the key
+	 */
+	private long keyAddress(int slot) {
+		return address[0][0] + (((long)slot) << SLOT_SHIFT);
+	}
+
+	/**
+	 * Locates the slot of the passed non-zero key
+	 * @param key The key to find
+	 * @return the slot index of the key, or <b><code>-(free slot index) - 1</code></b> if the key is not in the map
+	 */
+	private int slotOf(long key) {
+		int slot = (int)hash(key) & mask;
+		while(true) {
+			final long k = UnsafeAdapter.getLong(keyAddress(slot));
+			if(k==key) return slot;
+			if(k==FREE_KEY) return -slot - 1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the value for the passed key
+	 * @param key The key to get the value for
+	 * @return the value or the no entry value if the key is not in the map
+	 */
+	public long get(long key) {
+		_check();
+		if(key==FREE_KEY) return hasZeroKey ? zeroValue : noEntryValue;
+		final int slot = slotOf(key);
+		return slot < 0 ? noEntryValue : UnsafeAdapter.getLong(keyAddress(slot) + UnsafeAdapter.LONG_SIZE);
+	}
+
+	/**
+	 * Indicates if the passed key is in the map
+	 * @param key The key to test for
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(long key) {
+		_check();
+		if(key==FREE_KEY) return hasZeroKey;
+		return slotOf(key) >= 0;
+	}
+
+	/**
+	 * Puts the passed key and value into the map
+	 * @param key The key
+	 * @param value The value
+	 * @return the prior value for the key, or the no entry value if the key was not in the map
+	 */
+	public long put(long key, long value) {
+		_check();
+		if(key==FREE_KEY) {
+			final long prior = hasZeroKey ? zeroValue : noEntryValue;
+			hasZeroKey = true;
+			zeroValue = value;
+			return prior;
+		}
+		final int slot = slotOf(key);
+		if(slot >= 0) {
+			final long valueAddress = keyAddress(slot) + UnsafeAdapter.LONG_SIZE;
+			final long prior = UnsafeAdapter.getLong(valueAddress);
+			UnsafeAdapter.putLong(valueAddress, value);
+			return prior;
+		}
+		insertAt(-slot - 1, key, value);
+		return noEntryValue;
+	}
+
+	/**
+	 * Puts the passed key and value into the map if the key is not already in the map
+	 * @param key The key
+	 * @param value The value
+	 * @return the existing value for the key, or the no entry value if the passed value was put
+	 */
+	public long putIfAbsent(long key, long value) {
+		_check();
+		if(key==FREE_KEY) {
+			if(hasZeroKey) return zeroValue;
+			hasZeroKey = true;
+			zeroValue = value;
+			return noEntryValue;
+		}
+		final int slot = slotOf(key);
+		if(slot >= 0) return UnsafeAdapter.getLong(keyAddress(slot) + UnsafeAdapter.LONG_SIZE);
+		insertAt(-slot - 1, key, value);
+		return noEntryValue;
+	}
+
+	/**
+	 * Adds the passed delta to the value of the passed key, putting the delta if the key is not in the map
+	 * @param key The key
+	 * @param delta The amount to add
+	 * @return the new value of the key
+	 */
+	public long adjustOrPut(long key, long delta) {
+		_check();
+		if(key==FREE_KEY) {
+			zeroValue = hasZeroKey ? zeroValue + delta : delta;
+			hasZeroKey = true;
+			return zeroValue;
+		}
+		final int slot = slotOf(key);
+		if(slot >= 0) {
+			final long valueAddress = keyAddress(slot) + UnsafeAdapter.LONG_SIZE;
+			final long value = UnsafeAdapter.getLong(valueAddress) + delta;
+			UnsafeAdapter.putLong(valueAddress, value);
+			return value;
+		}
+		insertAt(-slot - 1, key, delta);
+		return delta;
+	}
+
+	/**
+	 * Writes a new entry into the passed free slot, resizing the table if the threshold is reached
+	 * @param slot The free slot
+	 * @param key The key
+	 * @param value The value
+	 */
+	private void insertAt(int slot, long key, long value) {
+		final long keyAddress = keyAddress(slot);
+		UnsafeAdapter.putLong(keyAddress, key);
+		UnsafeAdapter.putLong(keyAddress + UnsafeAdapter.LONG_SIZE, value);
+		if(++size >= threshold) {
+			rehash(capacity << 1);
+		}
+	}
+
+	/**
+	 * Removes the passed key from the map
+	 * @param key The key to remove
+	 * @return the value of the removed key, or the no entry value if the key was not in the map
+	 */
+	public long remove(long key) {
+		_check();
+		if(key==FREE_KEY) {
+			if(!hasZeroKey) return noEntryValue;
+			hasZeroKey = false;
+			return zeroValue;
+		}
+		int slot = slotOf(key);
+		if(slot < 0) return noEntryValue;
+		final long prior = UnsafeAdapter.getLong(keyAddress(slot) + UnsafeAdapter.LONG_SIZE);
+		// backward shift: pull later entries of the probe run into the hole
+		int next = (slot + 1) & mask;
+		while(true) {
+			final long k = UnsafeAdapter.getLong(keyAddress(next));
+			if(k==FREE_KEY) break;
+			final int home = (int)hash(k) & mask;
+			// the entry may move to the hole only if its home slot is not within (slot, next]
+			if(slot <= next ? (home <= slot || home > next) : (home <= slot && home > next)) {
+				UnsafeAdapter.copyMemory(keyAddress(next), keyAddress(slot), 1 << SLOT_SHIFT);
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		UnsafeAdapter.putLong(keyAddress(slot), FREE_KEY);
+		size--;
+		return prior;
+	}
+
+	/**
+	 * Reallocates the table to the passed number of slots and reinserts all the entries
+	 * @param newCapacity The new number of slots
+	 */
+	protected void rehash(int newCapacity) {
+		if(capacity==MAX_CAPACITY) {
+			threshold = Integer.MAX_VALUE;
+			return;
+		}
+		final long oldAddress = address[0][0];
+		final int oldCapacity = capacity;
+		final long newAddress = allocateTable(newCapacity);
+		final int newMask = newCapacity-1;
+		for(int i = 0; i < oldCapacity; i++) {
+			final long src = oldAddress + (((long)i) << SLOT_SHIFT);
+			final long k = UnsafeAdapter.getLong(src);
+			if(k==FREE_KEY) continue;
+			int slot = (int)hash(k) & newMask;
+			while(UnsafeAdapter.getLong(newAddress + (((long)slot) << SLOT_SHIFT))!=FREE_KEY) {
+				slot = (slot + 1) & newMask;
+			}
+			UnsafeAdapter.copyMemory(src, newAddress + (((long)slot) << SLOT_SHIFT), 1 << SLOT_SHIFT);
+		}
+		address[0][0] = newAddress;
+		UnsafeAdapter.freeMemory(oldAddress);
+		capacity = newCapacity;
+		mask = newMask;
+		threshold = (int)(newCapacity * loadFactor);
+	}
+
+	/**
+	 * Iterates the entries of the map, passing each to the passed procedure
+	 * @param procedure The procedure to call for each entry
+	 * @return true if all entries were iterated, false if the procedure stopped the iteration
+	 */
+	public boolean forEachEntry(LongLongProcedure procedure) {
+		_check();
+		if(hasZeroKey && !procedure.execute(FREE_KEY, zeroValue)) return false;
+		final long base = address[0][0];
+		for(int i = 0; i < capacity; i++) {
+			final long keyAddress = base + (((long)i) << SLOT_SHIFT);
+			final long k = UnsafeAdapter.getLong(keyAddress);
+			if(k!=FREE_KEY && !procedure.execute(k, UnsafeAdapter.getLong(keyAddress + UnsafeAdapter.LONG_SIZE))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the keys in this map
+	 * @return an array of the keys
+	 */
+	public long[] keys() {
+		return copyOut(0);
+	}
+
+	/**
+	 * Returns the values in this map in the same order as {@link #keys()}
+	 * @return an array of the values
+	 */
+	public long[] values() {
+		return copyOut(UnsafeAdapter.LONG_SIZE);
+	}
+
+	/**
+	 * Copies the keys or values of the map into a new array
+	 * @param offset The offset of the item within each slot
+	 * @return the array of keys or values
+	 */
+	private long[] copyOut(int offset) {
+		_check();
+		final long[] arr = new long[size()];
+		int index = 0;
+		if(hasZeroKey) arr[index++] = offset==0 ? FREE_KEY : zeroValue;
+		final long base = address[0][0];
+		for(int i = 0; i < capacity; i++) {
+			final long keyAddress = base + (((long)i) << SLOT_SHIFT);
+			if(UnsafeAdapter.getLong(keyAddress)!=FREE_KEY) {
+				arr[index++] = UnsafeAdapter.getLong(keyAddress + offset);
+			}
+		}
+		return arr;
+	}
+
+	/**
+	 * Removes all entries from the map, keeping the current capacity
+	 */
+	public void clear() {
+		_check();
+		UnsafeAdapter.setMemory(address[0][0], ((long)capacity) << SLOT_SHIFT, UnsafeAdapter.ZERO_BYTE);
+		size = 0;
+		hasZeroKey = false;
+	}
+
+	/**
+	 * Frees the table without waiting for the map to be collected. 
+	 * The map cannot be used once closed, and closing it again has no effect.
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		size = 0;
+		hasZeroKey = false;
+		deallocRef.clear();
+	}
+
+	/**
+	 * Returns the number of entries in the map
+	 * @return the number of entries in the map
+	 */
+	public int size() {
+		return hasZeroKey ? size + 1 : size;
+	}
+
+	/**
+	 * Indicates if the map is empty
+	 * @return true if the map is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size()==0;
+	}
+
+	/**
+	 * Returns the number of allocated slots
+	 * @return the number of allocated slots
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the value returned for keys that are not in the map
+	 * @return the no entry value
+	 */
+	public long noEntryValue() {
+		return noEntryValue;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if(address[0][0]==0) return "{deallocated}";
+		final StringBuilder b = new StringBuilder("{");
+		forEachEntry(new LongLongProcedure() {
+			@Override
+			public boolean execute(long key, long value) {
+				b.append(key).append("=").append(value).append(",");
+				return true;
+			}
+		});
+		if(b.length()>1) b.deleteCharAt(b.length()-1);
+		return b.append("}").toString();
+	}
+}
@@ -0,0 +1,457 @@
+/** Helios Development Group LLC, 2013 */
+package org.helios.jmx.util.unsafe.collections;
+
+import java.util.Arrays;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+
+
+/**
+ * <p>Title: UnsafeShortArray</p>
+ * <p>Description: Utility class for storing short arrays in direct memory with self resizing.
+ * The short counterpart of {@link UnsafeLongArray}, using a quarter of the memory for small values such as status codes, 
+ * percentages or bucket indexes which fit in a short.</p>
+ * <p><b><font color='red'>!!  NOTE !!&nbsp;&nbsp;</font>:&nbsp;&nbsp;</b>This class is THREAD UNSAFE. Only use with one thread at a time, or used one
+ * of the concurrent/synchronized versions</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.jmx.util.unsafe.collections.UnsafeShortArray</code></p>
+ */
+public class UnsafeShortArray extends UnsafeArray {
+
+	/**
+	 * Creates a new UnsafeShortArray
+	 * @param initialCapacity The initial allocated capacity
+	 * @param sorted Indicates the array will be maintained in sorted order
+	 * @param fixed Indicates the capacity of the array will be fixed
+	 * @param maxCapacity The maximum capacity of the array
+	 * @param minCapacity The minimum capacity of the array
+	 * @param allocationIncrement The number of slots that will be allocated when the array needs to be extended
+	 * @param clearedSlotsFree The number of excess slots that are emptied by rollLefts before the array capacity is shrunk
+	 */
+	private UnsafeShortArray(int initialCapacity, boolean sorted, boolean fixed, int maxCapacity,
+			int minCapacity, int allocationIncrement, int clearedSlotsFree) {
+		super(initialCapacity, sorted, fixed, fixed ? initialCapacity : maxCapacity, minCapacity, allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Creates a new UnsafeShortArray. Used for cloning.
+	 * @param size The size of the clone
+	 * @param capacity The capacity of the clone
+	 * @param address The memory address of the array to be cloned
+	 * @param sorted Indicates the array will be maintained in sorted order
+	 * @param fixed Indicates the capacity of the array will be fixed
+	 * @param maxCapacity The maximum capacity of the array
+	 * @param minCapacity The minimum capacity of the array
+	 * @param allocationIncrement The number of slots that will be allocated when the array needs to be extended
+	 * @param clearedSlotsFree The number of excess slots that are emptied by rollLefts before the array capacity is shrunk
+	 */
+	private UnsafeShortArray(int size, int capacity, long address, boolean sorted,
+			boolean fixed, int maxCapacity, int minCapacity,
+			int allocationIncrement, int clearedSlotsFree) {
+		super(size, capacity, address, sorted, fixed, maxCapacity, minCapacity,
+				allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Creates a new read only snapshot of the passed array
+	 * @param source The array to snapshot
+	 * @param shared The shared block holder
+	 */
+	private UnsafeShortArray(UnsafeShortArray source, SharedBlock shared) {
+		super(source, shared);
+	}
+
+	/**
+	 * Creates a new UnsafeShortArray from the passed builder
+	 * @param builder The builder to configure the new UnsafeShortArray
+	 * @param data The optional data load load
+	 * @return the new UnsafeShortArray
+	 */
+	static UnsafeShortArray build(UnsafeArrayBuilder builder, Object data) {
+		UnsafeShortArray usa = new UnsafeShortArray(builder.initialCapacity(), builder.sorted(), builder.fixed(), builder.maxCapacity(), builder.minCapacity(), builder.allocationIncrement(), builder.clearedSlotsFree());
+		if(data!=null) {
+			if(data instanceof short[]) {
+				usa.load((short[])data);
+			} else if(data instanceof UnsafeShortArray) {
+				usa.load((UnsafeShortArray)data);
+			}
+		}
+		return usa;
+	}
+
+	/**
+	 * Creates a new UnsafeShortArray from the passed builder
+	 * @param builder The builder to configure the new UnsafeShortArray
+	 * @return the new UnsafeShortArray
+	 */
+	static UnsafeShortArray build(UnsafeArrayBuilder builder) {
+		return build(builder, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#getSlotSize()
+	 */
+	@Override
+	protected int getSlotSize() {
+		return 1;
+	}
+
+	// ======================================================================================
+	//			Standard Load Impls.
+	// ======================================================================================
+
+	/**
+	 * Loads this array from a short array
+	 * @param arr The array to load
+	 */
+	protected void load(short[] arr) {
+		if(arr.length<1) return;
+		loadFrom(arr, UnsafeAdapter.SHORT_ARRAY_OFFSET, arr.length);
+		if(sorted) sort();
+	}
+
+	/**
+	 * Loads this array from another UnsafeShortArray
+	 * @param usa The UnsafeShortArray to copy
+	 */
+	private void load(UnsafeShortArray usa) {
+		loadFrom(null, usa.address(), usa.size);
+		if(sorted) sort();
+	}
+
+	// ======================================================================================
+
+	/**
+	 * Rolls all the entries in the array one slot to the right after the referenced index and sets the new slot to the passed value.
+	 * See {@link UnsafeLongArray#rollRight(int, long)}.
+	 * @param index The index after which the remaining values are rolled to the right
+	 * @param newValue The value to place into the new slot
+	 * @return this array
+	 */
+	public UnsafeShortArray rollRight(int index, short newValue) {
+		if(sorted && normalizedBinarySearch(newValue)!=index) throw new RuntimeException("The index [" + index + "] is incorrect for the value [" + newValue + "] for this sorted array", new Throwable());
+		rollRight(index);
+		a(index, newValue);
+		return this;
+	}
+
+	/**
+	 * Rolls all the entries in the array one slot to the right after the referenced index and sets the new slot to the passed value.
+	 * See {@link UnsafeLongArray#rollRightCap(int, long)}.
+	 * @param index The index after which the remaining values are rolled to the right
+	 * @param newValue The value to place into the new slot
+	 * @return the value of the dropped slot, or null if a slot was not dropped
+	 */
+	public Short rollRightCap(int index, short newValue) {
+		if(sorted && normalizedBinarySearch(newValue)!=index) throw new RuntimeException("The index [" + index + "] is incorrect for the value [" + newValue + "] for this sorted array", new Throwable());
+		_check();
+		final Short dropped = (fixed && size==capacity && size>0) ? a(size-1) : null;
+		rollRight(index);
+		a(index, newValue);
+		return dropped;
+	}
+
+	/**
+	 * Adjusts the binary search result to the actual index to insert into
+	 * @param v The short value to insert
+	 * @return the index to insert into
+	 */
+	public int normalizedBinarySearch(short v) {
+		int index = binarySearch(v);
+		return (index<0) ? (index*-1)-1 : index;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#append(java.lang.StringBuilder, int)
+	 */
+	@Override
+	protected StringBuilder append(StringBuilder b, int i) {
+		return b.append(a(i));
+	}
+
+	/**
+	 * Appends the passed short values to this array.
+	 * If this array is sorted, this operation will trigger a sort once the append is complete
+	 * @param values the values to add
+	 * @return this array
+	 */
+	public UnsafeShortArray append(short...values) {
+		appendFrom(values);
+		if(sorted) sort();
+		return this;
+	}
+
+	/**
+	 * Appends as many of the passed short values to this array as will fit up to the max capacity, discarding the remaining values.
+	 * If this array is sorted, this operation will trigger a sort once the append is complete
+	 * @param values the values to add
+	 * @return the number of dicarded values that were dropped
+	 */
+	public int appendWhatFits(short...values) {
+		final int dropped = appendWhatFitsFrom(values);
+		if(sorted) sort();
+		return dropped;
+	}
+
+	/**
+	 * Inserts the passed short values to this array at the location returned from a binary search.
+	 * Throws a {@link RuntimeException} if this array is not sorted.
+	 * May throw a {@link PartialArrayOverflowException} if the capacity is exhausted in which case the exception will provide the number of values successfully inserted.
+	 * @param values the values to insert
+	 * @return this array
+	 */
+	public UnsafeShortArray insert(short...values) {
+		insertFrom(values);
+		return this;
+	}
+
+	/**
+	 * Inserts the passed short values to this array if they are not present already.
+	 * Multiple values are merged in one pass (see {@link #mergeIfNotExists(short[], int)}).
+	 * Throws a {@link RuntimeException} if this array is not sorted.
+	 * May throw a {@link PartialArrayOverflowException} if the capacity is exhausted in which case the exception will provide the number of values successfully inserted.
+	 * @param values the values to insert
+	 * @return the number of items inserted
+	 */
+	public int insertIfNotExists(short...values) {
+		_check();
+		if(sorted && values!=null && values.length>1) {
+			final short[] batch = values.clone();
+			return mergeIfNotExists(batch, sortUnique(batch));
+		}
+		return values==null ? 0 : insertAbsentFrom(values, values.length);
+	}
+
+	/**
+	 * Merges the passed batch of values into this array in one linear pass, skipping values already present.
+	 * The first <b><code>count</code></b> items in the batch <b>must</b> be sorted and unique (see {@link #sortUnique(short[])}).
+	 * See {@link UnsafeArray#mergeFrom(Object, int)}.
+	 * @param batch The sorted and unique values to merge
+	 * @param count The number of leading items in the batch to merge
+	 * @return the number of items inserted
+	 */
+	public int mergeIfNotExists(short[] batch, int count) {
+		return mergeFrom(batch, count);
+	}
+
+	/**
+	 * Sorts the passed array in place and compacts the unique values to the front of it
+	 * @param values The values to sort
+	 * @return the number of unique values, which occupy the leading slots of the passed array
+	 */
+	public static int sortUnique(short[] values) {
+		if(values==null || values.length==0) return 0;
+		Arrays.sort(values);
+		int k = 1;
+		for(int i = 1; i < values.length; i++) {
+			if(compare(values[i], values[k-1])!=0) values[k++] = values[i];
+		}
+		return k;
+	}
+
+	/**
+	 * <p>Removes the first instance of each of the passed short values from this array if they are present.
+	 * <p><b>NOTE:</b>This operation can be slow-ish if the array is not sorted.
+	 * @param values the values to remove
+	 * @return the number of removed values
+	 */
+	public int remove(short...values) {
+		return removeFrom(values, false);
+	}
+
+	/**
+	 * Removes all instances of each of the passed short values from this array if they are present
+	 * <p><b>NOTE:</b>This operation can be slow-ish if the array is not sorted.
+	 * @param values the values to remove
+	 * @return the number of removed items
+	 */
+	public int removeAll(short...values) {
+		return removeFrom(values, true);
+	}
+
+	/**
+	 * Returns the short at the specified index
+	 * @param index The index of the short to retrieve
+	 * @return the specified short
+	 */
+	private short a(int index) {
+		return UnsafeAdapter.getShort(this.address() + (index << 1));
+	}
+
+	/**
+	 * Sets the short value at the specified index
+	 * @param index The index of the array to set the short at
+	 * @param value The short to set
+	 */
+	private void a(int index, short value) {
+		beforeWrite();
+		UnsafeAdapter.putShort(this.address() + (index << 1), value);
+	}
+
+	/**
+	 * Returns the short at the specified index
+	 * @param index The index of the short to retrieve
+	 * @return the specified short
+	 */
+	public short get(int index) {
+		_check(); _check(index);
+		return UnsafeAdapter.getShort(this.address() + (index << 1));
+	}
+
+	/**
+	 * Sets the short value at the specified index
+	 * @param index The index of the array to set the short at
+	 * @param value The short to set
+	 * @return this array
+	 */
+	public UnsafeShortArray set(int index, short value) {
+		_check(); _check(index);
+		beforeWrite();
+		UnsafeAdapter.putShort(this.address() + (index << 1), value);
+		return this;
+	}
+
+	/**
+	 * Returns a traditional short array representing the shorts in this array
+	 * @return a short array with the same values as this array
+	 */
+	public short[] getArray() {
+		_check();
+		final short[] arr = new short[size];
+		copyTo(arr);
+		return arr;
+	}
+
+	/**
+	 * Creates a read only snapshot of this array which shares this array's memory block until this array is next modified.
+	 * See {@link UnsafeLongArray#snapshot()}.
+	 * @return a read only snapshot of this array
+	 */
+	public UnsafeShortArray snapshot() {
+		return new UnsafeShortArray(this, share());
+	}
+
+	/**
+	 * <p>Creates a clone of this array in a completely seprarate memory adddress, meaning
+	 * that changes to the clone are not seen by this array and vice-versa.
+	 * {@inheritDoc}
+	 * @see java.lang.Object#clone()
+	 */
+	@Override
+	public UnsafeShortArray clone() {
+		_check();
+		return new UnsafeShortArray(size, capacity, address(), sorted, fixed, maxCapacity, minCapacity, allocationIncrement, clearedSlotsFree);
+	}
+
+	/**
+	 * Compares two shorts
+	 * @param i1 the first short
+	 * @param i2 the second short
+	 * @return the comparison
+	 */
+	private static int compare(short i1, short i2) {
+		return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#compareItem(int, java.lang.Object, int)
+	 */
+	@Override
+	protected int compareItem(int index, Object values, int item) {
+		return compare(a(index), ((short[])values)[item]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#putItem(int, java.lang.Object, int)
+	 */
+	@Override
+	protected void putItem(int index, Object values, int item) {
+		UnsafeAdapter.putShort(this.address() + (index << 1), ((short[])values)[item]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.jmx.util.unsafe.collections.UnsafeArray#searchItem(java.lang.Object, int)
+	 */
+	@Override
+	protected int searchItem(Object values, int item) {
+		return binarySearch(((short[])values)[item]);
+	}
+
+	/**
+	 * Searches this unsafe short array for the specified value using the binary search algorithm based on {@link java.util.Arrays#binarySearch(short[], short)}.
+	 * If this unsafe short array contains multiple elements with the specified value, there is no guarantee which one will be found.
+	 * @param key the value to be searched for
+	 * @return index of the search key, if it is contained in this array; otherwise, <b><code>(-(insertion point) - 1)</code></b>.
+	 */
+	public int binarySearch(short key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int c = compare(a(mid), key);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return mid; // key found
+		}
+		return -(low + 1);  // key not found.
+	}
+
+	/**
+	 * Sorts the array. The values are copied to the heap in one block, sorted with {@link Arrays#sort(short[])}, and copied back.
+	 * Sorted arrays only sort on bulk loads and appends, since inserts are placed by binary search.
+	 * @return this array
+	 */
+	public UnsafeShortArray sort() {
+		_check();
+		if(size<2) return this;
+		final short[] arr = getArray();
+		Arrays.sort(arr);
+		copyFrom(arr);
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		_check();
+		int result = 1;
+		for(int i = 0; i < size; i++) {
+			result = 31 * result + a(i);
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		UnsafeShortArray other = (UnsafeShortArray) obj;
+		if (address != other.address) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,600 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.batch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.AttributeList;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.StandardEmitterMBean;
+import javax.management.StandardMBean;
+
+import org.helios.jmx.batch.AttributeFilters;
+import org.helios.jmx.batch.AttributeFilters.CompiledFilter;
+import org.helios.jmx.batch.AttributeReadPlan;
+import org.helios.jmx.batch.AttributeReadPlan.AttributeKind;
+import org.helios.jmx.batch.BatchAttributeService;
+import org.helios.jmx.batch.BatchCriteria;
+import org.helios.jmx.batch.BatchedAttributeProvider;
+import org.helios.jmx.batch.ColumnarResult;
+import org.helios.jmx.batch.DeltaResult;
+import org.helios.jmx.util.helpers.JMXHelper;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: BatchAttributeServiceTest</p>
+ * <p>Description: Tests for {@link BatchAttributeService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest</code></p>
+ */
+
+public class BatchAttributeServiceTest extends BaseTest {
+	/** The number of sample MBeans registered */
+	static final int SAMPLES = 200;
+	/** The number of slow sample MBeans registered */
+	static final int SLOW_SAMPLES = 16;
+	/** The registered sample MBeans */
+	static final Sample[] samples = new Sample[SAMPLES];
+	/** The sample MBean ObjectName pattern */
+	static final ObjectName SAMPLE_PATTERN = JMXHelper.objectName("test.batch:type=Sample,*");
+	/** The slow sample MBean ObjectName pattern */
+	static final ObjectName SLOW_PATTERN = JMXHelper.objectName("test.batch:type=Slow,*");
+	
+	/**
+	 * Registers the sample MBeans and sizes the batch thread pool so batches are split across threads
+	 * @throws Exception thrown on any error
+	 */
+	@BeforeClass
+	public static void registerSamples() throws Exception {
+		System.setProperty(BatchAttributeService.class.getSimpleName().toLowerCase() + "-corepoolsize", "4");
+		System.setProperty(BatchAttributeService.class.getSimpleName().toLowerCase() + "-maxpoolsize", "8");
+		for(int i = 0; i < SAMPLES; i++) {
+			samples[i] = new Sample(i, 0);
+			JMXHelper.registerMBean(new StandardMBean(samples[i], SampleMXBean.class, true), JMXHelper.objectName("test.batch:type=Sample,id=" + i));
+		}
+		for(int i = 0; i < SLOW_SAMPLES; i++) {
+			JMXHelper.registerMBean(new StandardMBean(new Sample(i, 400), SampleMXBean.class, true), JMXHelper.objectName("test.batch:type=Slow,id=" + i));
+		}
+	}
+	
+	/**
+	 * Unregisters the sample MBeans
+	 */
+	@AfterClass
+	public static void unregisterSamples() {
+		for(ObjectName on: JMXHelper.query("test.batch:*")) {
+			JMXHelper.unregisterMBean(on);
+		}
+	}
+	
+	/**
+	 * Verifies that patterns are expanded, overlapping criteria merged and composite paths and aliases resolved
+	 */
+	@Test
+	public void testBatchGetAttributes() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		service.setMinChunkSize(10);
+		final Map<ObjectName, Map<String, String>> criteria = new HashMap<ObjectName, Map<String, String>>();
+		final Map<String, String> attrs = new HashMap<String, String>();
+		attrs.put("Count", null);
+		attrs.put("Usage/used", "used");
+		attrs.put("NoSuchAttribute", null);
+		criteria.put(SAMPLE_PATTERN, attrs);
+		criteria.put(JMXHelper.objectName("test.batch:type=Sample,id=7"), new HashMap<String, String>(Collections.singletonMap("Name", "")));
+		final Map<ObjectName, Map<String, Object>> results = service.batchGetAttributes(criteria);
+		Assert.assertEquals(SAMPLES, results.size());
+		Assert.assertTrue(service.getLastBatchChunkCount() > 1);
+		for(Map.Entry<ObjectName, Map<String, Object>> entry: results.entrySet()) {
+			final long id = Long.parseLong(entry.getKey().getKeyProperty("id"));
+			final Map<String, Object> values = entry.getValue();
+			Assert.assertEquals(id, values.get("Count"));
+			Assert.assertEquals(id * 10, values.get("used"));
+			Assert.assertFalse(values.containsKey("NoSuchAttribute"));
+			Assert.assertEquals(id==7, values.containsKey("Name"));
+		}
+	}
+	
+	/**
+	 * Verifies that slow MBeans do not hold the batch past its deadline
+	 */
+	@Test
+	public void testDeadline() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		service.setMinChunkSize(1);
+		final long timeouts = service.getTimeoutCount();
+		final Map<ObjectName, Map<String, String>> criteria = new HashMap<ObjectName, Map<String, String>>();
+		criteria.put(SLOW_PATTERN, Collections.<String, String>singletonMap("Count", null));
+		final long start = System.currentTimeMillis();
+		final Map<ObjectName, Map<String, Object>> results = service.batchGetAttributes(criteria, 600);
+		final long elapsed = System.currentTimeMillis() - start;
+		Assert.assertTrue("Batch took " + elapsed + " ms.", elapsed < 1500);
+		Assert.assertTrue(results.size() > 0);
+		Assert.assertTrue(results.size() < SLOW_SAMPLES);
+		Assert.assertEquals(timeouts + 1, service.getTimeoutCount());
+	}
+	
+	/**
+	 * Verifies that MBeans with equal MBeanInfos share one read plan classified from the published open types
+	 */
+	@Test
+	public void testReadPlans() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final AttributeReadPlan plan = service.getPlan(JMXHelper.objectName("test.batch:type=Sample,id=1"));
+		Assert.assertSame(plan, service.getPlan(JMXHelper.objectName("test.batch:type=Sample,id=2")));
+		Assert.assertSame(plan, service.getPlan(JMXHelper.objectName("test.batch:type=Slow,id=1")));
+		Assert.assertEquals(AttributeKind.NUMERIC, plan.getKind("Count"));
+		Assert.assertEquals(AttributeKind.COMPOSITE, plan.getKind("Usage"));
+		Assert.assertEquals(AttributeKind.OTHER, plan.getKind("Name"));
+		Assert.assertArrayEquals(new String[]{"Count"}, plan.getNumerics());
+		final Set<String> paths = new HashSet<String>(Arrays.asList(plan.getAllNumerics()));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("Count", "Usage/committed", "Usage/init", "Usage/max", "Usage/used")), paths);
+	}
+	
+	/**
+	 * Verifies that read plans are dropped when the MBean is unregistered or its MBeanInfo changes
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPlanInvalidation() throws Exception {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final NotificationBroadcasterSupport emitter = new NotificationBroadcasterSupport(
+				new MBeanNotificationInfo(new String[]{BatchAttributeService.MBEAN_INFO_CHANGED}, Notification.class.getName(), "MBeanInfo changed"));
+		final ObjectName changing = JMXHelper.objectName("test.batch:type=Changing");
+		final ObjectName removed = JMXHelper.objectName("test.batch:type=Removed");
+		JMXHelper.registerMBean(new StandardEmitterMBean(new Sample(1, 0), SampleMXBean.class, true, emitter), changing);
+		JMXHelper.registerMBean(new StandardMBean(new Sample(2, 0), SampleMXBean.class, true), removed);
+		final AttributeReadPlan plan = service.getPlan(changing);
+		service.getPlan(removed);
+		final int subscriptions = service.getInfoChangeSubscriptionCount();
+		final long invalidations = service.getPlanInvalidationCount();
+		emitter.sendNotification(new Notification(BatchAttributeService.MBEAN_INFO_CHANGED, changing, 1));
+		JMXHelper.unregisterMBean(removed);
+		final long timeout = System.currentTimeMillis() + 2000;
+		while(service.getPlanInvalidationCount() < invalidations + 2 && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(invalidations + 2, service.getPlanInvalidationCount());
+		Assert.assertNotSame(plan, service.getPlan(changing));
+		Assert.assertEquals(subscriptions, service.getInfoChangeSubscriptionCount());
+		// Registered again before maintenance runs, the new MBean must still be listened to
+		final NotificationBroadcasterSupport replacement = new NotificationBroadcasterSupport(
+				new MBeanNotificationInfo(new String[]{BatchAttributeService.MBEAN_INFO_CHANGED}, Notification.class.getName(), "MBeanInfo changed"));
+		JMXHelper.unregisterMBean(changing);
+		JMXHelper.registerMBean(new StandardEmitterMBean(new Sample(3, 0), SampleMXBean.class, true, replacement), changing);
+		awaitInvalidations(service, invalidations + 3);
+		final AttributeReadPlan replaced = service.getPlan(changing);
+		replacement.sendNotification(new Notification(BatchAttributeService.MBEAN_INFO_CHANGED, changing, 2));
+		awaitInvalidations(service, invalidations + 4);
+		Assert.assertEquals(invalidations + 4, service.getPlanInvalidationCount());
+		Assert.assertNotSame(replaced, service.getPlan(changing));
+		JMXHelper.unregisterMBean(changing);
+	}
+	
+	/**
+	 * Verifies that a plan compiled while its MBean is unregistered is not cached, even when plan maintenance runs before the plan is stored
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPlanRace() throws Exception {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final ObjectName racing = JMXHelper.objectName("test.batch:type=Racing");
+		final AtomicBoolean unregisterOnInfo = new AtomicBoolean(false);
+		final long registered = service.getPlanMaintenanceCount();
+		JMXHelper.registerMBean(new StandardMBean(new Sample(1, 0), SampleMXBean.class, true) {
+			@Override
+			public MBeanInfo getMBeanInfo() {
+				final MBeanInfo info = super.getMBeanInfo();
+				if(unregisterOnInfo.compareAndSet(true, false)) {
+					// unregister between reading the MBeanInfo and storing the plan, and let maintenance run first
+					final long maintenance = service.getPlanMaintenanceCount();
+					JMXHelper.unregisterMBean(racing);
+					final long timeout = System.currentTimeMillis() + 2000;
+					while(service.getPlanMaintenanceCount()==maintenance && System.currentTimeMillis() < timeout) {
+						try { Thread.sleep(10); } catch (InterruptedException iex) { break; }
+					}
+				}
+				return info;
+			}
+		}, racing);
+		final long timeout = System.currentTimeMillis() + 2000;
+		while(service.getPlanMaintenanceCount()==registered && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		final int planned = service.getPlannedMBeanCount();
+		unregisterOnInfo.set(true);
+		Assert.assertNotNull(service.getPlan(racing));
+		Assert.assertFalse(JMXHelper.getHeliosMBeanServer().isRegistered(racing));
+		Assert.assertEquals(planned, service.getPlannedMBeanCount());
+	}
+	
+	/**
+	 * Waits up to 2 seconds for the plan invalidation count to reach the passed value
+	 * @param service The batch attribute service
+	 * @param count The expected invalidation count
+	 * @throws InterruptedException thrown if interrupted while waiting
+	 */
+	private static void awaitInvalidations(BatchAttributeService service, long count) throws InterruptedException {
+		final long timeout = System.currentTimeMillis() + 2000;
+		while(service.getPlanInvalidationCount() < count && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+	}
+	
+	/**
+	 * Verifies that a subscription sends all the values first and then only the changed values
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSubscription() throws Exception {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final BlockingQueue<Notification> received = new LinkedBlockingQueue<Notification>();
+		final NotificationListener listener = new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				received.add(notification);
+			}
+		};
+		final long id = service.subscribe(new ObjectName[]{JMXHelper.objectName("test.batch:type=Sample,id=1*")}, "a:Count,Usage/used,NoSuchAttribute", 100);
+		final NotificationFilterSupport filter = new NotificationFilterSupport();
+		filter.enableType(service.getSubscription(id).getNotificationType());
+		service.addNotificationListener(listener, filter, null);
+		try {
+			Notification n = received.poll(2000, TimeUnit.MILLISECONDS);
+			Assert.assertNotNull(n);
+			@SuppressWarnings("unchecked")
+			Map<ObjectName, Map<String, Object>> delta = (Map<ObjectName, Map<String, Object>>)n.getUserData();
+			// id=1, id=10 to 19 and id=100 to 199 
+			Assert.assertEquals(111, delta.size());
+			final ObjectName first = JMXHelper.objectName("test.batch:type=Sample,id=1");
+			Assert.assertEquals(new HashSet<String>(Arrays.asList("Count", "Usage/used")), delta.get(first).keySet());
+			Assert.assertNull("Unchanged values were sent", received.poll(300, TimeUnit.MILLISECONDS));
+			samples[1].count = 1001;
+			n = received.poll(2000, TimeUnit.MILLISECONDS);
+			Assert.assertNotNull(n);
+			Assert.assertEquals(Collections.singletonMap(first, Collections.singletonMap("Count", 1001L)), n.getUserData());
+		} finally {
+			samples[1].count = 1;
+			service.removeNotificationListener(listener);
+			Assert.assertTrue(service.unsubscribe(id));
+		}
+	}
+	
+	/**
+	 * Tests the compiled attribute filters
+	 */
+	@Test
+	public void testCompiledFilters() {
+		final ObjectName on = JMXHelper.objectName("test.batch:type=Sample,id=3");
+		final MBeanServer server = JMXHelper.getHeliosMBeanServer();
+		final CompiledFilter regex = AttributeFilters.compile("r:Usage/.*");
+		Assert.assertSame(regex, AttributeFilters.compile("r:Usage/.*"));
+		Assert.assertSame("Untrimmed filter was compiled again", regex, AttributeFilters.compile(" r:Usage/.* "));
+		Assert.assertEquals(BatchCriteria.REGEX_MATCH, regex.getCriteria());
+		Assert.assertEquals(Arrays.asList("Usage/committed", "Usage/init", "Usage/max", "Usage/used"), Arrays.asList(regex.select(server, on)));
+		Assert.assertSame("Selection was not cached", regex.select(server, on), regex.select(server, on));
+		Assert.assertSame("Selection was not shared", regex.select(server, on), regex.select(server, JMXHelper.objectName("test.batch:type=Sample,id=4")));
+		Assert.assertEquals(Arrays.asList("Name"), Arrays.asList(AttributeFilters.compile("t:String").select(server, on)));
+		Assert.assertEquals(Arrays.asList(AttributeFilters.compile("n:").select(server, on)), Arrays.asList(AttributeFilters.compile("t:Number").select(server, on)));
+		Assert.assertEquals(Arrays.asList("Count", "Name", "Usage"), Arrays.asList(AttributeFilters.compile("*:").select(server, on)));
+		Assert.assertEquals(Arrays.asList("Count", "Usage/used"), Arrays.asList(AttributeFilters.compile("a:Count,Usage/used,NoSuchAttribute").select(server, on)));
+		final Map<ObjectName, Map<String, Object>> values = regex.getAttributes(server, on, null, "r:Usage/.*");
+		Assert.assertEquals(4, values.get(on).size());
+		try {
+			AttributeFilters.compile("x:Count");
+			Assert.fail("Unrecognized filter was compiled");
+		} catch (RuntimeException rex) {/* Expected */}
+		final CompiledFilter names = AttributeFilters.compile("a:Count,Name");
+		final ObjectName on4 = JMXHelper.objectName("test.batch:type=Sample,id=4");
+		names.select(server, on);
+		names.select(server, on4);
+		Assert.assertEquals(1, names.getDistinctCount());
+		AttributeFilters.invalidate(on);
+		Assert.assertEquals("Shared selection was pruned", 1, names.getDistinctCount());
+		AttributeFilters.invalidate(on4);
+		Assert.assertEquals("Unused selection was not pruned", 0, names.getDistinctCount());
+		for(int i = 0; i < AttributeFilters.MAX_COMPILED_FILTERS * 2; i++) {
+			AttributeFilters.compile("a:Attribute" + i);
+		}
+		Assert.assertEquals(AttributeFilters.MAX_COMPILED_FILTERS, AttributeFilters.getCompiledFilterCount());
+	}
+	
+	/**
+	 * Tests "since token" delta reads
+	 */
+	@Test
+	public void testDeltaToken() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final ObjectName on = JMXHelper.objectName("test.batch:type=Sample,id=2");
+		final Map<ObjectName, Map<String, String>> criteria = Collections.singletonMap(on, Collections.singletonMap("Count", (String)null));
+		try {
+			DeltaResult full = service.batchGetAttributes(criteria, -1, 0);
+			Assert.assertTrue(full.isFull());
+			Assert.assertEquals(Collections.singletonMap(on, Collections.singletonMap("Count", 2L)), full.getValues());
+			DeltaResult unchanged = service.batchGetAttributes(criteria, -1, full.getToken());
+			Assert.assertFalse(unchanged.isFull());
+			Assert.assertTrue(unchanged.getValues().isEmpty());
+			Assert.assertTrue(full.getToken()!=unchanged.getToken());
+			samples[2].count = 1002;
+			DeltaResult changed = service.batchGetAttributes(criteria, -1, unchanged.getToken());
+			Assert.assertFalse(changed.isFull());
+			Assert.assertEquals(Collections.singletonMap(on, Collections.singletonMap("Count", 1002L)), changed.getValues());
+			DeltaResult stale = service.batchGetAttributes(criteria, -1, full.getToken());
+			Assert.assertTrue("Stale token was not resynced", stale.isFull());
+			Assert.assertEquals(Collections.singletonMap(on, Collections.singletonMap("Count", 1002L)), stale.getValues());
+		} finally {
+			samples[2].count = 2;
+		}
+	}
+	
+	/**
+	 * Tests that batches read the batched attributes of a {@link BatchedAttributeProvider} through the generated reader
+	 * and the other attributes through the MBeanServer
+	 */
+	@Test
+	public void testBatchedAttributeProvider() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final ObjectName on = JMXHelper.objectName("test.batch:type=Provided");
+		final AtomicInteger dispatched = new AtomicInteger(0);
+		final StandardMBean mbean = new StandardMBean(new Provided(), ProvidedMBean.class, false) {
+			@Override
+			public AttributeList getAttributes(String[] attributes) {
+				dispatched.addAndGet(attributes.length);
+				return super.getAttributes(attributes);
+			}
+		};
+		Assert.assertTrue(service.registerProvider(mbean, on));
+		try {
+			final Map<String, String> request = new HashMap<String, String>();
+			request.put("Count", null);
+			request.put("Name", null);
+			final Map<ObjectName, Map<String, Object>> values = service.batchGetAttributes(Collections.singletonMap(on, request));
+			Assert.assertEquals(42L, values.get(on).get("Count"));
+			Assert.assertEquals("Provided", values.get(on).get("Name"));
+			Assert.assertEquals("Only the unbatched attribute should be dispatched", 1, dispatched.get());
+		} finally {
+			JMXHelper.unregisterMBean(on);
+		}
+		Assert.assertNull(service.getProvider(on));
+	}
+	
+	/**
+	 * Tests that a provider class registered with different management interfaces gets a reader for each interface
+	 */
+	@Test
+	public void testProviderInterfaces() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final ObjectName narrow = JMXHelper.objectName("test.batch:type=Provided,view=narrow");
+		final ObjectName wide = JMXHelper.objectName("test.batch:type=Provided,view=wide");
+		final AtomicInteger dispatched = new AtomicInteger(0);
+		Assert.assertTrue(service.registerProvider(new StandardMBean(new Provided(), ProvidedMBean.class, false), narrow));
+		Assert.assertTrue(service.registerProvider(new StandardMBean(new Provided(), ProvidedTotalMBean.class, false) {
+			@Override
+			public AttributeList getAttributes(String[] attributes) {
+				dispatched.addAndGet(attributes.length);
+				return super.getAttributes(attributes);
+			}
+		}, wide));
+		try {
+			final Map<String, String> request = new HashMap<String, String>();
+			request.put("Count", null);
+			request.put("Total", null);
+			final Map<ObjectName, Map<String, Object>> values = service.batchGetAttributes(Collections.singletonMap(wide, request));
+			Assert.assertEquals(42L, values.get(wide).get("Count"));
+			Assert.assertEquals(84L, values.get(wide).get("Total"));
+			Assert.assertEquals("No attribute should be dispatched", 0, dispatched.get());
+			Assert.assertEquals(42L, service.batchGetAttributes(Collections.singletonMap(narrow, Collections.singletonMap("Count", (String)null))).get(narrow).get("Count"));
+		} finally {
+			JMXHelper.unregisterMBean(narrow);
+			JMXHelper.unregisterMBean(wide);
+		}
+	}
+	
+	/**
+	 * Tests server side flattening of numeric, composite and tabular attributes
+	 */
+	@Test
+	public void testFlatNumerics() {
+		final BatchAttributeService service = BatchAttributeService.getInstance();
+		final Map<ObjectName, Map<String, Number>> values = service.batchGetFlatNumerics(JMXHelper.objectName("test.batch:type=Sample,id=5"), -1);
+		final Map<String, Number> flat = values.get(JMXHelper.objectName("test.batch:type=Sample,id=5"));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("Count", "Usage/init", "Usage/used", "Usage/committed", "Usage/max")), flat.keySet());
+		Assert.assertEquals(5L, flat.get("Count"));
+		Assert.assertEquals(50L, flat.get("Usage/used"));
+		System.gc();
+		final ObjectName gcs = JMXHelper.objectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+		if(JMXHelper.getHeliosMBeanServer().queryNames(gcs, null).isEmpty()) return;
+		boolean tabular = false;
+		for(Map<String, Number> gc: service.batchGetFlatNumerics(gcs, -1).values()) {
+			Assert.assertTrue(gc.containsKey("CollectionCount"));
+			for(String path: gc.keySet()) {
+				if(path.startsWith("LastGcInfo/memoryUsageAfterGc/") && path.endsWith("/used")) tabular = true;
+			}
+		}
+		Assert.assertTrue("No tabular numerics were flattened", tabular);
+		final ColumnarResult columnar = service.batchGetFlatNumericsColumnar(gcs, -1);
+		Assert.assertEquals(0, columnar.getObjectCount());
+		Assert.assertTrue(columnar.getLongCount() > 0);
+	}
+	
+	
+	/**
+	 * <p>Title: SampleMXBean</p>
+	 * <p>Description: The sample MBean interface</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest.SampleMXBean</code></p>
+	 */
+	public static interface SampleMXBean {
+		/**
+		 * Returns the sample count
+		 * @return the sample count
+		 */
+		public long getCount();
+		/**
+		 * Returns the sample name
+		 * @return the sample name
+		 */
+		public String getName();
+		/**
+		 * Returns the sample usage
+		 * @return the sample usage
+		 */
+		public MemoryUsage getUsage();
+	}
+	
+	/**
+	 * <p>Title: Sample</p>
+	 * <p>Description: A sample MBean with an optionally slow count attribute</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest.Sample</code></p>
+	 */
+	public static class Sample implements SampleMXBean {
+		/** The sample id */
+		final long id;
+		/** The time in ms. to sleep when the count is read */
+		final long sleep;
+		/** The sample count */
+		volatile long count;
+		
+		/**
+		 * Creates a new Sample
+		 * @param id The sample id
+		 * @param sleep The time in ms. to sleep when the count is read
+		 */
+		Sample(long id, long sleep) {
+			this.id = id;
+			this.sleep = sleep;
+			count = id;
+		}
+		
+		@Override
+		public long getCount() {
+			if(sleep > 0) {
+				try { Thread.sleep(sleep); } catch (InterruptedException iex) { Thread.currentThread().interrupt(); }
+			}
+			return count;
+		}
+		
+		@Override
+		public String getName() {
+			return "Sample#" + id;
+		}
+		
+		@Override
+		public MemoryUsage getUsage() {
+			return new MemoryUsage(0, id * 10, id * 100, id * 1000);
+		}
+	}
+	
+	/**
+	 * <p>Title: ProvidedMBean</p>
+	 * <p>Description: The management interface of {@link Provided}</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest.ProvidedMBean</code></p>
+	 */
+	public static interface ProvidedMBean {
+		/**
+		 * Returns the count
+		 * @return the count
+		 */
+		public long getCount();
+		/**
+		 * Returns the name
+		 * @return the name
+		 */
+		public String getName();
+	}
+	
+	/**
+	 * <p>Title: ProvidedTotalMBean</p>
+	 * <p>Description: A management interface of {@link Provided} exposing its batched attributes only</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest.ProvidedTotalMBean</code></p>
+	 */
+	public static interface ProvidedTotalMBean {
+		/**
+		 * Returns the count
+		 * @return the count
+		 */
+		public long getCount();
+		/**
+		 * Returns the total
+		 * @return the total
+		 */
+		public long getTotal();
+	}
+	
+	/**
+	 * <p>Title: Provided</p>
+	 * <p>Description: A sample MBean with batched attributes</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BatchAttributeServiceTest.Provided</code></p>
+	 */
+	public static class Provided implements ProvidedMBean, ProvidedTotalMBean {
+		@Override
+		@BatchedAttributeProvider
+		public long getCount() {
+			return 42L;
+		}
+		@Override
+		@BatchedAttributeProvider
+		public long getTotal() {
+			return 84L;
+		}
+		@Override
+		public String getName() {
+			return "Provided";
+		}
+	}
+}
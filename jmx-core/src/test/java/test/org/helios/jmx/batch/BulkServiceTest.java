@@ -0,0 +1,244 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.batch;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.helios.jmx.batch.BulkError;
+import org.helios.jmx.batch.BulkResult;
+import org.helios.jmx.batch.BulkService;
+import org.helios.jmx.batch.ColumnarResult;
+import org.helios.jmx.concurrency.JMXManagedThreadPool;
+import org.helios.jmx.util.helpers.JMXHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: BulkServiceTest</p>
+ * <p>Description: Tests for {@link BulkService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.batch.BulkServiceTest</code></p>
+ */
+
+public class BulkServiceTest extends BaseTest {
+	/** The ObjectName of an MBean that is not registered */
+	static final ObjectName MISSING = JMXHelper.objectName("test.bulk:type=Missing");
+	
+	/**
+	 * Tests bulk attribute reads with failed targets and attributes
+	 */
+	@Test
+	public void testBulkGetAttributes() {
+		final BulkService service = new BulkService();
+		final ObjectName memory = JMXHelper.objectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+		final ObjectName gcs = JMXHelper.objectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+		final int gcCount = JMXHelper.getHeliosMBeanServer().queryNames(gcs, null).size();
+		final BulkResult<HashMap<String, Object>> result = service.bulkGetAttributes(Arrays.asList("HeapMemoryUsage", "CollectionCount", "Verbose"), -1, memory, gcs, MISSING);
+		Assert.assertEquals(gcCount + 1, result.getValues().size());
+		Assert.assertTrue(result.getValues().get(memory).containsKey("HeapMemoryUsage"));
+		Assert.assertTrue(result.getValues().get(memory).containsKey("Verbose"));
+		Assert.assertFalse(result.getValues().containsKey(MISSING));
+		int missingAttributes = 0, missingTargets = 0;
+		for(BulkError error: result.getErrors()) {
+			if(MISSING.equals(error.getObjectName())) {
+				Assert.assertNull(error.getAttribute());
+				Assert.assertEquals(InstanceNotFoundException.class.getName(), error.getErrorClass());
+				missingTargets++;
+			} else {
+				Assert.assertEquals(AttributeNotFoundException.class.getName(), error.getErrorClass());
+				missingAttributes++;
+			}
+		}
+		Assert.assertEquals(1, missingTargets);
+		// Memory has no CollectionCount and the collectors have no HeapMemoryUsage or Verbose 
+		Assert.assertEquals(1 + gcCount*2, missingAttributes);
+		Assert.assertEquals(gcCount + 1, service.getAttributes(Arrays.asList("HeapMemoryUsage", "CollectionCount"), memory, gcs, MISSING).size());
+		final ColumnarResult columnar = service.getAttributesColumnar(Arrays.asList("HeapMemoryUsage", "CollectionCount", "Verbose"), memory, gcs, MISSING);
+		Assert.assertEquals(gcCount + 1, columnar.getObjectNameCount());
+		Assert.assertEquals(result.getErrors().size(), columnar.getErrors().size());
+	}
+	
+	/**
+	 * Tests that a bulk read of more targets than the pool can read within the timeout returns at the timeout, 
+	 * reporting every target it did not read as timed out
+	 */
+	@Test
+	public void testBulkTimeout() {
+		final BulkService service = new BulkService();
+		final ObjectName slow = JMXHelper.objectName("test.bulk:type=Slow,*");
+		final int targets = 64;
+		for(int i = 0; i < targets; i++) {
+			JMXHelper.registerMBean(new StandardMBean(new BatchAttributeServiceTest.Sample(i, 100), BatchAttributeServiceTest.SampleMXBean.class, true), JMXHelper.objectName("test.bulk:type=Slow,id=" + i));
+		}
+		try {
+			final long start = System.currentTimeMillis();
+			final BulkResult<HashMap<String, Object>> result = service.bulkGetAttributes(Arrays.asList("Count"), 500, slow);
+			final long elapsed = System.currentTimeMillis() - start;
+			Assert.assertTrue("Bulk read took [" + elapsed + "] ms", elapsed < 2000);
+			int timeouts = 0;
+			for(BulkError error: result.getErrors()) {
+				Assert.assertTrue(error.isTimeout());
+				Assert.assertFalse(result.getValues().containsKey(error.getObjectName()));
+				timeouts++;
+			}
+			Assert.assertTrue("No targets timed out", timeouts > 0);
+			Assert.assertEquals(targets, result.getValues().size() + timeouts);
+		} finally {
+			for(ObjectName on: JMXHelper.query(slow)) {
+				JMXHelper.unregisterMBean(on);
+			}
+		}
+	}
+	
+	/**
+	 * Tests that chunks rejected by a saturated pool are reported as timed out rather than run by the calling thread
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSaturatedPool() throws Exception {
+		final JMXManagedThreadPool pool = PoolAccess.pool();
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Thread caller = Thread.currentThread();
+		final Runnable blocker = new Runnable() {
+			@Override
+			public void run() {
+				if(Thread.currentThread()==caller) return;
+				try { latch.await(10, TimeUnit.SECONDS); } catch (InterruptedException iex) { /* No Op */ }
+			}
+		};
+		final int slots = pool.getMaximumPoolSize() + pool.getQueue().remainingCapacity() + pool.getQueue().size();
+		try {
+			boolean saturated = false;
+			for(int i = 0; i <= slots && !saturated; i++) {
+				try {
+					pool.submit(blocker);
+				} catch (RejectedExecutionException rex) {
+					saturated = true;
+				}
+			}
+			Assert.assertTrue("Pool was not saturated", saturated);
+			final ObjectName memory = JMXHelper.objectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+			final BulkResult<HashMap<String, Object>> result = new BulkService().bulkGetAttributes(Arrays.asList("HeapMemoryUsage"), 300, memory);
+			Assert.assertTrue(result.getValues().isEmpty());
+			Assert.assertEquals(1, result.getErrors().size());
+			Assert.assertTrue(result.getErrors().get(0).isTimeout());
+		} finally {
+			pool.getQueue().clear();
+			latch.countDown();
+		}
+	}
+	
+	/**
+	 * Tests bulk operation invocation with a failed target
+	 */
+	@Test
+	public void testBulkInvoke() {
+		final BulkService service = new BulkService();
+		final ObjectName memory = JMXHelper.objectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+		final BulkResult<Object> result = service.bulkInvoke(new ObjectName[]{memory, MISSING}, "gc", new Object[0], new String[0], 2000);
+		Assert.assertTrue(result.getValues().containsKey(memory));
+		Assert.assertEquals(1, result.getErrors().size());
+		Assert.assertEquals(MISSING, result.getErrors().get(0).getObjectName());
+		Assert.assertFalse(result.getErrors().get(0).isTimeout());
+	}
+	
+	/**
+	 * Tests that the columnar encoding decodes to the original values and serializes smaller
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testColumnarResult() throws Exception {
+		final HashMap<ObjectName, HashMap<String, Object>> values = new HashMap<ObjectName, HashMap<String, Object>>();
+		for(int i = 0; i < 100; i++) {
+			final HashMap<String, Object> attrs = new HashMap<String, Object>();
+			attrs.put("Count", (long)i);
+			attrs.put("Threads", i);
+			attrs.put("Rate", i/3d);
+			attrs.put("Ratio", i/7f);
+			attrs.put("Name", "Sample#" + i);
+			attrs.put("Enabled", i%2==0);
+			values.put(JMXHelper.objectName("test.bulk:type=Sample,id=" + i), attrs);
+		}
+		final ColumnarResult columnar = ColumnarResult.encode(values);
+		Assert.assertEquals(100, columnar.getObjectNameCount());
+		Assert.assertEquals(6, columnar.getAttributeNameCount());
+		Assert.assertEquals(200, columnar.getLongCount());
+		Assert.assertEquals(200, columnar.getDoubleCount());
+		Assert.assertEquals(200, columnar.getObjectCount());
+		final byte[] bytes = serialize(columnar);
+		Assert.assertTrue("Columnar result was not smaller", bytes.length < serialize(values).length);
+		final ColumnarResult decoded = (ColumnarResult)new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+		Assert.assertEquals(values, decoded.decode());
+		Assert.assertTrue(decoded.getErrors().isEmpty());
+	}
+	
+	/**
+	 * <p>Title: PoolAccess</p>
+	 * <p>Description: Exposes the bulk service thread pool to the tests</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.batch.BulkServiceTest.PoolAccess</code></p>
+	 */
+	static class PoolAccess extends BulkService {
+		/**
+		 * Returns the bulk service thread pool
+		 * @return the bulk service thread pool
+		 */
+		static JMXManagedThreadPool pool() {
+			return threadPool();
+		}
+	}
+	
+	/**
+	 * Serializes the passed object
+	 * @param obj The object to serialize
+	 * @return the serialized bytes
+	 * @throws Exception thrown on any error
+	 */
+	static byte[] serialize(Object obj) throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(obj);
+		oos.close();
+		return baos.toByteArray();
+	}
+}
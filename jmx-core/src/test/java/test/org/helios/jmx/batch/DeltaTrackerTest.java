@@ -0,0 +1,107 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.batch;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.helios.jmx.batch.DeltaResult;
+import org.helios.jmx.batch.DeltaTracker;
+import org.helios.jmx.batch.DeltaTracker.DeltaState;
+import org.helios.jmx.util.helpers.JMXHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: DeltaTrackerTest</p>
+ * <p>Description: Tests for {@link DeltaTracker}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.batch.DeltaTrackerTest</code></p>
+ */
+
+public class DeltaTrackerTest extends BaseTest {
+	/** The values read by the tests */
+	static final Map<ObjectName, Map<String, Object>> VALUES = Collections.singletonMap(JMXHelper.objectName("test.delta:type=Sample"), Collections.<String, Object>singletonMap("Count", 1L));
+
+	/**
+	 * Verifies that reads without a token do not grow the reader states past the maximum, 
+	 * and that the least recently used state is discarded to make room
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testMaxStates() throws Exception {
+		final DeltaTracker tracker = new DeltaTracker(600000L, 2);
+		final DeltaResult first = tracker.delta(DeltaTracker.NO_TOKEN, VALUES);
+		Thread.sleep(5);
+		final DeltaResult second = tracker.delta(DeltaTracker.NO_TOKEN, VALUES);
+		Thread.sleep(5);
+		for(int i = 0; i < 100; i++) {
+			tracker.delta(DeltaTracker.NO_TOKEN, VALUES);
+		}
+		Assert.assertEquals(2, tracker.getStateCount());
+		Assert.assertTrue("Discarded state was not resynced", tracker.delta(first.getToken(), VALUES).isFull());
+		Assert.assertTrue("Discarded state was not resynced", tracker.delta(second.getToken(), VALUES).isFull());
+		Assert.assertEquals(2, tracker.getStateCount());
+	}
+
+	/**
+	 * Verifies that expired reader states are discarded
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testExpiry() throws Exception {
+		final DeltaTracker tracker = new DeltaTracker(50L, 100);
+		final DeltaResult first = tracker.delta(DeltaTracker.NO_TOKEN, VALUES);
+		Assert.assertFalse(tracker.delta(first.getToken(), VALUES).isFull());
+		Thread.sleep(100);
+		tracker.delta(DeltaTracker.NO_TOKEN, VALUES);
+		Assert.assertEquals(1, tracker.getStateCount());
+		Assert.assertTrue("Expired state was not resynced", tracker.delta(first.getToken(), VALUES).isFull());
+	}
+
+	/**
+	 * Verifies that closing a state frees its table, and that closing it again has no effect
+	 */
+	@Test
+	public void testCloseState() {
+		final DeltaState state = new DeltaState();
+		Assert.assertEquals(1, state.delta(VALUES).size());
+		Assert.assertTrue(state.delta(VALUES).isEmpty());
+		state.close();
+		Assert.assertTrue(state.isClosed());
+		state.close();
+		try {
+			state.delta(VALUES);
+			Assert.fail("Delta of closed state should have failed");
+		} catch (IllegalStateException iex) {
+			/* No Op */
+		}
+	}
+}
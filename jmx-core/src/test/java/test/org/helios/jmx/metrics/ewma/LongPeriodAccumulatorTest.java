@@ -0,0 +1,195 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.metrics.ewma;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.helios.jmx.metrics.ewma.LongPeriodAccumulator;
+import org.helios.jmx.metrics.ewma.LongPeriodAccumulator.DrainedPeriod;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: LongPeriodAccumulatorTest</p>
+ * <p>Description: Tests for {@link LongPeriodAccumulator}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.metrics.ewma.LongPeriodAccumulatorTest</code></p>
+ */
+
+public class LongPeriodAccumulatorTest extends BaseTest {
+
+	/**
+	 * Verifies that the min, max and sum header values track appends and are reset on clear
+	 */
+	@Test
+	public void testHeaderStats() {
+		final LongPeriodAccumulator lpa = new LongPeriodAccumulator(4, 4, 64, true);
+		Assert.assertEquals(-1L, lpa.getMin());
+		Assert.assertEquals(-1L, lpa.getMax());
+		Assert.assertEquals(-1L, lpa.getMean());
+		final long[] values = {7, -3, 42, 0, 19, 5, 11, -8, 30};
+		long sum = 0;
+		for(int i = 0; i < values.length; i++) {
+			Assert.assertEquals(i, lpa.append(values[i]));
+			sum += values[i];
+		}
+		Assert.assertEquals(values.length, lpa.getSize());
+		Assert.assertTrue(lpa.getCapacity() > 4);
+		Assert.assertEquals(-8L, lpa.getMin());
+		Assert.assertEquals(42L, lpa.getMax());
+		Assert.assertEquals(sum, lpa.getSum());
+		Assert.assertEquals(sum / values.length, lpa.getMean());
+		lpa.clear();
+		Assert.assertEquals(0, lpa.getSize());
+		Assert.assertEquals(4, lpa.getCapacity());
+		Assert.assertEquals(0L, lpa.getSum());
+		Assert.assertEquals(-1L, lpa.getMin());
+		lpa.append(100);
+		Assert.assertEquals(100L, lpa.getMin());
+		Assert.assertEquals(100L, lpa.getMax());
+	}
+
+	/**
+	 * Verifies the quickselect percentile against a sorted copy of the values
+	 */
+	@Test
+	public void testPercentile() {
+		final Random r = new Random(23);
+		final LongPeriodAccumulator lpa = new LongPeriodAccumulator(128, 128, 1024, false);
+		final long[] values = new long[1000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = r.nextInt(10000);
+			lpa.append(values[i]);
+		}
+		final long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for(int p: new int[]{1, 25, 50, 90, 99, 100}) {
+			final int rank = Math.max(0, (int)Math.ceil((p / 100d) * sorted.length) - 1);
+			Assert.assertEquals("p" + p, sorted[rank], lpa.getPercentile(p));
+		}
+		// selection reorders the buffer in place but keeps every value
+		final long[] after = lpa.toArray();
+		Arrays.sort(after);
+		Assert.assertArrayEquals(sorted, after);
+		Assert.assertEquals(sorted[0], lpa.getMin());
+		Assert.assertEquals(sorted[sorted.length-1], lpa.getMax());
+		try {
+			lpa.getPercentile(0);
+			Assert.fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+	/**
+	 * Verifies the ranged toArray variants and their range checks
+	 */
+	@Test
+	public void testToArrayRanges() {
+		final LongPeriodAccumulator lpa = new LongPeriodAccumulator(8, 8, 64, false);
+		for(long i = 0; i < 20; i++) lpa.append(i * 10);
+		Assert.assertArrayEquals(new long[]{30, 40, 50}, lpa.toArray(3, 6));
+		Assert.assertEquals(0, lpa.toArray(5, 5).length);
+		final long[] target = new long[6];
+		Assert.assertEquals(4, lpa.toArray(target, 2, 16, 20));
+		Assert.assertArrayEquals(new long[]{0, 0, 160, 170, 180, 190}, target);
+		try {
+			lpa.toArray(15, 21);
+			Assert.fail("Expected IllegalArgumentException for end beyond size");
+		} catch (IllegalArgumentException expected) {}
+		try {
+			lpa.toArray(6, 3);
+			Assert.fail("Expected IllegalArgumentException for inverted range");
+		} catch (IllegalArgumentException expected) {}
+		try {
+			lpa.toArray(target, 4, 0, 3);
+			Assert.fail("Expected IllegalArgumentException for undersized target");
+		} catch (IllegalArgumentException expected) {}
+	}
+
+	/**
+	 * Verifies that a drain hands over the period's values and invalidates the previous drained view
+	 */
+	@Test
+	public void testDrain() {
+		final LongPeriodAccumulator lpa = new LongPeriodAccumulator(4, 4, 64, true, true);
+		Assert.assertTrue(lpa.isDoubleBuffered());
+		for(long i = 1; i <= 10; i++) lpa.append(i);
+		final DrainedPeriod first = lpa.drain();
+		Assert.assertTrue(first.isValid());
+		Assert.assertEquals(10, first.getSize());
+		Assert.assertEquals(1L, first.getMin());
+		Assert.assertEquals(10L, first.getMax());
+		Assert.assertEquals(55L, first.getSum());
+		Assert.assertEquals(10L, first.getPercentile(100));
+		Assert.assertArrayEquals(new long[]{4, 5, 6}, Arrays.copyOfRange(first.toArray(), 3, 6));
+		Assert.assertEquals(0, lpa.getSize());
+		Assert.assertEquals(-1L, lpa.getMin());
+		lpa.append(99);
+		// appends after the drain do not leak into the drained view
+		Assert.assertEquals(10, first.getSize());
+		final DrainedPeriod second = lpa.drain();
+		Assert.assertFalse(first.isValid());
+		Assert.assertTrue(second.isValid());
+		try {
+			first.getSize();
+			Assert.fail("Expected IllegalStateException for a recycled DrainedPeriod");
+		} catch (IllegalStateException expected) {}
+		Assert.assertEquals(1, second.getSize());
+		Assert.assertEquals(99L, second.getSum());
+		// the recycled buffer was reset and shrunk on the way back to active
+		Assert.assertEquals(4, lpa.getCapacity());
+		Assert.assertEquals(0, lpa.getSize());
+	}
+
+	/**
+	 * Verifies that overruns are counted against the period they occurred in and carried with the drained buffer
+	 */
+	@Test
+	public void testOverrunCarryOver() {
+		final LongPeriodAccumulator lpa = new LongPeriodAccumulator(4, 4, 8, false, true);
+		for(long i = 0; i < 8; i++) Assert.assertTrue(lpa.append(i) >= 0);
+		Assert.assertEquals(-1, lpa.append(8));
+		Assert.assertEquals(-1, lpa.append(9));
+		Assert.assertEquals(2, lpa.getOverruns());
+		final DrainedPeriod drained = lpa.drain();
+		Assert.assertEquals(2, drained.getOverruns());
+		Assert.assertEquals(8, drained.getSize());
+		Assert.assertEquals(0, lpa.getOverruns());
+		Assert.assertTrue(lpa.append(10) >= 0);
+		Assert.assertEquals(0, lpa.getOverruns());
+		Assert.assertEquals(0, lpa.drain().getOverruns());
+	}
+
+	/**
+	 * Verifies that a single buffered accumulator rejects drains
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testDrainSingleBuffered() {
+		new LongPeriodAccumulator(4, 4, 8, false).drain();
+	}
+}
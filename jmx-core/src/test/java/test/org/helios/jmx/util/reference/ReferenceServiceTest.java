@@ -0,0 +1,136 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.reference;
+
+import java.lang.ref.PhantomReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.helios.jmx.util.reference.ReferenceService;
+import org.helios.jmx.util.reference.ReferenceTypeCountMBean;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: ReferenceServiceTest</p>
+ * <p>Description: Tests for the batched reference queue draining in {@link ReferenceService}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.reference.ReferenceServiceTest</code></p>
+ */
+
+public class ReferenceServiceTest extends BaseTest {
+
+	/**
+	 * Creates phantom references to new objects which are immediately unreachable
+	 * @param service The reference service
+	 * @param count The number of references to create
+	 * @param task The task to run when each is cleared
+	 * @return the references, which must be kept reachable until they are cleared
+	 */
+	private static List<PhantomReference<Object>> unreachable(ReferenceService service, int count, Runnable task) {
+		final List<PhantomReference<Object>> refs = new ArrayList<PhantomReference<Object>>(count);
+		for(int i = 0; i < count; i++) {
+			refs.add(service.newPhantomReference(new Object(), task));
+		}
+		return refs;
+	}
+
+	/**
+	 * Collects and drains until the passed counter reaches the expected count
+	 * @param service The reference service
+	 * @param counter The counter
+	 * @param expected The expected count
+	 * @throws Exception thrown on any error
+	 */
+	private static void awaitCleared(ReferenceService service, AtomicInteger counter, int expected) throws Exception {
+		final long deadline = System.currentTimeMillis() + 15000;
+		while(counter.get() < expected && System.currentTimeMillis() < deadline) {
+			System.gc();
+			service.drain();
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(expected, counter.get());
+	}
+
+	/**
+	 * Verifies that every cleared task runs, that batches never exceed the batch size, and that the batch and type stats are updated
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testBatchedDrain() throws Exception {
+		final ReferenceService service = ReferenceService.getInstance();
+		final int count = service.getBatchSize() * 3;
+		final long clearedBefore = service.getClearedRefCount();
+		final long batchesBefore = service.getBatchCount();
+		final AtomicInteger cleared = new AtomicInteger();
+		final List<PhantomReference<Object>> refs = unreachable(service, count, new Runnable() {
+			@Override
+			public void run() {
+				cleared.incrementAndGet();
+			}
+		});
+		awaitCleared(service, cleared, count);
+		Assert.assertEquals(count, refs.size());
+		Assert.assertTrue(service.getClearedRefCount() - clearedBefore >= count);
+		Assert.assertTrue(service.getBatchCount() - batchesBefore >= 3);
+		Assert.assertTrue(service.getMaxBatchSize() > 0);
+		Assert.assertTrue(service.getMaxBatchSize() <= service.getBatchSize());
+		Assert.assertTrue(service.getLastBatchSize() <= service.getBatchSize());
+		Assert.assertEquals(0, service.drain());
+		long typeCount = 0;
+		for(ReferenceTypeCountMBean rtc: service.getCountsByTypes()) {
+			if(rtc.getName().endsWith("PhantomReferenceWrapper")) typeCount += rtc.getLong();
+		}
+		Assert.assertTrue(typeCount >= count);
+	}
+
+	/**
+	 * Verifies that a failing cleared task is counted as an error and does not stop the rest of its batch
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFailingTask() throws Exception {
+		final ReferenceService service = ReferenceService.getInstance();
+		final long errorsBefore = service.getErrors();
+		final AtomicInteger cleared = new AtomicInteger();
+		final int count = 100;
+		final List<PhantomReference<Object>> refs = unreachable(service, count, new Runnable() {
+			@Override
+			public void run() {
+				if(cleared.incrementAndGet() % 10 == 0) throw new RuntimeException("Expected test failure");
+			}
+		});
+		awaitCleared(service, cleared, count);
+		Assert.assertEquals(count, refs.size());
+		// the error is counted just after the task throws, possibly on a pool thread
+		final long deadline = System.currentTimeMillis() + 5000;
+		while(service.getErrors() - errorsBefore < count / 10 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(count / 10, service.getErrors() - errorsBefore);
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.helios.jmx.util.unsafe.DeAllocTypeStats;
+import org.helios.jmx.util.unsafe.DeAllocateMe;
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.MemoryAllocationReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: DeAllocTypeStatsTest</p>
+ * <p>Description: Tests for {@link DeAllocTypeStats} and {@link UnsafeAdapter#getAllocationsByType()}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.DeAllocTypeStatsTest</code></p>
+ */
+
+public class DeAllocTypeStatsTest extends BaseTest {
+
+	/**
+	 * <p>Title: Block</p>
+	 * <p>Description: A deallocatable type only registered by this test</p> 
+	 * <p>Company: Helios Development Group LLC</p>
+	 * @author Whitehead (nwhitehead AT heliosdev DOT org)
+	 * <p><code>test.org.helios.jmx.util.unsafe.DeAllocTypeStatsTest.Block</code></p>
+	 */
+	static class Block implements DeAllocateMe {
+		/** The block address */
+		final long[][] address;
+
+		/**
+		 * Creates a new Block
+		 * @param size The number of bytes to allocate
+		 */
+		Block(long size) {
+			address = new long[][]{{UnsafeAdapter.allocateMemory(size)}};
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.jmx.util.unsafe.DeAllocateMe#getAddresses()
+		 */
+		@Override
+		public long[][] getAddresses() {
+			return address;
+		}
+	}
+
+	/**
+	 * Verifies the registration, deallocation and live counts of a type, and its row in the allocations by type table
+	 */
+	@Test
+	public void testCountsByType() {
+		final int count = 10, cleared = 4;
+		final MemoryAllocationReference[] refs = new MemoryAllocationReference[count];
+		final Block[] blocks = new Block[count];
+		for(int i = 0; i < count; i++) {
+			blocks[i] = new Block(128);
+			final List<MemoryAllocationReference> registered = UnsafeAdapter.registerForDeAlloc(blocks[i]);
+			Assert.assertEquals(1, registered.size());
+			refs[i] = registered.get(0);
+		}
+		for(int i = 0; i < cleared; i++) {
+			refs[i].clear();
+			Assert.assertEquals(0L, blocks[i].address[0][0]);
+		}
+		// clearing twice is not counted twice
+		refs[0].clear();
+		final DeAllocTypeStats stats = DeAllocTypeStats.getStats(Block.class);
+		Assert.assertSame(stats, DeAllocTypeStats.getStats(Block.class));
+		Assert.assertEquals(Block.class.getName(), stats.getTypeName());
+		Assert.assertEquals(count, stats.getRegistered());
+		Assert.assertEquals(cleared, stats.getCleared());
+
+		final TabularData table = UnsafeAdapter.getAllocationsByType();
+		final CompositeData row = table.get(new Object[]{Block.class.getName()});
+		Assert.assertNotNull(row);
+		Assert.assertEquals((long)count, row.get("Registered"));
+		Assert.assertEquals((long)cleared, row.get("Cleared"));
+		Assert.assertEquals((long)(count - cleared), row.get("Live"));
+		Assert.assertEquals(UnsafeAdapter.trackMem ? (count - cleared) * 128L : -1L, row.get("Memory"));
+		for(int i = cleared; i < count; i++) refs[i].clear();
+		Assert.assertEquals(0L, UnsafeAdapter.getAllocationsByType().get(new Object[]{Block.class.getName()}).get("Live"));
+	}
+}
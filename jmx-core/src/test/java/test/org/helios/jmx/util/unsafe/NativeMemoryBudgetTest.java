@@ -0,0 +1,124 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import java.lang.ref.PhantomReference;
+
+import org.helios.jmx.util.reference.ReferenceService;
+import org.helios.jmx.util.unsafe.NativeMemoryBudget;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: NativeMemoryBudgetTest</p>
+ * <p>Description: Tests for {@link NativeMemoryBudget}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.NativeMemoryBudgetTest</code></p>
+ */
+
+public class NativeMemoryBudgetTest extends BaseTest {
+
+	/**
+	 * Verifies that reservations are capped by the budget and that a zero wait fails fast
+	 */
+	@Test
+	public void testReserveAndFailFast() {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(1000L, 0L, 0L);
+		budget.reserve(600L);
+		Assert.assertEquals(600L, budget.getUsage());
+		Assert.assertFalse(budget.tryReserve(500L));
+		try {
+			budget.reserve(500L);
+			Assert.fail("Expected OutOfMemoryError");
+		} catch (OutOfMemoryError expected) {}
+		Assert.assertEquals(1L, budget.getWaits());
+		Assert.assertEquals(1L, budget.getFailures());
+		Assert.assertEquals(600L, budget.getUsage());
+		budget.release(600L);
+		budget.reserve(1000L);
+		Assert.assertEquals(1000L, budget.getUsage());
+		Assert.assertEquals(1L, budget.getWaits());
+	}
+
+	/**
+	 * Verifies that a reservation exceeding the budget waits for another thread to release memory
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWaitForRelease() throws Exception {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(1000L, 10000L, 0L);
+		budget.reserve(1000L);
+		final Thread releaser = new Thread("NativeMemoryBudgetReleaser") {
+			@Override
+			public void run() {
+				try { Thread.sleep(100); } catch (InterruptedException iex) { /* release now */ }
+				budget.release(400L);
+			}
+		};
+		final long start = System.currentTimeMillis();
+		releaser.start();
+		budget.reserve(300L);
+		Assert.assertTrue(System.currentTimeMillis() - start >= 90L);
+		releaser.join(5000);
+		Assert.assertEquals(900L, budget.getUsage());
+		Assert.assertEquals(1L, budget.getWaits());
+		Assert.assertEquals(0L, budget.getFailures());
+		Assert.assertEquals(0L, budget.getGcCalls());
+	}
+
+	/**
+	 * Verifies that a waiting reservation requests a gc and drains the reference queue, 
+	 * so memory owned by an unreachable object is released to it
+	 */
+	@Test
+	public void testGcRelief() {
+		final NativeMemoryBudget budget = new NativeMemoryBudget(1000L, 30000L, 1L);
+		budget.reserve(800L);
+		Object owner = new Object();
+		final PhantomReference<Object> ref = ReferenceService.getInstance().newPhantomReference(owner, new Runnable() {
+			@Override
+			public void run() {
+				budget.release(800L);
+			}
+		});
+		owner = null;
+		budget.reserve(500L);
+		Assert.assertNotNull(ref);
+		Assert.assertEquals(500L, budget.getUsage());
+		Assert.assertEquals(1L, budget.getWaits());
+		Assert.assertTrue(budget.getGcCalls() >= 1L);
+	}
+
+	/**
+	 * Verifies that a budget must be positive
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidBudget() {
+		new NativeMemoryBudget(0L, 0L, 0L);
+	}
+}
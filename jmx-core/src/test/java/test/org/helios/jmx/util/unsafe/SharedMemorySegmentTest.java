@@ -0,0 +1,101 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import java.io.File;
+
+import org.helios.jmx.util.unsafe.SharedMemorySegment;
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.DiskSpinLock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: SharedMemorySegmentTest</p>
+ * <p>Description: Tests for {@link SharedMemorySegment} and {@link DiskSpinLock}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.SharedMemorySegmentTest</code></p>
+ */
+
+public class SharedMemorySegmentTest extends BaseTest {
+
+	/**
+	 * Publishes through one mapping of a segment and reads through another
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testPublishAndCollect() throws Exception {
+		File f = File.createTempFile("SharedMemorySegmentTest", ".shm");
+		f.deleteOnExit();
+		f.delete();
+		SharedMemorySegment publisher = SharedMemorySegment.open(f, 4, 3);
+		SharedMemorySegment collector = SharedMemorySegment.open(f);
+		Assert.assertEquals(4, collector.getSlotCount());
+		Assert.assertEquals(3, collector.getWidth());
+		SharedMemorySegment.Slot slot = publisher.claim(77L);
+		slot.publish(1, 2, 3);
+		slot.set(2, 30);
+		long[] values = new long[3];
+		Assert.assertTrue(collector.read(slot.getIndex(), values) > 0);
+		Assert.assertArrayEquals(new long[]{1, 2, 30}, values);
+		Assert.assertEquals(77L, collector.getKey(slot.getIndex()));
+		Assert.assertEquals(UnsafeAdapter.JVM_PID, collector.getOwner(slot.getIndex()).pid);
+		publisher.close();
+		Assert.assertFalse(collector.isClaimed(slot.getIndex()));
+		Assert.assertEquals(-1L, collector.read(slot.getIndex(), values));
+		try {
+			SharedMemorySegment.open(f, 8, 3);
+			Assert.fail("Mismatched dimensions were accepted");
+		} catch (IllegalArgumentException iae) {/* expected */}
+	}
+
+	/**
+	 * Tests that a disk lock held by a thread that terminated is recovered
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testStaleOwnerRecovery() throws Exception {
+		final DiskSpinLock lock = UnsafeAdapter.allocateDiskSpinLock();
+		Thread t = new Thread() {
+			public void run() {
+				lock.xlock();
+			}
+		};
+		t.start();
+		t.join();
+		Assert.assertTrue(lock.isLocked());
+		Assert.assertFalse(lock.isLockedByMe());
+		Assert.assertEquals(t.getId(), lock.getOwner().threadId);
+		final long recoveries = DiskSpinLock.getStaleRecoveries();
+		lock.xlock();
+		Assert.assertTrue(lock.isLockedByMe());
+		Assert.assertEquals(recoveries + 1, DiskSpinLock.getStaleRecoveries());
+		lock.xunlock();
+		Assert.assertFalse(lock.isLocked());
+	}
+}
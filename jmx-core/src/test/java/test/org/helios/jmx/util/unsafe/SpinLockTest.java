@@ -0,0 +1,309 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.AdaptiveSpinLock;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.ReadWriteSpinLock;
+import org.helios.jmx.util.unsafe.UnsafeAdapter.SpinLock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: SpinLockTest</p>
+ * <p>Description: Tests for the unsafe spin locks</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.SpinLockTest</code></p>
+ */
+
+public class SpinLockTest extends BaseTest {
+	/** A counter only updated under a lock */
+	private long guarded = 0;
+
+	/**
+	 * Verifies that an adaptive spin lock excludes concurrent holders
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAdaptiveMutualExclusion() throws Exception {
+		final SpinLock lock = UnsafeAdapter.allocateAdaptiveSpinLock();
+		Assert.assertTrue(lock instanceof AdaptiveSpinLock);
+		final int threads = 4, loops = 20000;
+		guarded = 0;
+		final Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			workers[t] = new Thread("AdaptiveSpinLockWorker#" + t) {
+				@Override
+				public void run() {
+					for(int i = 0; i < loops; i++) {
+						lock.xlock();
+						try {
+							guarded++;
+						} finally {
+							lock.xunlock();
+						}
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for(Thread t: workers) t.join(30000);
+		Assert.assertEquals(threads * loops, guarded);
+		Assert.assertFalse(lock.isLocked());
+	}
+
+	/**
+	 * Verifies that an adaptive spin lock is reentrant for the owner and ignores unlocks from other threads
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAdaptiveOwnership() throws Exception {
+		final SpinLock lock = UnsafeAdapter.allocateAdaptiveSpinLock();
+		lock.xlock();
+		lock.xlock();
+		Assert.assertTrue(lock.isLockedByMe());
+		final boolean[] otherSawOwned = new boolean[1];
+		final Thread other = new Thread("AdaptiveSpinLockUnlocker") {
+			@Override
+			public void run() {
+				lock.xunlock();
+				otherSawOwned[0] = lock.isLocked() && !lock.isLockedByMe();
+			}
+		};
+		other.start();
+		other.join(5000);
+		Assert.assertTrue(otherSawOwned[0]);
+		Assert.assertTrue(lock.isLockedByMe());
+		lock.xunlock();
+		Assert.assertFalse(lock.isLocked());
+	}
+
+	/**
+	 * Verifies that a waiter that exhausts its spins parks, is unparked on unlock and is recorded in the wait histogram
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAdaptiveParkAndHistogram() throws Exception {
+		final AdaptiveSpinLock lock = (AdaptiveSpinLock)UnsafeAdapter.allocateAdaptiveSpinLock();
+		AdaptiveSpinLock.resetWaitHistogram();
+		final CountDownLatch acquired = new CountDownLatch(1);
+		lock.xlock();
+		final Thread waiter = new Thread("AdaptiveSpinLockWaiter") {
+			@Override
+			public void run() {
+				lock.xlock();
+				try {
+					acquired.countDown();
+				} finally {
+					lock.xunlock();
+				}
+			}
+		};
+		waiter.start();
+		final long deadline = System.currentTimeMillis() + 5000;
+		while(lock.getQueueLength()==0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(1, lock.getQueueLength());
+		Assert.assertEquals(1, acquired.getCount());
+		lock.xunlock();
+		Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		waiter.join(5000);
+		Assert.assertEquals(0, lock.getQueueLength());
+		Assert.assertEquals(1L, AdaptiveSpinLock.getContended());
+		Assert.assertEquals(1L, AdaptiveSpinLock.getParked());
+		final TabularData histogram = AdaptiveSpinLock.getWaitHistogram();
+		Assert.assertEquals(AdaptiveSpinLock.BUCKETS, histogram.size());
+		long total = 0;
+		for(Object row: histogram.values()) {
+			total += (Long)((CompositeData)row).get("Count");
+		}
+		Assert.assertEquals(1L, total);
+		AdaptiveSpinLock.resetWaitHistogram();
+		Assert.assertEquals(0L, AdaptiveSpinLock.getContended());
+		Assert.assertEquals(0L, AdaptiveSpinLock.getParked());
+	}
+
+	/**
+	 * Verifies that read locks are shared between threads and block the writer until released
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final ReadWriteSpinLock lock = UnsafeAdapter.allocateReadWriteSpinLock();
+		final CountDownLatch bothReading = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Thread[] readers = new Thread[2];
+		for(int t = 0; t < readers.length; t++) {
+			readers[t] = new Thread("ReadWriteSpinLockReader#" + t) {
+				@Override
+				public void run() {
+					lock.slock();
+					try {
+						bothReading.countDown();
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException iex) {
+						throw new RuntimeException(iex);
+					} finally {
+						lock.sunlock();
+					}
+				}
+			};
+			readers[t].start();
+		}
+		Assert.assertTrue(bothReading.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(2, lock.getReaders());
+		Assert.assertTrue(lock.isLocked());
+		Assert.assertFalse(UnsafeAdapter.rwiswlocked(lock.address()));
+		release.countDown();
+		for(Thread t: readers) t.join(5000);
+		Assert.assertEquals(0, lock.getReaders());
+		Assert.assertFalse(lock.isLocked());
+	}
+
+	/**
+	 * Verifies that the write lock excludes other writers and readers, and that nested reads by the writer do not block
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testExclusiveWriters() throws Exception {
+		final ReadWriteSpinLock lock = UnsafeAdapter.allocateReadWriteSpinLock();
+		final int threads = 4, loops = 5000;
+		guarded = 0;
+		final Thread[] writers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			writers[t] = new Thread("ReadWriteSpinLockWriter#" + t) {
+				@Override
+				public void run() {
+					for(int i = 0; i < loops; i++) {
+						lock.xlock();
+						try {
+							guarded++;
+						} finally {
+							lock.xunlock();
+						}
+					}
+				}
+			};
+			writers[t].start();
+		}
+		for(Thread t: writers) t.join(30000);
+		Assert.assertEquals(threads * loops, guarded);
+		lock.xlock();
+		try {
+			Assert.assertTrue(lock.isLockedByMe());
+			Assert.assertTrue(UnsafeAdapter.rwiswlocked(lock.address()));
+			lock.slock();
+			Assert.assertTrue(lock.isReadLockedByMe());
+			lock.sunlock();
+			Assert.assertFalse(UnsafeAdapter.tryslock(lock.address()));
+		} finally {
+			lock.xunlock();
+		}
+		Assert.assertFalse(lock.isLocked());
+	}
+
+	/**
+	 * Verifies that a waiting writer blocks new readers and acquires the lock before them once the current reader leaves
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWriterPreference() throws Exception {
+		final ReadWriteSpinLock lock = UnsafeAdapter.allocateReadWriteSpinLock();
+		final ConcurrentLinkedQueue<String> order = new ConcurrentLinkedQueue<String>();
+		lock.slock();
+		final Thread writer = new Thread("ReadWriteSpinLockWriter") {
+			@Override
+			public void run() {
+				lock.xlock();
+				try {
+					order.add("writer");
+				} finally {
+					lock.xunlock();
+				}
+			}
+		};
+		writer.start();
+		final long deadline = System.currentTimeMillis() + 5000;
+		while((UnsafeAdapter.getLong(lock.address()) & UnsafeAdapter.RW_WAITING_MASK)==0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+		Assert.assertEquals(UnsafeAdapter.RW_WRITER_WAITING, UnsafeAdapter.getLong(lock.address()) & UnsafeAdapter.RW_WAITING_MASK);
+		Assert.assertFalse(UnsafeAdapter.tryslock(lock.address()));
+		final Thread reader = new Thread("ReadWriteSpinLockLateReader") {
+			@Override
+			public void run() {
+				lock.slock();
+				try {
+					order.add("reader");
+				} finally {
+					lock.sunlock();
+				}
+			}
+		};
+		reader.start();
+		Thread.sleep(50);
+		Assert.assertTrue(order.isEmpty());
+		Assert.assertEquals(1, lock.getReaders());
+		lock.sunlock();
+		writer.join(5000);
+		reader.join(5000);
+		Assert.assertArrayEquals(new String[]{"writer", "reader"}, order.toArray(new String[0]));
+		Assert.assertFalse(lock.isLocked());
+	}
+
+	/**
+	 * Verifies that unlocking a read or write lock that is not held throws an {@link IllegalStateException}
+	 */
+	@Test
+	public void testUnbalancedUnlock() {
+		final ReadWriteSpinLock lock = UnsafeAdapter.allocateReadWriteSpinLock();
+		try {
+			lock.sunlock();
+			Assert.fail("Expected IllegalStateException for unheld read lock");
+		} catch (IllegalStateException expected) {}
+		try {
+			UnsafeAdapter.sunlock(lock.address());
+			Assert.fail("Expected IllegalStateException for unheld read lock word");
+		} catch (IllegalStateException expected) {}
+		try {
+			UnsafeAdapter.wunlock(lock.address());
+			Assert.fail("Expected IllegalStateException for unheld write lock word");
+		} catch (IllegalStateException expected) {}
+		lock.slock();
+		lock.sunlock();
+		try {
+			lock.sunlock();
+			Assert.fail("Expected IllegalStateException for over-released read lock");
+		} catch (IllegalStateException expected) {}
+		Assert.assertEquals(0, lock.getReaders());
+	}
+}
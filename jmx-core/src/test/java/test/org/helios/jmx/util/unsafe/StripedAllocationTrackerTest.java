@@ -0,0 +1,129 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import java.util.Map;
+
+import org.helios.jmx.util.unsafe.StripedAllocationTracker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: StripedAllocationTrackerTest</p>
+ * <p>Description: Tests for {@link StripedAllocationTracker}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.StripedAllocationTrackerTest</code></p>
+ */
+
+public class StripedAllocationTrackerTest extends BaseTest {
+
+	/**
+	 * Verifies the striped totals and lookups through stripe resizes, replacements and removals
+	 */
+	@Test
+	public void testAddRemove() {
+		final StripedAllocationTracker tracker = new StripedAllocationTracker(0);
+		final int count = 20000;
+		long bytes = 0, overhead = 0;
+		for(int i = 1; i <= count; i++) {
+			tracker.add(i * 64L, i, i % 8);
+			bytes += i;
+			overhead += i % 8;
+		}
+		Assert.assertEquals(count, tracker.getCount());
+		Assert.assertEquals(bytes, tracker.getBytes());
+		Assert.assertEquals(overhead, tracker.getOverhead());
+		// replacing an address adjusts the totals instead of adding an entry
+		tracker.add(64L, 100L, 0L);
+		Assert.assertEquals(count, tracker.getCount());
+		Assert.assertEquals(bytes - 1 + 100, tracker.getBytes());
+		Assert.assertEquals(overhead - 1, tracker.getOverhead());
+		tracker.add(64L, 1L, 1L);
+		for(int i = 1; i <= count; i += 2) {
+			Assert.assertEquals(i, tracker.remove(i * 64L));
+			bytes -= i;
+			overhead -= i % 8;
+		}
+		Assert.assertEquals(count / 2, tracker.getCount());
+		Assert.assertEquals(bytes, tracker.getBytes());
+		Assert.assertEquals(overhead, tracker.getOverhead());
+		// the survivors must still be reachable after the backward shifts
+		for(int i = 1; i <= count; i++) {
+			Assert.assertEquals(i % 2==0 ? i : -1L, tracker.sizeOf(i * 64L));
+		}
+		Assert.assertEquals(-1L, tracker.remove(64L));
+		Assert.assertEquals(-1L, tracker.remove(Long.MAX_VALUE));
+		Assert.assertTrue(tracker.getAllocationSites().isEmpty());
+	}
+
+	/**
+	 * Verifies that concurrent allocations on different threads keep exact totals
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentTotals() throws Exception {
+		final StripedAllocationTracker tracker = new StripedAllocationTracker(0);
+		final int threads = 4, perThread = 10000;
+		final Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			final long base = (t + 1) * 1000000000L;
+			workers[t] = new Thread("StripedAllocationTrackerWorker#" + t) {
+				@Override
+				public void run() {
+					for(int i = 0; i < perThread; i++) tracker.add(base + (i * 16L), 16L, 0L);
+					for(int i = 0; i < perThread; i += 2) tracker.remove(base + (i * 16L));
+				}
+			};
+			workers[t].start();
+		}
+		for(Thread t: workers) t.join(30000);
+		Assert.assertEquals(threads * perThread / 2, tracker.getCount());
+		Assert.assertEquals(threads * perThread / 2 * 16L, tracker.getBytes());
+	}
+
+	/**
+	 * Verifies that sampled allocations are attributed to the calling class and scaled by the sample rate
+	 */
+	@Test
+	public void testSampledSites() {
+		final StripedAllocationTracker tracker = new StripedAllocationTracker(1);
+		Assert.assertEquals(1, tracker.getSampleRate());
+		for(int i = 1; i <= 100; i++) tracker.add(i * 8L, 32L, 0L);
+		final Map<String, Long> sites = tracker.getAllocationSites();
+		Assert.assertEquals(1, sites.size());
+		Assert.assertEquals(Long.valueOf(3200L), sites.get(getClass().getName()));
+		tracker.resetAllocationSites();
+		Assert.assertTrue(tracker.getAllocationSites().isEmpty());
+		final StripedAllocationTracker sampled = new StripedAllocationTracker(16);
+		for(int i = 1; i <= 16000; i++) sampled.add(i * 8L, 10L, 0L);
+		final Long estimate = sampled.getAllocationSites().get(getClass().getName());
+		Assert.assertNotNull(estimate);
+		// the randomized intervals average the sample rate, so the estimate is close to the real 160000 bytes
+		Assert.assertTrue("Estimate: " + estimate, estimate > 120000L && estimate < 200000L);
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe;
+
+import org.helios.jmx.util.unsafe.UnsafeAdapter;
+import org.helios.jmx.util.unsafe.UnsafeArena;
+import org.helios.jmx.util.unsafe.collections.UnsafeArrayBuilder;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeArenaTest</p>
+ * <p>Description: Tests for {@link UnsafeArena}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.UnsafeArenaTest</code></p>
+ */
+
+public class UnsafeArenaTest extends BaseTest {
+
+	/**
+	 * Tests that allocations made in nested arenas are freed when each arena closes, and not before
+	 */
+	@Test
+	public void testNestedArenas() {
+		Assert.assertNull(UnsafeArena.current());
+		UnsafeLongArray outerArr, innerArr;
+		long raw;
+		try(UnsafeArena outer = UnsafeArena.open()) {
+			outerArr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{1, 2, 3});
+			raw = outer.allocate(64);
+			try(UnsafeArena inner = UnsafeArena.open()) {
+				Assert.assertSame(inner, UnsafeArena.current());
+				innerArr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{4, 5, 6});
+				innerArr.append(7);
+			}
+			Assert.assertSame(outer, UnsafeArena.current());
+			Assert.assertEquals(0L, innerArr.getAddresses()[0][0]);
+			Assert.assertTrue(outerArr.getAddresses()[0][0] > 0);
+			Assert.assertArrayEquals(new long[]{1, 2, 3}, outerArr.getArray());
+			UnsafeAdapter.putLong(raw, 42L);
+			Assert.assertEquals(42L, UnsafeAdapter.getLong(raw));
+			Assert.assertTrue(outer.size() >= 2);
+		}
+		Assert.assertNull(UnsafeArena.current());
+		Assert.assertEquals(0L, outerArr.getAddresses()[0][0]);
+	}
+
+	/**
+	 * Tests that allocations made outside an arena are not adopted
+	 */
+	@Test
+	public void testUnscoped() {
+		UnsafeLongArray arr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{1});
+		UnsafeArena arena = UnsafeArena.open();
+		arena.close();
+		Assert.assertTrue(arena.isClosed());
+		Assert.assertTrue(arr.getAddresses()[0][0] > 0);
+		Assert.assertEquals(1L, arr.get(0));
+	}
+
+	/**
+	 * Tests that a snapshot taken inside an arena stays readable after the arena closes, 
+	 * since closing the arena hands the shared block to the snapshot instead of freeing it
+	 */
+	@Test
+	public void testSnapshotOutlivesArena() {
+		UnsafeLongArray arr, snap;
+		try(UnsafeArena arena = UnsafeArena.open()) {
+			arr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{1, 2, 3});
+			snap = arr.snapshot();
+			Assert.assertEquals(1, arena.size());
+		}
+		Assert.assertEquals(0L, arr.getAddresses()[0][0]);
+		Assert.assertTrue(snap.getAddresses()[0][0] > 0);
+		// overwrite any memory the allocator may reuse from a wrongly freed block
+		final UnsafeLongArray other = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{-1, -1, -1});
+		Assert.assertArrayEquals(new long[]{1, 2, 3}, snap.getArray());
+		other.close();
+		snap.close();
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import java.util.TreeSet;
+
+import org.helios.jmx.util.unsafe.collections.ConcurrentLongSortedSet;
+import org.helios.jmx.util.unsafe.collections.LongSortedSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: LongSortedSetTest</p>
+ * <p>Description: Tests for batched adds into {@link LongSortedSet}s</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.LongSortedSetTest</code></p>
+ */
+
+public class LongSortedSetTest extends BaseTest {
+
+	/**
+	 * Merges random batches (with duplicates) into small sets and compares against a TreeSet
+	 */
+	@Test
+	public void testBatchMerge() {
+		for(int t = 0; t < 200; t++) {
+			LongSortedSet set = t%2==0 ? new LongSortedSet(1 + nextPosInt(5)) : new ConcurrentLongSortedSet(1 + nextPosInt(5));
+			TreeSet<Long> expected = new TreeSet<Long>();
+			for(int b = 0; b < 10; b++) {
+				long[] batch = new long[nextPosInt(40)];
+				for(int i = 0; i < batch.length; i++) batch[i] = nextPosInt(100) - 50;
+				int before = expected.size();
+				for(long v: batch) expected.add(v);
+				Assert.assertEquals("Added flag", expected.size()>before, set.add(batch));
+				Assert.assertEquals("Size", expected.size(), set.size());
+				int i = 0;
+				for(long v: expected) {
+					Assert.assertEquals("Value at [" + i + "]", v, set.get(i++));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds a batch that is entirely present already
+	 */
+	@Test
+	public void testBatchAllPresent() {
+		LongSortedSet set = new LongSortedSet(new long[]{1, 3, 5, 7});
+		Assert.assertFalse(set.add(7, 5, 3, 1, 1));
+		Assert.assertEquals(4, set.size());
+		Assert.assertTrue(set.add(7, 6, 0, 6));
+		Assert.assertArrayEquals(new long[]{0, 1, 3, 5, 6, 7}, set.asLongArray());
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import org.helios.jmx.util.unsafe.UnsafeArena;
+import org.helios.jmx.util.unsafe.collections.ConcurrentLongSortedSet;
+import org.helios.jmx.util.unsafe.collections.LongSlidingWindow;
+import org.helios.jmx.util.unsafe.collections.LongSortedSet;
+import org.helios.jmx.util.unsafe.collections.UnsafeArrayBuilder;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeArrayCloseTest</p>
+ * <p>Description: Tests for closing unsafe arrays and the collections built on them</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.UnsafeArrayCloseTest</code></p>
+ */
+
+public class UnsafeArrayCloseTest extends BaseTest {
+
+	/**
+	 * Verifies that closing an array frees it immediately, and that closing it again has no effect
+	 */
+	@Test
+	public void testClose() {
+		UnsafeLongArray arr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{1, 2, 3});
+		Assert.assertTrue(arr.check());
+		arr.close();
+		Assert.assertFalse(arr.check());
+		Assert.assertEquals(0L, arr.getAddresses()[0][0]);
+		arr.close();
+		try {
+			arr.get(0);
+			Assert.fail("Read of closed array should have failed");
+		} catch (IllegalStateException iex) {
+			/* No Op */
+		}
+	}
+
+	/**
+	 * Verifies that snapshots remain readable after the source array is closed
+	 */
+	@Test
+	public void testCloseShared() {
+		UnsafeLongArray arr = UnsafeArrayBuilder.newBuilder().buildLongArray(new long[]{1, 2, 3});
+		UnsafeLongArray snap = arr.snapshot();
+		arr.close();
+		Assert.assertFalse(arr.check());
+		Assert.assertArrayEquals(new long[]{1, 2, 3}, snap.getArray());
+		snap.close();
+		Assert.assertFalse(snap.check());
+	}
+
+	/**
+	 * Verifies that closing sliding windows and sorted sets frees their arrays, including within an arena
+	 */
+	@Test
+	public void testCloseCollections() {
+		try(UnsafeArena arena = UnsafeArena.open()) {
+			LongSlidingWindow lsw = new LongSlidingWindow(4, new long[]{1, 2});
+			LongSortedSet set = new ConcurrentLongSortedSet();
+			set.add(3L);
+			Assert.assertSame(arena, UnsafeArena.current());
+			// both collections' arrays were adopted by the arena
+			Assert.assertTrue(arena.size() >= 2);
+			try(LongSlidingWindow w = lsw; LongSortedSet s = set) {
+				Assert.assertEquals(2, w.size());
+				Assert.assertTrue(s.contains(3L));
+			}
+			Assert.assertEquals(0, set.size());
+			Assert.assertFalse(set.contains(3L));
+			Assert.assertEquals(0, lsw.size());
+		}
+		// closing the arena after the collections must not free their arrays again
+		Assert.assertNull(UnsafeArena.current());
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import org.helios.jmx.util.reference.ReferenceService;
+import org.helios.jmx.util.unsafe.collections.ConcurrentLongSlidingWindow;
+import org.helios.jmx.util.unsafe.collections.LongSlidingWindow;
+import org.helios.jmx.util.unsafe.collections.UnsafeArrayBuilder;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeArraySnapshotTest</p>
+ * <p>Description: Tests for copy-on-write {@link UnsafeLongArray} snapshots</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.UnsafeArraySnapshotTest</code></p>
+ */
+
+public class UnsafeArraySnapshotTest extends BaseTest {
+
+	/**
+	 * Verifies that a snapshot keeps its values after the source window is modified, and that snapshots are read only
+	 */
+	@Test
+	public void testSlidingWindowSnapshot() {
+		LongSlidingWindow lsw = new ConcurrentLongSlidingWindow(5, new long[]{1, 2, 3, 4, 5});
+		LongSlidingWindow snap = lsw.snapshot();
+		LongSlidingWindow snap2 = lsw.snapshot();
+		Assert.assertArrayEquals(lsw.asLongArray(), snap.asLongArray());
+		lsw.insert(6L);
+		Assert.assertArrayEquals(new long[]{6, 5, 4, 3, 2}, lsw.asLongArray());
+		Assert.assertArrayEquals(new long[]{5, 4, 3, 2, 1}, snap.asLongArray());
+		Assert.assertArrayEquals(new long[]{5, 4, 3, 2, 1}, snap2.asLongArray());
+		Assert.assertEquals(5, snap.percentile(100));
+		Assert.assertEquals(3, snap.percentile(50));
+		try {
+			snap.insert(7L);
+			Assert.fail("Snapshot insert should have failed");
+		} catch (UnsupportedOperationException uex) {
+			/* No Op */
+		}
+		LongSlidingWindow snap3 = lsw.snapshot();
+		lsw.clear();
+		Assert.assertEquals(0, lsw.size());
+		Assert.assertArrayEquals(new long[]{6, 5, 4, 3, 2}, snap3.asLongArray());
+	}
+	
+	/**
+	 * Verifies that a sorted array snapshot survives inserts which extend the source array
+	 */
+	@Test
+	public void testSortedArraySnapshot() {
+		UnsafeLongArray ula = UnsafeArrayBuilder.newBuilder().sorted(true).initialCapacity(2).buildLongArray();
+		ula.insert(10, 20);
+		UnsafeLongArray snap = ula.snapshot();
+		ula.insert(15, 5, 25);
+		Assert.assertArrayEquals(new long[]{5, 10, 15, 20, 25}, ula.getArray());
+		Assert.assertArrayEquals(new long[]{10, 20}, snap.getArray());
+		Assert.assertTrue(snap.isSnapshot());
+		Assert.assertFalse(snap.clone().isSnapshot());
+	}
+	
+	/**
+	 * Verifies that a write after every snapshot has been closed does not copy the block, 
+	 * and that a write while a snapshot is open does
+	 */
+	@Test
+	public void testWriteAfterClosedSnapshot() {
+		UnsafeLongArray ula = UnsafeArrayBuilder.newBuilder().initialCapacity(8).buildLongArray(new long[]{1, 2, 3});
+		final long address = ula.getAddresses()[0][0];
+		UnsafeLongArray snap = ula.snapshot();
+		UnsafeLongArray snap2 = snap.snapshot();
+		snap.close();
+		snap2.close();
+		ula.set(0, 7);
+		Assert.assertEquals("Write after closed snapshots reallocated", address, ula.getAddresses()[0][0]);
+		UnsafeLongArray open = ula.snapshot();
+		ula.set(0, 8);
+		Assert.assertTrue("Write with an open snapshot did not copy", address!=ula.getAddresses()[0][0]);
+		Assert.assertEquals(7, open.get(0));
+		Assert.assertEquals(8, ula.get(0));
+		open.close();
+		final long copied = ula.getAddresses()[0][0];
+		ula.set(0, 9);
+		Assert.assertEquals(copied, ula.getAddresses()[0][0]);
+		ula.close();
+	}
+	
+	/**
+	 * Verifies that a snapshot which is collected without being closed stops being counted, so writes stop copying
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testWriteAfterCollectedSnapshot() throws Exception {
+		UnsafeLongArray ula = UnsafeArrayBuilder.newBuilder().initialCapacity(8).buildLongArray(new long[]{1, 2, 3});
+		ula.snapshot();
+		boolean inPlace = false;
+		for(int i = 0; i < 50 && !inPlace; i++) {
+			System.gc();
+			Thread.sleep(10);
+			ReferenceService.getInstance().drain();
+			final long address = ula.getAddresses()[0][0];
+			ula.set(0, i);
+			inPlace = address==ula.getAddresses()[0][0];
+		}
+		Assert.assertTrue("Writes still copied after the snapshot was collected", inPlace);
+		ula.close();
+	}
+	
+	/**
+	 * Verifies that reading the statistics of a concurrent window does not leave snapshots which make the next insert copy
+	 */
+	@Test
+	public void testWindowStatsDoNotShare() {
+		ConcurrentLongSlidingWindow lsw = new ConcurrentLongSlidingWindow(5, new long[]{3, 1, 2});
+		final long[] before = lsw.asLongArray();
+		Assert.assertEquals(1, lsw.min());
+		Assert.assertEquals(3, lsw.max());
+		Assert.assertEquals(2, lsw.percentile(50));
+		Assert.assertArrayEquals("Reads reordered the window", before, lsw.asLongArray());
+		lsw.insert(4L);
+		Assert.assertEquals(4, lsw.max());
+		lsw.close();
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.helios.jmx.util.unsafe.collections.PartialArrayOverflowException;
+import org.helios.jmx.util.unsafe.collections.UnsafeArrayBuilder;
+import org.helios.jmx.util.unsafe.collections.UnsafeIntArray;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongArray;
+import org.helios.jmx.util.unsafe.collections.UnsafeShortArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeArrayTest</p>
+ * <p>Description: Tests for the slot size independent operations of {@link org.helios.jmx.util.unsafe.collections.UnsafeArray}, 
+ * run against arrays with different slot sizes</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.UnsafeArrayTest</code></p>
+ */
+
+public class UnsafeArrayTest extends BaseTest {
+
+	/**
+	 * Verifies that sorted arrays of each slot size load and merge their values, reallocating in allocation increments
+	 */
+	@Test
+	public void testSortedMerge() {
+		final Random r = new Random(17);
+		final int[] values = new int[1000];
+		for(int i = 0; i < values.length; i++) values[i] = r.nextInt(10000);
+		final int[] batch = new int[200];
+		for(int i = 0; i < batch.length; i++) batch[i] = 5000 + r.nextInt(10000);
+		final int[] expected = merged(values, batch);
+		final int added = expected.length - values.length;
+		final UnsafeArrayBuilder builder = UnsafeArrayBuilder.newBuilder().sorted(true).allocationIncrement(16);
+		try(UnsafeIntArray arr = builder.buildIntArray(values)) {
+			Assert.assertEquals(added, arr.insertIfNotExists(batch));
+			Assert.assertArrayEquals(expected, arr.getArray());
+			Assert.assertEquals(values.length + 16 * ((added + 15) / 16), arr.capacity());
+			for(int v: batch) Assert.assertTrue(arr.binarySearch(v) >= 0);
+		}
+		final short[] sv = new short[values.length], sb = new short[batch.length];
+		for(int i = 0; i < values.length; i++) sv[i] = (short)values[i];
+		for(int i = 0; i < batch.length; i++) sb[i] = (short)batch[i];
+		try(UnsafeShortArray arr = builder.buildShortArray(sv)) {
+			Assert.assertEquals(added, arr.insertIfNotExists(sb));
+			for(int i = 0; i < expected.length; i++) Assert.assertEquals(expected[i], arr.get(i));
+		}
+		final long[] lv = new long[values.length], lb = new long[batch.length];
+		for(int i = 0; i < values.length; i++) lv[i] = values[i];
+		for(int i = 0; i < batch.length; i++) lb[i] = batch[i];
+		try(UnsafeLongArray arr = builder.buildLongArray(lv)) {
+			Assert.assertEquals(added, arr.insertIfNotExists(lb));
+			for(int i = 0; i < expected.length; i++) Assert.assertEquals(expected[i], arr.get(i));
+		}
+	}
+
+	/**
+	 * Verifies that a merge beyond the max capacity falls back to single inserts and reports the values inserted
+	 */
+	@Test
+	public void testMergeOverflow() {
+		try(UnsafeIntArray arr = UnsafeArrayBuilder.newBuilder().sorted(true).fixed(true).initialCapacity(4).maxCapacity(4).buildIntArray()) {
+			arr.insert(10, 30);
+			try {
+				arr.insertIfNotExists(40, 20, 30, 50);
+				Assert.fail("Expected a PartialArrayOverflowException");
+			} catch (PartialArrayOverflowException pex) {
+				Assert.assertEquals(2, pex.getSucceeded());
+			}
+			Assert.assertArrayEquals(new int[]{10, 20, 30, 40}, arr.getArray());
+		}
+	}
+
+	/**
+	 * Verifies that appends of each slot size extend the capacity, and that only what fits is appended at the max capacity
+	 */
+	@Test
+	public void testAppend() {
+		final UnsafeArrayBuilder builder = UnsafeArrayBuilder.newBuilder().initialCapacity(2).allocationIncrement(2).maxCapacity(6);
+		try(UnsafeIntArray arr = builder.buildIntArray()) {
+			arr.append(3, 1, 2);
+			Assert.assertEquals(2, arr.appendWhatFits(4, 5, 6, 7, 8));
+			Assert.assertArrayEquals(new int[]{3, 1, 2, 4, 5, 6}, arr.getArray());
+		}
+		try(UnsafeShortArray arr = builder.buildShortArray()) {
+			arr.append((short)3, (short)1, (short)2);
+			Assert.assertEquals(2, arr.appendWhatFits((short)4, (short)5, (short)6, (short)7, (short)8));
+			Assert.assertArrayEquals(new short[]{3, 1, 2, 4, 5, 6}, arr.getArray());
+		}
+	}
+
+	/**
+	 * Verifies that fixed capacity arrays of each slot size roll right as a sliding window, and remove by rolling left
+	 */
+	@Test
+	public void testRollAndRemove() {
+		final UnsafeArrayBuilder builder = UnsafeArrayBuilder.newBuilder().fixed(true).initialCapacity(3).maxCapacity(3);
+		try(UnsafeIntArray arr = builder.buildIntArray()) {
+			Assert.assertNull(arr.rollRightCap(0, 1));
+			Assert.assertNull(arr.rollRightCap(0, 2));
+			Assert.assertNull(arr.rollRightCap(0, 3));
+			Assert.assertEquals(Integer.valueOf(1), arr.rollRightCap(0, 4));
+			Assert.assertArrayEquals(new int[]{4, 3, 2}, arr.getArray());
+			arr.set(1, 2);
+			Assert.assertEquals(2, arr.removeAll(2));
+			Assert.assertArrayEquals(new int[]{4}, arr.getArray());
+		}
+		try(UnsafeShortArray arr = builder.buildShortArray()) {
+			Assert.assertNull(arr.rollRightCap(0, (short)1));
+			Assert.assertNull(arr.rollRightCap(0, (short)2));
+			Assert.assertNull(arr.rollRightCap(0, (short)3));
+			Assert.assertEquals(Short.valueOf((short)1), arr.rollRightCap(0, (short)4));
+			Assert.assertArrayEquals(new short[]{4, 3, 2}, arr.getArray());
+			arr.set(1, (short)2);
+			Assert.assertEquals(1, arr.remove((short)2));
+			Assert.assertArrayEquals(new short[]{4, 2}, arr.getArray());
+		}
+	}
+
+	/**
+	 * Returns the sorted values with the batch values not already present merged in
+	 * @param values The loaded values, which may contain duplicates
+	 * @param batch The values to merge
+	 * @return the expected merged array
+	 */
+	private static int[] merged(int[] values, int[] batch) {
+		final TreeSet<Integer> present = new TreeSet<Integer>();
+		for(int v: values) present.add(v);
+		final TreeSet<Integer> added = new TreeSet<Integer>();
+		for(int v: batch) if(!present.contains(v)) added.add(v);
+		final int[] merged = Arrays.copyOf(values, values.length + added.size());
+		int i = values.length;
+		for(Integer v: added) merged[i++] = v;
+		Arrays.sort(merged);
+		return merged;
+	}
+}
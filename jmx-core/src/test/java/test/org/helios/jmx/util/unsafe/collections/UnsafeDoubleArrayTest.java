@@ -0,0 +1,115 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.helios.jmx.util.unsafe.collections.ConcurrentDoubleSlidingWindow;
+import org.helios.jmx.util.unsafe.collections.ConcurrentDoubleSortedSet;
+import org.helios.jmx.util.unsafe.collections.DoubleSlidingWindow;
+import org.helios.jmx.util.unsafe.collections.DoubleSortedSet;
+import org.helios.jmx.util.unsafe.collections.UnsafeArrayBuilder;
+import org.helios.jmx.util.unsafe.collections.UnsafeDoubleArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeDoubleArrayTest</p>
+ * <p>Description: Tests for {@link UnsafeDoubleArray} and the double sliding windows and sorted sets</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.UnsafeDoubleArrayTest</code></p>
+ */
+
+public class UnsafeDoubleArrayTest extends BaseTest {
+
+	/**
+	 * Verifies that a sorted array loads, inserts and searches in the order of {@link Arrays#sort(double[])}
+	 */
+	@Test
+	public void testSortedArray() {
+		final Random r = new Random(17);
+		final double[] values = new double[500];
+		for(int i = 0; i < values.length; i++) values[i] = r.nextGaussian() * 1000;
+		values[7] = -0.0d; values[9] = 0.0d; values[11] = Double.NaN;
+		try(UnsafeDoubleArray arr = UnsafeArrayBuilder.newBuilder().sorted(true).buildDoubleArray(values)) {
+			final double[] expected = values.clone();
+			Arrays.sort(expected);
+			Assert.assertArrayEquals(expected, arr.getArray(), 0d);
+			for(int i = 0; i < expected.length; i++) {
+				Assert.assertEquals(expected[i], arr.get(arr.binarySearch(expected[i])), 0d);
+			}
+			Assert.assertEquals(1, arr.insertIfNotExists(0.5d, expected[3]));
+			Assert.assertTrue(arr.binarySearch(0.5d) >= 0);
+			Assert.assertEquals(1, arr.remove(0.5d));
+			Assert.assertTrue(arr.binarySearch(0.5d) < 0);
+			Assert.assertArrayEquals(expected, arr.getArray(), 0d);
+		}
+	}
+
+	/**
+	 * Verifies that a sliding window drops the oldest value and computes its stats without conversion
+	 */
+	@Test
+	public void testSlidingWindow() {
+		DoubleSlidingWindow dsw = new ConcurrentDoubleSlidingWindow(4, new double[]{0.25d, 0.5d, 0.75d, 1.0d});
+		Assert.assertTrue(dsw.isFull());
+		Assert.assertEquals(0.25d, dsw.insert(1.25d), 0d);
+		Assert.assertArrayEquals(new double[]{1.25d, 1.0d, 0.75d, 0.5d}, dsw.asDoubleArray(), 0d);
+		Assert.assertEquals(3.5d, dsw.sum(), 0d);
+		Assert.assertEquals(0.875d, dsw.avg(), 0d);
+		Assert.assertEquals(0.5d, dsw.min(), 0d);
+		Assert.assertEquals(1.25d, dsw.max(), 0d);
+		Assert.assertEquals(0.75d, dsw.percentile(50), 0d);
+		DoubleSlidingWindow snap = dsw.snapshot();
+		Assert.assertFalse(snap instanceof ConcurrentDoubleSlidingWindow);
+		dsw.insert(2.0d);
+		Assert.assertArrayEquals(new double[]{1.25d, 1.0d, 0.75d, 0.5d}, snap.asDoubleArray(), 0d);
+		dsw.close();
+		Assert.assertEquals(0, dsw.size());
+	}
+
+	/**
+	 * Verifies that a sorted set keeps unique values in order
+	 */
+	@Test
+	public void testSortedSet() {
+		DoubleSortedSet set = new ConcurrentDoubleSortedSet(3.5d, 1.5d, 2.5d, 1.5d);
+		Assert.assertEquals(3, set.size());
+		Assert.assertFalse(set.add(2.5d));
+		Assert.assertTrue(set.add(0.5d, 2.5d, 4.5d));
+		Assert.assertArrayEquals(new double[]{0.5d, 1.5d, 2.5d, 3.5d, 4.5d}, set.asDoubleArray(), 0d);
+		Assert.assertTrue(set.contains(4.5d));
+		Assert.assertTrue(set.remove(1.5d));
+		Assert.assertFalse(set.contains(1.5d));
+		DoubleSortedSet copy = new DoubleSortedSet(set);
+		Assert.assertArrayEquals(set.asDoubleArray(), copy.asDoubleArray(), 0d);
+		copy.close();
+		set.close();
+	}
+}
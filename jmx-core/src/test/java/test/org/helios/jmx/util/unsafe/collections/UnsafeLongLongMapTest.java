@@ -0,0 +1,130 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2014, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package test.org.helios.jmx.util.unsafe.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.helios.jmx.util.unsafe.collections.ConcurrentUnsafeLongLongMap;
+import org.helios.jmx.util.unsafe.collections.UnsafeLongLongMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.org.helios.jmx.BaseTest;
+
+/**
+ * <p>Title: UnsafeLongLongMapTest</p>
+ * <p>Description: Tests for {@link UnsafeLongLongMap} and {@link ConcurrentUnsafeLongLongMap}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>test.org.helios.jmx.util.unsafe.collections.UnsafeLongLongMapTest</code></p>
+ */
+
+public class UnsafeLongLongMapTest extends BaseTest {
+
+	/**
+	 * Applies random puts and removes over a small key range (forcing collisions, resizes and backward shifts)
+	 * and compares against a HashMap
+	 */
+	@Test
+	public void testRandomPutRemove() {
+		UnsafeLongLongMap map = new UnsafeLongLongMap(2);
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		for(int i = 0; i < 20000; i++) {
+			long key = nextPosInt(500) - 250;
+			if(nextPosInt(3)==0) {
+				Long prior = expected.remove(key);
+				Assert.assertEquals("Remove [" + key + "]", prior==null ? map.noEntryValue() : prior.longValue(), map.remove(key));
+			} else {
+				long value = nextPosLong();
+				Long prior = expected.put(key, value);
+				Assert.assertEquals("Put [" + key + "]", prior==null ? map.noEntryValue() : prior.longValue(), map.put(key, value));
+			}
+			Assert.assertEquals("Size", expected.size(), map.size());
+		}
+		for(long key = -250; key < 250; key++) {
+			Long value = expected.get(key);
+			Assert.assertEquals("ContainsKey [" + key + "]", value!=null, map.containsKey(key));
+			Assert.assertEquals("Get [" + key + "]", value==null ? map.noEntryValue() : value.longValue(), map.get(key));
+		}
+		final Map<Long, Long> iterated = new HashMap<Long, Long>();
+		map.forEachEntry(new UnsafeLongLongMap.LongLongProcedure() {
+			@Override
+			public boolean execute(long key, long value) {
+				iterated.put(key, value);
+				return true;
+			}
+		});
+		Assert.assertEquals("Iterated entries", expected, iterated);
+		map.clear();
+		Assert.assertTrue(map.isEmpty());
+		Assert.assertEquals(map.noEntryValue(), map.get(0));
+	}
+
+	/**
+	 * Verifies that closing the map frees its table immediately, and that closing it again has no effect
+	 */
+	@Test
+	public void testClose() {
+		UnsafeLongLongMap map = new UnsafeLongLongMap();
+		map.put(1, 2);
+		map.close();
+		Assert.assertEquals(0L, map.getAddresses()[0][0]);
+		Assert.assertEquals(0, map.size());
+		map.close();
+		try {
+			map.get(1);
+			Assert.fail("Read of closed map should have failed");
+		} catch (IllegalStateException iex) {
+			/* No Op */
+		}
+	}
+
+	/**
+	 * Tests the striped map from several threads using adjustOrPut
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentAdjust() throws Exception {
+		final ConcurrentUnsafeLongLongMap map = new ConcurrentUnsafeLongLongMap(4);
+		final int threads = 4, loops = 10000, keys = 1000;
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					for(int i = 0; i < loops; i++) {
+						map.adjustOrPut(i % keys, 1);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for(Thread t: workers) t.join();
+		Assert.assertEquals(keys, map.size());
+		for(int k = 0; k < keys; k++) {
+			Assert.assertEquals("Count for [" + k + "]", threads * (loops / keys), map.get(k));
+		}
+	}
+}